@@ -43,6 +43,12 @@ public class AnimatedDrawableOptions {
    */
   public final boolean enableDebugging;
 
+  /**
+   * The maximum number of frames between two composited frames kept by the backend as
+   * checkpoints to render any frame from, or 0 to not keep checkpoints.
+   */
+  public final int checkpointInterval;
+
   /**
    * Creates {@link AnimatedDrawableOptions} with default options.
    */
@@ -51,6 +57,7 @@ public class AnimatedDrawableOptions {
     this.allowPrefetching = builder.getAllowPrefetching();
     this.maximumBytes = builder.getMaximumBytes();
     this.enableDebugging = builder.getEnableDebugging();
+    this.checkpointInterval = builder.getCheckpointInterval();
   }
 
   /**
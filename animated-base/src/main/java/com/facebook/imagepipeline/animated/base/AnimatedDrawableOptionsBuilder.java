@@ -18,6 +18,7 @@ public class AnimatedDrawableOptionsBuilder {
   private boolean mAllowPrefetching = true;
   private int mMaximumBytes = -1;
   private boolean mEnableDebugging;
+  private int mCheckpointInterval;
 
   /**
    * Gets whether all the rendered frames should be held in memory disregarding other constraints.
@@ -102,6 +103,30 @@ public class AnimatedDrawableOptionsBuilder {
     return this;
   }
 
+  /**
+   * Gets the maximum number of frames between two checkpoints.
+   *
+   * @return the maximum number of frames between two checkpoints or 0 for no checkpoints
+   */
+  public int getCheckpointInterval() {
+    return mCheckpointInterval;
+  }
+
+  /**
+   * Sets the maximum number of frames between two checkpoints. The backend then keeps a copy of
+   * a composited frame at least every that many frames, so that rendering a frame that depends on
+   * previous ones only needs to blend the frames since the closest checkpoint. This bounds the
+   * cost of seeking or restarting long animations at the cost of the memory of the checkpoints.
+   *
+   * @param checkpointInterval the maximum number of frames between two checkpoints or 0 for no
+   *     checkpoints
+   * @return this builder
+   */
+  public AnimatedDrawableOptionsBuilder setCheckpointInterval(int checkpointInterval) {
+    mCheckpointInterval = checkpointInterval;
+    return this;
+  }
+
   /**
    * Builds the immutable options instance.
    *
@@ -29,6 +29,7 @@ import com.facebook.imagepipeline.animated.impl.AnimatedDrawableBackendImpl;
 import com.facebook.imagepipeline.animated.impl.AnimatedDrawableBackendProvider;
 import com.facebook.imagepipeline.animated.impl.AnimatedDrawableCachingBackendImpl;
 import com.facebook.imagepipeline.animated.impl.AnimatedDrawableCachingBackendImplProvider;
+import com.facebook.imagepipeline.animated.impl.AnimatedDrawableMemoryBudget;
 import com.facebook.imagepipeline.animated.util.AnimatedDrawableUtil;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.core.ExecutorSupplier;
@@ -59,6 +60,7 @@ public class AnimatedFactoryImpl implements AnimatedFactory {
       final SerialExecutorService serialExecutorService,
       final ActivityManager activityManager,
       final AnimatedDrawableUtil animatedDrawableUtil,
+      final AnimatedDrawableMemoryBudget animatedDrawableMemoryBudget,
       AnimatedDrawableBackendProvider animatedDrawableBackendProvider,
       ScheduledExecutorService scheduledExecutorService,
       final MonotonicClock monotonicClock,
@@ -75,7 +77,8 @@ public class AnimatedFactoryImpl implements AnimatedFactory {
                 animatedDrawableUtil,
                 monotonicClock,
                 animatedDrawableBackend,
-                options);
+                options,
+                animatedDrawableMemoryBudget);
           }
         };
 
@@ -109,10 +112,18 @@ public class AnimatedFactoryImpl implements AnimatedFactory {
           new DefaultSerialExecutorService(mExecutorSupplier.forDecode());
       ActivityManager activityManager =
           (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+      // One budget for the frames of all the animations of this factory, each animation still
+      // being limited to what it used to get on its own
+      int maxBytes = AnimatedDrawableMemoryBudget.getDefaultMaxBytes(activityManager);
+      AnimatedDrawableMemoryBudget animatedDrawableMemoryBudget = new AnimatedDrawableMemoryBudget(
+          maxBytes,
+          AnimatedDrawableMemoryBudget.getDefaultMaxBytesPerAnimation(activityManager),
+          maxBytes / 4);
       mAnimatedDrawableFactory = buildAnimatedDrawableFactory(
           serialExecutorService,
           activityManager,
           getAnimatedDrawableUtil(),
+          animatedDrawableMemoryBudget,
           getAnimatedDrawableBackendProvider(),
           UiThreadImmediateExecutorService.getInstance(),
           RealtimeSinceBootClock.get(),
@@ -9,6 +9,7 @@
 
 package com.facebook.imagepipeline.animated.impl;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import java.util.ArrayList;
@@ -49,6 +50,11 @@ import bolts.Task;
 
 /**
  * A caching and prefetching layer that delegates to a {@link AnimatedDrawableBackend}.
+ *
+ * <p> If an {@link AnimatedDrawableMemoryBudget} is given and the options do not set the maximum
+ * bytes, the memory allowed for the frames is the share of the budget this animation gets while
+ * it is being drawn. The free bitmaps are then handed over to the budget when the caches are
+ * dropped, so that other animations of the same dimensions can reuse them.
  */
 public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawableBackend
     implements AnimatedDrawableCachingBackend {
@@ -67,9 +73,12 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
   private final AnimatedDrawableOptions mAnimatedDrawableOptions;
   private final AnimatedImageCompositor mAnimatedImageCompositor;
   private final ResourceReleaser<Bitmap> mResourceReleaserForBitmaps;
+  @Nullable
+  private final AnimatedDrawableMemoryBudget mMemoryBudget;
   private final double mMaximumKiloBytes;
 
   private final double mApproxKiloBytesToHoldAllFrames;
+  private final int mBytesToHoldAllFrames;
 
   @GuardedBy("this")
   private final List<Bitmap> mFreeBitmaps;
@@ -83,6 +92,9 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
   @GuardedBy("this")
   private final WhatToKeepCachedArray mBitmapsToKeepCached;
 
+  @GuardedBy("this")
+  private boolean mIsActiveInMemoryBudget;
+
   @GuardedBy("ui-thread")
   private int mCurrentFrameIndex;
 
@@ -93,6 +105,24 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
       MonotonicClock monotonicClock,
       AnimatedDrawableBackend animatedDrawableBackend,
       AnimatedDrawableOptions options) {
+    this(
+        executorService,
+        activityManager,
+        animatedDrawableUtil,
+        monotonicClock,
+        animatedDrawableBackend,
+        options,
+        null);
+  }
+
+  public AnimatedDrawableCachingBackendImpl(
+      SerialExecutorService executorService,
+      ActivityManager activityManager,
+      AnimatedDrawableUtil animatedDrawableUtil,
+      MonotonicClock monotonicClock,
+      AnimatedDrawableBackend animatedDrawableBackend,
+      AnimatedDrawableOptions options,
+      @Nullable AnimatedDrawableMemoryBudget memoryBudget) {
     super(animatedDrawableBackend);
     mExecutorService = executorService;
     mActivityManager = activityManager;
@@ -100,9 +130,11 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
     mMonotonicClock = monotonicClock;
     mAnimatedDrawableBackend = animatedDrawableBackend;
     mAnimatedDrawableOptions = options;
+    mMemoryBudget = options.maximumBytes >= 0 ? null : memoryBudget;
     mMaximumKiloBytes = options.maximumBytes >= 0 ?
         options.maximumBytes / ByteConstants.KB:
-        getDefaultMaxBytes(activityManager)/ ByteConstants.KB;
+        AnimatedDrawableMemoryBudget.getDefaultMaxBytesPerAnimation(activityManager)
+            / ByteConstants.KB;
     mAnimatedImageCompositor = new AnimatedImageCompositor(
         animatedDrawableBackend,
         new AnimatedImageCompositor.Callback() {
@@ -115,6 +147,13 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
           public CloseableReference<Bitmap> getCachedBitmap(int frameNumber) {
             return getCachedOrPredecodedFrame(frameNumber);
           }
+        },
+        options.checkpointInterval,
+        new AnimatedImageCompositor.CheckpointBitmapProvider() {
+          @Override
+          public CloseableReference<Bitmap> obtainCheckpointBitmap() {
+            return obtainCheckpointBitmapInternal();
+          }
         });
     mResourceReleaserForBitmaps = new ResourceReleaser<Bitmap>() {
       @Override
@@ -130,6 +169,8 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
         mAnimatedDrawableBackend.getRenderedWidth() *
         mAnimatedDrawableBackend.getRenderedHeight() / ByteConstants.KB *
         mAnimatedDrawableBackend.getFrameCount() * 4;
+    mBytesToHoldAllFrames =
+        (int) Math.min(mApproxKiloBytesToHoldAllFrames * ByteConstants.KB, Integer.MAX_VALUE);
   }
 
   @Override
@@ -140,9 +181,22 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
     }
     sTotalBitmaps.addAndGet(-mFreeBitmaps.size());
     mFreeBitmaps.clear();
+    if (mMemoryBudget != null) {
+      mMemoryBudget.onAnimationInactive(this);
+    }
   }
 
   private Bitmap createNewBitmap() {
+    if (mMemoryBudget != null) {
+      Bitmap bitmap = mMemoryBudget.getFreeBitmap(
+          mAnimatedDrawableBackend.getRenderedWidth(),
+          mAnimatedDrawableBackend.getRenderedHeight());
+      if (bitmap != null) {
+        FLog.v(TAG, "Reusing bitmap of another animation");
+        sTotalBitmaps.incrementAndGet();
+        return bitmap;
+      }
+    }
     FLog.v(TAG, "Creating new bitmap");
     sTotalBitmaps.incrementAndGet();
     FLog.v(TAG, "Total bitmaps: %d", sTotalBitmaps.get());
@@ -161,6 +215,7 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
   @Override
   public CloseableReference<Bitmap> getBitmapForFrame(int frameNumber) {
     mCurrentFrameIndex = frameNumber;
+    maybeJoinMemoryBudget();
     CloseableReference<Bitmap> result = getBitmapForFrameInternal(frameNumber, false);
     schedulePrefetches();
     return result;
@@ -174,6 +229,7 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
   @VisibleForTesting
   CloseableReference<Bitmap> getBitmapForFrameBlocking(int frameNumber) {
     mCurrentFrameIndex = frameNumber;
+    maybeJoinMemoryBudget();
     CloseableReference<Bitmap> result = getBitmapForFrameInternal(frameNumber, true);
     schedulePrefetches();
     return result;
@@ -191,18 +247,27 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
         mAnimatedDrawableUtil,
         mMonotonicClock,
         newBackend,
-        mAnimatedDrawableOptions);
+        mAnimatedDrawableOptions,
+        mMemoryBudget);
   }
 
   @Override
   public synchronized void dropCaches() {
     mBitmapsToKeepCached.setAll(false);
     dropBitmapsThatShouldNotBeCached();
+    // the bitmaps of the checkpoints go back to the free bitmaps
+    mAnimatedImageCompositor.dropCheckpoints();
     for (Bitmap freeBitmap : mFreeBitmaps) {
-      freeBitmap.recycle();
+      if (mMemoryBudget == null || !mMemoryBudget.offerFreeBitmap(freeBitmap)) {
+        freeBitmap.recycle();
+      }
       sTotalBitmaps.decrementAndGet();
     }
     mFreeBitmaps.clear();
+    if (mMemoryBudget != null && mIsActiveInMemoryBudget) {
+      mMemoryBudget.onAnimationInactive(this);
+      mIsActiveInMemoryBudget = false;
+    }
     mAnimatedDrawableBackend.dropCaches();
     FLog.v(TAG, "Total bitmaps: %d", sTotalBitmaps.get());
   }
@@ -219,6 +284,7 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
         bytes += mAnimatedDrawableUtil.getSizeOfBitmap(bitmapReference.get());
       }
     }
+    bytes += mAnimatedImageCompositor.getCheckpointsSizeInBytes();
     bytes += mAnimatedDrawableBackend.getMemoryUsage();
     return bytes;
   }
@@ -228,12 +294,12 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
     if (mAnimatedDrawableOptions.forceKeepAllFramesInMemory) {
       sb.append("Pinned To Memory");
     } else {
-      if (mApproxKiloBytesToHoldAllFrames < mMaximumKiloBytes) {
+      if (canKeepAllFramesInMemory()) {
         sb.append("within ");
       } else {
         sb.append("exceeds ");
       }
-      mAnimatedDrawableUtil.appendMemoryString(sb, (int) mMaximumKiloBytes);
+      mAnimatedDrawableUtil.appendMemoryString(sb, (int) getMaximumKiloBytes());
     }
     if (shouldKeepAllFramesInMemory() && mAnimatedDrawableOptions.allowPrefetching) {
       sb.append(" MT");
@@ -347,6 +413,27 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
     return CloseableReference.of(bitmap, mResourceReleaserForBitmaps);
   }
 
+  /**
+   * Gets a bitmap for a checkpoint of the compositor. The checkpoints share the memory the
+   * animation may use with the cached frames, so there is none once they would not fit anymore.
+   *
+   * @return the bitmap, or null if the checkpoint should not be kept
+   */
+  @Nullable
+  private CloseableReference<Bitmap> obtainCheckpointBitmapInternal() {
+    final int frameBytes = mAnimatedDrawableBackend.getRenderedWidth() *
+        mAnimatedDrawableBackend.getRenderedHeight() * 4;
+    long usedBytes;
+    synchronized (this) {
+      usedBytes = (long) mCachedBitmaps.size() * frameBytes;
+    }
+    usedBytes += mAnimatedImageCompositor.getCheckpointsSizeInBytes();
+    if (usedBytes + frameBytes > getMaximumKiloBytes() * ByteConstants.KB) {
+      return null;
+    }
+    return obtainBitmapInternal();
+  }
+
   synchronized void releaseBitmapInternal(Bitmap bitmap) {
     mFreeBitmaps.add(bitmap);
   }
@@ -382,21 +469,41 @@ public class AnimatedDrawableCachingBackendImpl extends DelegatingAnimatedDrawab
     }
   }
 
-  private static int getDefaultMaxBytes(ActivityManager activityManager) {
-    int memory = activityManager.getMemoryClass();
-    if (memory > 32) {
-      return 5 * 1024 * 1024;
-    } else {
-      return 3 * 1024 * 1024;
-    }
-  }
-
   private boolean shouldKeepAllFramesInMemory() {
     if (mAnimatedDrawableOptions.forceKeepAllFramesInMemory) {
       // This overrides everything.
       return true;
     }
-    return mApproxKiloBytesToHoldAllFrames < mMaximumKiloBytes;
+    return canKeepAllFramesInMemory();
+  }
+
+  private boolean canKeepAllFramesInMemory() {
+    if (mMemoryBudget == null) {
+      return mApproxKiloBytesToHoldAllFrames < mMaximumKiloBytes;
+    }
+    // the quota is at most the bytes registered to keep all the frames, so compare in bytes
+    return mMemoryBudget.getQuotaBytes(this) >= mBytesToHoldAllFrames;
+  }
+
+  private double getMaximumKiloBytes() {
+    if (mMemoryBudget == null) {
+      return mMaximumKiloBytes;
+    }
+    return mMemoryBudget.getQuotaBytes(this) / ByteConstants.KB;
+  }
+
+  /**
+   * Makes this animation take part in the memory budget, until its caches are dropped.
+   */
+  private synchronized void maybeJoinMemoryBudget() {
+    if (mMemoryBudget == null || mIsActiveInMemoryBudget) {
+      return;
+    }
+    int durationMs = mAnimatedDrawableBackend.getDurationMs();
+    int frameCount = mAnimatedDrawableBackend.getFrameCount();
+    double framesPerSecond = durationMs > 0 ? frameCount * 1000.0 / durationMs : frameCount;
+    mMemoryBudget.onAnimationActive(this, mBytesToHoldAllFrames, framesPerSecond);
+    mIsActiveInMemoryBudget = true;
   }
 
   private synchronized void doPrefetch(int startFrame, int count) {
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.animated.impl;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.app.ActivityManager;
+import android.graphics.Bitmap;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.util.ByteConstants;
+import com.facebook.imageutils.BitmapUtil;
+
+/**
+ * Memory budget for the frame caches of all the animations, shared by the
+ * {@link AnimatedDrawableCachingBackendImpl}s of one factory.
+ *
+ * <p> Only the animations that are currently being drawn take part in the budget. Each one gets a
+ * share of it proportional to its frame rate, since faster animations need to render more frames
+ * per second when their frames are not kept. An animation never gets more than it needs to keep
+ * all its frames; what it does not need is shared among the others. An animation that needs more
+ * than the per-animation limit to keep all its frames gets nothing, as it could not keep them
+ * anyway.
+ *
+ * <p> The bitmaps freed by an animation that stops are kept in a bounded pool, so that another
+ * animation of the same dimensions can reuse them instead of allocating new ones. The pool is
+ * emptied once no animation is active anymore.
+ */
+@ThreadSafe
+public class AnimatedDrawableMemoryBudget {
+
+  private final int mMaxBytes;
+  private final int mMaxBytesPerAnimation;
+  private final int mMaxFreeBitmapsBytes;
+
+  // weak keys, so that an animation that is never stopped does not leak
+  @GuardedBy("this")
+  private final Map<Object, Animation> mActiveAnimations = new WeakHashMap<>();
+
+  // the free bitmaps, the least recently freed first
+  @GuardedBy("this")
+  private final LinkedList<Bitmap> mFreeBitmaps = new LinkedList<>();
+  @GuardedBy("this")
+  private int mFreeBitmapsBytes;
+
+  /**
+   * Creates a budget without any per-animation limit.
+   *
+   * @param maxBytes the memory budget for the frames of all the active animations
+   * @param maxFreeBitmapsBytes the memory to use at most to keep free bitmaps for reuse
+   */
+  public AnimatedDrawableMemoryBudget(int maxBytes, int maxFreeBitmapsBytes) {
+    this(maxBytes, Integer.MAX_VALUE, maxFreeBitmapsBytes);
+  }
+
+  /**
+   * @param maxBytes the memory budget for the frames of all the active animations
+   * @param maxBytesPerAnimation the memory a single animation may use at most for its frames
+   * @param maxFreeBitmapsBytes the memory to use at most to keep free bitmaps for reuse
+   */
+  public AnimatedDrawableMemoryBudget(
+      int maxBytes,
+      int maxBytesPerAnimation,
+      int maxFreeBitmapsBytes) {
+    Preconditions.checkArgument(maxBytes >= 0);
+    Preconditions.checkArgument(maxBytesPerAnimation >= 0);
+    Preconditions.checkArgument(maxFreeBitmapsBytes >= 0);
+    mMaxBytes = maxBytes;
+    mMaxBytesPerAnimation = maxBytesPerAnimation;
+    mMaxFreeBitmapsBytes = maxFreeBitmapsBytes;
+  }
+
+  /**
+   * Gets the default memory budget for all the animations, based on the memory class of the app.
+   */
+  public static int getDefaultMaxBytes(ActivityManager activityManager) {
+    return Math.max(activityManager.getMemoryClass() * ByteConstants.MB / 8, 3 * ByteConstants.MB);
+  }
+
+  /**
+   * Gets the default memory a single animation may use, which is what each animation used to get
+   * before the budget was shared.
+   */
+  public static int getDefaultMaxBytesPerAnimation(ActivityManager activityManager) {
+    return activityManager.getMemoryClass() > 32 ? 5 * ByteConstants.MB : 3 * ByteConstants.MB;
+  }
+
+  public int getMaxBytes() {
+    return mMaxBytes;
+  }
+
+  /**
+   * Adds the animation to the ones sharing the budget, or updates it if it already is one.
+   *
+   * @param animation the animation
+   * @param bytesToHoldAllFrames the memory the animation needs to keep all its frames
+   * @param framesPerSecond the frame rate of the animation
+   */
+  public synchronized void onAnimationActive(
+      Object animation,
+      int bytesToHoldAllFrames,
+      double framesPerSecond) {
+    final int bytesNeeded =
+        bytesToHoldAllFrames > mMaxBytesPerAnimation ? 0 : Math.max(bytesToHoldAllFrames, 0);
+    mActiveAnimations.put(animation, new Animation(bytesNeeded, Math.max(framesPerSecond, 1)));
+    updateQuotas();
+  }
+
+  /**
+   * Removes the animation from the ones sharing the budget. The free bitmaps are recycled if it was
+   * the last active animation.
+   */
+  public void onAnimationInactive(Object animation) {
+    synchronized (this) {
+      if (mActiveAnimations.remove(animation) == null) {
+        return;
+      }
+      updateQuotas();
+      if (!mActiveAnimations.isEmpty()) {
+        return;
+      }
+    }
+    trimFreeBitmaps();
+  }
+
+  /**
+   * Gets the memory the animation may use for its frames.
+   *
+   * @return the quota in bytes, 0 if the animation is not active
+   */
+  public synchronized int getQuotaBytes(Object animation) {
+    final Animation activeAnimation = mActiveAnimations.get(animation);
+    return activeAnimation == null ? 0 : activeAnimation.mQuotaBytes;
+  }
+
+  public synchronized int getActiveAnimationCount() {
+    return mActiveAnimations.size();
+  }
+
+  /**
+   * Takes a free bitmap of the given dimensions.
+   *
+   * @return the bitmap, or null if there is none
+   */
+  @Nullable
+  public synchronized Bitmap getFreeBitmap(int width, int height) {
+    final Iterator<Bitmap> iterator = mFreeBitmaps.descendingIterator();
+    while (iterator.hasNext()) {
+      final Bitmap bitmap = iterator.next();
+      if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+        iterator.remove();
+        mFreeBitmapsBytes -= BitmapUtil.getSizeInBytes(bitmap);
+        return bitmap;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Keeps the bitmap for reuse by other animations, recycling the ones kept the longest if needed.
+   * Bitmaps are only kept while there are active animations.
+   *
+   * @return false if the bitmap is not kept, the caller then keeps ownership of it
+   */
+  public boolean offerFreeBitmap(Bitmap bitmap) {
+    final int sizeInBytes = BitmapUtil.getSizeInBytes(bitmap);
+    if (bitmap.isRecycled() || sizeInBytes > mMaxFreeBitmapsBytes) {
+      return false;
+    }
+    final List<Bitmap> bitmapsToRecycle = new ArrayList<>();
+    synchronized (this) {
+      if (mActiveAnimations.isEmpty()) {
+        return false;
+      }
+      mFreeBitmaps.addLast(bitmap);
+      mFreeBitmapsBytes += sizeInBytes;
+      while (mFreeBitmapsBytes > mMaxFreeBitmapsBytes) {
+        final Bitmap oldestBitmap = mFreeBitmaps.removeFirst();
+        mFreeBitmapsBytes -= BitmapUtil.getSizeInBytes(oldestBitmap);
+        bitmapsToRecycle.add(oldestBitmap);
+      }
+    }
+    for (int i = 0; i < bitmapsToRecycle.size(); i++) {
+      bitmapsToRecycle.get(i).recycle();
+    }
+    return true;
+  }
+
+  public synchronized int getFreeBitmapsBytes() {
+    return mFreeBitmapsBytes;
+  }
+
+  /**
+   * Recycles all the free bitmaps.
+   */
+  public void trimFreeBitmaps() {
+    final List<Bitmap> bitmapsToRecycle;
+    synchronized (this) {
+      bitmapsToRecycle = new ArrayList<>(mFreeBitmaps);
+      mFreeBitmaps.clear();
+      mFreeBitmapsBytes = 0;
+    }
+    for (int i = 0; i < bitmapsToRecycle.size(); i++) {
+      bitmapsToRecycle.get(i).recycle();
+    }
+  }
+
+  /**
+   * Splits the budget among the active animations in proportion to their frame rates. The
+   * animations that need the least for their share are served first, so that whatever they leave
+   * goes to the others.
+   */
+  @GuardedBy("this")
+  private void updateQuotas() {
+    final List<Animation> animations = new ArrayList<>(mActiveAnimations.values());
+    Collections.sort(
+        animations,
+        new Comparator<Animation>() {
+          @Override
+          public int compare(Animation lhs, Animation rhs) {
+            return Double.compare(
+                lhs.mBytesToHoldAllFrames / lhs.mFramesPerSecond,
+                rhs.mBytesToHoldAllFrames / rhs.mFramesPerSecond);
+          }
+        });
+    double totalFramesPerSecond = 0;
+    for (int i = 0; i < animations.size(); i++) {
+      totalFramesPerSecond += animations.get(i).mFramesPerSecond;
+    }
+    long remainingBytes = mMaxBytes;
+    for (int i = 0; i < animations.size(); i++) {
+      final Animation animation = animations.get(i);
+      final long shareBytes =
+          (long) (remainingBytes * animation.mFramesPerSecond / totalFramesPerSecond);
+      animation.mQuotaBytes = (int) Math.min(animation.mBytesToHoldAllFrames, shareBytes);
+      remainingBytes -= animation.mQuotaBytes;
+      totalFramesPerSecond -= animation.mFramesPerSecond;
+    }
+  }
+
+  private static class Animation {
+
+    private final int mBytesToHoldAllFrames;
+    private final double mFramesPerSecond;
+    private int mQuotaBytes;
+
+    private Animation(int bytesToHoldAllFrames, double framesPerSecond) {
+      mBytesToHoldAllFrames = bytesToHoldAllFrames;
+      mFramesPerSecond = framesPerSecond;
+    }
+  }
+}
@@ -9,19 +9,28 @@
 
 package com.facebook.imagepipeline.animated.impl;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
+import android.support.v4.util.SparseArrayCompat;
 
+import com.facebook.common.internal.Preconditions;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo.BlendOperation;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo.DisposalMethod;
 import com.facebook.imagepipeline.animated.base.AnimatedImage;
+import com.facebook.imageutils.BitmapUtil;
 
 /**
  * Contains the logic for compositing the frames of an {@link AnimatedImage}. Animated image
@@ -29,6 +38,13 @@ import com.facebook.imagepipeline.animated.base.AnimatedImage;
  * being blended on a previous frame in order to render the full frame. This class encapsulates
  * the behavior to be able to render any frame of the image. Designed to work with a cache
  * via a Callback.
+ *
+ * <p> Rendering a frame that is not cached requires compositing every frame since the closest
+ * cached or key frame. If a checkpoint interval K is set, the compositor additionally keeps a copy
+ * of a composited frame at least every K frames, so that a frame can be rendered from at most
+ * about K blends once the frames before it have been rendered, e.g. when seeking or restarting a
+ * long animation. The checkpoints are kept until {@link #dropCheckpoints} is called, in bitmaps
+ * given by a {@link CheckpointBitmapProvider}, which decides how much memory they may use.
  */
 public class AnimatedImageCompositor {
 
@@ -60,15 +76,56 @@ public class AnimatedImageCompositor {
     CloseableReference<Bitmap> getCachedBitmap(int frameNumber);
   }
 
+  /**
+   * Provides the bitmaps of the checkpoints.
+   */
+  public interface CheckpointBitmapProvider {
+
+    /**
+     * Called from within {@link #renderFrame} to get a bitmap of the rendered size to keep a
+     * checkpoint in. It is not called while the compositor holds its lock.
+     *
+     * @return a reference to the bitmap, closed when the checkpoint is dropped, or null if no more
+     *    checkpoints should be kept
+     */
+    @Nullable
+    CloseableReference<Bitmap> obtainCheckpointBitmap();
+  }
+
   private final AnimatedDrawableBackend mAnimatedDrawableBackend;
   private final Callback mCallback;
   private final Paint mTransparentFillPaint;
+  private final int mCheckpointInterval;
+  @Nullable
+  private final CheckpointBitmapProvider mCheckpointBitmapProvider;
+
+  @GuardedBy("this")
+  private final SparseArrayCompat<CloseableReference<Bitmap>> mCheckpoints =
+      new SparseArrayCompat<>();
 
   public AnimatedImageCompositor(
       AnimatedDrawableBackend animatedDrawableBackend,
       Callback callback) {
+    this(animatedDrawableBackend, callback, 0, null);
+  }
+
+  /**
+   * @param checkpointInterval the maximum number of frames between two checkpoints, or 0 to not
+   *   keep any checkpoint
+   * @param checkpointBitmapProvider the provider of the bitmaps of the checkpoints, required if
+   *   the checkpoint interval is not 0
+   */
+  public AnimatedImageCompositor(
+      AnimatedDrawableBackend animatedDrawableBackend,
+      Callback callback,
+      int checkpointInterval,
+      @Nullable CheckpointBitmapProvider checkpointBitmapProvider) {
+    Preconditions.checkArgument(checkpointInterval >= 0);
+    Preconditions.checkArgument(checkpointInterval == 0 || checkpointBitmapProvider != null);
     mAnimatedDrawableBackend = animatedDrawableBackend;
     mCallback = callback;
+    mCheckpointInterval = checkpointInterval;
+    mCheckpointBitmapProvider = checkpointBitmapProvider;
     mTransparentFillPaint = new Paint();
     mTransparentFillPaint.setColor(Color.TRANSPARENT);
     mTransparentFillPaint.setStyle(Paint.Style.FILL);
@@ -108,6 +165,7 @@ public class AnimatedImageCompositor {
       }
       mAnimatedDrawableBackend.renderFrame(index, canvas);
       mCallback.onIntermediateResult(index, bitmap);
+      maybeAddCheckpoint(index, bitmap);
       if (disposalMethod == DisposalMethod.DISPOSE_TO_BACKGROUND) {
         disposeToBackground(canvas, frameInfo);
       }
@@ -119,6 +177,91 @@ public class AnimatedImageCompositor {
     }
     // Finally, we render the current frame. We don't dispose it.
     mAnimatedDrawableBackend.renderFrame(frameNumber, canvas);
+    maybeAddCheckpoint(frameNumber, bitmap);
+  }
+
+  /**
+   * Releases all the checkpoints.
+   */
+  public void dropCheckpoints() {
+    final List<CloseableReference<Bitmap>> checkpoints;
+    synchronized (this) {
+      checkpoints = new ArrayList<>(mCheckpoints.size());
+      for (int i = 0; i < mCheckpoints.size(); i++) {
+        checkpoints.add(mCheckpoints.valueAt(i));
+      }
+      mCheckpoints.clear();
+    }
+    // the provider gets the bitmaps back outside of the lock
+    CloseableReference.closeSafely(checkpoints);
+  }
+
+  /**
+   * @return the memory used by the checkpoints
+   */
+  public synchronized int getCheckpointsSizeInBytes() {
+    int bytes = 0;
+    for (int i = 0; i < mCheckpoints.size(); i++) {
+      bytes += BitmapUtil.getSizeInBytes(mCheckpoints.valueAt(i).get());
+    }
+    return bytes;
+  }
+
+  /**
+   * Keeps a copy of the rendered frame if it can be composited on, there is no checkpoint within
+   * the checkpoint interval before it and the provider gives a bitmap for it.
+   *
+   * @param frameNumber the frame that has just been rendered
+   * @param bitmap the bitmap the frame has been rendered into, before its disposal
+   */
+  private void maybeAddCheckpoint(int frameNumber, Bitmap bitmap) {
+    if (mCheckpointInterval == 0 ||
+        isFrameNeededForRendering(frameNumber) != FrameNeededResult.REQUIRED ||
+        hasCheckpointWithinInterval(frameNumber)) {
+      return;
+    }
+    CloseableReference<Bitmap> checkpoint = mCheckpointBitmapProvider.obtainCheckpointBitmap();
+    if (checkpoint == null) {
+      return;
+    }
+    try {
+      Canvas canvas = new Canvas(checkpoint.get());
+      canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.SRC);
+      canvas.drawBitmap(bitmap, 0, 0, null);
+      synchronized (this) {
+        // another thread may have added one in the meantime
+        if (hasCheckpointWithinInterval(frameNumber)) {
+          return;
+        }
+        mCheckpoints.put(frameNumber, checkpoint.clone());
+      }
+    } finally {
+      checkpoint.close();
+    }
+  }
+
+  private synchronized boolean hasCheckpointWithinInterval(int frameNumber) {
+    for (int index = frameNumber; index > frameNumber - mCheckpointInterval && index >= 0;
+        index--) {
+      if (mCheckpoints.get(index) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Draws the checkpoint of the given frame on the canvas if there is one.
+   *
+   * @return true if the checkpoint has been drawn
+   */
+  private synchronized boolean drawCheckpoint(int frameNumber, Canvas canvas) {
+    CloseableReference<Bitmap> checkpoint = mCheckpoints.get(frameNumber);
+    if (checkpoint == null) {
+      return false;
+    }
+    canvas.drawBitmap(checkpoint.get(), 0, 0, null);
+    return true;
   }
 
   /**
@@ -165,6 +308,11 @@ public class AnimatedImageCompositor {
             } finally {
               startBitmap.close();
             }
+          } else if (drawCheckpoint(index, canvas)) {
+            if (frameInfo.disposalMethod == DisposalMethod.DISPOSE_TO_BACKGROUND) {
+              disposeToBackground(canvas, frameInfo);
+            }
+            return index + 1;
           } else {
             if (isKeyFrame(index)) {
               return index;
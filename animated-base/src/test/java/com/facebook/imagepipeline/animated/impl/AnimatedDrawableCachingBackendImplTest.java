@@ -139,6 +139,36 @@ public class AnimatedDrawableCachingBackendImplTest {
     assertEquals(9, mCachingBackend.getFramesCached().size());
   }
 
+  @Test
+  public void testFramesCachedInMemoryWithinBudget() {
+    AnimatedDrawableMemoryBudget memoryBudget =
+        new AnimatedDrawableMemoryBudget(50 * 1024 * 1024, 0);
+    mCachingBackend = makeCachingBackend(memoryBudget);
+
+    for (int i = 0; i < FRAME_DURATIONS.length; i++) {
+      CloseableReference<Bitmap> bitmap = mCachingBackend.getBitmapForFrameBlocking(i);
+      assertNotNull(bitmap);
+      mExecutorService.getScheduledQueue().runUntilIdle();
+    }
+    assertDecodesInFlight();
+    assertEquals(9, mCachingBackend.getFramesCached().size());
+  }
+
+  @Test
+  public void testFramesNotAllCachedAboveBudget() {
+    // enough for half of the frames
+    AnimatedDrawableMemoryBudget memoryBudget =
+        new AnimatedDrawableMemoryBudget(WIDTH * HEIGHT * 4 * FRAME_DURATIONS.length / 2, 0);
+    mCachingBackend = makeCachingBackend(memoryBudget);
+
+    for (int i = 0; i < FRAME_DURATIONS.length; i++) {
+      CloseableReference<Bitmap> bitmap = mCachingBackend.getBitmapForFrameBlocking(i);
+      assertNotNull(bitmap);
+      mExecutorService.getScheduledQueue().runUntilIdle();
+    }
+    assertTrue(mCachingBackend.getFramesCached().size() < 9);
+  }
+
   private void assertDecodesInFlight(int... frames) {
     assertTrue(mExecutorService.getScheduledQueue().getPendingCount() >= frames.length);
     Map<Integer, Task<?>> decodesInFlight =  mCachingBackend.getDecodesInFlight();
@@ -162,4 +192,19 @@ public class AnimatedDrawableCachingBackendImplTest {
         mDrawableBackend,
         options);
   }
+
+  private AnimatedDrawableCachingBackendImpl makeCachingBackend(
+      AnimatedDrawableMemoryBudget memoryBudget) {
+    AnimatedDrawableOptions options = AnimatedDrawableOptions.newBuilder()
+        .setMaximumBytes(-1)
+        .build();
+    return new AnimatedDrawableCachingBackendImpl(
+        mExecutorService,
+        mActivityManager,
+        mAnimatedDrawableUtil,
+        mFakeClock,
+        mDrawableBackend,
+        options,
+        memoryBudget);
+  }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.animated.impl;
+
+import android.graphics.Bitmap;
+
+import com.facebook.imagepipeline.testing.MockBitmapFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link AnimatedDrawableMemoryBudget}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AnimatedDrawableMemoryBudgetTest {
+
+  private AnimatedDrawableMemoryBudget mBudget;
+
+  @Before
+  public void setup() {
+    mBudget = new AnimatedDrawableMemoryBudget(1000, 100);
+  }
+
+  @Test
+  public void testSplitsBudgetByFrameRate() {
+    Object slow = new Object();
+    Object fast = new Object();
+    mBudget.onAnimationActive(slow, 2000, 10);
+    mBudget.onAnimationActive(fast, 2000, 30);
+
+    assertEquals(250, mBudget.getQuotaBytes(slow));
+    assertEquals(750, mBudget.getQuotaBytes(fast));
+  }
+
+  @Test
+  public void testSharesWhatAnAnimationDoesNotNeed() {
+    Object small = new Object();
+    Object large = new Object();
+    mBudget.onAnimationActive(small, 100, 30);
+    mBudget.onAnimationActive(large, 2000, 30);
+
+    assertEquals(100, mBudget.getQuotaBytes(small));
+    assertEquals(900, mBudget.getQuotaBytes(large));
+  }
+
+  @Test
+  public void testInactiveAnimationsDoNotTakePart() {
+    Object first = new Object();
+    Object second = new Object();
+    mBudget.onAnimationActive(first, 2000, 30);
+    mBudget.onAnimationActive(second, 2000, 30);
+    assertEquals(500, mBudget.getQuotaBytes(first));
+
+    mBudget.onAnimationInactive(second);
+    assertEquals(1000, mBudget.getQuotaBytes(first));
+    assertEquals(0, mBudget.getQuotaBytes(second));
+    assertEquals(1, mBudget.getActiveAnimationCount());
+  }
+
+  @Test
+  public void testAnimationsAboveThePerAnimationLimitGetNothing() {
+    mBudget = new AnimatedDrawableMemoryBudget(1000, 400, 100);
+    Object small = new Object();
+    Object large = new Object();
+    mBudget.onAnimationActive(small, 600, 30);
+    mBudget.onAnimationActive(large, 2000, 30);
+
+    assertEquals(0, mBudget.getQuotaBytes(small));
+    assertEquals(0, mBudget.getQuotaBytes(large));
+
+    mBudget.onAnimationActive(small, 300, 30);
+    assertEquals(300, mBudget.getQuotaBytes(small));
+  }
+
+  @Test
+  public void testReusesFreeBitmapsOfSameDimensions() {
+    mBudget.onAnimationActive(new Object(), 2000, 30);
+    Bitmap bitmap = createBitmap(4, 5);
+    assertTrue(mBudget.offerFreeBitmap(bitmap));
+
+    assertNull(mBudget.getFreeBitmap(5, 4));
+    assertSame(bitmap, mBudget.getFreeBitmap(4, 5));
+    assertNull(mBudget.getFreeBitmap(4, 5));
+    assertEquals(0, mBudget.getFreeBitmapsBytes());
+  }
+
+  @Test
+  public void testRecyclesOldestFreeBitmapsWhenFull() {
+    mBudget.onAnimationActive(new Object(), 2000, 30);
+    Bitmap first = createBitmap(4, 5);
+    Bitmap second = createBitmap(4, 5);
+    mBudget.offerFreeBitmap(first);
+    mBudget.offerFreeBitmap(second);
+
+    verify(first).recycle();
+    verify(second, never()).recycle();
+    assertEquals(80, mBudget.getFreeBitmapsBytes());
+    assertFalse(mBudget.offerFreeBitmap(createBitmap(10, 10)));
+  }
+
+  @Test
+  public void testFreeBitmapsAreOnlyKeptWhileAnimationsAreActive() {
+    Bitmap bitmap = createBitmap(4, 5);
+    assertFalse(mBudget.offerFreeBitmap(bitmap));
+
+    Object first = new Object();
+    Object second = new Object();
+    mBudget.onAnimationActive(first, 2000, 30);
+    mBudget.onAnimationActive(second, 2000, 30);
+    assertTrue(mBudget.offerFreeBitmap(bitmap));
+    mBudget.onAnimationInactive(first);
+    assertEquals(80, mBudget.getFreeBitmapsBytes());
+
+    mBudget.onAnimationInactive(second);
+    verify(bitmap).recycle();
+    assertEquals(0, mBudget.getFreeBitmapsBytes());
+  }
+
+  private static Bitmap createBitmap(int width, int height) {
+    Bitmap bitmap = MockBitmapFactory.create(width, height, Bitmap.Config.ARGB_8888);
+    doReturn(width * height * 4).when(bitmap).getAllocationByteCount();
+    return bitmap;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.animated.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo.BlendOperation;
+import com.facebook.imagepipeline.animated.base.AnimatedDrawableFrameInfo.DisposalMethod;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link AnimatedImageCompositor}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AnimatedImageCompositorTest {
+
+  private static final int SIZE = 10;
+  private static final int FRAME_COUNT = 12;
+
+  private AnimatedDrawableBackend mAnimatedDrawableBackend;
+  private AnimatedImageCompositor.Callback mCallback;
+  private Bitmap mBitmap;
+  private List<Integer> mRenderedFrames;
+  private List<Bitmap> mReleasedBitmaps;
+  private AnimatedImageCompositor.CheckpointBitmapProvider mBitmapProvider;
+
+  @Before
+  public void setup() {
+    mAnimatedDrawableBackend = mock(AnimatedDrawableBackend.class);
+    when(mAnimatedDrawableBackend.getRenderedWidth()).thenReturn(SIZE);
+    when(mAnimatedDrawableBackend.getRenderedHeight()).thenReturn(SIZE);
+    when(mAnimatedDrawableBackend.getFrameCount()).thenReturn(FRAME_COUNT);
+    // Every frame only updates a part of the image and depends on all the previous ones
+    when(mAnimatedDrawableBackend.getFrameInfo(anyInt())).thenAnswer(
+        new Answer<AnimatedDrawableFrameInfo>() {
+          @Override
+          public AnimatedDrawableFrameInfo answer(InvocationOnMock invocation) {
+            return new AnimatedDrawableFrameInfo(
+                (Integer) invocation.getArguments()[0],
+                0,
+                0,
+                1,
+                1,
+                BlendOperation.BLEND_WITH_PREVIOUS,
+                DisposalMethod.DISPOSE_DO_NOT);
+          }
+        });
+    mRenderedFrames = new ArrayList<>();
+    doAnswer(
+        new Answer<Void>() {
+          @Override
+          public Void answer(InvocationOnMock invocation) {
+            mRenderedFrames.add((Integer) invocation.getArguments()[0]);
+            return null;
+          }
+        }).when(mAnimatedDrawableBackend).renderFrame(anyInt(), any(Canvas.class));
+    mCallback = mock(AnimatedImageCompositor.Callback.class);
+    mBitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    mReleasedBitmaps = new ArrayList<>();
+    mBitmapProvider = new AnimatedImageCompositor.CheckpointBitmapProvider() {
+      @Override
+      public CloseableReference<Bitmap> obtainCheckpointBitmap() {
+        return CloseableReference.of(
+            Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888),
+            new ResourceReleaser<Bitmap>() {
+              @Override
+              public void release(Bitmap value) {
+                mReleasedBitmaps.add(value);
+              }
+            });
+      }
+    };
+  }
+
+  @Test
+  public void testWithoutCheckpointsRendersAllPreviousFrames() {
+    AnimatedImageCompositor compositor =
+        new AnimatedImageCompositor(mAnimatedDrawableBackend, mCallback);
+    compositor.renderFrame(9, mBitmap);
+    mRenderedFrames.clear();
+    compositor.renderFrame(9, mBitmap);
+
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), mRenderedFrames);
+    assertEquals(0, compositor.getCheckpointsSizeInBytes());
+  }
+
+  @Test
+  public void testRendersFromClosestCheckpoint() {
+    AnimatedImageCompositor compositor =
+        new AnimatedImageCompositor(mAnimatedDrawableBackend, mCallback, 4, mBitmapProvider);
+    compositor.renderFrame(9, mBitmap);
+    assertEquals(10, mRenderedFrames.size());
+    assertTrue(compositor.getCheckpointsSizeInBytes() > 0);
+
+    // Frame 8 has a checkpoint
+    mRenderedFrames.clear();
+    compositor.renderFrame(9, mBitmap);
+    assertEquals(Arrays.asList(9), mRenderedFrames);
+
+    // Frame 4 has a checkpoint
+    mRenderedFrames.clear();
+    compositor.renderFrame(7, mBitmap);
+    assertEquals(Arrays.asList(5, 6, 7), mRenderedFrames);
+  }
+
+  @Test
+  public void testKeepsCheckpointsOnlyWhileTheProviderGivesBitmaps() {
+    AnimatedImageCompositor compositor = new AnimatedImageCompositor(
+        mAnimatedDrawableBackend,
+        mCallback,
+        4,
+        new AnimatedImageCompositor.CheckpointBitmapProvider() {
+          @Override
+          public CloseableReference<Bitmap> obtainCheckpointBitmap() {
+            return null;
+          }
+        });
+    compositor.renderFrame(9, mBitmap);
+    assertEquals(0, compositor.getCheckpointsSizeInBytes());
+
+    mRenderedFrames.clear();
+    compositor.renderFrame(9, mBitmap);
+    assertEquals(10, mRenderedFrames.size());
+  }
+
+  @Test
+  public void testDropCheckpoints() {
+    AnimatedImageCompositor compositor =
+        new AnimatedImageCompositor(mAnimatedDrawableBackend, mCallback, 4, mBitmapProvider);
+    compositor.renderFrame(9, mBitmap);
+    compositor.dropCheckpoints();
+    assertEquals(0, compositor.getCheckpointsSizeInBytes());
+    // frames 0, 4 and 8 had a checkpoint, whose bitmaps go back to the provider
+    assertEquals(3, mReleasedBitmaps.size());
+
+    mRenderedFrames.clear();
+    compositor.renderFrame(9, mBitmap);
+    assertEquals(10, mRenderedFrames.size());
+  }
+}
@@ -25,6 +25,8 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.fresco.animation.backend.AnimationBackend;
 import com.facebook.fresco.animation.backend.AnimationBackendDelegateWithInactivityCheck;
 import com.facebook.fresco.animation.backend.AnimationInformation;
+import com.facebook.fresco.animation.bitmap.preparation.BitmapFramePreparationStrategy;
+import com.facebook.fresco.animation.bitmap.preparation.BitmapFramePreparer;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 
 import static java.lang.annotation.RetentionPolicy.SOURCE;
@@ -36,6 +38,12 @@ import static java.lang.annotation.RetentionPolicy.SOURCE;
  * AnimationInformation} defines the main animation parameters, like frame and loop count. {@link
  * BitmapFrameRenderer} is used to render frames to the bitmaps aquired from the {@link
  * BitmapFrameCache}.
+ *
+ * If a {@link BitmapFramePreparationStrategy} and a {@link BitmapFramePreparer} are given, the
+ * upcoming frames are rendered ahead of time into the cache after each drawn frame. A frame that
+ * is not ready yet is then not rendered on the drawing thread: it is requested from the preparer
+ * and the fallback frame is drawn instead. Only when there is no fallback frame at all, e.g. for
+ * the very first frame, is the frame rendered inline.
  */
 public class BitmapAnimationBackend implements AnimationBackend,
     AnimationBackendDelegateWithInactivityCheck.InactivityListener {
@@ -90,6 +98,10 @@ public class BitmapAnimationBackend implements AnimationBackend,
   private final BitmapFrameCache mBitmapFrameCache;
   private final AnimationInformation mAnimationInformation;
   private final BitmapFrameRenderer mBitmapFrameRenderer;
+  @Nullable
+  private final BitmapFramePreparationStrategy mBitmapFramePreparationStrategy;
+  @Nullable
+  private final BitmapFramePreparer mBitmapFramePreparer;
   private final Paint mPaint;
 
   @Nullable
@@ -105,10 +117,28 @@ public class BitmapAnimationBackend implements AnimationBackend,
       BitmapFrameCache bitmapFrameCache,
       AnimationInformation animationInformation,
       BitmapFrameRenderer bitmapFrameRenderer) {
+    this(
+        platformBitmapFactory,
+        bitmapFrameCache,
+        animationInformation,
+        bitmapFrameRenderer,
+        null,
+        null);
+  }
+
+  public BitmapAnimationBackend(
+      PlatformBitmapFactory platformBitmapFactory,
+      BitmapFrameCache bitmapFrameCache,
+      AnimationInformation animationInformation,
+      BitmapFrameRenderer bitmapFrameRenderer,
+      @Nullable BitmapFramePreparationStrategy bitmapFramePreparationStrategy,
+      @Nullable BitmapFramePreparer bitmapFramePreparer) {
     mPlatformBitmapFactory = platformBitmapFactory;
     mBitmapFrameCache = bitmapFrameCache;
     mAnimationInformation = animationInformation;
     mBitmapFrameRenderer = bitmapFrameRenderer;
+    mBitmapFramePreparationStrategy = bitmapFramePreparationStrategy;
+    mBitmapFramePreparer = bitmapFramePreparer;
 
     mPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
     updateBitmapDimensions();
@@ -151,12 +181,35 @@ public class BitmapAnimationBackend implements AnimationBackend,
       mFrameListener.onDrawFrameStart(this, frameNumber);
     }
 
+    boolean drawn = drawFrameOrFallback(canvas, frameNumber);
+
+    // Prepare the frames that will be drawn next
+    if (mBitmapFramePreparationStrategy != null && mBitmapFramePreparer != null) {
+      mBitmapFramePreparationStrategy.prepareFrames(
+          mBitmapFramePreparer,
+          mBitmapFrameCache,
+          this,
+          frameNumber);
+    }
+    return drawn;
+  }
+
+  private boolean drawFrameOrFallback(Canvas canvas, int frameNumber) {
     // Draw a cached frame
     CloseableReference<Bitmap> bitmap = mBitmapFrameCache.getCachedFrame(frameNumber);
     if (drawBitmapNotifyAndClose(frameNumber, bitmap, canvas, FRAME_TYPE_CACHED)) {
       return true;
     }
 
+    if (mBitmapFramePreparer != null) {
+      // Let the frame be prepared in the background and draw the fallback frame meanwhile
+      mBitmapFramePreparer.prepareFrame(mBitmapFrameCache, this, frameNumber);
+      bitmap = mBitmapFrameCache.getFallbackFrame(frameNumber);
+      if (drawBitmapNotifyAndClose(frameNumber, bitmap, canvas, FRAME_TYPE_FALLBACK)) {
+        return true;
+      }
+    }
+
     // Try and reuse a bitmap
     bitmap = mBitmapFrameCache.getBitmapToReuseForFrame(frameNumber, mBitmapWidth, mBitmapHeight);
     // Try to render the frame and draw on the canvas immediately after
@@ -174,9 +227,11 @@ public class BitmapAnimationBackend implements AnimationBackend,
     }
 
     // Draw a fallback frame if possible
-    bitmap = mBitmapFrameCache.getFallbackFrame(frameNumber);
-    if (drawBitmapNotifyAndClose(frameNumber, bitmap, canvas, FRAME_TYPE_FALLBACK)) {
-      return true;
+    if (mBitmapFramePreparer == null) {
+      bitmap = mBitmapFrameCache.getFallbackFrame(frameNumber);
+      if (drawBitmapNotifyAndClose(frameNumber, bitmap, canvas, FRAME_TYPE_FALLBACK)) {
+        return true;
+      }
     }
 
     // We could not draw anything
@@ -220,6 +275,9 @@ public class BitmapAnimationBackend implements AnimationBackend,
 
   @Override
   public void clear() {
+    if (mBitmapFramePreparer != null) {
+      mBitmapFramePreparer.cancelPendingFrames();
+    }
     mBitmapFrameCache.clear();
   }
 
@@ -256,9 +314,11 @@ public class BitmapAnimationBackend implements AnimationBackend,
     if (!CloseableReference.isValid(targetBitmap)) {
       return false;
     }
-    // Render the image
-    boolean frameRendered =
-        mBitmapFrameRenderer.renderFrame(frameNumber, targetBitmap.get());
+    // Render the image. The frame preparer might be using the renderer at the same time, in which
+    // case the frame is dropped rather than blocking the UI thread until it is done.
+    boolean frameRendered = mBitmapFramePreparer != null
+        ? mBitmapFramePreparer.tryRenderFrame(frameNumber, targetBitmap.get())
+        : mBitmapFrameRenderer.renderFrame(frameNumber, targetBitmap.get());
     if (!frameRendered) {
       CloseableReference.closeSafely(targetBitmap);
     }
@@ -77,4 +77,22 @@ public interface BitmapFrameCache {
       int frameNumber,
       CloseableReference<Bitmap> bitmap,
       int frameType);
+
+  /**
+   * Callback when the given bitmap has been rendered ahead of time, before the frame is drawn.
+   * Unlike {@link #onFrameRendered(int, CloseableReference, int)}, the frame has not been
+   * displayed yet.
+   *
+   * Note: the implementation of this interface has to manually clone the given bitmap reference
+   * if it wants to hold on to the bitmap.
+   * The original reference will be automatically closed after this call.
+   *
+   * @param frameNumber the frame number that has been prepared
+   * @param bitmap the bitmap that has been prepared
+   * @param frameType the frame type of the prepared bitmap
+   */
+  void onFramePrepared(
+      int frameNumber,
+      CloseableReference<Bitmap> bitmap,
+      int frameType);
 }
@@ -84,6 +84,25 @@ public class FrescoFrameCache implements BitmapFrameCache {
       CloseableReference<Bitmap> bitmapReference,
       @BitmapAnimationBackend.FrameType int frameType) {
     Preconditions.checkNotNull(bitmapReference);
+    CloseableReference<CloseableImage> cachedItem = cacheFrame(frameNumber, bitmapReference);
+    CloseableReference.closeSafely(mLastCachedItem);
+    mLastCachedItem = cachedItem;
+  }
+
+  @Override
+  public synchronized void onFramePrepared(
+      int frameNumber,
+      CloseableReference<Bitmap> bitmapReference,
+      @BitmapAnimationBackend.FrameType int frameType) {
+    Preconditions.checkNotNull(bitmapReference);
+    // The prepared frame is not the last drawn one, so it does not become the fallback frame
+    CloseableReference.closeSafely(cacheFrame(frameNumber, bitmapReference));
+  }
+
+  @Nullable
+  private CloseableReference<CloseableImage> cacheFrame(
+      int frameNumber,
+      CloseableReference<Bitmap> bitmapReference) {
     CloseableReference<CloseableImage> closableReference = null;
     try {
       // The given CloseableStaticBitmap will be cached and then released by the resource releaser
@@ -93,9 +112,7 @@ public class FrescoFrameCache implements BitmapFrameCache {
           ImmutableQualityInfo.FULL_QUALITY,
           0);
       closableReference = CloseableReference.of(closeableImage);
-      CloseableReference.closeSafely(mLastCachedItem);
-      mLastCachedItem =
-          mAnimatedFrameCache.cache(frameNumber, closableReference);
+      return mAnimatedFrameCache.cache(frameNumber, closableReference);
     } finally {
       CloseableReference.closeSafely(closableReference);
     }
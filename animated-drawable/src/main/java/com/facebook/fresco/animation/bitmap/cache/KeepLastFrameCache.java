@@ -85,6 +85,14 @@ public class KeepLastFrameCache implements BitmapFrameCache {
     mLastBitmapReference = CloseableReference.cloneOrNull(bitmap);
   }
 
+  @Override
+  public void onFramePrepared(
+      int frameNumber,
+      CloseableReference<Bitmap> bitmap,
+      @BitmapAnimationBackend.FrameType int frameType) {
+    // Only the last drawn frame is kept
+  }
+
   private synchronized void closeAndResetLastBitmapReference() {
     CloseableReference.closeSafely(mLastBitmapReference);
     mLastBitmapReference = null;
@@ -59,4 +59,12 @@ public class NoOpCache implements BitmapFrameCache {
       @BitmapAnimationBackend.FrameType int frameType) {
     // no-op
   }
+
+  @Override
+  public void onFramePrepared(
+      int frameNumber,
+      CloseableReference<Bitmap> bitmap,
+      @BitmapAnimationBackend.FrameType int frameType) {
+    // no-op
+  }
 }
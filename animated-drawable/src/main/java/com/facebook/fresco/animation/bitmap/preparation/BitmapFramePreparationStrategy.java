@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+
+/**
+ * Decides which frames to prepare with a {@link BitmapFramePreparer} after a frame has been
+ * drawn.
+ */
+public interface BitmapFramePreparationStrategy {
+
+  /**
+   * Prepare the frames that will likely be drawn next.
+   *
+   * @param bitmapFramePreparer the preparer to use
+   * @param bitmapFrameCache the cache to prepare the frames into
+   * @param animationBackend the animation backend to prepare frames for
+   * @param lastDrawnFrameNumber the frame number that has just been drawn
+   */
+  void prepareFrames(
+      BitmapFramePreparer bitmapFramePreparer,
+      BitmapFrameCache bitmapFrameCache,
+      AnimationBackend animationBackend,
+      int lastDrawnFrameNumber);
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import android.graphics.Bitmap;
+
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+
+/**
+ * Renders frames of an animation ahead of time into its {@link BitmapFrameCache}, so that they
+ * don't have to be rendered when they are drawn.
+ */
+public interface BitmapFramePreparer {
+
+  /**
+   * Prepare the given frame, unless it is already cached or being prepared.
+   *
+   * @param bitmapFrameCache the cache to render the frame into
+   * @param animationBackend the animation backend the frame belongs to
+   * @param frameNumber the frame number to prepare
+   * @return true if the frame is cached or will be
+   */
+  boolean prepareFrame(
+      BitmapFrameCache bitmapFrameCache,
+      AnimationBackend animationBackend,
+      int frameNumber);
+
+  /**
+   * Cancel the frames that are waiting to be prepared. Frames being prepared at that time are not
+   * cached anymore.
+   */
+  void cancelPendingFrames();
+
+  /**
+   * Render the given frame on the calling thread, unless the frame renderer is busy preparing
+   * another frame. The preparer shares the frame renderer of the backend, so the backend must only
+   * render frames through this method.
+   *
+   * @param frameNumber the frame number to render
+   * @param targetBitmap the bitmap to render the frame into
+   * @return true if the frame has been rendered, false if the renderer is busy or failed
+   */
+  boolean tryRenderFrame(int frameNumber, Bitmap targetBitmap);
+}
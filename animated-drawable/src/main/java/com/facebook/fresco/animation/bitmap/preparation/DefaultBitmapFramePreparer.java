@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.graphics.Bitmap;
+
+import com.facebook.common.executors.DefaultSerialExecutorService;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+
+/**
+ * Default bitmap frame preparer that renders frames on the given executor.
+ *
+ * <p> The frames of one preparer are rendered one at a time, in the order they have been
+ * requested, so a single preparer must be used per animation backend. The frame renderer is
+ * locked while rendering, and the backend renders frames inline through
+ * {@link #tryRenderFrame(int, Bitmap)}, which gives up instead of waiting for the lock.
+ *
+ * <p> Cancelling the pending frames also discards the frames being rendered at that time, so that
+ * they are not cached after the cache has been cleared.
+ */
+public class DefaultBitmapFramePreparer implements BitmapFramePreparer {
+
+  private static final Class<?> TAG = DefaultBitmapFramePreparer.class;
+
+  private final PlatformBitmapFactory mPlatformBitmapFactory;
+  private final BitmapFrameRenderer mBitmapFrameRenderer;
+  private final Bitmap.Config mBitmapConfig;
+  private final Executor mExecutor;
+  private final ReentrantLock mRendererLock = new ReentrantLock();
+
+  @GuardedBy("this")
+  private final Set<Integer> mPendingFrameNumbers = new HashSet<>();
+  // Incremented whenever the pending frames are cancelled
+  @GuardedBy("this")
+  private int mGeneration;
+
+  public DefaultBitmapFramePreparer(
+      PlatformBitmapFactory platformBitmapFactory,
+      BitmapFrameRenderer bitmapFrameRenderer,
+      Bitmap.Config bitmapConfig,
+      Executor executor) {
+    mPlatformBitmapFactory = platformBitmapFactory;
+    mBitmapFrameRenderer = bitmapFrameRenderer;
+    mBitmapConfig = bitmapConfig;
+    mExecutor = new DefaultSerialExecutorService(executor);
+  }
+
+  @Override
+  public boolean prepareFrame(
+      BitmapFrameCache bitmapFrameCache,
+      AnimationBackend animationBackend,
+      int frameNumber) {
+    final int width = animationBackend.getIntrinsicWidth();
+    final int height = animationBackend.getIntrinsicHeight();
+    if (width <= 0 || height <= 0) {
+      return false;
+    }
+    synchronized (this) {
+      if (mPendingFrameNumbers.contains(frameNumber)) {
+        return true;
+      }
+    }
+    CloseableReference<Bitmap> cachedFrame = bitmapFrameCache.getCachedFrame(frameNumber);
+    try {
+      if (CloseableReference.isValid(cachedFrame)) {
+        return true;
+      }
+    } finally {
+      CloseableReference.closeSafely(cachedFrame);
+    }
+    final int generation;
+    synchronized (this) {
+      if (!mPendingFrameNumbers.add(frameNumber)) {
+        return true;
+      }
+      generation = mGeneration;
+    }
+    mExecutor.execute(
+        new FrameDecodeRunnable(bitmapFrameCache, frameNumber, generation, width, height));
+    return true;
+  }
+
+  @Override
+  public synchronized void cancelPendingFrames() {
+    mPendingFrameNumbers.clear();
+    mGeneration++;
+  }
+
+  @Override
+  public boolean tryRenderFrame(int frameNumber, Bitmap targetBitmap) {
+    if (!mRendererLock.tryLock()) {
+      return false;
+    }
+    try {
+      return mBitmapFrameRenderer.renderFrame(frameNumber, targetBitmap);
+    } finally {
+      mRendererLock.unlock();
+    }
+  }
+
+  private synchronized boolean isPending(int frameNumber, int generation) {
+    return generation == mGeneration && mPendingFrameNumbers.contains(frameNumber);
+  }
+
+  private synchronized void onFrameDone(int frameNumber, int generation) {
+    if (generation == mGeneration) {
+      mPendingFrameNumbers.remove(frameNumber);
+    }
+  }
+
+  /**
+   * Hands the frame to the cache unless it has been cancelled. The cache is called while holding
+   * the lock, so that a concurrent cancellation followed by clearing the cache cannot be
+   * interleaved with it.
+   */
+  private synchronized void cacheFrameIfNotCancelled(
+      BitmapFrameCache bitmapFrameCache,
+      int frameNumber,
+      int generation,
+      CloseableReference<Bitmap> bitmapReference,
+      @BitmapAnimationBackend.FrameType int frameType) {
+    if (generation != mGeneration) {
+      return;
+    }
+    // The cache has to clone the reference if it needs to hold on to the bitmap
+    bitmapFrameCache.onFramePrepared(frameNumber, bitmapReference, frameType);
+  }
+
+  private class FrameDecodeRunnable implements Runnable {
+
+    private final BitmapFrameCache mBitmapFrameCache;
+    private final int mFrameNumber;
+    private final int mGeneration;
+    private final int mWidth;
+    private final int mHeight;
+
+    private FrameDecodeRunnable(
+        BitmapFrameCache bitmapFrameCache,
+        int frameNumber,
+        int generation,
+        int width,
+        int height) {
+      mBitmapFrameCache = bitmapFrameCache;
+      mFrameNumber = frameNumber;
+      mGeneration = generation;
+      mWidth = width;
+      mHeight = height;
+    }
+
+    @Override
+    public void run() {
+      // The frame has been cancelled since it was requested
+      if (!isPending(mFrameNumber, mGeneration)) {
+        return;
+      }
+      try {
+        if (prepareFrame(
+            mBitmapFrameCache.getBitmapToReuseForFrame(mFrameNumber, mWidth, mHeight),
+            BitmapAnimationBackend.FRAME_TYPE_REUSED)) {
+          return;
+        }
+        prepareFrame(
+            mPlatformBitmapFactory.createBitmap(mWidth, mHeight, mBitmapConfig),
+            BitmapAnimationBackend.FRAME_TYPE_CREATED);
+      } catch (RuntimeException e) {
+        FLog.e(TAG, e, "Failed to prepare frame %d", mFrameNumber);
+      } finally {
+        onFrameDone(mFrameNumber, mGeneration);
+      }
+    }
+
+    private boolean prepareFrame(
+        @Nullable CloseableReference<Bitmap> bitmapReference,
+        @BitmapAnimationBackend.FrameType int frameType) {
+      try {
+        if (!CloseableReference.isValid(bitmapReference)) {
+          return false;
+        }
+        final boolean frameRendered;
+        mRendererLock.lock();
+        try {
+          frameRendered = mBitmapFrameRenderer.renderFrame(mFrameNumber, bitmapReference.get());
+        } finally {
+          mRendererLock.unlock();
+        }
+        if (!frameRendered) {
+          return false;
+        }
+        cacheFrameIfNotCancelled(
+            mBitmapFrameCache,
+            mFrameNumber,
+            mGeneration,
+            bitmapReference,
+            frameType);
+        return true;
+      } finally {
+        CloseableReference.closeSafely(bitmapReference);
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.fresco.animation.frame.FrameScheduler;
+
+/**
+ * Frame preparation strategy that prepares the next frames the {@link FrameScheduler} will
+ * show after the last drawn one, following the frame durations and the loops of the animation.
+ */
+public class PredictiveFramePreparationStrategy implements BitmapFramePreparationStrategy {
+
+  private final FrameScheduler mFrameScheduler;
+  private final int mFramesToPrepare;
+
+  /**
+   * @param frameScheduler the frame scheduler of the animation
+   * @param framesToPrepare the number of frames to prepare ahead of the last drawn one
+   */
+  public PredictiveFramePreparationStrategy(FrameScheduler frameScheduler, int framesToPrepare) {
+    Preconditions.checkArgument(framesToPrepare > 0);
+    mFrameScheduler = frameScheduler;
+    mFramesToPrepare = framesToPrepare;
+  }
+
+  @Override
+  public void prepareFrames(
+      BitmapFramePreparer bitmapFramePreparer,
+      BitmapFrameCache bitmapFrameCache,
+      AnimationBackend animationBackend,
+      int lastDrawnFrameNumber) {
+    long animationTimeMs = mFrameScheduler.getTargetRenderTimeMs(lastDrawnFrameNumber);
+    for (int i = 0; i < mFramesToPrepare; i++) {
+      long nextAnimationTimeMs =
+          mFrameScheduler.getTargetRenderTimeForNextFrameMs(animationTimeMs);
+      if (nextAnimationTimeMs == FrameScheduler.NO_NEXT_TARGET_RENDER_TIME) {
+        return;
+      }
+      int frameNumber =
+          mFrameScheduler.getFrameNumberToRender(nextAnimationTimeMs, animationTimeMs);
+      // Stop at the end of the animation, or once a whole loop is prepared
+      if (frameNumber == FrameScheduler.FRAME_NUMBER_DONE ||
+          frameNumber == lastDrawnFrameNumber) {
+        return;
+      }
+      if (!bitmapFramePreparer.prepareFrame(bitmapFrameCache, animationBackend, frameNumber)) {
+        return;
+      }
+      animationTimeMs = nextAnimationTimeMs;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.spritesheet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.facebook.common.internal.Preconditions;
+
+/**
+ * The fully composited frames of an animation at a given size, each one compressed.
+ */
+@Immutable
+public class Spritesheet {
+
+  private final int mWidth;
+  private final int mHeight;
+  private final byte[][] mFrames;
+
+  /**
+   * @param width the width of the frames
+   * @param height the height of the frames
+   * @param frames the compressed frames, in order. The array must not be modified afterwards.
+   */
+  public Spritesheet(int width, int height, byte[][] frames) {
+    Preconditions.checkArgument(width > 0 && height > 0);
+    for (byte[] frame : frames) {
+      Preconditions.checkNotNull(frame);
+    }
+    mWidth = width;
+    mHeight = height;
+    mFrames = frames;
+  }
+
+  public int getWidth() {
+    return mWidth;
+  }
+
+  public int getHeight() {
+    return mHeight;
+  }
+
+  public int getFrameCount() {
+    return mFrames.length;
+  }
+
+  /**
+   * @return the compressed frame, which must not be modified
+   */
+  public byte[] getCompressedFrame(int frameNumber) {
+    return mFrames[frameNumber];
+  }
+
+  /**
+   * @return the total size of the compressed frames
+   */
+  public int getSizeInBytes() {
+    int bytes = 0;
+    for (byte[] frame : mFrames) {
+      bytes += frame.length;
+    }
+    return bytes;
+  }
+
+  /**
+   * Decodes the given frame into a new bitmap.
+   *
+   * @return the frame, or null if it cannot be decoded
+   */
+  @Nullable
+  public Bitmap decodeFrame(int frameNumber) {
+    return decodeFrame(frameNumber, null);
+  }
+
+  /**
+   * Decodes the given frame, into the given bitmap if it can be reused.
+   *
+   * @param frameNumber the frame to decode
+   * @param bitmapToReuse a mutable bitmap of the size of the frames, or null to decode into a new
+   *   bitmap
+   * @return the mutable frame, which is the given bitmap if it could be reused, or null if it
+   *   cannot be decoded
+   */
+  @Nullable
+  public Bitmap decodeFrame(int frameNumber, @Nullable Bitmap bitmapToReuse) {
+    final byte[] frame = mFrames[frameNumber];
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inMutable = true;
+    if (bitmapToReuse != null) {
+      options.inBitmap = bitmapToReuse;
+      try {
+        return BitmapFactory.decodeByteArray(frame, 0, frame.length, options);
+      } catch (IllegalArgumentException e) {
+        // the bitmap could not be reused
+        options.inBitmap = null;
+      }
+    }
+    return BitmapFactory.decodeByteArray(frame, 0, frame.length, options);
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.spritesheet;
+
+import javax.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.FileCache;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.logging.FLog;
+
+/**
+ * Stores the {@link Spritesheet}s of animations in a {@link FileCache}, so that an animation that
+ * comes back on screen does not have to composite its frames again.
+ *
+ * <p> All the methods do disk I/O and must not be called on the UI thread.
+ */
+public class SpritesheetDiskCache {
+
+  private static final Class<?> TAG = SpritesheetDiskCache.class;
+
+  private static final int MAGIC = 0x46535348;
+  private static final int VERSION = 1;
+  // magic, version, width, height and frame count
+  private static final int HEADER_SIZE = 5 * 4;
+
+  private final FileCache mFileCache;
+
+  public SpritesheetDiskCache(FileCache fileCache) {
+    mFileCache = fileCache;
+  }
+
+  /**
+   * Gets the key of the spritesheet of an image at the given size.
+   *
+   * <p> The disk cache identifies entries by their uri string, so the key is built from the
+   * description of the whole image key: the same uri decoded with other options or postprocessed
+   * gets another spritesheet.
+   *
+   * @param imageCacheKey the cache key of the animated image
+   * @param width the width of the frames
+   * @param height the height of the frames
+   */
+  public static CacheKey getSpritesheetCacheKey(CacheKey imageCacheKey, int width, int height) {
+    return new SimpleCacheKey(imageCacheKey + "#spritesheet_" + width + "x" + height);
+  }
+
+  /**
+   * Reads the spritesheet with the given key.
+   *
+   * @return the spritesheet, or null if it is not in the cache or cannot be read
+   */
+  @Nullable
+  public Spritesheet read(CacheKey key) {
+    final BinaryResource resource = mFileCache.getResource(key);
+    if (resource == null) {
+      return null;
+    }
+    InputStream is = null;
+    try {
+      is = resource.openStream();
+      final DataInputStream dis = new DataInputStream(is);
+      if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+        FLog.w(TAG, "Unknown spritesheet format for %s", key.getUriString());
+        mFileCache.remove(key);
+        return null;
+      }
+      final int width = dis.readInt();
+      final int height = dis.readInt();
+      final int frameCount = dis.readInt();
+      // the sizes are checked against the entry before allocating anything
+      long remainingBytes = resource.size() - HEADER_SIZE;
+      if (width <= 0 || height <= 0 || frameCount < 0 || frameCount > remainingBytes / 4) {
+        throw new IOException("Invalid spritesheet header");
+      }
+      final byte[][] frames = new byte[frameCount][];
+      for (int i = 0; i < frames.length; i++) {
+        final int frameSize = dis.readInt();
+        remainingBytes -= 4;
+        if (frameSize < 0 || frameSize > remainingBytes) {
+          throw new IOException("Invalid spritesheet frame size");
+        }
+        frames[i] = new byte[frameSize];
+        dis.readFully(frames[i]);
+        remainingBytes -= frameSize;
+      }
+      return new Spritesheet(width, height, frames);
+    } catch (IOException e) {
+      FLog.w(TAG, e, "Failed to read spritesheet %s", key.getUriString());
+      mFileCache.remove(key);
+      return null;
+    } finally {
+      Closeables.closeQuietly(is);
+    }
+  }
+
+  /**
+   * Writes the spritesheet with the given key, replacing any previous one.
+   */
+  public void write(CacheKey key, final Spritesheet spritesheet) throws IOException {
+    mFileCache.insert(
+        key,
+        new WriterCallback() {
+          @Override
+          public void write(OutputStream os) throws IOException {
+            final DataOutputStream dos = new DataOutputStream(os);
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(spritesheet.getWidth());
+            dos.writeInt(spritesheet.getHeight());
+            dos.writeInt(spritesheet.getFrameCount());
+            for (int i = 0; i < spritesheet.getFrameCount(); i++) {
+              final byte[] frame = spritesheet.getCompressedFrame(i);
+              dos.writeInt(frame.length);
+              dos.write(frame);
+            }
+            dos.flush();
+          }
+        });
+  }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.spritesheet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.logging.FLog;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+
+/**
+ * {@link BitmapFrameRenderer} that keeps the rendered frames of an animation in a
+ * {@link SpritesheetDiskCache}.
+ *
+ * <p> The frames are stored at the size they are displayed at, but never larger than the image.
+ * If the spritesheet for that size is on disk, frames are decoded from it instead of being
+ * composited. Otherwise the frames rendered by the given renderer are downscaled, compressed and
+ * written to disk once all of them have been rendered. One frame is recorded at a time, into a
+ * bitmap of the size of the spritesheet that is reused for every frame: frames rendered while
+ * another one is compressed are recorded on a later loop.
+ *
+ * <p> Disk access, decoding, scaling and compression happen on the given executor. While a frame
+ * is drawn, the one after it is decoded ahead of time into the bitmap of the frame drawn before,
+ * so that replaying a spritesheet does not allocate. A frame that has not been decoded in time is
+ * composited instead.
+ */
+public class SpritesheetFrameRenderer implements BitmapFrameRenderer {
+
+  private static final Class<?> TAG = SpritesheetFrameRenderer.class;
+
+  private static final int NO_FRAME = -1;
+
+  private final BitmapFrameRenderer mBitmapFrameRenderer;
+  private final SpritesheetDiskCache mSpritesheetDiskCache;
+  private final CacheKey mImageCacheKey;
+  private final int mFrameCount;
+  private final Executor mExecutor;
+  private final Bitmap.CompressFormat mCompressFormat;
+  private final int mCompressQuality;
+  private final Paint mPaint;
+
+  @GuardedBy("this")
+  @Nullable
+  private Rect mBounds;
+  @GuardedBy("this")
+  @Nullable
+  private CacheKey mSpritesheetCacheKey;
+  @GuardedBy("this")
+  private int mSpritesheetWidth;
+  @GuardedBy("this")
+  private int mSpritesheetHeight;
+  // the spritesheet read from disk, if any
+  @GuardedBy("this")
+  @Nullable
+  private Spritesheet mSpritesheet;
+  // the compressed frames recorded so far, only while recording
+  @GuardedBy("this")
+  @Nullable
+  private byte[][] mRecordedFrames;
+  @GuardedBy("this")
+  private int mRecordedFrameCount;
+  // the bitmap the frames are scaled into to be recorded, null while a frame is compressed
+  @GuardedBy("this")
+  @Nullable
+  private Bitmap mRecordingBitmap;
+  @GuardedBy("this")
+  private boolean mIsRecording;
+  // the frame decoded ahead of time from the spritesheet, if any
+  @GuardedBy("this")
+  @Nullable
+  private Bitmap mDecodedFrame;
+  @GuardedBy("this")
+  private int mDecodedFrameNumber = NO_FRAME;
+  @GuardedBy("this")
+  private boolean mIsDecoding;
+  // a bitmap of the size of the spritesheet frames to decode the next frame into
+  @GuardedBy("this")
+  @Nullable
+  private Bitmap mBitmapToReuse;
+
+  /**
+   * @param bitmapFrameRenderer the renderer that composites the frames
+   * @param spritesheetDiskCache the disk cache for the spritesheets
+   * @param imageCacheKey the cache key of the animated image
+   * @param frameCount the number of frames of the animation
+   * @param executor the executor for disk access and compression
+   * @param compressFormat the format to compress the frames with
+   * @param compressQuality the quality to compress the frames with, see
+   *   {@link Bitmap#compress(Bitmap.CompressFormat, int, java.io.OutputStream)}
+   */
+  public SpritesheetFrameRenderer(
+      BitmapFrameRenderer bitmapFrameRenderer,
+      SpritesheetDiskCache spritesheetDiskCache,
+      CacheKey imageCacheKey,
+      int frameCount,
+      Executor executor,
+      Bitmap.CompressFormat compressFormat,
+      int compressQuality) {
+    mBitmapFrameRenderer = bitmapFrameRenderer;
+    mSpritesheetDiskCache = spritesheetDiskCache;
+    mImageCacheKey = imageCacheKey;
+    mFrameCount = frameCount;
+    mExecutor = executor;
+    mCompressFormat = compressFormat;
+    mCompressQuality = compressQuality;
+    mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    updateSpritesheet();
+  }
+
+  @Override
+  public boolean renderFrame(int frameNumber, Bitmap targetBitmap) {
+    final Spritesheet spritesheet;
+    Bitmap decodedFrame = null;
+    synchronized (this) {
+      spritesheet = mSpritesheet;
+      if (spritesheet != null && mDecodedFrameNumber == frameNumber) {
+        decodedFrame = mDecodedFrame;
+        mDecodedFrame = null;
+        mDecodedFrameNumber = NO_FRAME;
+      }
+    }
+    if (decodedFrame != null) {
+      drawScaled(decodedFrame, targetBitmap);
+      offerBitmapToReuse(spritesheet, decodedFrame);
+    }
+    if (spritesheet != null) {
+      maybeDecodeFrame(spritesheet, (frameNumber + 1) % mFrameCount);
+    }
+    if (decodedFrame != null) {
+      return true;
+    }
+    if (!mBitmapFrameRenderer.renderFrame(frameNumber, targetBitmap)) {
+      return false;
+    }
+    maybeRecordFrame(frameNumber, targetBitmap);
+    return true;
+  }
+
+  @Override
+  public void setBounds(@Nullable Rect bounds) {
+    mBitmapFrameRenderer.setBounds(bounds);
+    synchronized (this) {
+      mBounds = bounds;
+    }
+    updateSpritesheet();
+  }
+
+  @Override
+  public int getIntrinsicWidth() {
+    return mBitmapFrameRenderer.getIntrinsicWidth();
+  }
+
+  @Override
+  public int getIntrinsicHeight() {
+    return mBitmapFrameRenderer.getIntrinsicHeight();
+  }
+
+  /**
+   * Starts reading the spritesheet for the current display size if the size has changed.
+   */
+  private synchronized void updateSpritesheet() {
+    int width = getSpritesheetDimension(
+        mBitmapFrameRenderer.getIntrinsicWidth(),
+        mBounds == null ? 0 : mBounds.width());
+    int height = getSpritesheetDimension(
+        mBitmapFrameRenderer.getIntrinsicHeight(),
+        mBounds == null ? 0 : mBounds.height());
+    final CacheKey spritesheetCacheKey = width > 0 && height > 0 ?
+        SpritesheetDiskCache.getSpritesheetCacheKey(mImageCacheKey, width, height) :
+        null;
+    if (spritesheetCacheKey == null ?
+        mSpritesheetCacheKey == null :
+        spritesheetCacheKey.equals(mSpritesheetCacheKey)) {
+      return;
+    }
+    mSpritesheetCacheKey = spritesheetCacheKey;
+    mSpritesheetWidth = width;
+    mSpritesheetHeight = height;
+    mSpritesheet = null;
+    mRecordedFrames = null;
+    mRecordedFrameCount = 0;
+    // the decoded frames have the size of the previous spritesheet
+    if (mDecodedFrame != null) {
+      mDecodedFrame.recycle();
+      mDecodedFrame = null;
+    }
+    mDecodedFrameNumber = NO_FRAME;
+    if (mBitmapToReuse != null) {
+      mBitmapToReuse.recycle();
+      mBitmapToReuse = null;
+    }
+    if (mRecordingBitmap != null) {
+      mRecordingBitmap.recycle();
+      mRecordingBitmap = null;
+    }
+    if (spritesheetCacheKey != null) {
+      mExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              loadSpritesheet(spritesheetCacheKey);
+            }
+          });
+    }
+  }
+
+  /**
+   * Reads the spritesheet from disk, or starts recording the frames if there is none.
+   */
+  private void loadSpritesheet(CacheKey spritesheetCacheKey) {
+    Spritesheet spritesheet = mSpritesheetDiskCache.read(spritesheetCacheKey);
+    synchronized (this) {
+      if (!spritesheetCacheKey.equals(mSpritesheetCacheKey)) {
+        return;
+      }
+      if (spritesheet != null &&
+          spritesheet.getFrameCount() == mFrameCount &&
+          spritesheet.getWidth() == mSpritesheetWidth &&
+          spritesheet.getHeight() == mSpritesheetHeight) {
+        mSpritesheet = spritesheet;
+      } else {
+        mRecordedFrames = new byte[mFrameCount][];
+      }
+    }
+  }
+
+  private void drawScaled(Bitmap frame, Bitmap targetBitmap) {
+    Canvas canvas = new Canvas(targetBitmap);
+    canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.SRC);
+    canvas.drawBitmap(
+        frame,
+        null,
+        new Rect(0, 0, targetBitmap.getWidth(), targetBitmap.getHeight()),
+        mPaint);
+  }
+
+  /**
+   * Starts decoding the given frame of the spritesheet on the executor, unless it is already
+   * decoded or another frame is being decoded.
+   */
+  private void maybeDecodeFrame(final Spritesheet spritesheet, final int frameNumber) {
+    synchronized (this) {
+      if (mIsDecoding || mDecodedFrameNumber == frameNumber) {
+        return;
+      }
+      mIsDecoding = true;
+    }
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            decodeFrame(spritesheet, frameNumber);
+          }
+        });
+  }
+
+  private void decodeFrame(Spritesheet spritesheet, int frameNumber) {
+    final Bitmap bitmapToReuse;
+    synchronized (this) {
+      bitmapToReuse = mBitmapToReuse;
+      mBitmapToReuse = null;
+    }
+    Bitmap frame = null;
+    try {
+      frame = spritesheet.decodeFrame(frameNumber, bitmapToReuse);
+    } finally {
+      if (bitmapToReuse != null && frame != bitmapToReuse) {
+        bitmapToReuse.recycle();
+      }
+      synchronized (this) {
+        mIsDecoding = false;
+      }
+    }
+    if (frame == null) {
+      return;
+    }
+    Bitmap replacedFrame;
+    synchronized (this) {
+      if (spritesheet != mSpritesheet) {
+        replacedFrame = frame;
+      } else {
+        replacedFrame = mDecodedFrame;
+        mDecodedFrame = frame;
+        mDecodedFrameNumber = frameNumber;
+      }
+    }
+    if (replacedFrame != null) {
+      offerBitmapToReuse(spritesheet, replacedFrame);
+    }
+  }
+
+  /**
+   * Keeps the bitmap of a frame that is not needed anymore to decode the next one into, or
+   * recycles it if there already is one or if the spritesheet has changed.
+   */
+  private void offerBitmapToReuse(Spritesheet spritesheet, Bitmap bitmap) {
+    synchronized (this) {
+      if (spritesheet == mSpritesheet && mBitmapToReuse == null) {
+        mBitmapToReuse = bitmap;
+        return;
+      }
+    }
+    bitmap.recycle();
+  }
+
+  /**
+   * Records the rendered frame if the frames are being recorded and no other frame is being
+   * compressed. The rendered bitmap is only scaled into the recording bitmap on the calling thread,
+   * it is compressed on the executor.
+   */
+  private void maybeRecordFrame(final int frameNumber, Bitmap renderedBitmap) {
+    final CacheKey spritesheetCacheKey;
+    Bitmap recordingBitmap;
+    final int width;
+    final int height;
+    synchronized (this) {
+      if (mRecordedFrames == null || mRecordedFrames[frameNumber] != null || mIsRecording) {
+        return;
+      }
+      mIsRecording = true;
+      spritesheetCacheKey = mSpritesheetCacheKey;
+      width = mSpritesheetWidth;
+      height = mSpritesheetHeight;
+      recordingBitmap = mRecordingBitmap;
+      mRecordingBitmap = null;
+    }
+    if (recordingBitmap == null) {
+      recordingBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+    // The rendered bitmap will be reused, so it is drawn into a bitmap of our own
+    drawScaled(renderedBitmap, recordingBitmap);
+    final Bitmap frame = recordingBitmap;
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              recordFrame(spritesheetCacheKey, frameNumber, frame);
+            } finally {
+              releaseRecordingBitmap(spritesheetCacheKey, frame);
+            }
+          }
+        });
+  }
+
+  /**
+   * Keeps the recording bitmap for the next frame, or recycles it if the spritesheet has changed
+   * or all the frames are recorded.
+   */
+  private void releaseRecordingBitmap(CacheKey spritesheetCacheKey, Bitmap bitmap) {
+    synchronized (this) {
+      mIsRecording = false;
+      if (spritesheetCacheKey.equals(mSpritesheetCacheKey) &&
+          mRecordedFrames != null &&
+          mRecordingBitmap == null) {
+        mRecordingBitmap = bitmap;
+        return;
+      }
+    }
+    bitmap.recycle();
+  }
+
+  /**
+   * Compresses and records the frame, and writes the spritesheet once all the frames are recorded.
+   */
+  private void recordFrame(CacheKey spritesheetCacheKey, int frameNumber, Bitmap frame) {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    if (!frame.compress(mCompressFormat, mCompressQuality, os)) {
+      return;
+    }
+    Spritesheet spritesheet = null;
+    synchronized (this) {
+      if (!spritesheetCacheKey.equals(mSpritesheetCacheKey) ||
+          mRecordedFrames == null ||
+          mRecordedFrames[frameNumber] != null) {
+        return;
+      }
+      mRecordedFrames[frameNumber] = os.toByteArray();
+      mRecordedFrameCount++;
+      if (mRecordedFrameCount == mFrameCount) {
+        spritesheet = new Spritesheet(mSpritesheetWidth, mSpritesheetHeight, mRecordedFrames);
+        mRecordedFrames = null;
+      }
+    }
+    if (spritesheet != null) {
+      try {
+        mSpritesheetDiskCache.write(spritesheetCacheKey, spritesheet);
+      } catch (IOException e) {
+        FLog.w(TAG, e, "Failed to write spritesheet %s", spritesheetCacheKey.getUriString());
+      }
+    }
+  }
+
+  /**
+   * Frames are kept at the display size, but never larger than the image.
+   */
+  private static int getSpritesheetDimension(int intrinsicDimension, int boundsDimension) {
+    if (intrinsicDimension <= 0) {
+      return boundsDimension;
+    }
+    if (boundsDimension <= 0) {
+      return intrinsicDimension;
+    }
+    return Math.min(intrinsicDimension, boundsDimension);
+  }
+}
@@ -25,6 +25,8 @@ import com.facebook.fresco.animation.backend.AnimationBackend;
 import com.facebook.fresco.animation.backend.AnimationInformation;
 import com.facebook.fresco.animation.frame.DropFramesFrameScheduler;
 import com.facebook.fresco.animation.frame.FrameScheduler;
+import com.facebook.fresco.animation.frame.VsyncFrameScheduler;
+import com.facebook.fresco.animation.frame.VsyncTicker;
 
 /**
  * Experimental new animated drawable that uses a supplied
@@ -40,6 +42,10 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
   private AnimationBackend mAnimationBackend;
   @Nullable
   private FrameScheduler mFrameScheduler;
+  // Set if frames are changed on display vsync
+  @Nullable
+  private VsyncFrameScheduler mVsyncFrameScheduler;
+  private boolean mVsyncEnabled;
 
   // Animation parameters
   private volatile boolean mIsRunning;
@@ -72,6 +78,25 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
     }
   };
 
+  /**
+   * Listener that invalidates the drawable on the vsync of the next target frame, only if the
+   * frame to draw has changed since the last draw.
+   */
+  private final VsyncTicker.Listener mVsyncListener = new VsyncTicker.Listener() {
+    @Override
+    public void onVsync(long frameTimeMs) {
+      if (!mIsRunning || mVsyncFrameScheduler == null) {
+        return;
+      }
+      if (mVsyncFrameScheduler.isFrameChangedAt(frameTimeMs - mStartTimeMs)) {
+        invalidateSelf();
+      } else if (getCallback() != null) {
+        // Nothing to draw for this vsync, wait for the next one
+        VsyncTicker.getInstance().schedule(this, frameTimeMs);
+      }
+    }
+  };
+
   public AnimatedDrawable2() {
     this(null);
   }
@@ -79,7 +104,7 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
   public AnimatedDrawable2(
       @Nullable AnimationBackend animationBackend) {
     mAnimationBackend = animationBackend;
-    mFrameScheduler = createSchedulerForBackendAndDelayMethod(mAnimationBackend);
+    updateFrameScheduler();
   }
 
   @Override
@@ -107,8 +132,11 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
       return;
     }
     mIsRunning = true;
-    mStartTimeMs = now();
+    mStartTimeMs = animationNow();
     mLastFrameAnimationTimeMs = -1;
+    if (mVsyncFrameScheduler != null) {
+      mVsyncFrameScheduler.resetStatistics();
+    }
     invalidateSelf();
     mAnimationListener.onAnimationStart(this);
   }
@@ -125,6 +153,9 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
     mStartTimeMs = 0;
     mLastFrameAnimationTimeMs = -1;
     unscheduleSelf(mInvalidateRunnable);
+    if (mVsyncFrameScheduler != null) {
+      VsyncTicker.getInstance().cancel(mVsyncListener);
+    }
     mAnimationListener.onAnimationStop(this);
   }
 
@@ -152,7 +183,7 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
     }
     long actualRenderTimeStartMs = now();
     long animationTimeMs = mIsRunning
-        ? actualRenderTimeStartMs - mStartTimeMs
+        ? Math.max(animationNow() - mStartTimeMs, 0)
         : Math.max(mLastFrameAnimationTimeMs, 0);
 
     // What frame should be drawn?
@@ -239,6 +270,8 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
    * @param animationBackend the animation backend to be used or null
    */
   public void setAnimationBackend(@Nullable AnimationBackend animationBackend) {
+    // Stop first so that the listener of the current scheduler is cancelled
+    stop();
     mAnimationBackend = animationBackend;
     if (mAnimationBackend != null) {
       mFrameScheduler = new DropFramesFrameScheduler(mAnimationBackend);
@@ -248,8 +281,24 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
         mDrawableProperties.applyTo(this);
       }
     }
-    mFrameScheduler = createSchedulerForBackendAndDelayMethod(mAnimationBackend);
+    updateFrameScheduler();
+  }
+
+  /**
+   * Set whether frames should be changed on display vsync, which requires API 16.
+   * Vsyncs of all the animations are handled together, and a vsync at which the frame does not
+   * change does not cause a draw. This will also stop the animation.
+   *
+   * @param vsyncEnabled true to change frames on vsync, false to use the frame durations only
+   */
+  public void setVsyncEnabled(boolean vsyncEnabled) {
     stop();
+    mVsyncEnabled = vsyncEnabled && VsyncTicker.isSupported();
+    updateFrameScheduler();
+  }
+
+  public boolean isVsyncEnabled() {
+    return mVsyncEnabled;
   }
 
   @Nullable
@@ -261,6 +310,29 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
     return mDroppedFrames;
   }
 
+  /**
+   * @return the number of frames skipped since the animation started, 0 if vsync is not enabled
+   */
+  public int getVsyncDroppedFrames() {
+    return mVsyncFrameScheduler == null ? 0 : mVsyncFrameScheduler.getDroppedFrameCount();
+  }
+
+  /**
+   * @return the number of frames drawn more than one vsync after their time since the animation
+   * started, 0 if vsync is not enabled
+   */
+  public int getVsyncLateFrames() {
+    return mVsyncFrameScheduler == null ? 0 : mVsyncFrameScheduler.getLateFrameCount();
+  }
+
+  /**
+   * @return the number of times the last frame has been drawn again since the animation started,
+   * 0 if vsync is not enabled
+   */
+  public int getVsyncDuplicateFrames() {
+    return mVsyncFrameScheduler == null ? 0 : mVsyncFrameScheduler.getDuplicateFrameCount();
+  }
+
   public long getStartTimeMs() {
     return mStartTimeMs;
   }
@@ -280,7 +352,7 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
     }
     stop();
     // In order to jump to a given frame, we have to compute the correct start time
-    mStartTimeMs = now() - mFrameScheduler.getTargetRenderTimeMs(targetFrameNumber);
+    mStartTimeMs = animationNow() - mFrameScheduler.getTargetRenderTimeMs(targetFrameNumber);
     invalidateSelf();
   }
 
@@ -344,7 +416,11 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
    * @param targetAnimationTimeMs the time in ms to update the frame
    */
   private void scheduleNextFrame(long targetAnimationTimeMs) {
-    scheduleSelf(mInvalidateRunnable, mStartTimeMs + targetAnimationTimeMs);
+    if (mVsyncFrameScheduler != null) {
+      VsyncTicker.getInstance().schedule(mVsyncListener, mStartTimeMs + targetAnimationTimeMs);
+    } else {
+      scheduleSelf(mInvalidateRunnable, mStartTimeMs + targetAnimationTimeMs);
+    }
   }
 
   private void onFrameDropped() {
@@ -364,12 +440,36 @@ public class AnimatedDrawable2 extends Drawable implements Animatable, DrawableW
     return SystemClock.uptimeMillis();
   }
 
+  /**
+   * @return the time of the current vsync if vsync is enabled, the current uptime otherwise
+   */
+  private long animationNow() {
+    return mVsyncFrameScheduler != null
+        ? VsyncTicker.getInstance().getFrameTimeMs(now())
+        : now();
+  }
+
+  private void updateFrameScheduler() {
+    if (mVsyncFrameScheduler != null) {
+      // The listener may still be scheduled if the animation ended on its own
+      VsyncTicker.getInstance().cancel(mVsyncListener);
+    }
+    mFrameScheduler = createSchedulerForBackendAndDelayMethod(mAnimationBackend, mVsyncEnabled);
+    mVsyncFrameScheduler = mFrameScheduler instanceof VsyncFrameScheduler
+        ? (VsyncFrameScheduler) mFrameScheduler
+        : null;
+  }
+
   @Nullable
   private static FrameScheduler createSchedulerForBackendAndDelayMethod(
-      @Nullable AnimationBackend animationBackend) {
+      @Nullable AnimationBackend animationBackend,
+      boolean vsyncEnabled) {
     if (animationBackend == null) {
       return null;
     }
+    if (vsyncEnabled) {
+      return new VsyncFrameScheduler(animationBackend);
+    }
     return new DropFramesFrameScheduler(animationBackend);
   }
 
@@ -9,25 +9,37 @@
 
 package com.facebook.fresco.animation.factory;
 
+import javax.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
+import android.graphics.Bitmap;
+
 import android.graphics.Rect;
 import android.net.Uri;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.Supplier;
 import com.facebook.common.time.MonotonicClock;
-import com.facebook.drawee.backends.pipeline.DrawableFactory;
+import com.facebook.drawee.backends.pipeline.KeyedDrawableFactory;
 import com.facebook.fresco.animation.backend.AnimationBackend;
 import com.facebook.fresco.animation.backend.AnimationBackendDelegateWithInactivityCheck;
 import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
 import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
 import com.facebook.fresco.animation.bitmap.cache.FrescoFrameCache;
 import com.facebook.fresco.animation.bitmap.cache.KeepLastFrameCache;
 import com.facebook.fresco.animation.bitmap.cache.NoOpCache;
+import com.facebook.fresco.animation.bitmap.preparation.DefaultBitmapFramePreparer;
+import com.facebook.fresco.animation.bitmap.preparation.PredictiveFramePreparationStrategy;
+import com.facebook.fresco.animation.bitmap.spritesheet.SpritesheetDiskCache;
+import com.facebook.fresco.animation.bitmap.spritesheet.SpritesheetFrameRenderer;
 import com.facebook.fresco.animation.bitmap.wrapper.AnimatedDrawableBackendAnimationInformation;
 import com.facebook.fresco.animation.bitmap.wrapper.AnimatedDrawableBackendFrameRenderer;
 import com.facebook.fresco.animation.drawable.AnimatedDrawable2;
+import com.facebook.fresco.animation.frame.DropFramesFrameScheduler;
 import com.facebook.imagepipeline.animated.base.AnimatedDrawableBackend;
 import com.facebook.imagepipeline.animated.base.AnimatedImage;
 import com.facebook.imagepipeline.animated.base.AnimatedImageResult;
@@ -45,8 +57,14 @@ import com.facebook.imagepipeline.image.CloseableImage;
  * {@link BitmapAnimationBackend} and does not rely on
  * {@link com.facebook.imagepipeline.animated.base.AnimatedDrawableCachingBackend}
  * to do the caching.
+ *
+ * If an executor for frame preparation is given, the frames that will be drawn next are rendered
+ * ahead of time into the Fresco frame cache, see {@link PredictiveFramePreparationStrategy}.
+ *
+ * If a {@link SpritesheetDiskCache} is given, the composited frames of the animations whose cache
+ * key is known are also kept on disk, see {@link SpritesheetFrameRenderer}.
  */
-public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFactory {
+public class ExperimentalBitmapAnimationDrawableFactory implements KeyedDrawableFactory {
 
   public static final int CACHING_STRATEGY_NO_CACHE = 0;
   public static final int CACHING_STRATEGY_FRESCO_CACHE = 1;
@@ -59,6 +77,14 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
   private final PlatformBitmapFactory mPlatformBitmapFactory;
   private final CountingMemoryCache<CacheKey, CloseableImage> mBackingCache;
   private final Supplier<Integer> mCachingStrategySupplier;
+  @Nullable
+  private final ExecutorService mExecutorServiceForFramePreparing;
+  @Nullable
+  private final Supplier<Integer> mNumberOfFramesToPrepareSupplier;
+  @Nullable
+  private final SpritesheetDiskCache mSpritesheetDiskCache;
+  @Nullable
+  private final Executor mExecutorForSpritesheets;
 
   public ExperimentalBitmapAnimationDrawableFactory(
       AnimatedDrawableBackendProvider animatedDrawableBackendProvider,
@@ -67,12 +93,70 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
       PlatformBitmapFactory platformBitmapFactory,
       CountingMemoryCache<CacheKey, CloseableImage> backingCache,
       Supplier<Integer> cachingStrategySupplier) {
+    this(
+        animatedDrawableBackendProvider,
+        scheduledExecutorServiceForUiThread,
+        monotonicClock,
+        platformBitmapFactory,
+        backingCache,
+        cachingStrategySupplier,
+        null,
+        null);
+  }
+
+  /**
+   * @param executorServiceForFramePreparing the executor to prepare frames on, or null to render
+   *   each frame when it is drawn
+   * @param numberOfFramesToPrepareSupplier the number of frames to prepare ahead of the drawn one
+   */
+  public ExperimentalBitmapAnimationDrawableFactory(
+      AnimatedDrawableBackendProvider animatedDrawableBackendProvider,
+      ScheduledExecutorService scheduledExecutorServiceForUiThread,
+      MonotonicClock monotonicClock,
+      PlatformBitmapFactory platformBitmapFactory,
+      CountingMemoryCache<CacheKey, CloseableImage> backingCache,
+      Supplier<Integer> cachingStrategySupplier,
+      @Nullable ExecutorService executorServiceForFramePreparing,
+      @Nullable Supplier<Integer> numberOfFramesToPrepareSupplier) {
+    this(
+        animatedDrawableBackendProvider,
+        scheduledExecutorServiceForUiThread,
+        monotonicClock,
+        platformBitmapFactory,
+        backingCache,
+        cachingStrategySupplier,
+        executorServiceForFramePreparing,
+        numberOfFramesToPrepareSupplier,
+        null,
+        null);
+  }
+
+  /**
+   * @param spritesheetDiskCache the disk cache to keep the composited frames in, or null to not
+   *   keep them on disk
+   * @param executorForSpritesheets the executor for disk access and compression of the frames
+   */
+  public ExperimentalBitmapAnimationDrawableFactory(
+      AnimatedDrawableBackendProvider animatedDrawableBackendProvider,
+      ScheduledExecutorService scheduledExecutorServiceForUiThread,
+      MonotonicClock monotonicClock,
+      PlatformBitmapFactory platformBitmapFactory,
+      CountingMemoryCache<CacheKey, CloseableImage> backingCache,
+      Supplier<Integer> cachingStrategySupplier,
+      @Nullable ExecutorService executorServiceForFramePreparing,
+      @Nullable Supplier<Integer> numberOfFramesToPrepareSupplier,
+      @Nullable SpritesheetDiskCache spritesheetDiskCache,
+      @Nullable Executor executorForSpritesheets) {
     mAnimatedDrawableBackendProvider = animatedDrawableBackendProvider;
     mScheduledExecutorServiceForUiThread = scheduledExecutorServiceForUiThread;
     mMonotonicClock = monotonicClock;
     mPlatformBitmapFactory = platformBitmapFactory;
     mBackingCache = backingCache;
     mCachingStrategySupplier = cachingStrategySupplier;
+    mExecutorServiceForFramePreparing = executorServiceForFramePreparing;
+    mNumberOfFramesToPrepareSupplier = numberOfFramesToPrepareSupplier;
+    mSpritesheetDiskCache = spritesheetDiskCache;
+    mExecutorForSpritesheets = executorForSpritesheets;
   }
 
   @Override
@@ -82,22 +166,68 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
 
   @Override
   public AnimatedDrawable2 createDrawable(CloseableImage image) {
+    return createDrawable(image, null);
+  }
+
+  @Override
+  public AnimatedDrawable2 createDrawable(CloseableImage image, @Nullable CacheKey cacheKey) {
     return new AnimatedDrawable2(
         createAnimationBackend(
-            ((CloseableAnimatedImage) image).getImageResult()));
+            ((CloseableAnimatedImage) image).getImageResult(),
+            cacheKey));
   }
 
-  private AnimationBackend createAnimationBackend(AnimatedImageResult animatedImageResult) {
+  private AnimationBackend createAnimationBackend(
+      AnimatedImageResult animatedImageResult,
+      @Nullable CacheKey imageCacheKey) {
     AnimatedDrawableBackend animatedDrawableBackend =
         createAnimatedDrawableBackend(animatedImageResult);
 
-    BitmapFrameCache bitmapFrameCache = createBitmapFrameCache(animatedImageResult);
+    int cachingStrategy = mCachingStrategySupplier.get();
+    BitmapFrameCache bitmapFrameCache =
+        createBitmapFrameCache(cachingStrategy, animatedImageResult);
+    AnimatedDrawableBackendAnimationInformation animationInformation =
+        new AnimatedDrawableBackendAnimationInformation(animatedDrawableBackend);
+    BitmapFrameRenderer bitmapFrameRenderer =
+        new AnimatedDrawableBackendFrameRenderer(bitmapFrameCache, animatedDrawableBackend);
+    if (mSpritesheetDiskCache != null &&
+        mExecutorForSpritesheets != null &&
+        imageCacheKey != null) {
+      bitmapFrameRenderer = new SpritesheetFrameRenderer(
+          bitmapFrameRenderer,
+          mSpritesheetDiskCache,
+          imageCacheKey,
+          animatedDrawableBackend.getFrameCount(),
+          mExecutorForSpritesheets,
+          Bitmap.CompressFormat.PNG,
+          100);
+    }
+
+    PredictiveFramePreparationStrategy framePreparationStrategy = null;
+    DefaultBitmapFramePreparer framePreparer = null;
+    int numberOfFramesToPrepare = getNumberOfFramesToPrepare();
+    // Only the Fresco frame cache keeps frames that have not been drawn yet
+    if (mExecutorServiceForFramePreparing != null &&
+        numberOfFramesToPrepare > 0 &&
+        (cachingStrategy == CACHING_STRATEGY_FRESCO_CACHE ||
+            cachingStrategy == CACHING_STRATEGY_FRESCO_CACHE_NO_REUSING)) {
+      framePreparationStrategy = new PredictiveFramePreparationStrategy(
+          new DropFramesFrameScheduler(animationInformation),
+          numberOfFramesToPrepare);
+      framePreparer = new DefaultBitmapFramePreparer(
+          mPlatformBitmapFactory,
+          bitmapFrameRenderer,
+          Bitmap.Config.ARGB_8888,
+          mExecutorServiceForFramePreparing);
+    }
 
     BitmapAnimationBackend bitmapAnimationBackend = new BitmapAnimationBackend(
         mPlatformBitmapFactory,
         bitmapFrameCache,
-        new AnimatedDrawableBackendAnimationInformation(animatedDrawableBackend),
-        new AnimatedDrawableBackendFrameRenderer(bitmapFrameCache, animatedDrawableBackend));
+        animationInformation,
+        bitmapFrameRenderer,
+        framePreparationStrategy,
+        framePreparer);
 
     return AnimationBackendDelegateWithInactivityCheck.createForBackend(
         bitmapAnimationBackend,
@@ -112,8 +242,14 @@ public class ExperimentalBitmapAnimationDrawableFactory implements DrawableFacto
     return mAnimatedDrawableBackendProvider.get(animatedImageResult, initialBounds);
   }
 
-  private BitmapFrameCache createBitmapFrameCache(AnimatedImageResult animatedImageResult) {
-    switch (mCachingStrategySupplier.get()) {
+  private int getNumberOfFramesToPrepare() {
+    return mNumberOfFramesToPrepareSupplier == null ? 0 : mNumberOfFramesToPrepareSupplier.get();
+  }
+
+  private BitmapFrameCache createBitmapFrameCache(
+      int cachingStrategy,
+      AnimatedImageResult animatedImageResult) {
+    switch (cachingStrategy) {
       case CACHING_STRATEGY_FRESCO_CACHE:
         return new FrescoFrameCache(createAnimatedFrameCache(animatedImageResult), true);
       case CACHING_STRATEGY_FRESCO_CACHE_NO_REUSING:
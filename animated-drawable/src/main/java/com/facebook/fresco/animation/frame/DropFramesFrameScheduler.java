@@ -55,7 +55,7 @@ public class DropFramesFrameScheduler implements FrameScheduler {
   public long getTargetRenderTimeMs(int frameNumber) {
     long targetRenderTimeMs = 0;
     for (int i = 0; i < frameNumber; i++) {
-      targetRenderTimeMs += mAnimationInformation.getFrameDurationMs(frameNumber);
+      targetRenderTimeMs += mAnimationInformation.getFrameDurationMs(i);
     }
     return targetRenderTimeMs;
   }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.frame;
+
+import java.util.concurrent.TimeUnit;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.fresco.animation.backend.AnimationInformation;
+
+/**
+ * Frame scheduler for animations that are drawn on display vsync.
+ *
+ * <p> Frames are mapped to animation times like {@link DropFramesFrameScheduler} does, but the
+ * target render time of the next frame is moved to the first vsync at or after it, since a frame
+ * change cannot become visible any earlier. Vsyncs are assumed to be at multiples of the vsync
+ * interval in animation time.
+ *
+ * <p> The scheduler also keeps track of the frames it returns:
+ * <ul>
+ *   <li> dropped frames are frames that have never been rendered since their turn has passed,
+ *   <li> late frames are frames rendered for the first time more than one vsync after their
+ *   target render time,
+ *   <li> duplicate frames are renders of the same frame as the last render.
+ * </ul>
+ */
+public class VsyncFrameScheduler implements FrameScheduler {
+
+  /**
+   * Vsync interval of a 60 Hz display.
+   */
+  public static final long DEFAULT_VSYNC_INTERVAL_NS = 16666667;
+
+  private static final int UNSET = -1;
+  private static final long NS_PER_MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final AnimationInformation mAnimationInformation;
+  private final DropFramesFrameScheduler mFrameScheduler;
+  private final long mVsyncIntervalNs;
+
+  private int mLastFrameNumber = UNSET;
+  private long mLastFrameAnimationTimeMs = UNSET;
+
+  // Animation statistics
+  private int mDroppedFrameCount;
+  private int mLateFrameCount;
+  private int mDuplicateFrameCount;
+
+  public VsyncFrameScheduler(AnimationInformation animationInformation) {
+    this(animationInformation, DEFAULT_VSYNC_INTERVAL_NS);
+  }
+
+  public VsyncFrameScheduler(AnimationInformation animationInformation, long vsyncIntervalNs) {
+    Preconditions.checkArgument(vsyncIntervalNs > 0);
+    mAnimationInformation = animationInformation;
+    mFrameScheduler = new DropFramesFrameScheduler(animationInformation);
+    mVsyncIntervalNs = vsyncIntervalNs;
+  }
+
+  @Override
+  public int getFrameNumberToRender(long animationTimeMs, long lastFrameTimeMs) {
+    int frameNumber = mFrameScheduler.getFrameNumberToRender(animationTimeMs, lastFrameTimeMs);
+    if (frameNumber != FRAME_NUMBER_DONE) {
+      onFrameRendered(frameNumber, animationTimeMs);
+    }
+    return frameNumber;
+  }
+
+  @Override
+  public long getLoopDurationMs() {
+    return mFrameScheduler.getLoopDurationMs();
+  }
+
+  @Override
+  public long getTargetRenderTimeMs(int frameNumber) {
+    return mFrameScheduler.getTargetRenderTimeMs(frameNumber);
+  }
+
+  @Override
+  public long getTargetRenderTimeForNextFrameMs(long animationTimeMs) {
+    long targetRenderTimeMs = mFrameScheduler.getTargetRenderTimeForNextFrameMs(animationTimeMs);
+    if (targetRenderTimeMs == NO_NEXT_TARGET_RENDER_TIME) {
+      return NO_NEXT_TARGET_RENDER_TIME;
+    }
+    return alignToVsync(targetRenderTimeMs);
+  }
+
+  @Override
+  public boolean isInfiniteAnimation() {
+    return mFrameScheduler.isInfiniteAnimation();
+  }
+
+  /**
+   * Checks whether the frame to render at the given time differs from the last rendered frame,
+   * without keeping track of it. There is no need to render anything at a vsync for which this
+   * returns false.
+   *
+   * @param animationTimeMs the animation time of the vsync
+   * @return true if a new frame has to be rendered
+   */
+  public boolean isFrameChangedAt(long animationTimeMs) {
+    int frameNumber = mFrameScheduler.getFrameNumberToRender(animationTimeMs, UNSET);
+    return frameNumber == FRAME_NUMBER_DONE || frameNumber != mLastFrameNumber;
+  }
+
+  public long getVsyncIntervalNs() {
+    return mVsyncIntervalNs;
+  }
+
+  public int getDroppedFrameCount() {
+    return mDroppedFrameCount;
+  }
+
+  public int getLateFrameCount() {
+    return mLateFrameCount;
+  }
+
+  public int getDuplicateFrameCount() {
+    return mDuplicateFrameCount;
+  }
+
+  /**
+   * Forgets the last rendered frame and resets the statistics, e.g. when the animation restarts.
+   */
+  public void resetStatistics() {
+    mLastFrameNumber = UNSET;
+    mLastFrameAnimationTimeMs = UNSET;
+    mDroppedFrameCount = 0;
+    mLateFrameCount = 0;
+    mDuplicateFrameCount = 0;
+  }
+
+  /**
+   * Gets the animation time of the first vsync at or after the given time, in whole milliseconds
+   * like vsync times are reported.
+   */
+  @VisibleForTesting
+  long alignToVsync(long animationTimeMs) {
+    long vsyncCount = (animationTimeMs * NS_PER_MS + mVsyncIntervalNs - 1) / mVsyncIntervalNs;
+    return vsyncCount * mVsyncIntervalNs / NS_PER_MS;
+  }
+
+  private void onFrameRendered(int frameNumber, long animationTimeMs) {
+    if (frameNumber == mLastFrameNumber) {
+      mDuplicateFrameCount++;
+      mLastFrameAnimationTimeMs = animationTimeMs;
+      return;
+    }
+    long loopDurationMs = getLoopDurationMs();
+    if (mLastFrameNumber != UNSET && animationTimeMs > mLastFrameAnimationTimeMs) {
+      long loopsPassed =
+          animationTimeMs / loopDurationMs - mLastFrameAnimationTimeMs / loopDurationMs;
+      long framesPassed =
+          loopsPassed * mAnimationInformation.getFrameCount() + frameNumber - mLastFrameNumber;
+      mDroppedFrameCount += Math.max(framesPassed - 1, 0);
+    }
+    long targetRenderTimeMs = animationTimeMs - animationTimeMs % loopDurationMs
+        + getTargetRenderTimeMs(frameNumber);
+    // Animation times are whole milliseconds, so allow for 1 ms of rounding
+    if ((animationTimeMs - targetRenderTimeMs - 1) * NS_PER_MS >= mVsyncIntervalNs) {
+      mLateFrameCount++;
+    }
+    mLastFrameNumber = frameNumber;
+    mLastFrameAnimationTimeMs = animationTimeMs;
+  }
+}
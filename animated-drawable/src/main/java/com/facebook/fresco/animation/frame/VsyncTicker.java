@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.frame;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.AwakeTimeSinceBootClock;
+import com.facebook.common.time.MonotonicClock;
+
+/**
+ * Notifies animations of display vsyncs.
+ *
+ * <p> All the animations share a single {@link Choreographer} frame callback, which is only posted
+ * for the vsync just before the earliest time an animation is waiting for, so that animations
+ * showing long frames do not cause a callback on every vsync. The animations that are due are
+ * notified from that same callback, so that their invalidations are coalesced into a single
+ * traversal per vsync instead of one per animation.
+ *
+ * <p> This class is not thread safe and must only be used on the UI thread.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public class VsyncTicker {
+
+  /**
+   * Listener for the vsync an animation has been scheduled for.
+   */
+  public interface Listener {
+
+    /**
+     * Called on the vsync closest to the time the listener has been scheduled for. The listener
+     * is not scheduled anymore once called.
+     *
+     * @param frameTimeMs the time of the vsync, in the {@link SystemClock#uptimeMillis()} time base
+     */
+    void onVsync(long frameTimeMs);
+  }
+
+  private static final long UNSET = -1;
+
+  @Nullable
+  private static VsyncTicker sInstance;
+
+  private final Choreographer mChoreographer;
+  private final long mVsyncIntervalMs;
+  private final MonotonicClock mClock;
+
+  // The time each scheduled listener is waiting for, in scheduling order
+  private final Map<Listener, Long> mScheduledListeners = new LinkedHashMap<>();
+
+  private boolean mFrameCallbackPosted;
+  // The earliest time a listener was waiting for when the frame callback was posted
+  private long mFrameCallbackTargetTimeMs;
+  private long mLastFrameTimeMs = UNSET;
+
+  private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      onFrame(TimeUnit.NANOSECONDS.toMillis(frameTimeNanos));
+    }
+  };
+
+  /**
+   * @return true if vsync is available on this device
+   */
+  public static boolean isSupported() {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+  }
+
+  /**
+   * Gets the ticker of the UI thread. Must be called on the UI thread.
+   */
+  public static VsyncTicker getInstance() {
+    if (sInstance == null) {
+      sInstance = new VsyncTicker(
+          Choreographer.getInstance(),
+          VsyncFrameScheduler.DEFAULT_VSYNC_INTERVAL_NS,
+          AwakeTimeSinceBootClock.get());
+    }
+    return sInstance;
+  }
+
+  @VisibleForTesting
+  VsyncTicker(Choreographer choreographer, long vsyncIntervalNs, MonotonicClock clock) {
+    mChoreographer = choreographer;
+    mVsyncIntervalMs = TimeUnit.NANOSECONDS.toMillis(vsyncIntervalNs);
+    mClock = clock;
+  }
+
+  /**
+   * Schedules the listener for the vsync closest to the given time, replacing any time it was
+   * scheduled for. A time that has already passed schedules the listener for the next vsync.
+   *
+   * @param listener the listener to notify
+   * @param targetTimeMs the time, in the {@link SystemClock#uptimeMillis()} time base
+   */
+  public void schedule(Listener listener, long targetTimeMs) {
+    mScheduledListeners.put(listener, targetTimeMs);
+    if (!mFrameCallbackPosted || targetTimeMs < mFrameCallbackTargetTimeMs) {
+      postFrameCallbackForEarliestListener();
+    }
+  }
+
+  public void cancel(Listener listener) {
+    mScheduledListeners.remove(listener);
+    if (mScheduledListeners.isEmpty() && mFrameCallbackPosted) {
+      mFrameCallbackPosted = false;
+      removeFrameCallback();
+    }
+  }
+
+  public int getScheduledListenerCount() {
+    return mScheduledListeners.size();
+  }
+
+  /**
+   * Gets the time animations should be drawn for. This is the time of the last vsync if it is
+   * less than one vsync interval old, so that all the animations drawn for a vsync agree on the
+   * time and change frames on vsync boundaries.
+   *
+   * @param nowMs the current time, in the {@link SystemClock#uptimeMillis()} time base
+   * @return the time of the last vsync or the given time
+   */
+  public long getFrameTimeMs(long nowMs) {
+    if (mLastFrameTimeMs != UNSET && nowMs - mLastFrameTimeMs < mVsyncIntervalMs) {
+      return mLastFrameTimeMs;
+    }
+    return nowMs;
+  }
+
+  @VisibleForTesting
+  void onFrame(long frameTimeMs) {
+    mFrameCallbackPosted = false;
+    mLastFrameTimeMs = frameTimeMs;
+    // Listeners scheduled while notifying are only due for the next vsync
+    List<Listener> dueListeners = new ArrayList<>();
+    Iterator<Map.Entry<Listener, Long>> iterator = mScheduledListeners.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Listener, Long> entry = iterator.next();
+      if (entry.getValue() - mVsyncIntervalMs / 2 <= frameTimeMs) {
+        dueListeners.add(entry.getKey());
+        iterator.remove();
+      }
+    }
+    for (int i = 0; i < dueListeners.size(); i++) {
+      dueListeners.get(i).onVsync(frameTimeMs);
+    }
+    if (!mScheduledListeners.isEmpty() && !mFrameCallbackPosted) {
+      postFrameCallbackForEarliestListener();
+    }
+  }
+
+  @VisibleForTesting
+  void postFrameCallbackDelayed(long delayMs) {
+    mChoreographer.postFrameCallbackDelayed(mFrameCallback, delayMs);
+  }
+
+  @VisibleForTesting
+  void removeFrameCallback() {
+    mChoreographer.removeFrameCallback(mFrameCallback);
+  }
+
+  private void postFrameCallbackForEarliestListener() {
+    long earliestTargetTimeMs = Long.MAX_VALUE;
+    for (long targetTimeMs : mScheduledListeners.values()) {
+      earliestTargetTimeMs = Math.min(earliestTargetTimeMs, targetTimeMs);
+    }
+    if (mFrameCallbackPosted) {
+      removeFrameCallback();
+    }
+    mFrameCallbackPosted = true;
+    mFrameCallbackTargetTimeMs = earliestTargetTimeMs;
+    // Listeners are due at the vsync closest to their time. Wake up one vsync earlier than that so
+    // that the rounding of the delay never makes us miss it, at the cost of one idle callback.
+    long delayMs =
+        earliestTargetTimeMs - mVsyncIntervalMs / 2 - mVsyncIntervalMs - mClock.now();
+    postFrameCallbackDelayed(Math.max(delayMs, 0));
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.graphics.Bitmap;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapAnimationBackend;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link DefaultBitmapFramePreparer}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DefaultBitmapFramePreparerTest {
+
+  private static final int FRAME_NUMBER = 1;
+  private static final int WIDTH = 100;
+  private static final int HEIGHT = 50;
+
+  @Mock public PlatformBitmapFactory mPlatformBitmapFactory;
+  @Mock public BitmapFrameRenderer mBitmapFrameRenderer;
+  @Mock public BitmapFrameCache mBitmapFrameCache;
+  @Mock public AnimationBackend mAnimationBackend;
+  @Mock public Bitmap mBitmap;
+  @Mock public ResourceReleaser<Bitmap> mBitmapResourceReleaser;
+
+  private List<Runnable> mTasks;
+  private DefaultBitmapFramePreparer mBitmapFramePreparer;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(mAnimationBackend.getIntrinsicWidth()).thenReturn(WIDTH);
+    when(mAnimationBackend.getIntrinsicHeight()).thenReturn(HEIGHT);
+    when(mBitmapFrameCache.getBitmapToReuseForFrame(FRAME_NUMBER, WIDTH, HEIGHT))
+        .thenReturn(CloseableReference.of(mBitmap, mBitmapResourceReleaser));
+    mTasks = new ArrayList<>();
+    mBitmapFramePreparer = new DefaultBitmapFramePreparer(
+        mPlatformBitmapFactory,
+        mBitmapFrameRenderer,
+        Bitmap.Config.ARGB_8888,
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            mTasks.add(command);
+          }
+        });
+  }
+
+  @Test
+  public void testCachesPreparedFrame() {
+    when(mBitmapFrameRenderer.renderFrame(FRAME_NUMBER, mBitmap)).thenReturn(true);
+
+    assertThat(mBitmapFramePreparer.prepareFrame(
+        mBitmapFrameCache,
+        mAnimationBackend,
+        FRAME_NUMBER)).isTrue();
+    runTasks();
+
+    verify(mBitmapFrameCache).onFramePrepared(
+        eq(FRAME_NUMBER),
+        any(CloseableReference.class),
+        eq(BitmapAnimationBackend.FRAME_TYPE_REUSED));
+  }
+
+  @Test
+  public void testDoesNotCacheFrameCancelledWhileRendering() {
+    when(mBitmapFrameRenderer.renderFrame(FRAME_NUMBER, mBitmap)).thenAnswer(
+        new Answer<Boolean>() {
+          @Override
+          public Boolean answer(InvocationOnMock invocation) throws Throwable {
+            mBitmapFramePreparer.cancelPendingFrames();
+            return true;
+          }
+        });
+
+    mBitmapFramePreparer.prepareFrame(mBitmapFrameCache, mAnimationBackend, FRAME_NUMBER);
+    runTasks();
+
+    verify(mBitmapFrameCache, never()).onFramePrepared(
+        anyInt(),
+        any(CloseableReference.class),
+        anyInt());
+    verify(mBitmapResourceReleaser).release(mBitmap);
+  }
+
+  @Test
+  public void testTryRenderFrameDoesNotWaitForFramePreparation() {
+    final AtomicBoolean renderedWhilePreparing = new AtomicBoolean(true);
+    when(mBitmapFrameRenderer.renderFrame(FRAME_NUMBER, mBitmap)).thenAnswer(
+        new Answer<Boolean>() {
+          @Override
+          public Boolean answer(InvocationOnMock invocation) throws Throwable {
+            Thread thread = new Thread() {
+              @Override
+              public void run() {
+                renderedWhilePreparing.set(mBitmapFramePreparer.tryRenderFrame(0, mBitmap));
+              }
+            };
+            thread.start();
+            thread.join();
+            return true;
+          }
+        });
+
+    mBitmapFramePreparer.prepareFrame(mBitmapFrameCache, mAnimationBackend, FRAME_NUMBER);
+    runTasks();
+
+    assertThat(renderedWhilePreparing.get()).isFalse();
+    verify(mBitmapFrameRenderer, never()).renderFrame(eq(0), any(Bitmap.class));
+
+    // the renderer can be used once the frame has been prepared
+    when(mBitmapFrameRenderer.renderFrame(0, mBitmap)).thenReturn(true);
+    assertThat(mBitmapFramePreparer.tryRenderFrame(0, mBitmap)).isTrue();
+  }
+
+  private void runTasks() {
+    while (!mTasks.isEmpty()) {
+      mTasks.remove(0).run();
+    }
+  }
+}
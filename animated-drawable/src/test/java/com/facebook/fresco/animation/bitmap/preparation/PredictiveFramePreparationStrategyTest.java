@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.preparation;
+
+import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.backend.AnimationInformation;
+import com.facebook.fresco.animation.bitmap.BitmapFrameCache;
+import com.facebook.fresco.animation.frame.DropFramesFrameScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests {@link PredictiveFramePreparationStrategy}.
+ */
+public class PredictiveFramePreparationStrategyTest {
+
+  private static final int FRAME_COUNT = 4;
+
+  @Mock public AnimationInformation mAnimationInformation;
+  @Mock public BitmapFramePreparer mBitmapFramePreparer;
+  @Mock public BitmapFrameCache mBitmapFrameCache;
+  @Mock public AnimationBackend mAnimationBackend;
+
+  private DropFramesFrameScheduler mFrameScheduler;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    when(mAnimationInformation.getFrameCount()).thenReturn(FRAME_COUNT);
+    when(mAnimationInformation.getLoopCount())
+        .thenReturn(AnimationInformation.LOOP_COUNT_INFINITE);
+    // Frames of different durations: 100, 200, 300, 400 ms
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      when(mAnimationInformation.getFrameDurationMs(i)).thenReturn((i + 1) * 100);
+    }
+    when(mBitmapFramePreparer.prepareFrame(
+        any(BitmapFrameCache.class),
+        any(AnimationBackend.class),
+        anyInt()))
+        .thenReturn(true);
+    mFrameScheduler = new DropFramesFrameScheduler(mAnimationInformation);
+  }
+
+  @Test
+  public void testPreparesNextFramesAcrossLoops() {
+    new PredictiveFramePreparationStrategy(mFrameScheduler, 2)
+        .prepareFrames(mBitmapFramePreparer, mBitmapFrameCache, mAnimationBackend, 2);
+
+    InOrder inOrder = inOrder(mBitmapFramePreparer);
+    inOrder.verify(mBitmapFramePreparer).prepareFrame(mBitmapFrameCache, mAnimationBackend, 3);
+    inOrder.verify(mBitmapFramePreparer).prepareFrame(mBitmapFrameCache, mAnimationBackend, 0);
+    verifyNoMoreInteractions(mBitmapFramePreparer);
+  }
+
+  @Test
+  public void testStopsAfterOneLoop() {
+    new PredictiveFramePreparationStrategy(mFrameScheduler, 10)
+        .prepareFrames(mBitmapFramePreparer, mBitmapFrameCache, mAnimationBackend, 1);
+
+    InOrder inOrder = inOrder(mBitmapFramePreparer);
+    inOrder.verify(mBitmapFramePreparer).prepareFrame(mBitmapFrameCache, mAnimationBackend, 2);
+    inOrder.verify(mBitmapFramePreparer).prepareFrame(mBitmapFrameCache, mAnimationBackend, 3);
+    inOrder.verify(mBitmapFramePreparer).prepareFrame(mBitmapFrameCache, mAnimationBackend, 0);
+    verifyNoMoreInteractions(mBitmapFramePreparer);
+  }
+
+  @Test
+  public void testStopsAtEndOfAnimation() {
+    when(mAnimationInformation.getLoopCount()).thenReturn(1);
+
+    new PredictiveFramePreparationStrategy(mFrameScheduler, 10)
+        .prepareFrames(mBitmapFramePreparer, mBitmapFrameCache, mAnimationBackend, 2);
+
+    verify(mBitmapFramePreparer).prepareFrame(mBitmapFrameCache, mAnimationBackend, 3);
+    verifyNoMoreInteractions(mBitmapFramePreparer);
+  }
+
+  @Test
+  public void testStopsWhenFrameCannotBePrepared() {
+    when(mBitmapFramePreparer.prepareFrame(
+        any(BitmapFrameCache.class),
+        any(AnimationBackend.class),
+        anyInt()))
+        .thenReturn(false);
+
+    new PredictiveFramePreparationStrategy(mFrameScheduler, 3)
+        .prepareFrames(mBitmapFramePreparer, mBitmapFrameCache, mAnimationBackend, 0);
+
+    verify(mBitmapFramePreparer).prepareFrame(mBitmapFrameCache, mAnimationBackend, 1);
+    verifyNoMoreInteractions(mBitmapFramePreparer);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.spritesheet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+
+import com.facebook.binaryresource.ByteArrayBinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.FileCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link SpritesheetDiskCache}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SpritesheetDiskCacheTest {
+
+  private static final CacheKey KEY = new SimpleCacheKey("key");
+
+  private FileCache mFileCache;
+  private SpritesheetDiskCache mSpritesheetDiskCache;
+
+  @Before
+  public void setUp() {
+    mFileCache = mock(FileCache.class);
+    mSpritesheetDiskCache = new SpritesheetDiskCache(mFileCache);
+  }
+
+  @Test
+  public void testGetSpritesheetCacheKey() {
+    CacheKey imageCacheKey = new SimpleCacheKey("http://image.gif");
+    assertThat(SpritesheetDiskCache.getSpritesheetCacheKey(imageCacheKey, 10, 20))
+        .isEqualTo(SpritesheetDiskCache.getSpritesheetCacheKey(imageCacheKey, 10, 20));
+    assertThat(SpritesheetDiskCache.getSpritesheetCacheKey(imageCacheKey, 10, 20))
+        .isNotEqualTo(SpritesheetDiskCache.getSpritesheetCacheKey(imageCacheKey, 20, 10));
+  }
+
+  @Test
+  public void testGetSpritesheetCacheKeyDependsOnTheWholeImageKey() {
+    CacheKey imageCacheKey = new SimpleCacheKey("http://image.gif");
+    CacheKey resizedImageCacheKey = new SimpleCacheKey("http://image.gif") {
+      @Override
+      public String toString() {
+        return "http://image.gif#resized";
+      }
+    };
+    assertThat(SpritesheetDiskCache.getSpritesheetCacheKey(imageCacheKey, 10, 20).getUriString())
+        .isNotEqualTo(
+            SpritesheetDiskCache.getSpritesheetCacheKey(resizedImageCacheKey, 10, 20)
+                .getUriString());
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    Spritesheet spritesheet =
+        new Spritesheet(10, 20, new byte[][] {new byte[] {1, 2, 3}, new byte[0], new byte[] {4}});
+    mSpritesheetDiskCache.write(KEY, spritesheet);
+
+    ArgumentCaptor<WriterCallback> writerCaptor = ArgumentCaptor.forClass(WriterCallback.class);
+    verify(mFileCache).insert(any(CacheKey.class), writerCaptor.capture());
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    writerCaptor.getValue().write(os);
+    when(mFileCache.getResource(KEY)).thenReturn(new ByteArrayBinaryResource(os.toByteArray()));
+
+    Spritesheet readSpritesheet = mSpritesheetDiskCache.read(KEY);
+    assertThat(readSpritesheet.getWidth()).isEqualTo(10);
+    assertThat(readSpritesheet.getHeight()).isEqualTo(20);
+    assertThat(readSpritesheet.getFrameCount()).isEqualTo(3);
+    assertThat(readSpritesheet.getCompressedFrame(0)).isEqualTo(new byte[] {1, 2, 3});
+    assertThat(readSpritesheet.getCompressedFrame(1)).isEmpty();
+    assertThat(readSpritesheet.getCompressedFrame(2)).isEqualTo(new byte[] {4});
+  }
+
+  @Test
+  public void testReadMissingSpritesheet() {
+    assertThat(mSpritesheetDiskCache.read(KEY)).isNull();
+  }
+
+  @Test
+  public void testReadCorruptedSpritesheetRemovesIt() {
+    when(mFileCache.getResource(KEY))
+        .thenReturn(new ByteArrayBinaryResource(new byte[] {1, 2, 3, 4, 5}));
+
+    assertThat(mSpritesheetDiskCache.read(KEY)).isNull();
+    verify(mFileCache).remove(KEY);
+  }
+
+  @Test
+  public void testReadSpritesheetWithInvalidSizesRemovesIt() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(os);
+    dos.writeInt(0x46535348);
+    dos.writeInt(1);
+    dos.writeInt(10);
+    dos.writeInt(20);
+    dos.writeInt(1);
+    // far more bytes than the entry holds
+    dos.writeInt(Integer.MAX_VALUE);
+    when(mFileCache.getResource(KEY)).thenReturn(new ByteArrayBinaryResource(os.toByteArray()));
+
+    assertThat(mSpritesheetDiskCache.read(KEY)).isNull();
+    verify(mFileCache).remove(KEY);
+  }
+}
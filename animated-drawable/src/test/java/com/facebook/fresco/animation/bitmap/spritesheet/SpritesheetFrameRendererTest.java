@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.bitmap.spritesheet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.fresco.animation.bitmap.BitmapFrameRenderer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests {@link SpritesheetFrameRenderer}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SpritesheetFrameRendererTest {
+
+  private static final CacheKey IMAGE_CACHE_KEY = new SimpleCacheKey("http://image.gif");
+  private static final int FRAME_COUNT = 3;
+  private static final int WIDTH = 100;
+  private static final int HEIGHT = 50;
+
+  private BitmapFrameRenderer mBitmapFrameRenderer;
+  private SpritesheetDiskCache mSpritesheetDiskCache;
+  private List<Runnable> mTasks;
+  private Bitmap mTargetBitmap;
+  private SpritesheetFrameRenderer mSpritesheetFrameRenderer;
+
+  @Before
+  public void setUp() {
+    mBitmapFrameRenderer = mock(BitmapFrameRenderer.class);
+    when(mBitmapFrameRenderer.getIntrinsicWidth()).thenReturn(WIDTH);
+    when(mBitmapFrameRenderer.getIntrinsicHeight()).thenReturn(HEIGHT);
+    mSpritesheetDiskCache = mock(SpritesheetDiskCache.class);
+    mTasks = new ArrayList<>();
+    mTargetBitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    mSpritesheetFrameRenderer = new SpritesheetFrameRenderer(
+        mBitmapFrameRenderer,
+        mSpritesheetDiskCache,
+        IMAGE_CACHE_KEY,
+        FRAME_COUNT,
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            mTasks.add(command);
+          }
+        },
+        Bitmap.CompressFormat.PNG,
+        100);
+  }
+
+  @Test
+  public void testReadsTheSpritesheetOfTheDisplaySize() {
+    runTasks();
+    verify(mSpritesheetDiskCache)
+        .read(SpritesheetDiskCache.getSpritesheetCacheKey(IMAGE_CACHE_KEY, WIDTH, HEIGHT));
+
+    // never larger than the image
+    mSpritesheetFrameRenderer.setBounds(new Rect(0, 0, 40, 80));
+    runTasks();
+    verify(mSpritesheetDiskCache)
+        .read(SpritesheetDiskCache.getSpritesheetCacheKey(IMAGE_CACHE_KEY, 40, HEIGHT));
+  }
+
+  @Test
+  public void testRecordsAndWritesTheFrames() throws Exception {
+    runTasks();
+    when(mBitmapFrameRenderer.renderFrame(anyInt(), any(Bitmap.class))).thenReturn(true);
+
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      assertThat(mSpritesheetFrameRenderer.renderFrame(i, mTargetBitmap)).isTrue();
+      runTasks();
+    }
+
+    ArgumentCaptor<Spritesheet> spritesheetCaptor = ArgumentCaptor.forClass(Spritesheet.class);
+    verify(mSpritesheetDiskCache).write(
+        eq(SpritesheetDiskCache.getSpritesheetCacheKey(IMAGE_CACHE_KEY, WIDTH, HEIGHT)),
+        spritesheetCaptor.capture());
+    Spritesheet spritesheet = spritesheetCaptor.getValue();
+    assertThat(spritesheet.getFrameCount()).isEqualTo(FRAME_COUNT);
+    assertThat(spritesheet.getWidth()).isEqualTo(WIDTH);
+    assertThat(spritesheet.getHeight()).isEqualTo(HEIGHT);
+  }
+
+  @Test
+  public void testRecordsOneFrameAtATime() throws Exception {
+    runTasks();
+    when(mBitmapFrameRenderer.renderFrame(anyInt(), any(Bitmap.class))).thenReturn(true);
+
+    mSpritesheetFrameRenderer.renderFrame(0, mTargetBitmap);
+    mSpritesheetFrameRenderer.renderFrame(1, mTargetBitmap);
+    assertThat(mTasks).hasSize(1);
+    runTasks();
+
+    // the skipped frame is recorded the next time it is rendered
+    mSpritesheetFrameRenderer.renderFrame(2, mTargetBitmap);
+    runTasks();
+    verify(mSpritesheetDiskCache, never()).write(any(CacheKey.class), any(Spritesheet.class));
+    mSpritesheetFrameRenderer.renderFrame(1, mTargetBitmap);
+    runTasks();
+    verify(mSpritesheetDiskCache).write(any(CacheKey.class), any(Spritesheet.class));
+  }
+
+  @Test
+  public void testDoesNotRecordFramesThatFailedToRender() {
+    runTasks();
+    when(mBitmapFrameRenderer.renderFrame(anyInt(), any(Bitmap.class))).thenReturn(false);
+
+    assertThat(mSpritesheetFrameRenderer.renderFrame(0, mTargetBitmap)).isFalse();
+    assertThat(mTasks).isEmpty();
+  }
+
+  @Test
+  public void testDrawsDecodedFramesOfTheSpritesheet() {
+    Spritesheet spritesheet = mock(Spritesheet.class);
+    when(spritesheet.getFrameCount()).thenReturn(FRAME_COUNT);
+    when(spritesheet.getWidth()).thenReturn(WIDTH);
+    when(spritesheet.getHeight()).thenReturn(HEIGHT);
+    when(spritesheet.decodeFrame(anyInt(), any(Bitmap.class)))
+        .thenReturn(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    when(mSpritesheetDiskCache.read(any(CacheKey.class))).thenReturn(spritesheet);
+    when(mBitmapFrameRenderer.renderFrame(anyInt(), any(Bitmap.class))).thenReturn(true);
+    runTasks();
+
+    // the first frame is composited while the next one is decoded
+    assertThat(mSpritesheetFrameRenderer.renderFrame(0, mTargetBitmap)).isTrue();
+    verify(mBitmapFrameRenderer).renderFrame(0, mTargetBitmap);
+    runTasks();
+    verify(spritesheet).decodeFrame(eq(1), any(Bitmap.class));
+
+    assertThat(mSpritesheetFrameRenderer.renderFrame(1, mTargetBitmap)).isTrue();
+    verify(mBitmapFrameRenderer, never()).renderFrame(eq(1), any(Bitmap.class));
+  }
+
+  private void runTasks() {
+    while (!mTasks.isEmpty()) {
+      mTasks.remove(0).run();
+    }
+  }
+}
@@ -17,6 +17,7 @@ import android.graphics.drawable.Drawable;
 import android.support.annotation.IntRange;
 
 import com.facebook.fresco.animation.backend.AnimationBackend;
+import com.facebook.fresco.animation.backend.AnimationInformation;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -63,6 +64,17 @@ public class DropFramesFrameSchedulerTest {
     assertThat(mFrameScheduler.getTargetRenderTimeMs(4)).isEqualTo(400);
   }
 
+  @Test
+  public void testGetTargetRenderTimeMsWithVariableFrameDurations() throws Exception {
+    DropFramesFrameScheduler frameScheduler =
+        new DropFramesFrameScheduler(new VariableDurationAnimationInformation());
+
+    assertThat(frameScheduler.getTargetRenderTimeMs(0)).isEqualTo(0);
+    assertThat(frameScheduler.getTargetRenderTimeMs(1)).isEqualTo(100);
+    assertThat(frameScheduler.getTargetRenderTimeMs(2)).isEqualTo(300);
+    assertThat(frameScheduler.getTargetRenderTimeMs(3)).isEqualTo(600);
+  }
+
   @Test
   public void testGetTargetRenderTimeForNextFrameMs() throws Exception {
     assertThat(mFrameScheduler.getTargetRenderTimeForNextFrameMs(0)).isEqualTo(100);
@@ -129,6 +141,24 @@ public class DropFramesFrameSchedulerTest {
     assertThat(mFrameScheduler.getFrameNumberWithinLoop(499)).isEqualTo(4);
   }
 
+  private static class VariableDurationAnimationInformation implements AnimationInformation {
+
+    @Override
+    public int getFrameCount() {
+      return 4;
+    }
+
+    @Override
+    public int getFrameDurationMs(int frameNumber) {
+      return (frameNumber + 1) * 100;
+    }
+
+    @Override
+    public int getLoopCount() {
+      return LOOP_COUNT_INFINITE;
+    }
+  }
+
   private static class DummyAnimationBackend implements AnimationBackend {
 
     public long getLoopDurationMs() {
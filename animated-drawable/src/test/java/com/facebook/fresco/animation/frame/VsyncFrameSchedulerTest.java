@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.frame;
+
+import com.facebook.fresco.animation.backend.AnimationInformation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link VsyncFrameScheduler}.
+ */
+public class VsyncFrameSchedulerTest {
+
+  // 50 Hz, so that vsyncs are at whole milliseconds
+  private static final long VSYNC_INTERVAL_NS = 20000000;
+
+  private VsyncFrameScheduler mFrameScheduler;
+
+  @Before
+  public void setUp() throws Exception {
+    mFrameScheduler = new VsyncFrameScheduler(new DummyAnimationInformation(), VSYNC_INTERVAL_NS);
+  }
+
+  @Test
+  public void testAlignToVsync() throws Exception {
+    assertThat(mFrameScheduler.alignToVsync(0)).isEqualTo(0);
+    assertThat(mFrameScheduler.alignToVsync(1)).isEqualTo(20);
+    assertThat(mFrameScheduler.alignToVsync(20)).isEqualTo(20);
+    assertThat(mFrameScheduler.alignToVsync(110)).isEqualTo(120);
+  }
+
+  @Test
+  public void testGetTargetRenderTimeForNextFrameMs() throws Exception {
+    assertThat(mFrameScheduler.getTargetRenderTimeForNextFrameMs(0)).isEqualTo(120);
+    assertThat(mFrameScheduler.getTargetRenderTimeForNextFrameMs(120)).isEqualTo(220);
+    assertThat(mFrameScheduler.getTargetRenderTimeForNextFrameMs(230)).isEqualTo(340);
+  }
+
+  @Test
+  public void testGetFrameNumberToRender() throws Exception {
+    assertThat(mFrameScheduler.getFrameNumberToRender(0, -1)).isEqualTo(0);
+    assertThat(mFrameScheduler.getFrameNumberToRender(120, 0)).isEqualTo(1);
+    assertThat(mFrameScheduler.getFrameNumberToRender(560, 120)).isEqualTo(0);
+  }
+
+  @Test
+  public void testDuplicateFrames() throws Exception {
+    mFrameScheduler.getFrameNumberToRender(0, -1);
+    mFrameScheduler.getFrameNumberToRender(20, 0);
+    mFrameScheduler.getFrameNumberToRender(40, 20);
+
+    assertThat(mFrameScheduler.getDuplicateFrameCount()).isEqualTo(2);
+    assertThat(mFrameScheduler.getDroppedFrameCount()).isEqualTo(0);
+    assertThat(mFrameScheduler.getLateFrameCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDroppedFrames() throws Exception {
+    mFrameScheduler.getFrameNumberToRender(0, -1);
+    // Frames 1 and 2 are skipped
+    mFrameScheduler.getFrameNumberToRender(340, 0);
+
+    assertThat(mFrameScheduler.getDroppedFrameCount()).isEqualTo(2);
+    assertThat(mFrameScheduler.getLateFrameCount()).isEqualTo(0);
+    assertThat(mFrameScheduler.getDuplicateFrameCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testDroppedFramesAcrossLoops() throws Exception {
+    mFrameScheduler.getFrameNumberToRender(440, -1);
+    // Frame 0 of the second loop is skipped
+    mFrameScheduler.getFrameNumberToRender(680, 440);
+
+    assertThat(mFrameScheduler.getDroppedFrameCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testLateFrames() throws Exception {
+    mFrameScheduler.getFrameNumberToRender(0, -1);
+    // Frame 1 is due at 110 ms, which is displayed on the vsync at 120 ms
+    mFrameScheduler.getFrameNumberToRender(120, 0);
+    assertThat(mFrameScheduler.getLateFrameCount()).isEqualTo(0);
+
+    // Frame 2 is due at 220 ms
+    mFrameScheduler.getFrameNumberToRender(260, 120);
+    assertThat(mFrameScheduler.getLateFrameCount()).isEqualTo(1);
+    assertThat(mFrameScheduler.getDroppedFrameCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testIsFrameChangedAt() throws Exception {
+    mFrameScheduler.getFrameNumberToRender(0, -1);
+
+    assertThat(mFrameScheduler.isFrameChangedAt(20)).isFalse();
+    assertThat(mFrameScheduler.isFrameChangedAt(100)).isFalse();
+    assertThat(mFrameScheduler.isFrameChangedAt(120)).isTrue();
+    assertThat(mFrameScheduler.getDuplicateFrameCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testResetStatistics() throws Exception {
+    mFrameScheduler.getFrameNumberToRender(0, -1);
+    mFrameScheduler.getFrameNumberToRender(0, 0);
+    mFrameScheduler.getFrameNumberToRender(340, 0);
+    mFrameScheduler.resetStatistics();
+
+    assertThat(mFrameScheduler.getDroppedFrameCount()).isEqualTo(0);
+    assertThat(mFrameScheduler.getDuplicateFrameCount()).isEqualTo(0);
+    assertThat(mFrameScheduler.isFrameChangedAt(340)).isTrue();
+  }
+
+  private static class DummyAnimationInformation implements AnimationInformation {
+
+    @Override
+    public int getFrameCount() {
+      return 5;
+    }
+
+    @Override
+    public int getFrameDurationMs(int frameNumber) {
+      return 110;
+    }
+
+    @Override
+    public int getLoopCount() {
+      return LOOP_COUNT_INFINITE;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.fresco.animation.frame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.facebook.common.time.MonotonicClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Tests {@link VsyncTicker}.
+ */
+public class VsyncTickerTest {
+
+  // 50 Hz, so that vsyncs are at whole milliseconds
+  private static final long VSYNC_INTERVAL_NS = 20000000;
+
+  private long mNowMs;
+  private List<Long> mPostedDelaysMs;
+  private int mRemovedCallbackCount;
+  private VsyncTicker mVsyncTicker;
+
+  @Before
+  public void setUp() throws Exception {
+    mNowMs = 0;
+    mPostedDelaysMs = new ArrayList<>();
+    mRemovedCallbackCount = 0;
+    MonotonicClock clock = new MonotonicClock() {
+      @Override
+      public long now() {
+        return mNowMs;
+      }
+    };
+    mVsyncTicker = new VsyncTicker(null, VSYNC_INTERVAL_NS, clock) {
+      @Override
+      void postFrameCallbackDelayed(long delayMs) {
+        mPostedDelaysMs.add(delayMs);
+      }
+
+      @Override
+      void removeFrameCallback() {
+        mRemovedCallbackCount++;
+      }
+    };
+  }
+
+  @Test
+  public void testPostsCallbackOneVsyncBeforeTheEarliestListener() throws Exception {
+    mVsyncTicker.schedule(new RecordingListener(), 200);
+    assertThat(mPostedDelaysMs).containsExactly(170L);
+
+    // a later listener does not need another callback
+    mVsyncTicker.schedule(new RecordingListener(), 500);
+    assertThat(mPostedDelaysMs).containsExactly(170L);
+    assertThat(mRemovedCallbackCount).isEqualTo(0);
+
+    // an earlier listener moves the callback
+    mVsyncTicker.schedule(new RecordingListener(), 100);
+    assertThat(mPostedDelaysMs).containsExactly(170L, 70L);
+    assertThat(mRemovedCallbackCount).isEqualTo(1);
+  }
+
+  @Test
+  public void testPostsCallbackForTheNextVsyncWhenListenerIsDue() throws Exception {
+    mNowMs = 1000;
+    mVsyncTicker.schedule(new RecordingListener(), 990);
+    assertThat(mPostedDelaysMs).containsExactly(0L);
+  }
+
+  @Test
+  public void testNotifiesOnlyDueListeners() throws Exception {
+    RecordingListener earlyListener = new RecordingListener();
+    RecordingListener lateListener = new RecordingListener();
+    mVsyncTicker.schedule(lateListener, 200);
+    mVsyncTicker.schedule(earlyListener, 100);
+
+    mNowMs = 95;
+    mVsyncTicker.onFrame(95);
+    assertThat(earlyListener.mFrameTimesMs).containsExactly(95L);
+    assertThat(lateListener.mFrameTimesMs).isEmpty();
+    assertThat(mVsyncTicker.getScheduledListenerCount()).isEqualTo(1);
+    // the callback is posted again for the remaining listener only
+    assertThat(mPostedDelaysMs).containsExactly(170L, 70L, 75L);
+
+    mNowMs = 195;
+    mVsyncTicker.onFrame(195);
+    assertThat(earlyListener.mFrameTimesMs).containsExactly(95L);
+    assertThat(lateListener.mFrameTimesMs).containsExactly(195L);
+    assertThat(mVsyncTicker.getScheduledListenerCount()).isEqualTo(0);
+    assertThat(mPostedDelaysMs).hasSize(3);
+  }
+
+  @Test
+  public void testListenerScheduledWhileNotifiedIsDueAtTheNextVsync() throws Exception {
+    final List<Long> frameTimesMs = new ArrayList<>();
+    VsyncTicker.Listener listener = new VsyncTicker.Listener() {
+      @Override
+      public void onVsync(long frameTimeMs) {
+        frameTimesMs.add(frameTimeMs);
+        mVsyncTicker.schedule(this, frameTimeMs);
+      }
+    };
+    mVsyncTicker.schedule(listener, 0);
+
+    mNowMs = 20;
+    mVsyncTicker.onFrame(20);
+    assertThat(frameTimesMs).containsExactly(20L);
+    assertThat(mVsyncTicker.getScheduledListenerCount()).isEqualTo(1);
+    assertThat(mPostedDelaysMs).containsExactly(0L, 0L);
+
+    mNowMs = 40;
+    mVsyncTicker.onFrame(40);
+    assertThat(frameTimesMs).containsExactly(20L, 40L);
+  }
+
+  @Test
+  public void testCancelRemovesCallbackWhenNoListenerIsLeft() throws Exception {
+    RecordingListener listener1 = new RecordingListener();
+    RecordingListener listener2 = new RecordingListener();
+    mVsyncTicker.schedule(listener1, 100);
+    mVsyncTicker.schedule(listener2, 200);
+
+    mVsyncTicker.cancel(listener1);
+    assertThat(mRemovedCallbackCount).isEqualTo(0);
+    mVsyncTicker.cancel(listener2);
+    assertThat(mRemovedCallbackCount).isEqualTo(1);
+    assertThat(mVsyncTicker.getScheduledListenerCount()).isEqualTo(0);
+
+    // the next listener posts a new callback
+    mVsyncTicker.schedule(listener1, 300);
+    assertThat(mPostedDelaysMs).containsExactly(70L, 270L);
+  }
+
+  @Test
+  public void testGetFrameTimeMs() throws Exception {
+    assertThat(mVsyncTicker.getFrameTimeMs(5)).isEqualTo(5);
+
+    mVsyncTicker.onFrame(100);
+    assertThat(mVsyncTicker.getFrameTimeMs(100)).isEqualTo(100);
+    assertThat(mVsyncTicker.getFrameTimeMs(119)).isEqualTo(100);
+    assertThat(mVsyncTicker.getFrameTimeMs(120)).isEqualTo(120);
+  }
+
+  private static class RecordingListener implements VsyncTicker.Listener {
+
+    private final List<Long> mFrameTimesMs = new ArrayList<>();
+
+    @Override
+    public void onVsync(long frameTimeMs) {
+      mFrameTimesMs.add(frameTimeMs);
+    }
+  }
+}
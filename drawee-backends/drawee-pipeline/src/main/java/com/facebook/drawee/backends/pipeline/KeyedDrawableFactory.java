@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.drawee.backends.pipeline;
+
+import javax.annotation.Nullable;
+
+import android.graphics.drawable.Drawable;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.imagepipeline.image.CloseableImage;
+
+/**
+ * Drawable factory that can also use the cache key of the image it creates a Drawable for, e.g.
+ * to persist data derived from the image.
+ */
+public interface KeyedDrawableFactory extends DrawableFactory {
+
+  /**
+   * Create a drawable for the given image.
+   * It is guaranteed that this method is only called if
+   * {@link #supportsImageType(CloseableImage)} returned true.
+   *
+   * @param image the image to create the drawable for
+   * @param cacheKey the memory cache key of the image, if known
+   * @return the Drawable for the image or null if an error occurred
+   */
+  @Nullable
+  Drawable createDrawable(CloseableImage image, @Nullable CacheKey cacheKey);
+}
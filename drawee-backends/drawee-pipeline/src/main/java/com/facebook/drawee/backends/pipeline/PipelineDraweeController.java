@@ -188,7 +188,9 @@ public class PipelineDraweeController
     if (mDrawableFactories != null) {
       for (DrawableFactory factory : mDrawableFactories) {
         if (factory.supportsImageType(closeableImage)) {
-          Drawable drawable = factory.createDrawable(closeableImage);
+          Drawable drawable = factory instanceof KeyedDrawableFactory ?
+              ((KeyedDrawableFactory) factory).createDrawable(closeableImage, mCacheKey) :
+              factory.createDrawable(closeableImage);
           if (drawable != null) {
             return drawable;
           }
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.binaryresource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.facebook.common.internal.Preconditions;
+
+/**
+ * Implementation of BinaryResource based on a file mapped into memory.
+ *
+ * <p>The content is read from the page cache on demand instead of being copied up front. The
+ * mapping stays valid until it is garbage collected, even if the file is deleted in the meantime.
+ * The file must not be modified in place while it is mapped.
+ */
+public class MappedFileBinaryResource implements BinaryResource {
+  private final File mFile;
+  private final MappedByteBuffer mBuffer;
+
+  private MappedFileBinaryResource(File file, MappedByteBuffer buffer) {
+    mFile = Preconditions.checkNotNull(file);
+    mBuffer = Preconditions.checkNotNull(buffer);
+  }
+
+  public File getFile() {
+    return mFile;
+  }
+
+  /**
+   * @return a read-only view of the mapped content, positioned at its beginning
+   */
+  public ByteBuffer getByteBuffer() {
+    return mBuffer.asReadOnlyBuffer();
+  }
+
+  @Override
+  public InputStream openStream() throws IOException {
+    return new ByteBufferInputStream(getByteBuffer());
+  }
+
+  @Override
+  public long size() {
+    return mBuffer.capacity();
+  }
+
+  @Override
+  public byte[] read() throws IOException {
+    byte[] bytes = new byte[mBuffer.capacity()];
+    getByteBuffer().get(bytes);
+    return bytes;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == null || !(obj instanceof MappedFileBinaryResource)) {
+      return false;
+    }
+    MappedFileBinaryResource that = (MappedFileBinaryResource) obj;
+    return mFile.equals(that.mFile);
+  }
+
+  @Override
+  public int hashCode() {
+    return mFile.hashCode();
+  }
+
+  /**
+   * Maps the whole file into memory, read-only.
+   * @throws IOException if the file cannot be opened or is too large to be mapped
+   */
+  public static MappedFileBinaryResource map(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("File too large to be mapped: " + size + " bytes");
+      }
+      // the mapping remains valid after the channel is closed
+      return new MappedFileBinaryResource(
+          file,
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer mBuffer;
+    private int mMark;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      mBuffer = buffer;
+    }
+
+    @Override
+    public int available() {
+      return mBuffer.remaining();
+    }
+
+    @Override
+    public int read() {
+      return mBuffer.hasRemaining() ? (mBuffer.get() & 0xFF) : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      if (!mBuffer.hasRemaining()) {
+        return length == 0 ? 0 : -1;
+      }
+      int count = Math.min(length, mBuffer.remaining());
+      mBuffer.get(buffer, offset, count);
+      return count;
+    }
+
+    @Override
+    public long skip(long byteCount) {
+      int count = (int) Math.max(0, Math.min(byteCount, mBuffer.remaining()));
+      mBuffer.position(mBuffer.position() + count);
+      return count;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+      mMark = mBuffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+      mBuffer.position(mMark);
+    }
+  }
+}
@@ -115,7 +115,7 @@ public class DefaultDiskStorage implements DiskStorage {
     mClock = SystemClock.get();
   }
 
-  private static boolean isExternal(File directory, CacheErrorLogger cacheErrorLogger) {
+  static boolean isExternal(File directory, CacheErrorLogger cacheErrorLogger) {
     boolean state = false;
     String appCacheDirPath = null;
 
@@ -477,7 +477,7 @@ public class DefaultDiskStorage implements DiskStorage {
     return new DiskDumpInfoEntry(path, type, entryImpl.getSize(), firstBits);
   }
 
-  private String typeOfBytes(byte[] bytes) {
+  static String typeOfBytes(byte[] bytes) {
     if (bytes.length >= 2) {
       if (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xD8) {
         return "jpg";
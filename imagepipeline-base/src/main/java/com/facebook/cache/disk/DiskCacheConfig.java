@@ -44,6 +44,7 @@ public class DiskCacheConfig {
   private final DiskTrimmableRegistry mDiskTrimmableRegistry;
   private final Context mContext;
   private final boolean mIndexPopulateAtStartupEnabled;
+  private final boolean mJournalEnabled;
 
   private DiskCacheConfig(Builder builder) {
     mVersion = builder.mVersion;
@@ -68,6 +69,7 @@ public class DiskCacheConfig {
             builder.mDiskTrimmableRegistry;
     mContext = builder.mContext;
     mIndexPopulateAtStartupEnabled = builder.mIndexPopulateAtStartupEnabled;
+    mJournalEnabled = builder.mJournalEnabled;
   }
 
   public int getVersion() {
@@ -118,6 +120,10 @@ public class DiskCacheConfig {
     return mIndexPopulateAtStartupEnabled;
   }
 
+  public boolean getJournalEnabled() {
+    return mJournalEnabled;
+  }
+
   /**
    * Create a new builder.
    *
@@ -145,6 +151,7 @@ public class DiskCacheConfig {
     private CacheEventListener mCacheEventListener;
     private DiskTrimmableRegistry mDiskTrimmableRegistry;
     private boolean mIndexPopulateAtStartupEnabled;
+    private boolean mJournalEnabled;
 
     private final @Nullable Context mContext;
 
@@ -253,6 +260,17 @@ public class DiskCacheConfig {
       return this;
     }
 
+    /**
+     * Keeps a journal of the cache entries next to the cache directory, so that the cache size and
+     * eviction candidates are known without scanning the whole directory.
+     *
+     * <p>See {@link DiskCacheJournal}.
+     */
+    public Builder setJournalEnabled(boolean journalEnabled) {
+      mJournalEnabled = journalEnabled;
+      return this;
+    }
+
     public DiskCacheConfig build() {
       Preconditions.checkState(
           mBaseDirectoryPathSupplier != null || mContext != null,
@@ -0,0 +1,746 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+
+/**
+ * Append-only journal of the entries held by a {@link DiskStorage}.
+ *
+ * <p>{@link DiskStorageCache} records every insert, access and removal here so that the size of
+ * the cache and the list of eviction candidates can be obtained at startup without walking the
+ * storage directories. The journal is a text file: a header followed by one record per line.
+ * <pre>
+ *   fresco.disk_cache_journal
+ *   1
+ *   [cache version]
+ *
+ *   I [resource id] [size] [timestamp]
+ *   A [resource id] [timestamp]
+ *   R [resource id]
+ * </pre>
+ * Access records are buffered and only reach the file with the next flush, so a crash may lose
+ * the most recent access timestamps. Records that no longer describe an entry accumulate over
+ * time; once there are enough of them the journal is rewritten from memory on the background
+ * executor.
+ *
+ * <p>Records made before the journal is loaded are kept in memory and replayed once it is loaded
+ * or rebuilt. If too many of them pile up, they are dropped and the next {@link #load()} fails so
+ * that the storage is scanned instead.
+ *
+ * <p>If the journal is missing, has a different version or cannot be parsed, {@link #load()}
+ * returns false and the cache falls back to a full scan followed by {@link #rebuild}. Files
+ * deleted behind the back of the cache are caught up with by {@link #reconcile}.
+ */
+@ThreadSafe
+public class DiskCacheJournal {
+
+  private static final Class<?> TAG = DiskCacheJournal.class;
+
+  @VisibleForTesting static final String MAGIC = "fresco.disk_cache_journal";
+  @VisibleForTesting static final String FORMAT_VERSION = "1";
+
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String OP_INSERT = "I";
+  private static final String OP_ACCESS = "A";
+  private static final String OP_REMOVE = "R";
+
+  /**
+   * The journal is compacted once it holds at least this many records that do not describe a
+   * live entry, and at least as many of them as there are live entries.
+   */
+  @VisibleForTesting static final int COMPACTION_THRESHOLD = 2000;
+
+  /**
+   * Maximum number of records kept in memory until the journal is loaded.
+   */
+  @VisibleForTesting static final int MAX_UNLOADED_RECORDS = 1000;
+
+  private final Supplier<File> mJournalFileSupplier;
+  private final int mVersion;
+  private final Executor mCompactionExecutor;
+  private final CacheErrorLogger mCacheErrorLogger;
+
+  @GuardedBy("this")
+  private final Map<String, Record> mRecords = new HashMap<>();
+  @GuardedBy("this")
+  private long mSize;
+  @GuardedBy("this")
+  private int mRedundantOpCount;
+  @GuardedBy("this")
+  private boolean mLoaded;
+  @GuardedBy("this")
+  @Nullable private Writer mWriter;
+  /** Records appended while a compaction is writing the new journal, null when not compacting */
+  @GuardedBy("this")
+  @Nullable private List<String> mPendingLines;
+  @GuardedBy("this")
+  private boolean mCompactionScheduled;
+  /** Records made while the journal was not loaded, in order */
+  @GuardedBy("this")
+  private final List<String> mUnloadedLines = new ArrayList<>();
+  @GuardedBy("this")
+  private boolean mUnloadedLinesDropped;
+
+  /**
+   * @param journalFileSupplier supplies the journal location; resolved lazily on first load
+   * @param version version of the cache content. A journal written with a different version is
+   *     discarded.
+   * @param compactionExecutor executor used to rewrite the journal in the background
+   * @param cacheErrorLogger logger for journal errors
+   */
+  public DiskCacheJournal(
+      Supplier<File> journalFileSupplier,
+      int version,
+      Executor compactionExecutor,
+      CacheErrorLogger cacheErrorLogger) {
+    mJournalFileSupplier = Preconditions.checkNotNull(journalFileSupplier);
+    mVersion = version;
+    mCompactionExecutor = Preconditions.checkNotNull(compactionExecutor);
+    mCacheErrorLogger = Preconditions.checkNotNull(cacheErrorLogger);
+  }
+
+  /**
+   * Whether the journal currently describes the storage. Records are only replayed once it does.
+   */
+  public synchronized boolean isLoaded() {
+    return mLoaded;
+  }
+
+  /**
+   * Reads the journal file into memory.
+   *
+   * @return true if the journal was read successfully (or had already been), false if it is
+   *     missing or corrupt and {@link #rebuild} has to be called with the result of a full scan
+   */
+  public synchronized boolean load() {
+    if (mLoaded) {
+      return true;
+    }
+    final File journalFile = mJournalFileSupplier.get();
+    if (!journalFile.exists() || mUnloadedLinesDropped) {
+      return false;
+    }
+    BufferedReader reader = null;
+    String malformedLine = null;
+    try {
+      reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(journalFile), UTF_8));
+      readHeader(reader);
+      int lineCount = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (malformedLine != null) {
+          // only the last record may be malformed, as the result of an interrupted write
+          throw new IOException("Malformed journal record: " + malformedLine);
+        }
+        if (!readRecord(line)) {
+          malformedLine = line;
+        }
+        lineCount++;
+      }
+      mRedundantOpCount = lineCount - mRecords.size();
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY,
+          TAG,
+          "load: " + ioe.getMessage(),
+          ioe);
+      reset();
+      return false;
+    } finally {
+      Closeables.closeQuietly(reader);
+    }
+    try {
+      if (malformedLine != null) {
+        // don't append after a partial record
+        writeSnapshot();
+      } else {
+        mWriter = openWriter(journalFile, true);
+      }
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+          TAG,
+          "load: " + ioe.getMessage(),
+          ioe);
+      reset();
+      return false;
+    }
+    mLoaded = true;
+    replayUnloadedLines();
+    maybeScheduleCompaction();
+    return true;
+  }
+
+  /**
+   * Replaces the content of the journal with the given entries, usually the result of a full
+   * scan of the storage.
+   */
+  public synchronized void rebuild(Collection<DiskStorage.Entry> entries) {
+    reset();
+    for (DiskStorage.Entry entry : entries) {
+      putRecord(entry.getId(), entry.getSize(), entry.getTimestamp());
+    }
+    try {
+      writeSnapshot();
+      mLoaded = true;
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+          TAG,
+          "rebuild: " + ioe.getMessage(),
+          ioe);
+      reset();
+      return;
+    }
+    // the storage was listed after the dropped records were made
+    mUnloadedLinesDropped = false;
+    replayUnloadedLines();
+  }
+
+  /**
+   * Brings the journal in line with a scan of the storage, e.g. after files have been deleted by
+   * something else than the cache. Entries inserted or accessed since the scan started are kept
+   * even if the scan missed them.
+   *
+   * @param entries the entries listed by the scan
+   * @param scanStartTimeMs the time the scan started
+   */
+  public synchronized void reconcile(Collection<DiskStorage.Entry> entries, long scanStartTimeMs) {
+    if (!mLoaded) {
+      rebuild(entries);
+      return;
+    }
+    boolean changed = false;
+    Set<String> scannedIds = new HashSet<>();
+    for (DiskStorage.Entry entry : entries) {
+      scannedIds.add(entry.getId());
+      Record record = mRecords.get(entry.getId());
+      if (record == null || record.size != entry.getSize()) {
+        putRecord(entry.getId(), entry.getSize(), entry.getTimestamp());
+        changed = true;
+      }
+    }
+    Iterator<Map.Entry<String, Record>> iterator = mRecords.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Record> record = iterator.next();
+      if (!scannedIds.contains(record.getKey()) &&
+          record.getValue().timestamp < scanStartTimeMs) {
+        mSize -= record.getValue().size;
+        iterator.remove();
+        changed = true;
+      }
+    }
+    if (!changed) {
+      return;
+    }
+    closeQuietly(mWriter);
+    mWriter = null;
+    // a compaction in progress would swap in the records we just dropped
+    mPendingLines = null;
+    try {
+      writeSnapshot();
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+          TAG,
+          "reconcile: " + ioe.getMessage(),
+          ioe);
+      invalidate();
+    }
+  }
+
+  /**
+   * Records that an entry has been committed to the storage.
+   */
+  public synchronized void recordInsert(String resourceId, long size, long timestamp) {
+    final String line = OP_INSERT + ' ' + resourceId + ' ' + size + ' ' + timestamp;
+    if (!mLoaded) {
+      addUnloadedLine(line);
+      return;
+    }
+    if (putRecord(resourceId, size, timestamp) != null) {
+      mRedundantOpCount++;
+    }
+    appendLine(line, true);
+  }
+
+  /**
+   * Records that an entry has been read or probed, updating its last-access timestamp.
+   *
+   * <p>The record is buffered rather than written right away: it is written along with the next
+   * insert or removal, by {@link #flush()} or by the next compaction. Losing the last access
+   * timestamps on a crash only makes the eviction order slightly less accurate.
+   */
+  public synchronized void recordAccess(String resourceId, long timestamp) {
+    final String line = OP_ACCESS + ' ' + resourceId + ' ' + timestamp;
+    if (!mLoaded) {
+      addUnloadedLine(line);
+      return;
+    }
+    Record record = mRecords.get(resourceId);
+    if (record == null) {
+      return;
+    }
+    record.timestamp = timestamp;
+    mRedundantOpCount++;
+    appendLine(line, false);
+  }
+
+  /**
+   * Records that an entry has been removed from the storage.
+   */
+  public synchronized void recordRemove(String resourceId) {
+    if (!mLoaded) {
+      addUnloadedLine(OP_REMOVE + ' ' + resourceId);
+      return;
+    }
+    if (removeRecord(resourceId) == null) {
+      return;
+    }
+    // both the insert and the remove records are now redundant
+    mRedundantOpCount += 2;
+    appendLine(OP_REMOVE + ' ' + resourceId, true);
+  }
+
+  /**
+   * Writes the buffered access records to the journal file.
+   */
+  public synchronized void flush() {
+    if (mWriter == null) {
+      return;
+    }
+    try {
+      mWriter.flush();
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+          TAG,
+          "flush: " + ioe.getMessage(),
+          ioe);
+      invalidate();
+    }
+  }
+
+  /**
+   * Empties the journal, e.g. after the storage has been cleared.
+   */
+  public synchronized void clear() {
+    // the records made until now describe entries that are gone
+    mUnloadedLines.clear();
+    mUnloadedLinesDropped = false;
+    rebuild(new ArrayList<DiskStorage.Entry>());
+  }
+
+  /**
+   * Discards the journal entirely. The next {@link #load()} will fail and trigger a full scan.
+   */
+  public synchronized void invalidate() {
+    reset();
+    File journalFile = mJournalFileSupplier.get();
+    if (journalFile.exists() && !journalFile.delete()) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
+          TAG,
+          "invalidate: failed to delete " + journalFile,
+          null);
+    }
+  }
+
+  /**
+   * @return a snapshot of the journaled entries
+   */
+  public synchronized List<DiskStorage.Entry> getEntries() {
+    List<DiskStorage.Entry> entries = new ArrayList<>(mRecords.size());
+    for (Map.Entry<String, Record> record : mRecords.entrySet()) {
+      entries.add(
+          new JournalEntry(record.getKey(), record.getValue().size, record.getValue().timestamp));
+    }
+    return entries;
+  }
+
+  /**
+   * @return total size in bytes of the journaled entries
+   */
+  public synchronized long getSize() {
+    return mSize;
+  }
+
+  /**
+   * @return number of journaled entries
+   */
+  public synchronized int getCount() {
+    return mRecords.size();
+  }
+
+  @VisibleForTesting
+  synchronized int getRedundantOpCount() {
+    return mRedundantOpCount;
+  }
+
+  /**
+   * Rewrites the journal so that it only holds one record per live entry. Records appended while
+   * the new file is being written are carried over before it replaces the old one.
+   */
+  @VisibleForTesting
+  void compact() {
+    final List<String> snapshot;
+    final File journalFile;
+    synchronized (this) {
+      if (!mLoaded || mPendingLines != null) {
+        return;
+      }
+      journalFile = mJournalFileSupplier.get();
+      snapshot = new ArrayList<>(mRecords.size());
+      for (Map.Entry<String, Record> record : mRecords.entrySet()) {
+        snapshot.add(insertLine(record.getKey(), record.getValue()));
+      }
+      mPendingLines = new ArrayList<>();
+    }
+    final File tempFile = getTempFile(journalFile);
+    Writer writer = null;
+    try {
+      writer = openWriter(tempFile, false);
+      writeHeader(writer);
+      for (int i = 0; i < snapshot.size(); i++) {
+        writer.write(snapshot.get(i));
+        writer.write('\n');
+      }
+      synchronized (this) {
+        if (mPendingLines == null) {
+          // the journal was reset while we were writing, the snapshot is obsolete
+          writer.close();
+          tempFile.delete();
+          return;
+        }
+        for (int i = 0; i < mPendingLines.size(); i++) {
+          writer.write(mPendingLines.get(i));
+          writer.write('\n');
+        }
+        writer.close();
+        writer = null;
+        swapInJournal(tempFile, journalFile, snapshot.size() + mPendingLines.size());
+      }
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+          TAG,
+          "compact: " + ioe.getMessage(),
+          ioe);
+      closeQuietly(writer);
+      tempFile.delete();
+      synchronized (this) {
+        mPendingLines = null;
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void swapInJournal(File tempFile, File journalFile, int lineCount) throws IOException {
+    mPendingLines = null;
+    closeQuietly(mWriter);
+    mWriter = null;
+    try {
+      FileUtils.rename(tempFile, journalFile);
+      mWriter = openWriter(journalFile, true);
+      mRedundantOpCount = lineCount - mRecords.size();
+    } catch (IOException ioe) {
+      // we can no longer append to a journal we trust, start over with a full scan
+      invalidate();
+      throw ioe;
+    }
+  }
+
+  @GuardedBy("this")
+  private void maybeScheduleCompaction() {
+    if (!mCompactionScheduled &&
+        mRedundantOpCount >= COMPACTION_THRESHOLD &&
+        mRedundantOpCount >= mRecords.size()) {
+      mCompactionScheduled = true;
+      mCompactionExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            compact();
+          } finally {
+            synchronized (DiskCacheJournal.this) {
+              mCompactionScheduled = false;
+            }
+          }
+        }
+      });
+    }
+  }
+
+  @GuardedBy("this")
+  private void addUnloadedLine(String line) {
+    if (mUnloadedLinesDropped) {
+      return;
+    }
+    if (mUnloadedLines.size() >= MAX_UNLOADED_RECORDS) {
+      mUnloadedLines.clear();
+      mUnloadedLinesDropped = true;
+      return;
+    }
+    mUnloadedLines.add(line);
+  }
+
+  @GuardedBy("this")
+  private void replayUnloadedLines() {
+    if (mUnloadedLines.isEmpty()) {
+      return;
+    }
+    final List<String> lines = new ArrayList<>(mUnloadedLines);
+    mUnloadedLines.clear();
+    for (int i = 0; i < lines.size() && mLoaded; i++) {
+      String[] parts = lines.get(i).split(" ");
+      if (OP_INSERT.equals(parts[0])) {
+        recordInsert(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+      } else if (OP_ACCESS.equals(parts[0])) {
+        recordAccess(parts[1], Long.parseLong(parts[2]));
+      } else {
+        recordRemove(parts[1]);
+      }
+    }
+    flush();
+  }
+
+  @GuardedBy("this")
+  private void appendLine(String line, boolean flush) {
+    if (mWriter == null) {
+      return;
+    }
+    try {
+      mWriter.write(line + '\n');
+      if (flush) {
+        mWriter.flush();
+      }
+      if (mPendingLines != null) {
+        mPendingLines.add(line);
+      }
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
+          TAG,
+          "appendLine: " + ioe.getMessage(),
+          ioe);
+      invalidate();
+      return;
+    }
+    maybeScheduleCompaction();
+  }
+
+  @GuardedBy("this")
+  private void writeSnapshot() throws IOException {
+    final File journalFile = mJournalFileSupplier.get();
+    final File tempFile = getTempFile(journalFile);
+    Writer writer = openWriter(tempFile, false);
+    try {
+      writeHeader(writer);
+      for (Map.Entry<String, Record> record : mRecords.entrySet()) {
+        writer.write(insertLine(record.getKey(), record.getValue()));
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+    FileUtils.rename(tempFile, journalFile);
+    mWriter = openWriter(journalFile, true);
+    mRedundantOpCount = 0;
+  }
+
+  @GuardedBy("this")
+  private void reset() {
+    closeQuietly(mWriter);
+    mWriter = null;
+    mRecords.clear();
+    mSize = 0;
+    mRedundantOpCount = 0;
+    mLoaded = false;
+    mPendingLines = null;
+  }
+
+  private void readHeader(BufferedReader reader) throws IOException {
+    String magic = reader.readLine();
+    String formatVersion = reader.readLine();
+    String version = reader.readLine();
+    String blank = reader.readLine();
+    if (!MAGIC.equals(magic) ||
+        !FORMAT_VERSION.equals(formatVersion) ||
+        !String.valueOf(mVersion).equals(version) ||
+        !"".equals(blank)) {
+      throw new IOException(
+          "Unexpected journal header: [" + magic + ", " + formatVersion + ", " + version + "]");
+    }
+  }
+
+  private void writeHeader(Writer writer) throws IOException {
+    writer.write(MAGIC);
+    writer.write('\n');
+    writer.write(FORMAT_VERSION);
+    writer.write('\n');
+    writer.write(String.valueOf(mVersion));
+    writer.write("\n\n");
+  }
+
+  /**
+   * @return false if the line is not a valid record
+   */
+  @GuardedBy("this")
+  private boolean readRecord(String line) {
+    String[] parts = line.split(" ");
+    try {
+      if (OP_INSERT.equals(parts[0]) && parts.length == 4) {
+        putRecord(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+        return true;
+      } else if (OP_ACCESS.equals(parts[0]) && parts.length == 3) {
+        Record record = mRecords.get(parts[1]);
+        if (record != null) {
+          record.timestamp = Long.parseLong(parts[2]);
+        }
+        return true;
+      } else if (OP_REMOVE.equals(parts[0]) && parts.length == 2) {
+        removeRecord(parts[1]);
+        return true;
+      }
+    } catch (NumberFormatException nfe) {
+      // fall through
+    }
+    return false;
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private Record putRecord(String resourceId, long size, long timestamp) {
+    Record previous = mRecords.put(resourceId, new Record(size, timestamp));
+    mSize += size;
+    if (previous != null) {
+      mSize -= previous.size;
+    }
+    return previous;
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private Record removeRecord(String resourceId) {
+    Record removed = mRecords.remove(resourceId);
+    if (removed != null) {
+      mSize -= removed.size;
+    }
+    return removed;
+  }
+
+  private static String insertLine(String resourceId, Record record) {
+    return OP_INSERT + ' ' + resourceId + ' ' + record.size + ' ' + record.timestamp;
+  }
+
+  private static File getTempFile(File journalFile) {
+    return new File(journalFile.getPath() + TEMP_FILE_SUFFIX);
+  }
+
+  private static void closeQuietly(@Nullable Writer writer) {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException ioe) {
+        // nothing we can do about it
+      }
+    }
+  }
+
+  private static Writer openWriter(File file, boolean append) throws FileNotFoundException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), UTF_8));
+  }
+
+  /**
+   * Mutable size and last-access time of a journaled entry.
+   */
+  private static class Record {
+    final long size;
+    long timestamp;
+
+    Record(long size, long timestamp) {
+      this.size = size;
+      this.timestamp = timestamp;
+    }
+  }
+
+  /**
+   * Entry as known by the journal. It only carries metadata: {@link #getResource()} returns null
+   * and the entry must be removed from the storage by its id.
+   */
+  @VisibleForTesting
+  static class JournalEntry implements DiskStorage.Entry {
+    private final String mId;
+    private final long mSize;
+    private final long mTimestamp;
+
+    JournalEntry(String id, long size, long timestamp) {
+      mId = id;
+      mSize = size;
+      mTimestamp = timestamp;
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    @Override
+    @Nullable
+    public BinaryResource getResource() {
+      return null;
+    }
+  }
+}
@@ -21,9 +21,13 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 
@@ -43,6 +47,13 @@ import com.facebook.common.time.SystemClock;
 
 /**
  * Cache that manages disk storage.
+ *
+ * <p>Lookups ({@link #getResource}, {@link #probe}, {@link #hasKey}) do not take the cache-wide
+ * lock: they go to the storage directly and record accesses in a queue that is applied to the
+ * eviction index by the next writer. Eviction selects the entries to delete under the cache-wide
+ * lock, but deletes the files while only holding the lock of the resource being deleted.
+ *
+ * <p>Locks are always acquired in this order: eviction lock, resource lock, cache-wide lock.
  */
 @ThreadSafe
 public class DiskStorageCache implements FileCache, DiskTrimmable {
@@ -60,6 +71,10 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   private static final double TRIMMING_LOWER_BOUND = 0.02;
   private static final long UNINITIALIZED = -1;
   private static final String SHARED_PREFS_FILENAME_PREFIX = "disk_entries_list";
+  // Number of locks guarding the commit and deletion of individual resources
+  private static final int RESOURCE_LOCK_STRIPES = 32;
+  // Pending accesses are applied to the eviction index in the background beyond this count
+  private static final int MAX_PENDING_ACCESSES = 256;
 
   private final long mLowDiskSpaceCacheSizeLimit;
   private final long mDefaultCacheSizeLimit;
@@ -68,19 +83,26 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
   private final CacheEventListener mCacheEventListener;
 
-  @GuardedBy("mLock")
-  // All resourceId stored on disk (if any).
+  // All resourceId stored on disk (if any). Concurrent, so that lookups don't need mLock.
   @VisibleForTesting final Set<String> mResourceIndex;
 
   @GuardedBy("mLock")
   private long mCacheSizeLastUpdateTime;
 
+  // Last time the journal was checked against a scan of the storage
+  @GuardedBy("mLock")
+  private long mJournalCheckTime = UNINITIALIZED;
+
+  // All entries of the storage in eviction order, once the storage has been listed.
+  @GuardedBy("mLock")
+  private final EntryEvictionIndex mEvictionIndex;
+
   private final long mCacheSizeLimitMinimum;
 
   private final StatFsHelper mStatFsHelper;
 
   private final DiskStorage mStorage;
-  private final EntryEvictionComparatorSupplier mEntryEvictionComparatorSupplier;
+  @Nullable private final DiskCacheJournal mJournal;
   private final CacheErrorLogger mCacheErrorLogger;
   private final boolean mIndexPopulateAtStartupEnabled;
 
@@ -91,7 +113,19 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   // synchronization object.
   private final Object mLock = new Object();
 
-  private boolean mIndexReady;
+  // Serializes evictions, so that the same entries are not selected twice.
+  private final Object mEvictionLock = new Object();
+
+  // Guard the commit and the deletion of the resources whose id hash to the same stripe.
+  private final Object[] mResourceLocks;
+
+  // Hits not yet applied to the eviction index.
+  private final ConcurrentLinkedQueue<EntryAccess> mPendingAccesses;
+  private final AtomicInteger mPendingAccessCount;
+  private final AtomicBoolean mPendingAccessesScheduled;
+  private final Executor mBackgroundExecutor;
+
+  private volatile boolean mIndexReady;
 
   /**
    * Stats about the cache - currently size of the cache (in bytes) and number of items in
@@ -161,14 +195,43 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       final Context context,
       final Executor executorForBackgrountInit,
       boolean indexPopulateAtStartupEnabled) {
+    this(
+        diskStorage,
+        null,
+        entryEvictionComparatorSupplier,
+        params,
+        cacheEventListener,
+        cacheErrorLogger,
+        diskTrimmableRegistry,
+        context,
+        executorForBackgrountInit,
+        indexPopulateAtStartupEnabled);
+  }
+
+  /**
+   * @param journal if not null, the journal is used to list the entries of the storage instead of
+   *     scanning it. The storage is only scanned when the journal is missing or corrupt.
+   */
+  public DiskStorageCache(
+      DiskStorage diskStorage,
+      @Nullable DiskCacheJournal journal,
+      EntryEvictionComparatorSupplier entryEvictionComparatorSupplier,
+      Params params,
+      CacheEventListener cacheEventListener,
+      CacheErrorLogger cacheErrorLogger,
+      @Nullable DiskTrimmableRegistry diskTrimmableRegistry,
+      final Context context,
+      final Executor executorForBackgrountInit,
+      boolean indexPopulateAtStartupEnabled) {
     this.mLowDiskSpaceCacheSizeLimit = params.mLowDiskSpaceCacheSizeLimit;
     this.mDefaultCacheSizeLimit = params.mDefaultCacheSizeLimit;
     this.mCacheSizeLimit = params.mDefaultCacheSizeLimit;
     this.mStatFsHelper = StatFsHelper.getInstance();
 
     this.mStorage = diskStorage;
+    this.mJournal = journal;
 
-    this.mEntryEvictionComparatorSupplier = entryEvictionComparatorSupplier;
+    this.mEvictionIndex = new EntryEvictionIndex(entryEvictionComparatorSupplier.get());
 
     this.mCacheSizeLastUpdateTime = UNINITIALIZED;
 
@@ -187,7 +250,16 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
     mIndexPopulateAtStartupEnabled = indexPopulateAtStartupEnabled;
 
-    this.mResourceIndex = new HashSet<>();
+    this.mResourceIndex =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    this.mResourceLocks = new Object[RESOURCE_LOCK_STRIPES];
+    for (int i = 0; i < RESOURCE_LOCK_STRIPES; i++) {
+      mResourceLocks[i] = new Object();
+    }
+    this.mPendingAccesses = new ConcurrentLinkedQueue<>();
+    this.mPendingAccessCount = new AtomicInteger();
+    this.mPendingAccessesScheduled = new AtomicBoolean();
+    this.mBackgroundExecutor = executorForBackgrountInit;
 
     if (mIndexPopulateAtStartupEnabled) {
       mCountDownLatch = new CountDownLatch(1);
@@ -262,26 +334,26 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
         .setCacheKey(key);
     try {
-      synchronized (mLock) {
-        BinaryResource resource = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          cacheEvent.setResourceId(resourceId);
-          resource = mStorage.getResource(resourceId, key);
-          if (resource != null) {
-            break;
-          }
-        }
-        if (resource == null) {
-          mCacheEventListener.onMiss(cacheEvent);
-          mResourceIndex.remove(resourceId);
-        } else {
-          mCacheEventListener.onHit(cacheEvent);
-          mResourceIndex.add(resourceId);
+      BinaryResource resource = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        cacheEvent.setResourceId(resourceId);
+        resource = mStorage.getResource(resourceId, key);
+        if (resource != null) {
+          break;
         }
-        return resource;
+        // entries that are gone are dropped from the eviction index when they get evicted
       }
+      if (resource == null) {
+        mCacheEventListener.onMiss(cacheEvent);
+        mResourceIndex.remove(resourceId);
+      } else {
+        mCacheEventListener.onHit(cacheEvent);
+        mResourceIndex.add(resourceId);
+        touchEntry(resourceId);
+      }
+      return resource;
     } catch (IOException ioe) {
       mCacheErrorLogger.logError(
           CacheErrorLogger.CacheErrorCategory.GENERIC_IO,
@@ -310,17 +382,16 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   public boolean probe(final CacheKey key) {
     String resourceId = null;
     try {
-      synchronized (mLock) {
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          if (mStorage.touch(resourceId, key)) {
-            mResourceIndex.add(resourceId);
-            return true;
-          }
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        if (mStorage.touch(resourceId, key)) {
+          mResourceIndex.add(resourceId);
+          touchEntry(resourceId);
+          return true;
         }
-        return false;
       }
+      return false;
     } catch (IOException e) {
       SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
           .setCacheKey(key)
@@ -351,10 +422,17 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       final DiskStorage.Inserter inserter,
       final CacheKey key,
       String resourceId) throws IOException {
-    synchronized (mLock) {
+    synchronized (getResourceLock(resourceId)) {
       BinaryResource resource = inserter.commit(key);
       mResourceIndex.add(resourceId);
-      mCacheStats.increment(resource.size(), 1);
+      long now = mClock.now();
+      if (mJournal != null) {
+        mJournal.recordInsert(resourceId, resource.size(), now);
+      }
+      synchronized (mLock) {
+        mEvictionIndex.put(resourceId, resource.size(), now);
+        mCacheStats.increment(resource.size(), 1);
+      }
       return resource;
     }
   }
@@ -366,11 +444,8 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
         .setCacheKey(key);
     mCacheEventListener.onWriteAttempt(cacheEvent);
-    String resourceId;
-    synchronized (mLock) {
-      // for multiple resource ids associated with the same image, we only write one file
-      resourceId = CacheKeyUtil.getFirstResourceId(key);
-    }
+    // for multiple resource ids associated with the same image, we only write one file
+    String resourceId = CacheKeyUtil.getFirstResourceId(key);
     cacheEvent.setResourceId(resourceId);
     try {
       // getting the file is synchronized
@@ -400,22 +475,28 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
 
   @Override
   public void remove(CacheKey key) {
-    synchronized (mLock) {
-      try {
-        String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
+    try {
+      String resourceId = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        synchronized (getResourceLock(resourceId)) {
           mStorage.remove(resourceId);
           mResourceIndex.remove(resourceId);
+          if (mJournal != null) {
+            mJournal.recordRemove(resourceId);
+          }
+          synchronized (mLock) {
+            mEvictionIndex.remove(resourceId);
+          }
         }
-      } catch (IOException e) {
-        mCacheErrorLogger.logError(
-            CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
-            TAG,
-            "delete: " + e.getMessage(),
-            e);
       }
+    } catch (IOException e) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
+          TAG,
+          "delete: " + e.getMessage(),
+          e);
     }
   }
 
@@ -427,19 +508,23 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   @Override
   public long clearOldEntries(long cacheExpirationMs) {
     long oldestRemainingEntryAgeMs = 0L;
-    synchronized (mLock) {
+    synchronized (mEvictionLock) {
       try {
-        long now = mClock.now();
-        Collection<DiskStorage.Entry> allEntries = mStorage.getEntries();
-        final long cacheSizeBeforeClearance = mCacheStats.getSize();
+        long now;
+        Collection<DiskStorage.Entry> allEntries;
+        long cacheSizeBeforeClearance;
+        synchronized (mLock) {
+          now = mClock.now();
+          allEntries = getAllEntries();
+          cacheSizeBeforeClearance = mCacheStats.getSize();
+        }
         int itemsRemovedCount = 0;
         long itemsRemovedSize = 0L;
         for (DiskStorage.Entry entry : allEntries) {
           // entry age of zero is disallowed.
           long entryAgeMs = Math.max(1, Math.abs(now - entry.getTimestamp()));
           if (entryAgeMs >= cacheExpirationMs) {
-            long entryRemovedSize = mStorage.remove(entry);
-            mResourceIndex.remove(entry.getId());
+            long entryRemovedSize = removeEntry(entry);
             if (entryRemovedSize > 0) {
               itemsRemovedCount++;
               itemsRemovedSize += entryRemovedSize;
@@ -457,8 +542,10 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
         }
         mStorage.purgeUnexpectedResources();
         if (itemsRemovedCount > 0) {
-          maybeUpdateFileCacheSize();
-          mCacheStats.increment(-itemsRemovedSize, -itemsRemovedCount);
+          synchronized (mLock) {
+            maybeUpdateFileCacheSize();
+            mCacheStats.increment(-itemsRemovedSize, -itemsRemovedCount);
+          }
         }
       } catch (IOException ioe) {
         mCacheErrorLogger.logError(
@@ -475,63 +562,105 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
    * Test if the cache size has exceeded its limits, and if so, evict some files.
    * It also calls maybeUpdateFileCacheSize
    *
-   * This method uses mLock for synchronization purposes.
+   * This method uses mEvictionLock and mLock for synchronization purposes.
    */
   private void maybeEvictFilesInCacheDir() throws IOException {
-    synchronized (mLock) {
-      boolean calculatedRightNow = maybeUpdateFileCacheSize();
-
-      // Update the size limit (mCacheSizeLimit)
-      updateFileCacheSizeLimit();
+    synchronized (mEvictionLock) {
+      long desiredSize;
+      synchronized (mLock) {
+        desiredSize = getDesiredSizeForEviction();
+      }
+      if (desiredSize != UNINITIALIZED) {
+        evictAboveSize(desiredSize, CacheEventListener.EvictionReason.CACHE_FULL);
+      }
+    }
+  }
 
-      long cacheSize = mCacheStats.getSize();
-      // If we are going to evict force a recalculation of the size
-      // (except if it was already calculated!)
-      if (cacheSize > mCacheSizeLimit && !calculatedRightNow) {
+  /**
+   * Updates the cache size and its limit.
+   * @return the size to evict down to, or UNINITIALIZED if no eviction is necessary
+   */
+  @GuardedBy("mLock")
+  private long getDesiredSizeForEviction() {
+    boolean calculatedRightNow = maybeUpdateFileCacheSize();
+
+    // Update the size limit (mCacheSizeLimit)
+    updateFileCacheSizeLimit();
+
+    long cacheSize = mCacheStats.getSize();
+    // If we are going to evict force a recalculation of the size
+    // (except if it was already calculated). The eviction index tracks the size without
+    // listing the files.
+    if (cacheSize > mCacheSizeLimit && !calculatedRightNow) {
+      if (mEvictionIndex.isReady()) {
+        mCacheStats.set(mEvictionIndex.getSize(), mEvictionIndex.getCount());
+      } else {
         mCacheStats.reset();
         maybeUpdateFileCacheSize();
       }
+      cacheSize = mCacheStats.getSize();
+    }
 
-      // If size has exceeded the size limit, evict some files
-      if (cacheSize > mCacheSizeLimit) {
-      evictAboveSize(
-          mCacheSizeLimit * 9 / 10,
-          CacheEventListener.EvictionReason.CACHE_FULL); // 90%
-      }
+    // If size has exceeded the size limit, evict some files
+    if (cacheSize > mCacheSizeLimit) {
+      return mCacheSizeLimit * 9 / 10; // 90%
     }
+    return UNINITIALIZED;
   }
 
-  @GuardedBy("mLock")
+  /**
+   * Evicts entries in the order of the eviction index until the cache size is below the desired
+   * size. Only the evicted entries are visited.
+   *
+   * <p>The entries are selected under mLock, but the files are deleted while holding only the
+   * lock of each resource, so that inserts of other resources can complete in the meantime.
+   */
+  @GuardedBy("mEvictionLock")
   private void evictAboveSize(
       long desiredSize,
       CacheEventListener.EvictionReason reason) throws IOException {
-    Collection<DiskStorage.Entry> entries;
-    try {
-      entries = getSortedEntries(mStorage.getEntries());
-    } catch (IOException ioe) {
-      mCacheErrorLogger.logError(
-          CacheErrorLogger.CacheErrorCategory.EVICTION,
-          TAG,
-          "evictAboveSize: " + ioe.getMessage(),
-          ioe);
-      throw ioe;
+    List<DiskStorage.Entry> entries;
+    long cacheSizeBeforeClearance;
+    synchronized (mLock) {
+      cacheSizeBeforeClearance = mCacheStats.getSize();
+      entries = selectEntriesToEvict(cacheSizeBeforeClearance - desiredSize);
     }
 
-    long cacheSizeBeforeClearance = mCacheStats.getSize();
-    long deleteSize = cacheSizeBeforeClearance - desiredSize;
     int itemCount = 0;
     long sumItemSizes = 0L;
-    for (DiskStorage.Entry entry: entries) {
-      if (sumItemSizes > (deleteSize)) {
-        break;
+    for (int i = 0; i < entries.size(); i++) {
+      DiskStorage.Entry entry = entries.get(i);
+      String resourceId = entry.getId();
+      long deletedSize;
+      synchronized (getResourceLock(resourceId)) {
+        synchronized (mLock) {
+          if (mEvictionIndex.contains(resourceId)) {
+            // inserted again since it was selected
+            continue;
+          }
+        }
+        try {
+          deletedSize = mStorage.remove(resourceId);
+        } catch (IOException ioe) {
+          restoreEntriesToEvict(entries, i);
+          mCacheStats.increment(-sumItemSizes, -itemCount);
+          throw ioe;
+        }
+        if (deletedSize < 0) {
+          // the file is still there, so the entry has to stay in the indexes and the cache size
+          restoreEntriesToEvict(entries.subList(i, i + 1), 0);
+          continue;
+        }
+        mResourceIndex.remove(resourceId);
+        if (mJournal != null) {
+          mJournal.recordRemove(resourceId);
+        }
       }
-      long deletedSize = mStorage.remove(entry);
-      mResourceIndex.remove(entry.getId());
       if (deletedSize > 0) {
         itemCount++;
         sumItemSizes += deletedSize;
         SettableCacheEvent cacheEvent = SettableCacheEvent.obtain()
-            .setResourceId(entry.getId())
+            .setResourceId(resourceId)
             .setEvictionReason(reason)
             .setItemSize(deletedSize)
             .setCacheSize(cacheSizeBeforeClearance - sumItemSizes)
@@ -545,27 +674,162 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   }
 
   /**
-   * If any file timestamp is in the future (beyond now + FUTURE_TIMESTAMP_THRESHOLD_MS), we will
-   * set its effective timestamp to 0 (the beginning of unix time), thus sending it to the head of
-   * the queue for eviction (entries with the lowest timestamps are evicted first). This is a
-   * safety check in case we get files that are written with a future timestamp.
-   * We are adding a small delta (this constant) to account for network time changes, timezone
-   * changes, etc.
+   * Removes entries from the eviction index, in eviction order, until their total size exceeds
+   * the given number of bytes.
+   * @return the removed entries, which still have to be deleted from the storage
    */
-  private Collection<DiskStorage.Entry> getSortedEntries(Collection<DiskStorage.Entry> allEntries) {
-    final long threshold = mClock.now() + DiskStorageCache.FUTURE_TIMESTAMP_THRESHOLD_MS;
-    ArrayList<DiskStorage.Entry> sortedList = new ArrayList<>(allEntries.size());
-    ArrayList<DiskStorage.Entry> listToSort = new ArrayList<>(allEntries.size());
-    for (DiskStorage.Entry entry : allEntries) {
-      if (entry.getTimestamp() > threshold) {
-        sortedList.add(entry);
-      } else {
-        listToSort.add(entry);
+  @GuardedBy("mLock")
+  private List<DiskStorage.Entry> selectEntriesToEvict(long bytesToDelete) throws IOException {
+    applyPendingAccesses();
+    if (!mEvictionIndex.isReady()) {
+      try {
+        mEvictionIndex.reset(getAllEntries(), getFutureTimestampThreshold());
+      } catch (IOException ioe) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.EVICTION,
+            TAG,
+            "evictAboveSize: " + ioe.getMessage(),
+            ioe);
+        throw ioe;
+      }
+    }
+    List<DiskStorage.Entry> entries = new ArrayList<>();
+    long sumItemSizes = 0L;
+    DiskStorage.Entry entry;
+    while (sumItemSizes <= bytesToDelete && (entry = mEvictionIndex.getNextToEvict()) != null) {
+      mEvictionIndex.remove(entry.getId());
+      entries.add(entry);
+      sumItemSizes += entry.getSize();
+    }
+    return entries;
+  }
+
+  /**
+   * Puts back into the eviction index the selected entries, from the given position on, that could
+   * not be deleted. Entries inserted again since they were selected are already back.
+   */
+  private void restoreEntriesToEvict(List<DiskStorage.Entry> entries, int fromIndex) {
+    synchronized (mLock) {
+      for (int i = fromIndex; i < entries.size(); i++) {
+        DiskStorage.Entry entry = entries.get(i);
+        if (!mEvictionIndex.contains(entry.getId())) {
+          mEvictionIndex.put(entry.getId(), entry.getSize(), entry.getTimestamp());
+        }
       }
     }
-    Collections.sort(listToSort, mEntryEvictionComparatorSupplier.get());
-    sortedList.addAll(listToSort);
-    return sortedList;
+  }
+
+  /**
+   * Lists the entries of the storage. If there is a journal they are read from it, unless it is
+   * missing or corrupt, in which case the storage is scanned and the journal rebuilt. The journal
+   * is trusted at startup, but the storage is scanned again every FILECACHE_SIZE_UPDATE_PERIOD_MS
+   * to catch up with files deleted behind the back of the cache.
+   */
+  @GuardedBy("mLock")
+  private Collection<DiskStorage.Entry> getAllEntries() throws IOException {
+    if (mJournal == null) {
+      return mStorage.getEntries();
+    }
+    long now = mClock.now();
+    if (mJournal.load()) {
+      if (mJournalCheckTime == UNINITIALIZED) {
+        mJournalCheckTime = now;
+      }
+      if (now - mJournalCheckTime <= FILECACHE_SIZE_UPDATE_PERIOD_MS) {
+        return mJournal.getEntries();
+      }
+      Collection<DiskStorage.Entry> entries = mStorage.getEntries();
+      mJournal.reconcile(entries, now);
+      mJournalCheckTime = now;
+      // the journal is discarded if it cannot be rewritten
+      return mJournal.isLoaded() ? mJournal.getEntries() : entries;
+    }
+    Collection<DiskStorage.Entry> entries = mStorage.getEntries();
+    mJournal.rebuild(entries);
+    mJournalCheckTime = now;
+    return entries;
+  }
+
+  /**
+   * Removes a listed entry from the storage and the indexes, unless it was inserted or accessed
+   * since it was listed. The entries are listed under mLock, which has to be released before
+   * taking the lock of the resource.
+   * @return size of deleted file if successfully deleted, -1 otherwise
+   */
+  private long removeEntry(DiskStorage.Entry entry) throws IOException {
+    // journal and index entries only carry metadata, the storage knows them by id
+    String resourceId = entry.getId();
+    synchronized (getResourceLock(resourceId)) {
+      synchronized (mLock) {
+        DiskStorage.Entry indexedEntry = mEvictionIndex.get(resourceId);
+        if (indexedEntry != null && indexedEntry.getTimestamp() > entry.getTimestamp()) {
+          return -1;
+        }
+      }
+      long removedSize = mStorage.remove(resourceId);
+      mResourceIndex.remove(resourceId);
+      if (mJournal != null) {
+        mJournal.recordRemove(resourceId);
+      }
+      synchronized (mLock) {
+        mEvictionIndex.remove(resourceId);
+      }
+      return removedSize;
+    }
+  }
+
+  /**
+   * Updates the last-access timestamp of an entry after a hit. The eviction index and the journal
+   * are updated lazily, so that lookups don't need to acquire any lock nor write to disk: the
+   * accesses are applied before the next eviction, or in the background once too many are
+   * pending.
+   */
+  private void touchEntry(String resourceId) {
+    long now = mClock.now();
+    mPendingAccesses.add(new EntryAccess(resourceId, now));
+    if (mPendingAccessCount.incrementAndGet() > MAX_PENDING_ACCESSES &&
+        mPendingAccessesScheduled.compareAndSet(false, true)) {
+      mBackgroundExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          // accesses added from now on may need another run
+          mPendingAccessesScheduled.set(false);
+          synchronized (mLock) {
+            applyPendingAccesses();
+          }
+        }
+      });
+    }
+  }
+
+  @GuardedBy("mLock")
+  private void applyPendingAccesses() {
+    EntryAccess access;
+    boolean applied = false;
+    while ((access = mPendingAccesses.poll()) != null) {
+      mPendingAccessCount.decrementAndGet();
+      mEvictionIndex.touch(access.resourceId, access.timestamp);
+      if (mJournal != null) {
+        mJournal.recordAccess(access.resourceId, access.timestamp);
+      }
+      applied = true;
+    }
+    if (applied && mJournal != null) {
+      mJournal.flush();
+    }
+  }
+
+  private Object getResourceLock(String resourceId) {
+    return mResourceLocks[(resourceId.hashCode() & Integer.MAX_VALUE) % RESOURCE_LOCK_STRIPES];
+  }
+
+  /**
+   * Timestamps beyond this threshold are considered to be in the future. We are adding a small
+   * delta (FUTURE_TIMESTAMP_THRESHOLD_MS) to account for network time changes, timezone changes,
+   * etc.
+   */
+  private long getFutureTimestampThreshold() {
+    return mClock.now() + FUTURE_TIMESTAMP_THRESHOLD_MS;
   }
 
   /**
@@ -600,69 +864,81 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
   }
 
   public void clearAll() {
-    synchronized (mLock) {
-      try {
-        mStorage.clearAll();
-        mResourceIndex.clear();
-        mCacheEventListener.onCleared();
-      } catch (IOException ioe) {
-        mCacheErrorLogger.logError(
-            CacheErrorLogger.CacheErrorCategory.EVICTION,
-            TAG,
-            "clearAll: " + ioe.getMessage(),
-            ioe);
+    synchronized (mEvictionLock) {
+      synchronized (mLock) {
+        try {
+          mStorage.clearAll();
+          mResourceIndex.clear();
+          mEvictionIndex.clear();
+          applyPendingAccesses();
+          if (mJournal != null) {
+            mJournal.clear();
+          }
+          mCacheEventListener.onCleared();
+        } catch (IOException ioe) {
+          mCacheErrorLogger.logError(
+              CacheErrorLogger.CacheErrorCategory.EVICTION,
+              TAG,
+              "clearAll: " + ioe.getMessage(),
+              ioe);
+          if (mJournal != null) {
+            // we don't know what is left in the storage, scan it next time
+            mJournal.invalidate();
+          }
+        }
+        mCacheStats.reset();
       }
-      mCacheStats.reset();
     }
   }
 
   @Override
   public boolean hasKeySync(CacheKey key) {
-    synchronized (mLock) {
-      String resourceId = null;
-      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-      for (int i = 0; i< resourceIds.size(); i++) {
-        resourceId = resourceIds.get(i);
-        if (mResourceIndex.contains(resourceId)) {
-          return true;
-        }
+    String resourceId = null;
+    List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+    for (int i = 0; i< resourceIds.size(); i++) {
+      resourceId = resourceIds.get(i);
+      if (mResourceIndex.contains(resourceId)) {
+        return true;
       }
-      return false;
     }
+    return false;
   }
 
   @Override
   public boolean hasKey(final CacheKey key) {
-    synchronized (mLock) {
-      if (hasKeySync(key)) {
-        return true;
-      }
-      try {
-        String resourceId = null;
-        List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
-        for (int i = 0; i < resourceIds.size(); i++) {
-          resourceId = resourceIds.get(i);
-          if (mStorage.contains(resourceId, key)) {
-            mResourceIndex.add(resourceId);
-            return true;
-          }
+    if (hasKeySync(key)) {
+      return true;
+    }
+    try {
+      String resourceId = null;
+      List<String> resourceIds = CacheKeyUtil.getResourceIds(key);
+      for (int i = 0; i < resourceIds.size(); i++) {
+        resourceId = resourceIds.get(i);
+        if (mStorage.contains(resourceId, key)) {
+          mResourceIndex.add(resourceId);
+          return true;
         }
-        return false;
-      } catch (IOException e) {
-        return false;
       }
+      return false;
+    } catch (IOException e) {
+      return false;
     }
   }
 
   @Override
   public void trimToMinimum() {
-    synchronized (mLock) {
-      maybeUpdateFileCacheSize();
-      long cacheSize = mCacheStats.getSize();
-      if (mCacheSizeLimitMinimum <= 0 || cacheSize <= 0 || cacheSize < mCacheSizeLimitMinimum) {
-        return;
+    synchronized (mEvictionLock) {
+      double trimRatio;
+      synchronized (mLock) {
+        maybeUpdateFileCacheSize();
+        long cacheSize = mCacheStats.getSize();
+        if (mCacheSizeLimitMinimum <= 0 ||
+            cacheSize <= 0 ||
+            cacheSize < mCacheSizeLimitMinimum) {
+          return;
+        }
+        trimRatio = 1 - (double) mCacheSizeLimitMinimum / (double) cacheSize;
       }
-      double trimRatio = 1 - (double) mCacheSizeLimitMinimum / (double) cacheSize;
       if (trimRatio > TRIMMING_LOWER_BOUND) {
         trimBy(trimRatio);
       }
@@ -674,24 +950,26 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     clearAll();
   }
 
+  @GuardedBy("mEvictionLock")
   private void trimBy(final double trimRatio) {
-    synchronized (mLock) {
-      try {
+    try {
+      long newMaxBytesInFiles;
+      synchronized (mLock) {
         // Force update the ground truth if we are about to evict
         mCacheStats.reset();
         maybeUpdateFileCacheSize();
         long cacheSize = mCacheStats.getSize();
-        long newMaxBytesInFiles = cacheSize - (long) (trimRatio * cacheSize);
-        evictAboveSize(
-            newMaxBytesInFiles,
-            CacheEventListener.EvictionReason.CACHE_MANAGER_TRIMMED);
-      } catch (IOException ioe) {
-        mCacheErrorLogger.logError(
-            CacheErrorLogger.CacheErrorCategory.EVICTION,
-            TAG,
-            "trimBy: " + ioe.getMessage(),
-            ioe);
+        newMaxBytesInFiles = cacheSize - (long) (trimRatio * cacheSize);
       }
+      evictAboveSize(
+          newMaxBytesInFiles,
+          CacheEventListener.EvictionReason.CACHE_MANAGER_TRIMMED);
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.EVICTION,
+          TAG,
+          "trimBy: " + ioe.getMessage(),
+          ioe);
     }
   }
 
@@ -720,7 +998,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
     int sizeFutureFiles = 0;
     long maxTimeDelta = -1;
     long now = mClock.now();
-    long timeThreshold = now + FUTURE_TIMESTAMP_THRESHOLD_MS;
+    long timeThreshold = getFutureTimestampThreshold();
     Set<String> tempResourceIndex;
     if (mIndexPopulateAtStartupEnabled && mResourceIndex.isEmpty()) {
       tempResourceIndex = mResourceIndex;
@@ -730,7 +1008,8 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       tempResourceIndex = null;
     }
     try {
-      Collection<DiskStorage.Entry> entries = mStorage.getEntries();
+      Collection<DiskStorage.Entry> entries = getAllEntries();
+      mEvictionIndex.reset(entries, timeThreshold);
       for (DiskStorage.Entry entry: entries) {
         count++;
         size += entry.getSize();
@@ -796,4 +1075,17 @@ public class DiskStorageCache implements FileCache, DiskTrimmable {
       FLog.e(TAG, "Fail to delete SharedPreference from file system. ");
     }
   }
+
+  /**
+   * An access to an entry that hasn't been applied to the eviction index yet.
+   */
+  private static class EntryAccess {
+    final String resourceId;
+    final long timestamp;
+
+    EntryAccess(String resourceId, long timestamp) {
+      this.resourceId = resourceId;
+      this.timestamp = timestamp;
+    }
+  }
 }
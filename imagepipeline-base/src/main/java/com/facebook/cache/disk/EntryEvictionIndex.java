@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+
+/**
+ * In-memory index of the entries of a {@link DiskStorage}, kept in eviction order.
+ *
+ * <p>The index is populated once from a listing of the storage and then kept up to date as
+ * entries are inserted, accessed and removed, so that finding the next entry to evict costs
+ * O(log n) instead of sorting all the entries every time the cache is full.
+ *
+ * <p>The relative order of two entries given by the {@link EntryEvictionComparator} must not
+ * change over time unless the entries themselves change. This holds for both the LRU and the
+ * score based comparators, whose scores grow at the same rate for every entry.
+ */
+@NotThreadSafe
+public class EntryEvictionIndex {
+
+  private final Map<String, IndexEntry> mEntries = new HashMap<>();
+  private final TreeSet<IndexEntry> mEvictionOrder;
+  private long mSize;
+  private boolean mReady;
+
+  public EntryEvictionIndex(final EntryEvictionComparator comparator) {
+    Preconditions.checkNotNull(comparator);
+    mEvictionOrder = new TreeSet<>(new Comparator<IndexEntry>() {
+      @Override
+      public int compare(IndexEntry lhs, IndexEntry rhs) {
+        int result = comparator.compare(lhs, rhs);
+        // entries with the same eviction priority are still distinct entries
+        return result != 0 ? result : lhs.getId().compareTo(rhs.getId());
+      }
+    });
+  }
+
+  /**
+   * Whether the index has been populated with {@link #reset} and can be used for eviction.
+   */
+  public boolean isReady() {
+    return mReady;
+  }
+
+  /**
+   * Replaces the content of the index with the given entries.
+   *
+   * <p>If any timestamp is in the future (beyond {@code futureTimestampThreshold}), its effective
+   * timestamp is set to 0 (the beginning of unix time), thus sending it to the head of the queue
+   * for eviction. This is a safety check in case we get files that are written with a future
+   * timestamp.
+   */
+  public void reset(Collection<DiskStorage.Entry> entries, long futureTimestampThreshold) {
+    clear();
+    for (DiskStorage.Entry entry : entries) {
+      long timestamp = entry.getTimestamp() > futureTimestampThreshold ? 0 : entry.getTimestamp();
+      put(entry.getId(), entry.getSize(), timestamp);
+    }
+    mReady = true;
+  }
+
+  /**
+   * Empties the index. It is no longer ready until the next {@link #reset}.
+   */
+  public void clear() {
+    mEntries.clear();
+    mEvictionOrder.clear();
+    mSize = 0;
+    mReady = false;
+  }
+
+  /**
+   * Adds an entry, or replaces the entry with the same id.
+   */
+  public void put(String resourceId, long size, long timestamp) {
+    remove(resourceId);
+    IndexEntry entry = new IndexEntry(resourceId, size, timestamp);
+    mEntries.put(resourceId, entry);
+    mEvictionOrder.add(entry);
+    mSize += size;
+  }
+
+  /**
+   * Updates the last-access timestamp of an entry, if present.
+   */
+  public void touch(String resourceId, long timestamp) {
+    IndexEntry entry = mEntries.get(resourceId);
+    if (entry != null && entry.getTimestamp() != timestamp) {
+      put(resourceId, entry.getSize(), timestamp);
+    }
+  }
+
+  /**
+   * Removes an entry, if present.
+   */
+  public void remove(String resourceId) {
+    IndexEntry entry = mEntries.remove(resourceId);
+    if (entry != null) {
+      mEvictionOrder.remove(entry);
+      mSize -= entry.getSize();
+    }
+  }
+
+  /**
+   * @return the entry with the given id, or null if the index does not contain it
+   */
+  @Nullable
+  public DiskStorage.Entry get(String resourceId) {
+    return mEntries.get(resourceId);
+  }
+
+  /**
+   * @return true if the index contains an entry with the given id
+   */
+  public boolean contains(String resourceId) {
+    return mEntries.containsKey(resourceId);
+  }
+
+  /**
+   * @return the entry that should be evicted first, or null if the index is empty
+   */
+  @Nullable
+  public DiskStorage.Entry getNextToEvict() {
+    return mEvictionOrder.isEmpty() ? null : mEvictionOrder.first();
+  }
+
+  /**
+   * @return total size in bytes of the indexed entries
+   */
+  public long getSize() {
+    return mSize;
+  }
+
+  /**
+   * @return number of indexed entries
+   */
+  public int getCount() {
+    return mEntries.size();
+  }
+
+  /**
+   * Metadata of an indexed entry. Entries are replaced rather than mutated, as mutating them
+   * would break the ordering of the eviction set.
+   */
+  @VisibleForTesting
+  static class IndexEntry implements DiskStorage.Entry {
+    private final String mId;
+    private final long mSize;
+    private final long mTimestamp;
+
+    IndexEntry(String id, long size, long timestamp) {
+      mId = id;
+      mSize = size;
+      mTimestamp = timestamp;
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    /**
+     * Index entries only carry metadata, the resource has to be obtained from the storage.
+     */
+    @Override
+    @Nullable
+    public BinaryResource getResource() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,966 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.ByteArrayBinaryResource;
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.time.Clock;
+import com.facebook.common.time.SystemClock;
+
+/**
+ * A disk storage that packs entries into a few large segment files instead of creating one file
+ * per entry. Meant for caches of small images, for which the block overhead of the file system and
+ * the creation and deletion of files dominate the space used and the insertion latency.
+ *
+ * <p>Entries are appended to the active segment. A segment is closed once it reaches its maximum
+ * size, and a new one is started. Each record of a segment is self-describing:
+ * <pre>
+ *   flag (1 byte) | timestamp (8 bytes) | id length (2 bytes) | id | data length (4) | data
+ * </pre>
+ * The offset index is kept in memory and rebuilt by scanning the segments the first time the
+ * storage is used. Removing an entry clears the flag of its record and updating its timestamp
+ * rewrites the timestamp of its record, both in place. Segments in which less than half of the
+ * bytes are live are compacted in the background: their live records are copied to the active
+ * segment and the segment file is deleted.
+ *
+ * <p>Entries are buffered in memory while they are written, so this storage is not suited for
+ * large entries.
+ */
+@ThreadSafe
+public class PackFileDiskStorage implements DiskStorage {
+
+  private static final Class<?> TAG = PackFileDiskStorage.class;
+
+  private static final String VERSION_DIRECTORY_PREFIX = "pk1.";
+  @VisibleForTesting static final String SEGMENT_FILE_EXTENSION = ".seg";
+  private static final int SEGMENT_MAGIC = 0x46504B31; // "FPK1"
+  private static final int SEGMENT_HEADER_SIZE = 4;
+
+  private static final byte RECORD_DELETED = 0;
+  private static final byte RECORD_LIVE = 1;
+  private static final int TIMESTAMP_OFFSET = 1;
+  // flag, timestamp, id length and data length
+  private static final int RECORD_OVERHEAD = 1 + 8 + 2 + 4;
+  private static final int MAX_ID_LENGTH = 1024;
+
+  public static final int DEFAULT_MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  // Segments with a lower ratio of live bytes are compacted
+  @VisibleForTesting static final float COMPACTION_LIVE_RATIO = 0.5f;
+
+  private final Supplier<File> mBaseDirectoryPathSupplier;
+  private final String mBaseDirectoryName;
+  private final int mVersion;
+  private final int mMaxSegmentSize;
+  private final Executor mCompactionExecutor;
+  private final CacheErrorLogger mCacheErrorLogger;
+  private final Clock mClock;
+
+  @GuardedBy("this")
+  private @Nullable File mRootDirectory;
+  @GuardedBy("this")
+  private @Nullable File mVersionDirectory;
+  @GuardedBy("this")
+  private boolean mIsExternal;
+  @GuardedBy("this")
+  private final Map<String, Location> mIndex = new HashMap<>();
+  @GuardedBy("this")
+  private final TreeMap<Integer, Segment> mSegments = new TreeMap<>();
+  @GuardedBy("this")
+  private @Nullable Segment mActiveSegment;
+  @GuardedBy("this")
+  private int mNextSegmentId;
+  @GuardedBy("this")
+  private boolean mCompactionScheduled;
+
+  private final Runnable mCompactionRunnable = new Runnable() {
+    @Override
+    public void run() {
+      compact();
+    }
+  };
+
+  /**
+   * @param baseDirectoryPathSupplier supplier of the directory containing the storage directory,
+   *   only called the first time the storage is used
+   * @param baseDirectoryName name of the storage directory
+   * @param version version of the format of the entries. If passed a different version, entries
+   *   saved with the previous value are deleted.
+   * @param maxSegmentSize size in bytes above which a new segment file is started
+   * @param compactionExecutor executor of the background compactions
+   * @param cacheErrorLogger logger for various events
+   */
+  public PackFileDiskStorage(
+      Supplier<File> baseDirectoryPathSupplier,
+      String baseDirectoryName,
+      int version,
+      int maxSegmentSize,
+      Executor compactionExecutor,
+      CacheErrorLogger cacheErrorLogger) {
+    Preconditions.checkArgument(maxSegmentSize > SEGMENT_HEADER_SIZE);
+    mBaseDirectoryPathSupplier = Preconditions.checkNotNull(baseDirectoryPathSupplier);
+    mBaseDirectoryName = Preconditions.checkNotNull(baseDirectoryName);
+    mVersion = version;
+    mMaxSegmentSize = maxSegmentSize;
+    mCompactionExecutor = Preconditions.checkNotNull(compactionExecutor);
+    mCacheErrorLogger = Preconditions.checkNotNull(cacheErrorLogger);
+    mClock = SystemClock.get();
+  }
+
+  @Override
+  public synchronized boolean isEnabled() {
+    try {
+      maybeLoad();
+      return true;
+    } catch (IOException ioe) {
+      return false;
+    }
+  }
+
+  @Override
+  public synchronized boolean isExternal() {
+    try {
+      maybeLoad();
+    } catch (IOException ioe) {
+      return false;
+    }
+    return mIsExternal;
+  }
+
+  @Override
+  public String getStorageName() {
+    return "_" + mBaseDirectoryName + "_" + VERSION_DIRECTORY_PREFIX + mVersion;
+  }
+
+  @Override
+  public BinaryResource getResource(String resourceId, Object debugInfo) throws IOException {
+    byte[] data = readData(resourceId, true);
+    return data == null ? null : new ByteArrayBinaryResource(data);
+  }
+
+  @Override
+  public synchronized boolean contains(String resourceId, Object debugInfo) throws IOException {
+    maybeLoad();
+    return mIndex.containsKey(resourceId);
+  }
+
+  @Override
+  public synchronized boolean touch(String resourceId, Object debugInfo) throws IOException {
+    maybeLoad();
+    Location location = mIndex.get(resourceId);
+    if (location == null) {
+      return false;
+    }
+    updateTimestamp(location);
+    return true;
+  }
+
+  @Override
+  public synchronized void purgeUnexpectedResources() {
+    if (mRootDirectory == null) {
+      return;
+    }
+    deleteOtherVersionDirectories(mRootDirectory, mVersionDirectory);
+    File[] files = mVersionDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        int segmentId = getSegmentId(file);
+        if (segmentId < 0 || !mSegments.containsKey(segmentId)) {
+          FileTree.deleteRecursively(file);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Inserter insert(String resourceId, Object debugInfo) throws IOException {
+    Preconditions.checkArgument(resourceId.length() > 0);
+    synchronized (this) {
+      maybeLoad();
+    }
+    return new InserterImpl(resourceId);
+  }
+
+  /**
+   * Returns a list of entries.
+   *
+   * <p>This list is immutable.
+   */
+  @Override
+  public synchronized List<Entry> getEntries() throws IOException {
+    maybeLoad();
+    List<Entry> entries = new ArrayList<>(mIndex.size());
+    for (Location location : mIndex.values()) {
+      entries.add(new EntryImpl(location.resourceId, location.timestamp, location.dataLength));
+    }
+    return Collections.unmodifiableList(entries);
+  }
+
+  @Override
+  public long remove(Entry entry) throws IOException {
+    return remove(entry.getId());
+  }
+
+  @Override
+  public synchronized long remove(String resourceId) throws IOException {
+    maybeLoad();
+    Location location = mIndex.remove(resourceId);
+    if (location == null) {
+      return 0;
+    }
+    try {
+      markDeleted(location);
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
+          TAG,
+          "remove",
+          ioe);
+      throw ioe;
+    }
+    return location.dataLength;
+  }
+
+  @Override
+  public synchronized void clearAll() throws IOException {
+    for (Segment segment : mSegments.values()) {
+      segment.close();
+    }
+    mSegments.clear();
+    mIndex.clear();
+    mActiveSegment = null;
+    // segment ids are not reused, so that readers still holding the location of a record of a
+    // deleted segment can't read another record at the same offset of a new segment
+    if (mRootDirectory != null) {
+      deleteOtherVersionDirectories(mRootDirectory, mVersionDirectory);
+      FileTree.deleteContents(mVersionDirectory);
+      mkdirs(mVersionDirectory, "clearAll");
+    }
+  }
+
+  @Override
+  public DiskDumpInfo getDumpInfo() throws IOException {
+    List<Entry> entries = getEntries();
+    DiskDumpInfo dumpInfo = new DiskDumpInfo();
+    for (Entry entry : entries) {
+      byte[] bytes = readData(entry.getId(), false);
+      if (bytes == null) {
+        continue;
+      }
+      String type = DefaultDiskStorage.typeOfBytes(bytes);
+      String firstBits = "";
+      if (type.equals("undefined") && bytes.length >= 4) {
+        firstBits = String.format(
+            (Locale) null, "0x%02X 0x%02X 0x%02X 0x%02X", bytes[0], bytes[1], bytes[2], bytes[3]);
+      }
+      if (!dumpInfo.typeCounts.containsKey(type)) {
+        dumpInfo.typeCounts.put(type, 0);
+      }
+      dumpInfo.typeCounts.put(type, dumpInfo.typeCounts.get(type) + 1);
+      dumpInfo.entries.add(
+          new DiskDumpInfoEntry(getLocationPath(entry.getId()), type, entry.getSize(), firstBits));
+    }
+    return dumpInfo;
+  }
+
+  @VisibleForTesting
+  synchronized int getSegmentCount() {
+    return mSegments.size();
+  }
+
+  private synchronized String getLocationPath(String resourceId) {
+    Location location = mIndex.get(resourceId);
+    return location == null ? "" : location.segment.file.getPath() + "@" + location.recordOffset;
+  }
+
+  /**
+   * Deletes the directories of the other versions of this storage. Nothing else is deleted from
+   * the root directory, since it may be shared with other storages.
+   */
+  private static void deleteOtherVersionDirectories(File rootDirectory, File versionDirectory) {
+    File[] files = rootDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.getName().startsWith(VERSION_DIRECTORY_PREFIX) && !file.equals(versionDirectory)) {
+        FileTree.deleteRecursively(file);
+      }
+    }
+  }
+
+  /**
+   * Reads the data of an entry. The data is read outside the lock; if the segment is compacted in
+   * the meantime, the entry is looked up again.
+   */
+  @Nullable
+  private byte[] readData(String resourceId, boolean touch) throws IOException {
+    while (true) {
+      Location location = getLocation(resourceId, touch);
+      if (location == null) {
+        return null;
+      }
+      byte[] data = readLocation(location);
+      if (data != null) {
+        return data;
+      }
+    }
+  }
+
+  @VisibleForTesting
+  @Nullable
+  synchronized Location getLocation(String resourceId, boolean touch) throws IOException {
+    maybeLoad();
+    Location location = mIndex.get(resourceId);
+    if (location != null && touch) {
+      updateTimestamp(location);
+    }
+    return location;
+  }
+
+  /**
+   * Reads the data of a record, without holding the lock.
+   * @return the data, or null if the record has been moved or removed while it was being read
+   */
+  @VisibleForTesting
+  @Nullable
+  byte[] readLocation(Location location) throws IOException {
+    byte[] data = new byte[location.dataLength];
+    try {
+      RandomAccessFile file = new RandomAccessFile(location.segment.file, "r");
+      try {
+        file.seek(location.dataOffset);
+        file.readFully(data);
+      } finally {
+        file.close();
+      }
+      return data;
+    } catch (IOException ioe) {
+      synchronized (this) {
+        if (mIndex.get(location.resourceId) == location) {
+          mCacheErrorLogger.logError(
+              CacheErrorLogger.CacheErrorCategory.READ_FILE,
+              TAG,
+              "readLocation: " + location.resourceId,
+              ioe);
+          throw ioe;
+        }
+      }
+      return null;
+    }
+  }
+
+  @GuardedBy("this")
+  private void maybeLoad() throws IOException {
+    if (mVersionDirectory != null) {
+      return;
+    }
+    File rootDirectory = new File(mBaseDirectoryPathSupplier.get(), mBaseDirectoryName);
+    File versionDirectory = new File(rootDirectory, VERSION_DIRECTORY_PREFIX + mVersion);
+    // entries of a previous version can't be used anymore
+    deleteOtherVersionDirectories(rootDirectory, versionDirectory);
+    mkdirs(versionDirectory, "maybeLoad");
+    mRootDirectory = rootDirectory;
+    mVersionDirectory = versionDirectory;
+    mIsExternal = DefaultDiskStorage.isExternal(rootDirectory, mCacheErrorLogger);
+
+    List<Integer> segmentIds = new ArrayList<>();
+    File[] files = versionDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        int segmentId = getSegmentId(file);
+        if (segmentId >= 0) {
+          segmentIds.add(segmentId);
+        }
+      }
+    }
+    Collections.sort(segmentIds);
+    for (int i = 0; i < segmentIds.size(); i++) {
+      int segmentId = segmentIds.get(i);
+      mNextSegmentId = segmentId + 1;
+      Segment segment = null;
+      try {
+        segment = new Segment(segmentId, getSegmentFile(segmentId));
+        mSegments.put(segmentId, segment);
+        scanSegment(segment, i == segmentIds.size() - 1);
+      } catch (IOException ioe) {
+        mCacheErrorLogger.logError(
+            CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY,
+            TAG,
+            "maybeLoad: segment " + segmentId,
+            ioe);
+        removeFromIndex(segment);
+        dropSegment(segmentId);
+      }
+    }
+    if (!mSegments.isEmpty()) {
+      Segment lastSegment = mSegments.lastEntry().getValue();
+      if (lastSegment.size < mMaxSegmentSize) {
+        mActiveSegment = lastSegment;
+      }
+    }
+    for (Segment segment : new ArrayList<>(mSegments.values())) {
+      maybeReleaseSegment(segment);
+    }
+  }
+
+  /**
+   * Adds the live records of a segment to the index. Scanning stops at the first invalid record.
+   * If the segment is the last one, the invalid record is most likely the result of an incomplete
+   * write, and the segment is truncated so that new records can be appended.
+   */
+  @GuardedBy("this")
+  private void scanSegment(Segment segment, boolean isLastSegment) throws IOException {
+    long fileLength = segment.file.length();
+    DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+    try {
+      if (fileLength < SEGMENT_HEADER_SIZE || input.readInt() != SEGMENT_MAGIC) {
+        throw new IOException("Invalid segment header");
+      }
+      long offset = SEGMENT_HEADER_SIZE;
+      while (offset < fileLength) {
+        byte flag = input.readByte();
+        Location location = (flag == RECORD_LIVE || flag == RECORD_DELETED) ?
+            readRecord(input, segment, offset, fileLength) :
+            null;
+        if (location == null) {
+          mCacheErrorLogger.logError(
+              CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY,
+              TAG,
+              "scanSegment: invalid record in segment " + segment.id + " at " + offset,
+              null);
+          break;
+        }
+        offset += location.getRecordLength();
+        if (flag == RECORD_LIVE) {
+          Location previous = mIndex.put(location.resourceId, location);
+          if (previous != null) {
+            // the last write wins, make sure the previous one doesn't come back after a removal.
+            // Segments are only released once they are all loaded.
+            clearRecordFlag(previous);
+          }
+          segment.liveBytes += location.getRecordLength();
+        }
+      }
+      if (offset < fileLength && isLastSegment) {
+        segment.randomAccessFile.setLength(offset);
+        fileLength = offset;
+      }
+      segment.size = fileLength;
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Reads the rest of the record starting at the given offset, after its flag.
+   * @return the location of the record, or null if the record is invalid or truncated
+   */
+  @Nullable
+  private static Location readRecord(
+      DataInputStream input,
+      Segment segment,
+      long offset,
+      long fileLength) throws IOException {
+    try {
+      long timestamp = input.readLong();
+      int idLength = input.readUnsignedShort();
+      if (idLength == 0 || idLength > MAX_ID_LENGTH) {
+        return null;
+      }
+      byte[] idBytes = new byte[idLength];
+      input.readFully(idBytes);
+      int dataLength = input.readInt();
+      long dataOffset = offset + RECORD_OVERHEAD + idLength;
+      if (dataLength < 0 || dataOffset + dataLength > fileLength) {
+        return null;
+      }
+      long skipped = 0;
+      while (skipped < dataLength) {
+        long count = input.skip(dataLength - skipped);
+        if (count <= 0) {
+          return null;
+        }
+        skipped += count;
+      }
+      return new Location(
+          new String(idBytes, "UTF-8"),
+          segment,
+          offset,
+          dataOffset,
+          dataLength,
+          timestamp);
+    } catch (EOFException eofe) {
+      return null;
+    }
+  }
+
+  /**
+   * Appends a record to the active segment and adds it to the index, replacing the previous record
+   * of the same entry.
+   */
+  @GuardedBy("this")
+  private Location append(String resourceId, byte[] data, long timestamp) throws IOException {
+    byte[] idBytes = resourceId.getBytes("UTF-8");
+    Preconditions.checkArgument(idBytes.length <= MAX_ID_LENGTH);
+    int recordLength = RECORD_OVERHEAD + idBytes.length + data.length;
+    if (mActiveSegment == null ||
+        (mActiveSegment.size + recordLength > mMaxSegmentSize &&
+            mActiveSegment.size > SEGMENT_HEADER_SIZE)) {
+      Segment previousSegment = mActiveSegment;
+      mActiveSegment = createSegment();
+      if (previousSegment != null) {
+        maybeReleaseSegment(previousSegment);
+      }
+    }
+    Segment segment = mActiveSegment;
+    ByteBuffer header = ByteBuffer.allocate(RECORD_OVERHEAD + idBytes.length);
+    header.put(RECORD_LIVE);
+    header.putLong(timestamp);
+    header.putShort((short) idBytes.length);
+    header.put(idBytes);
+    header.putInt(data.length);
+    long recordOffset = segment.size;
+    segment.randomAccessFile.seek(recordOffset);
+    segment.randomAccessFile.write(header.array());
+    segment.randomAccessFile.write(data);
+    segment.size += recordLength;
+    segment.liveBytes += recordLength;
+
+    Location location = new Location(
+        resourceId,
+        segment,
+        recordOffset,
+        recordOffset + header.capacity(),
+        data.length,
+        timestamp);
+    Location previous = mIndex.put(resourceId, location);
+    if (previous != null) {
+      markDeleted(previous);
+    }
+    return location;
+  }
+
+  @GuardedBy("this")
+  private Segment createSegment() throws IOException {
+    int segmentId = mNextSegmentId++;
+    File file = getSegmentFile(segmentId);
+    if (!mVersionDirectory.exists()) {
+      mkdirs(mVersionDirectory, "createSegment");
+    }
+    Segment segment = new Segment(segmentId, file);
+    mSegments.put(segmentId, segment);
+    segment.randomAccessFile.setLength(0);
+    segment.randomAccessFile.writeInt(SEGMENT_MAGIC);
+    segment.size = SEGMENT_HEADER_SIZE;
+    return segment;
+  }
+
+  /**
+   * Clears the flag of a record that is no longer in the index, and releases its segment if needed.
+   */
+  @GuardedBy("this")
+  private void markDeleted(Location location) throws IOException {
+    if (clearRecordFlag(location)) {
+      maybeReleaseSegment(location.segment);
+    }
+  }
+
+  /**
+   * @return false if the segment of the record has already been dropped
+   */
+  @GuardedBy("this")
+  private boolean clearRecordFlag(Location location) throws IOException {
+    Segment segment = location.segment;
+    if (mSegments.get(segment.id) != segment) {
+      return false;
+    }
+    segment.randomAccessFile.seek(location.recordOffset);
+    segment.randomAccessFile.writeByte(RECORD_DELETED);
+    segment.liveBytes -= location.getRecordLength();
+    return true;
+  }
+
+  @GuardedBy("this")
+  private void updateTimestamp(Location location) {
+    long now = mClock.now();
+    try {
+      location.segment.randomAccessFile.seek(location.recordOffset + TIMESTAMP_OFFSET);
+      location.segment.randomAccessFile.writeLong(now);
+      location.timestamp = now;
+    } catch (IOException ioe) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND,
+          TAG,
+          "updateTimestamp",
+          ioe);
+    }
+  }
+
+  /**
+   * Deletes the segment if it doesn't contain any live record anymore, or schedules a compaction
+   * if most of it is garbage. The active segment is left alone.
+   */
+  @GuardedBy("this")
+  private void maybeReleaseSegment(Segment segment) {
+    if (segment == mActiveSegment) {
+      return;
+    }
+    if (segment.liveBytes <= 0) {
+      dropSegment(segment.id);
+    } else if (segment.liveBytes < segment.size * COMPACTION_LIVE_RATIO && !mCompactionScheduled) {
+      mCompactionScheduled = true;
+      mCompactionExecutor.execute(mCompactionRunnable);
+    }
+  }
+
+  @GuardedBy("this")
+  private void dropSegment(int segmentId) {
+    Segment segment = mSegments.remove(segmentId);
+    if (segment != null) {
+      segment.close();
+    }
+    File file = getSegmentFile(segmentId);
+    if (file.exists() && !file.delete()) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.DELETE_FILE,
+          TAG,
+          "dropSegment: " + file,
+          null);
+    }
+  }
+
+  /**
+   * Compacts the segments that are mostly garbage, one at a time. The live records are read
+   * outside the lock and only appended to the active segment if they haven't changed meanwhile.
+   *
+   * <p>Records that can't be read or moved stay where they are, and so does their segment, so
+   * that the entries known to the cache remain in the storage until they are removed.
+   */
+  @VisibleForTesting
+  void compact() {
+    while (true) {
+      Segment segment;
+      List<Location> liveLocations = new ArrayList<>();
+      synchronized (this) {
+        segment = getSegmentToCompact();
+        if (segment == null) {
+          mCompactionScheduled = false;
+          return;
+        }
+        for (Location location : mIndex.values()) {
+          if (location.segment == segment) {
+            liveLocations.add(location);
+          }
+        }
+      }
+
+      // the segment is not active, so its records can only be deleted while they are read
+      List<byte[]> liveData = new ArrayList<>(liveLocations.size());
+      for (int i = 0; i < liveLocations.size(); i++) {
+        Location location = liveLocations.get(i);
+        byte[] data = null;
+        try {
+          data = readLocation(location);
+        } catch (IOException ioe) {
+          // already logged, the record is left in place
+        }
+        liveData.add(data);
+      }
+
+      synchronized (this) {
+        if (mSegments.get(segment.id) != segment) {
+          // dropped meanwhile, e.g. by clearAll
+          continue;
+        }
+        try {
+          for (int i = 0; i < liveData.size(); i++) {
+            Location location = liveLocations.get(i);
+            byte[] data = liveData.get(i);
+            if (data != null && mIndex.get(location.resourceId) == location) {
+              append(location.resourceId, data, location.timestamp);
+            }
+          }
+        } catch (IOException ioe) {
+          mCacheErrorLogger.logError(
+              CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND,
+              TAG,
+              "compact: segment " + segment.id,
+              ioe);
+        }
+        if (mSegments.get(segment.id) == segment) {
+          // some records could not be moved
+          segment.compactionFailed = true;
+          FLog.w(
+              TAG,
+              "compact: %d live bytes left in segment %d",
+              segment.liveBytes,
+              segment.id);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the entries whose record is in the given segment from the index.
+   */
+  @GuardedBy("this")
+  private void removeFromIndex(@Nullable Segment segment) {
+    Iterator<Location> iterator = mIndex.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().segment == segment) {
+        iterator.remove();
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  @Nullable
+  private Segment getSegmentToCompact() {
+    Segment candidate = null;
+    float candidateRatio = COMPACTION_LIVE_RATIO;
+    for (Segment segment : mSegments.values()) {
+      if (segment == mActiveSegment || segment.compactionFailed) {
+        continue;
+      }
+      float ratio = (float) segment.liveBytes / segment.size;
+      if (ratio < candidateRatio) {
+        candidate = segment;
+        candidateRatio = ratio;
+      }
+    }
+    return candidate;
+  }
+
+  @GuardedBy("this")
+  private File getSegmentFile(int segmentId) {
+    return new File(mVersionDirectory, segmentId + SEGMENT_FILE_EXTENSION);
+  }
+
+  /**
+   * @return the id of the segment stored in the file, or -1 if it's not a segment file
+   */
+  private static int getSegmentId(File file) {
+    String name = file.getName();
+    if (!file.isFile() || !name.endsWith(SEGMENT_FILE_EXTENSION)) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(
+          name.substring(0, name.length() - SEGMENT_FILE_EXTENSION.length()));
+    } catch (NumberFormatException nfe) {
+      return -1;
+    }
+  }
+
+  private void mkdirs(File directory, String message) throws IOException {
+    try {
+      FileUtils.mkdirs(directory);
+    } catch (FileUtils.CreateDirectoryException cde) {
+      mCacheErrorLogger.logError(
+          CacheErrorLogger.CacheErrorCategory.WRITE_CREATE_DIR,
+          TAG,
+          message,
+          cde);
+      throw cde;
+    }
+  }
+
+  /**
+   * A segment file, kept open while it is in use.
+   */
+  private static class Segment {
+    final int id;
+    final File file;
+    // only used under the lock of the storage, readers open their own file
+    final RandomAccessFile randomAccessFile;
+    // bytes written, including garbage
+    long size;
+    // bytes of the live records
+    long liveBytes;
+    // set once the compaction of the segment left records behind, it isn't attempted again
+    boolean compactionFailed;
+
+    Segment(int id, File file) throws IOException {
+      this.id = id;
+      this.file = file;
+      this.randomAccessFile = new RandomAccessFile(file, "rw");
+    }
+
+    void close() {
+      try {
+        randomAccessFile.close();
+      } catch (IOException ioe) {
+        // nothing left to release
+      }
+    }
+  }
+
+  /**
+   * Position of a live record.
+   */
+  @VisibleForTesting
+  static class Location {
+    final String resourceId;
+    final Segment segment;
+    final long recordOffset;
+    final long dataOffset;
+    int dataLength;
+    long timestamp;
+
+    Location(
+        String resourceId,
+        Segment segment,
+        long recordOffset,
+        long dataOffset,
+        int dataLength,
+        long timestamp) {
+      this.resourceId = resourceId;
+      this.segment = segment;
+      this.recordOffset = recordOffset;
+      this.dataOffset = dataOffset;
+      this.dataLength = dataLength;
+      this.timestamp = timestamp;
+    }
+
+    long getRecordLength() {
+      return dataOffset - recordOffset + dataLength;
+    }
+  }
+
+  private class EntryImpl implements Entry {
+    private final String mId;
+    private final long mTimestamp;
+    private final long mSize;
+
+    EntryImpl(String id, long timestamp, long size) {
+      mId = id;
+      mTimestamp = timestamp;
+      mSize = size;
+    }
+
+    @Override
+    public String getId() {
+      return mId;
+    }
+
+    @Override
+    public long getTimestamp() {
+      return mTimestamp;
+    }
+
+    @Override
+    public long getSize() {
+      return mSize;
+    }
+
+    /**
+     * The data is read when the resource is opened, it's empty if the entry is gone by then.
+     */
+    @Override
+    public BinaryResource getResource() {
+      return new BinaryResource() {
+        @Override
+        public InputStream openStream() throws IOException {
+          return new ByteArrayInputStream(read());
+        }
+
+        @Override
+        public byte[] read() throws IOException {
+          byte[] data = readData(mId, false);
+          return data == null ? new byte[0] : data;
+        }
+
+        @Override
+        public long size() {
+          return mSize;
+        }
+      };
+    }
+  }
+
+  @VisibleForTesting
+  class InserterImpl implements Inserter {
+    private final String mResourceId;
+    private @Nullable byte[] mData;
+
+    InserterImpl(String resourceId) {
+      mResourceId = resourceId;
+    }
+
+    @Override
+    public void writeData(WriterCallback callback, Object debugInfo) throws IOException {
+      ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      callback.write(stream);
+      mData = stream.toByteArray();
+    }
+
+    @Override
+    public BinaryResource commit(Object debugInfo) throws IOException {
+      Preconditions.checkState(mData != null, "commit called before writeData");
+      synchronized (PackFileDiskStorage.this) {
+        maybeLoad();
+        try {
+          append(mResourceId, mData, mClock.now());
+        } catch (IOException ioe) {
+          mCacheErrorLogger.logError(
+              CacheErrorLogger.CacheErrorCategory.WRITE_UPDATE_FILE_NOT_FOUND,
+              TAG,
+              "commit",
+              ioe);
+          throw ioe;
+        }
+      }
+      BinaryResource resource = new ByteArrayBinaryResource(mData);
+      mData = null;
+      return resource;
+    }
+
+    @Override
+    public boolean cleanUp() {
+      mData = null;
+      return true;
+    }
+  }
+}
@@ -21,6 +21,36 @@ public class BitmapCountingMemoryCacheFactory {
      MemoryTrimmableRegistry memoryTrimmableRegistry,
      PlatformBitmapFactory platformBitmapFactory,
      boolean isExternalCreatedBitmapLogEnabled) {
+    return get(
+        bitmapMemoryCacheParamsSupplier,
+        memoryTrimmableRegistry,
+        platformBitmapFactory,
+        isExternalCreatedBitmapLogEnabled,
+        1);
+  }
+
+  public static CountingMemoryCache<CacheKey, CloseableImage> get(
+     Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+     MemoryTrimmableRegistry memoryTrimmableRegistry,
+     PlatformBitmapFactory platformBitmapFactory,
+     boolean isExternalCreatedBitmapLogEnabled,
+     int segmentCount) {
+    return get(
+        bitmapMemoryCacheParamsSupplier,
+        memoryTrimmableRegistry,
+        platformBitmapFactory,
+        isExternalCreatedBitmapLogEnabled,
+        segmentCount,
+        false);
+  }
+
+  public static CountingMemoryCache<CacheKey, CloseableImage> get(
+     Supplier<MemoryCacheParams> bitmapMemoryCacheParamsSupplier,
+     MemoryTrimmableRegistry memoryTrimmableRegistry,
+     PlatformBitmapFactory platformBitmapFactory,
+     boolean isExternalCreatedBitmapLogEnabled,
+     int segmentCount,
+     boolean costAwareEvictionEnabled) {
 
     ValueDescriptor<CloseableImage> valueDescriptor =
         new ValueDescriptor<CloseableImage>() {
@@ -30,6 +60,17 @@ public class BitmapCountingMemoryCacheFactory {
           }
         };
 
+    ValueCostDescriptor<CloseableImage> valueCostDescriptor = null;
+    if (costAwareEvictionEnabled) {
+      valueCostDescriptor =
+          new ValueCostDescriptor<CloseableImage>() {
+            @Override
+            public long getRecreationCost(CloseableImage value) {
+              return value.getDecodeDurationMs();
+            }
+          };
+    }
+
     CountingMemoryCache.CacheTrimStrategy trimStrategy = new BitmapMemoryCacheTrimStrategy();
 
     CountingMemoryCache<CacheKey, CloseableImage> countingCache =
@@ -38,7 +79,9 @@ public class BitmapCountingMemoryCacheFactory {
             trimStrategy,
             bitmapMemoryCacheParamsSupplier,
             platformBitmapFactory,
-            isExternalCreatedBitmapLogEnabled);
+            isExternalCreatedBitmapLogEnabled,
+            segmentCount,
+            valueCostDescriptor);
 
      memoryTrimmableRegistry.registerMemoryTrimmable(countingCache);
 
@@ -63,6 +63,16 @@ public class CountingLruMap<K, V> {
     return mMap.isEmpty() ? null : mMap.keySet().iterator().next();
   }
 
+  /** Gets the first elements in the map, at most the given count of them. */
+  public synchronized ArrayList<V> getFirstValues(int count) {
+    ArrayList<V> values = new ArrayList<>(Math.min(count, mMap.size()));
+    Iterator<V> iterator = mMap.values().iterator();
+    while (values.size() < count && iterator.hasNext()) {
+      values.add(iterator.next());
+    }
+    return values;
+  }
+
   /** Gets the all matching elements. */
   public synchronized ArrayList<LinkedHashMap.Entry<K, V>> getMatchingEntries(
       @Nullable Predicate<K> predicate) {
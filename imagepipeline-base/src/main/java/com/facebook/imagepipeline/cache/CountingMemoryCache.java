@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.graphics.Bitmap;
 import android.os.SystemClock;
@@ -41,6 +42,25 @@ import com.android.internal.util.Predicate;
  * <p> Only the exclusively owned elements, i.e. the elements not referenced by any client, can be
  * evicted.
  *
+ * <p> The cache can be split into segments, each with its own lock and LRU queues, so that
+ * lookups of different keys don't contend. The size constraints stay global: they are checked
+ * against atomic counters shared by all the segments, and the segments are evicted from in turn.
+ * With more than one segment, the eviction order is therefore only approximately LRU, and
+ * concurrent insertions may exceed the constraints by the size of the entries being inserted.
+ *
+ * <p> If enabled by the {@link MemoryCacheParams}, a TinyLFU admission filter protects the items
+ * that are looked up often from scans of items that are only used once. The most recently
+ * released items are kept in an admission window at the tail of the eviction queue. An item that
+ * falls out of the window only stays in the queue if the {@link FrequencySketch} estimates that
+ * it is looked up more often than the item the LRU policy would evict instead.
+ *
+ * <p> If a {@link ValueCostDescriptor} is given, the eviction also takes into account the size of
+ * the items and how expensive they are to create again. When an item is released, it gets the
+ * priority of its segment (the priority of the last item evicted from it) plus its cost per byte.
+ * The item with the lowest priority among the few least recently used ones is evicted first, so
+ * that large items that are cheap to recreate go before small expensive ones, and items that are
+ * not used anymore still eventually go.
+ *
  * @param <K> the key type
  * @param <V> the value type
  */
@@ -74,12 +94,19 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   static class Entry<K, V> {
     public final K key;
     public final CloseableReference<V> valueRef;
-    // The number of clients that reference the value.
+    // The number of clients that reference the value. Guarded by the segment of the key, as is
+    // isOrphan.
     public int clientCount;
     // Whether or not this entry is tracked by this cache. Orphans are not tracked by the cache and
     // as soon as the last client of an orphaned entry closes their reference, the entry's copy is
     // closed too.
     public boolean isOrphan;
+    // Whether the entry has passed the admission filter, once it has it is no longer placed in the
+    // admission window when it becomes exclusively owned.
+    public boolean isAdmitted;
+    // With cost-aware eviction, the entries with the lowest priority are evicted first. Set when
+    // the entry becomes exclusively owned.
+    public double evictionPriority;
     @Nullable public final EntryStateObserver<K> observer;
 
     private Entry(K key, CloseableReference<V> valueRef, @Nullable EntryStateObserver<K> observer) {
@@ -87,6 +114,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       this.valueRef = Preconditions.checkNotNull(CloseableReference.cloneOrNull(valueRef));
       this.clientCount = 0;
       this.isOrphan = false;
+      this.isAdmitted = false;
       this.observer = observer;
     }
 
@@ -104,15 +132,202 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   @VisibleForTesting
   static final long PARAMS_INTERCHECK_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
 
-  // Contains the items that are not being used by any client and are hence viable for eviction.
-  @GuardedBy("this")
+  // Bounds the memory used by the frequency sketch of caches with an unlimited number of entries.
+  private static final int MAX_FREQUENCY_SKETCH_CAPACITY = 1 << 16;
+
+  // Number of least recently used items among which cost-aware eviction picks the victim.
   @VisibleForTesting
-  final CountingLruMap<K, Entry<K, V>> mExclusiveEntries;
+  static final int COST_AWARE_EVICTION_SAMPLE_SIZE = 8;
 
-  // Contains all the cached items including the exclusively owned ones.
-  @GuardedBy("this")
+  /**
+   * A partition of the cache, keys are assigned to segments by their hash code. All the accesses
+   * to the entries of a segment, and to the state of these entries, happen under its lock.
+   */
   @VisibleForTesting
-  final CountingLruMap<K, Entry<K, V>> mCachedEntries;
+  class Segment {
+
+    // Contains the items that are not being used by any client and are hence viable for eviction.
+    @GuardedBy("this")
+    @VisibleForTesting
+    final CountingLruMap<K, Entry<K, V>> mExclusiveEntries;
+
+    // Contains all the cached items including the exclusively owned ones.
+    @GuardedBy("this")
+    @VisibleForTesting
+    final CountingLruMap<K, Entry<K, V>> mCachedEntries;
+
+    // With the admission filter, the exclusively owned items are also split between the
+    // admission window and the main queue.
+    @GuardedBy("this")
+    @VisibleForTesting
+    final CountingLruMap<K, Entry<K, V>> mWindowEntries;
+
+    @GuardedBy("this")
+    @VisibleForTesting
+    final CountingLruMap<K, Entry<K, V>> mMainEntries;
+
+    // With cost-aware eviction, the priority of the last evicted entry. Added to the priority of
+    // the entries that are released, so that the entries that stay unused age.
+    @GuardedBy("this")
+    private double mEvictionPriorityFloor;
+
+    Segment(ValueDescriptor<Entry<K, V>> entryDescriptor) {
+      mExclusiveEntries = new CountingLruMap<>(entryDescriptor);
+      mCachedEntries = new CountingLruMap<>(entryDescriptor);
+      mWindowEntries = new CountingLruMap<>(entryDescriptor);
+      mMainEntries = new CountingLruMap<>(entryDescriptor);
+    }
+
+    @Nullable
+    private Entry<K, V> removeExclusive(K key) {
+      Entry<K, V> entry = mExclusiveEntries.remove(key);
+      if (entry != null) {
+        mWindowEntries.remove(key);
+        mMainEntries.remove(key);
+        mExclusiveCount.decrementAndGet();
+        mExclusiveSizeInBytes.addAndGet(-getSizeInBytes(entry));
+      }
+      return entry;
+    }
+
+    private void putExclusive(Entry<K, V> entry) {
+      if (mValueCostDescriptor != null) {
+        entry.evictionPriority = mEvictionPriorityFloor + getCostPerByte(entry);
+      }
+      Preconditions.checkState(mExclusiveEntries.put(entry.key, entry) == null);
+      mExclusiveCount.incrementAndGet();
+      mExclusiveSizeInBytes.addAndGet(getSizeInBytes(entry));
+      if (mFrequencySketch != null) {
+        if (entry.isAdmitted) {
+          mMainEntries.put(entry.key, entry);
+        } else {
+          mWindowEntries.put(entry.key, entry);
+          admitWindowOverflow();
+        }
+      }
+    }
+
+    /**
+     * While the cache is far from full, the items that overflow the admission window go to the
+     * main queue without having to compete with another item.
+     */
+    private void admitWindowOverflow() {
+      MemoryCacheParams params = mMemoryCacheParams;
+      int maxWindowSize = getMaxWindowSize(params);
+      while (mWindowEntries.getSizeInBytes() > maxWindowSize &&
+          hasRoomForWindow(params, maxWindowSize)) {
+        K key = mWindowEntries.getFirstKey();
+        Entry<K, V> entry = mWindowEntries.remove(key);
+        entry.isAdmitted = true;
+        mMainEntries.put(key, entry);
+      }
+    }
+
+    @Nullable
+    private Entry<K, V> removeCached(K key) {
+      Entry<K, V> entry = mCachedEntries.remove(key);
+      if (entry != null) {
+        mCachedCount.decrementAndGet();
+        mCachedSizeInBytes.addAndGet(-getSizeInBytes(entry));
+      }
+      return entry;
+    }
+
+    private void putCached(Entry<K, V> entry) {
+      Preconditions.checkState(mCachedEntries.put(entry.key, entry) == null);
+      mCachedCount.incrementAndGet();
+      mCachedSizeInBytes.addAndGet(getSizeInBytes(entry));
+    }
+
+    private ArrayList<Entry<K, V>> removeAllExclusives(@Nullable Predicate<K> predicate) {
+      ArrayList<Entry<K, V>> oldEntries = mExclusiveEntries.removeAll(predicate);
+      mWindowEntries.removeAll(predicate);
+      mMainEntries.removeAll(predicate);
+      for (Entry<K, V> oldEntry : oldEntries) {
+        mExclusiveCount.decrementAndGet();
+        mExclusiveSizeInBytes.addAndGet(-getSizeInBytes(oldEntry));
+      }
+      return oldEntries;
+    }
+
+    private ArrayList<Entry<K, V>> removeAllCached(@Nullable Predicate<K> predicate) {
+      ArrayList<Entry<K, V>> oldEntries = mCachedEntries.removeAll(predicate);
+      for (Entry<K, V> oldEntry : oldEntries) {
+        mCachedCount.decrementAndGet();
+        mCachedSizeInBytes.addAndGet(-getSizeInBytes(oldEntry));
+      }
+      return oldEntries;
+    }
+
+    /**
+     * Removes the least recently used exclusively owned entry, or the one rejected by the
+     * admission filter or with the lowest priority, and marks it as orphan.
+     */
+    @Nullable
+    private Entry<K, V> evictFirstExclusive(
+        @Nullable FrequencySketch<K> frequencySketch,
+        int maxWindowSize) {
+      K key = frequencySketch == null ?
+          getFirstKey(mExclusiveEntries) :
+          selectVictim(frequencySketch, maxWindowSize);
+      if (key == null) {
+        return null;
+      }
+      removeExclusive(key);
+      Entry<K, V> oldEntry = removeCached(key);
+      makeOrphan(oldEntry);
+      mEvictionPriorityFloor = Math.max(mEvictionPriorityFloor, oldEntry.evictionPriority);
+      return oldEntry;
+    }
+
+    /**
+     * Gets the key of the first entry of the queue, or with cost-aware eviction the key of the
+     * entry with the lowest priority among the first ones.
+     */
+    @Nullable
+    private K getFirstKey(CountingLruMap<K, Entry<K, V>> entries) {
+      if (mValueCostDescriptor == null) {
+        return entries.getFirstKey();
+      }
+      Entry<K, V> victim = null;
+      for (Entry<K, V> entry : entries.getFirstValues(COST_AWARE_EVICTION_SAMPLE_SIZE)) {
+        if (victim == null || entry.evictionPriority < victim.evictionPriority) {
+          victim = entry;
+        }
+      }
+      return victim == null ? null : victim.key;
+    }
+
+    /**
+     * While the admission window is full, moves its oldest items to the main queue until one of
+     * them is rejected or an item of the main queue has to go.
+     */
+    @Nullable
+    private K selectVictim(FrequencySketch<K> frequencySketch, int maxWindowSize) {
+      while (true) {
+        K victim = getFirstKey(mMainEntries);
+        K candidate = mWindowEntries.getFirstKey();
+        if (candidate == null || mWindowEntries.getSizeInBytes() < maxWindowSize) {
+          // items that became exclusive while the filter was disabled are in neither queue
+          return victim != null ? victim : getFirstKey(mExclusiveEntries);
+        }
+        if (victim != null &&
+            frequencySketch.frequency(candidate) <= frequencySketch.frequency(victim)) {
+          return candidate;
+        }
+        Entry<K, V> entry = mWindowEntries.remove(candidate);
+        entry.isAdmitted = true;
+        mMainEntries.put(candidate, entry);
+        if (victim != null) {
+          return victim;
+        }
+      }
+    }
+  }
+
+  // The segments, their number is a power of two.
+  @VisibleForTesting
+  final Segment[] mSegments;
 
   @GuardedBy("this")
   @VisibleForTesting
@@ -120,14 +335,29 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
 
   private final ValueDescriptor<V> mValueDescriptor;
 
+  // Only set for cost-aware eviction
+  @Nullable
+  private final ValueCostDescriptor<V> mValueCostDescriptor;
+
   private final CacheTrimStrategy mCacheTrimStrategy;
 
+  // Totals of all the segments, updated under the lock of the segment that changes.
+  private final AtomicInteger mCachedCount = new AtomicInteger();
+  private final AtomicInteger mCachedSizeInBytes = new AtomicInteger();
+  private final AtomicInteger mExclusiveCount = new AtomicInteger();
+  private final AtomicInteger mExclusiveSizeInBytes = new AtomicInteger();
+
+  // The segment eviction starts from, so that all the segments are evicted from in turn.
+  private final AtomicInteger mEvictionCursor = new AtomicInteger();
+
+  // Access frequencies of the keys, only kept while the admission filter is enabled
+  @Nullable
+  private volatile FrequencySketch<K> mFrequencySketch;
+
   // Cache size constraints.
   private final Supplier<MemoryCacheParams> mMemoryCacheParamsSupplier;
-  @GuardedBy("this")
-  protected MemoryCacheParams mMemoryCacheParams;
-  @GuardedBy("this")
-  private long mLastCacheParamsCheck;
+  protected volatile MemoryCacheParams mMemoryCacheParams;
+  private volatile long mLastCacheParamsCheck;
 
   public CountingMemoryCache(
       ValueDescriptor<V> valueDescriptor,
@@ -135,13 +365,68 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
       Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
       PlatformBitmapFactory platformBitmapFactory,
       boolean isExternalCreatedBitmapLogEnabled) {
+    this(
+        valueDescriptor,
+        cacheTrimStrategy,
+        memoryCacheParamsSupplier,
+        platformBitmapFactory,
+        isExternalCreatedBitmapLogEnabled,
+        1);
+  }
+
+  /**
+   * @param segmentCount number of segments of the cache, rounded up to a power of two. A single
+   *   segment keeps the eviction order strictly LRU.
+   */
+  public CountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      PlatformBitmapFactory platformBitmapFactory,
+      boolean isExternalCreatedBitmapLogEnabled,
+      int segmentCount) {
+    this(
+        valueDescriptor,
+        cacheTrimStrategy,
+        memoryCacheParamsSupplier,
+        platformBitmapFactory,
+        isExternalCreatedBitmapLogEnabled,
+        segmentCount,
+        null);
+  }
+
+  /**
+   * @param segmentCount number of segments of the cache, rounded up to a power of two. A single
+   *   segment keeps the eviction order strictly LRU.
+   * @param valueCostDescriptor if not null, the eviction takes into account the size of the items
+   *   and their cost, instead of being LRU.
+   */
+  @SuppressWarnings("unchecked")
+  public CountingMemoryCache(
+      ValueDescriptor<V> valueDescriptor,
+      CacheTrimStrategy cacheTrimStrategy,
+      Supplier<MemoryCacheParams> memoryCacheParamsSupplier,
+      PlatformBitmapFactory platformBitmapFactory,
+      boolean isExternalCreatedBitmapLogEnabled,
+      int segmentCount,
+      @Nullable ValueCostDescriptor<V> valueCostDescriptor) {
+    Preconditions.checkArgument(segmentCount > 0);
     mValueDescriptor = valueDescriptor;
-    mExclusiveEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
-    mCachedEntries = new CountingLruMap<>(wrapValueDescriptor(valueDescriptor));
+    mValueCostDescriptor = valueCostDescriptor;
+    int roundedSegmentCount = 1;
+    while (roundedSegmentCount < segmentCount) {
+      roundedSegmentCount <<= 1;
+    }
+    mSegments = (Segment[]) new CountingMemoryCache<?, ?>.Segment[roundedSegmentCount];
+    ValueDescriptor<Entry<K, V>> entryDescriptor = wrapValueDescriptor(valueDescriptor);
+    for (int i = 0; i < mSegments.length; i++) {
+      mSegments[i] = new Segment(entryDescriptor);
+    }
     mCacheTrimStrategy = cacheTrimStrategy;
     mMemoryCacheParamsSupplier = memoryCacheParamsSupplier;
     mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
     mLastCacheParamsCheck = SystemClock.uptimeMillis();
+    updateFrequencySketch();
 
     if (isExternalCreatedBitmapLogEnabled) {
       platformBitmapFactory.setCreationListener(
@@ -166,6 +451,28 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     };
   }
 
+  private int getSizeInBytes(Entry<K, V> entry) {
+    return mValueDescriptor.getSizeInBytes(entry.valueRef.get());
+  }
+
+  /**
+   * Gets how much keeping the entry saves per byte: the cost of creating its value again, plus one
+   * so that items of unknown cost are still compared by size.
+   */
+  private double getCostPerByte(Entry<K, V> entry) {
+    V value = entry.valueRef.get();
+    double cost = mValueCostDescriptor.getRecreationCost(value) + 1.0;
+    return cost / Math.max(mValueDescriptor.getSizeInBytes(value), 1);
+  }
+
+  /** Gets the segment of the given key. */
+  @VisibleForTesting
+  Segment getSegment(K key) {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return mSegments[hash & (mSegments.length - 1)];
+  }
+
   /**
    * Caches the given key-value pair.
    *
@@ -198,10 +505,11 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     Entry<K, V> oldExclusive;
     CloseableReference<V> oldRefToClose = null;
     CloseableReference<V> clientRef = null;
-    synchronized (this) {
+    Segment segment = getSegment(key);
+    synchronized (segment) {
       // remove the old item (if any) as it is stale now
-      oldExclusive = mExclusiveEntries.remove(key);
-      Entry<K, V> oldEntry = mCachedEntries.remove(key);
+      oldExclusive = segment.removeExclusive(key);
+      Entry<K, V> oldEntry = segment.removeCached(key);
       if (oldEntry != null) {
         makeOrphan(oldEntry);
         oldRefToClose = referenceToClose(oldEntry);
@@ -209,7 +517,7 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
 
       if (canCacheNewValue(valueRef.get())) {
         Entry<K, V> newEntry = Entry.of(key, valueRef, observer);
-        mCachedEntries.put(key, newEntry);
+        segment.putCached(newEntry);
         clientRef = newClientReference(newEntry);
       }
     }
@@ -221,26 +529,35 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   }
 
   /** Checks the cache constraints to determine whether the new value can be cached or not. */
-  private synchronized boolean canCacheNewValue(V value) {
+  private boolean canCacheNewValue(V value) {
+    MemoryCacheParams params = mMemoryCacheParams;
     int newValueSize = mValueDescriptor.getSizeInBytes(value);
-    return (newValueSize <= mMemoryCacheParams.maxCacheEntrySize) &&
-        (getInUseCount() <= mMemoryCacheParams.maxCacheEntries - 1) &&
-        (getInUseSizeInBytes() <= mMemoryCacheParams.maxCacheSize - newValueSize);
+    return (newValueSize <= params.maxCacheEntrySize) &&
+        (getInUseCount() <= params.maxCacheEntries - 1) &&
+        (getInUseSizeInBytes() <= params.maxCacheSize - newValueSize);
   }
 
   /**
    * Gets the item with the given key, or null if there is no such item.
    *
+   * <p> Only the lock of the segment of the key is taken. The lookup is recorded by the admission
+   * filter, whether it is a hit or a miss.
+   *
    * <p> It is the caller's responsibility to close the returned reference once not needed anymore.
    */
   @Nullable
   public CloseableReference<V> get(final K key) {
     Preconditions.checkNotNull(key);
+    FrequencySketch<K> frequencySketch = mFrequencySketch;
+    if (frequencySketch != null) {
+      frequencySketch.increment(key);
+    }
     Entry<K, V> oldExclusive;
     CloseableReference<V> clientRef = null;
-    synchronized (this) {
-      oldExclusive = mExclusiveEntries.remove(key);
-      Entry<K, V> entry = mCachedEntries.get(key);
+    Segment segment = getSegment(key);
+    synchronized (segment) {
+      oldExclusive = segment.removeExclusive(key);
+      Entry<K, V> entry = segment.mCachedEntries.get(key);
       if (entry != null) {
         clientRef = newClientReference(entry);
       }
@@ -251,8 +568,12 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     return clientRef;
   }
 
-  /** Creates a new reference for the client. */
-  private synchronized CloseableReference<V> newClientReference(final Entry<K, V> entry) {
+  /**
+   * Creates a new reference for the client.
+   *
+   * <p> Must be called while holding the lock of the segment of the entry.
+   */
+  private CloseableReference<V> newClientReference(final Entry<K, V> entry) {
     increaseClientCount(entry);
     return CloseableReference.of(
         entry.valueRef.get(),
@@ -269,9 +590,10 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     Preconditions.checkNotNull(entry);
     boolean isExclusiveAdded;
     CloseableReference<V> oldRefToClose;
-    synchronized (this) {
+    Segment segment = getSegment(entry.key);
+    synchronized (segment) {
       decreaseClientCount(entry);
-      isExclusiveAdded = maybeAddToExclusives(entry);
+      isExclusiveAdded = maybeAddToExclusives(segment, entry);
       oldRefToClose = referenceToClose(entry);
     }
     CloseableReference.closeSafely(oldRefToClose);
@@ -281,9 +603,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   }
 
   /** Adds the entry to the exclusively owned queue if it is viable for eviction. */
-  private synchronized boolean maybeAddToExclusives(Entry<K, V> entry) {
+  private boolean maybeAddToExclusives(Segment segment, Entry<K, V> entry) {
     if (!entry.isOrphan && entry.clientCount == 0) {
-      mExclusiveEntries.put(entry.key, entry);
+      segment.putExclusive(entry);
       return true;
     }
     return false;
@@ -300,10 +622,11 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     CloseableReference<V> clientRef = null;
     boolean removed = false;
     Entry<K, V> oldExclusive = null;
-    synchronized (this) {
-      oldExclusive = mExclusiveEntries.remove(key);
+    Segment segment = getSegment(key);
+    synchronized (segment) {
+      oldExclusive = segment.removeExclusive(key);
       if (oldExclusive != null) {
-        Entry<K, V> entry = mCachedEntries.remove(key);
+        Entry<K, V> entry = segment.removeCached(key);
         Preconditions.checkNotNull(entry);
         Preconditions.checkState(entry.clientCount == 0);
         // optimization: instead of cloning and then closing the original reference,
@@ -325,13 +648,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
    * @return number of the items removed from the cache
    */
   public int removeAll(Predicate<K> predicate) {
-    ArrayList<Entry<K, V>> oldExclusives;
-    ArrayList<Entry<K, V>> oldEntries;
-    synchronized (this) {
-      oldExclusives = mExclusiveEntries.removeAll(predicate);
-      oldEntries = mCachedEntries.removeAll(predicate);
-      makeOrphans(oldEntries);
-    }
+    ArrayList<Entry<K, V>> oldExclusives = new ArrayList<>();
+    ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+    removeAll(predicate, oldExclusives, oldEntries);
     maybeClose(oldEntries);
     maybeNotifyExclusiveEntryRemoval(oldExclusives);
     maybeUpdateCacheParams();
@@ -341,18 +660,32 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
 
   /** Removes all the items from the cache. */
   public void clear() {
-    ArrayList<Entry<K, V>> oldExclusives;
-    ArrayList<Entry<K, V>> oldEntries;
-    synchronized (this) {
-      oldExclusives = mExclusiveEntries.clear();
-      oldEntries = mCachedEntries.clear();
-      makeOrphans(oldEntries);
-    }
+    ArrayList<Entry<K, V>> oldExclusives = new ArrayList<>();
+    ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
+    removeAll(null, oldExclusives, oldEntries);
     maybeClose(oldEntries);
     maybeNotifyExclusiveEntryRemoval(oldExclusives);
     maybeUpdateCacheParams();
   }
 
+  /**
+   * Removes the matching items from all the segments, one segment at a time, and marks them as
+   * orphans.
+   */
+  private void removeAll(
+      @Nullable Predicate<K> predicate,
+      ArrayList<Entry<K, V>> oldExclusives,
+      ArrayList<Entry<K, V>> oldEntries) {
+    for (Segment segment : mSegments) {
+      synchronized (segment) {
+        oldExclusives.addAll(segment.removeAllExclusives(predicate));
+        ArrayList<Entry<K, V>> segmentEntries = segment.removeAllCached(predicate);
+        makeOrphans(segmentEntries);
+        oldEntries.addAll(segmentEntries);
+      }
+    }
+  }
+
   /**
    * Check if any items from the cache whose key matches the specified predicate.
    *
@@ -360,8 +693,15 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
    * @return true is any items matches from the cache
    */
   @Override
-  public synchronized boolean contains(Predicate<K> predicate) {
-    return !mCachedEntries.getMatchingEntries(predicate).isEmpty();
+  public boolean contains(Predicate<K> predicate) {
+    for (Segment segment : mSegments) {
+      synchronized (segment) {
+        if (!segment.mCachedEntries.getMatchingEntries(predicate).isEmpty()) {
+          return true;
+        }
+      }
+    }
+    return false;
   }
 
   /** Trims the cache according to the specified trimming strategy and the given trim type. */
@@ -369,12 +709,9 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   public void trim(MemoryTrimType trimType) {
     ArrayList<Entry<K, V>> oldEntries;
     final double trimRatio = mCacheTrimStrategy.getTrimRatio(trimType);
-    synchronized (this) {
-      int targetCacheSize = (int) (mCachedEntries.getSizeInBytes() * (1 - trimRatio));
-      int targetEvictionQueueSize = Math.max(0, targetCacheSize - getInUseSizeInBytes());
-      oldEntries = trimExclusivelyOwnedEntries(Integer.MAX_VALUE, targetEvictionQueueSize);
-      makeOrphans(oldEntries);
-    }
+    int targetCacheSize = (int) (getSizeInBytes() * (1 - trimRatio));
+    int targetEvictionQueueSize = Math.max(0, targetCacheSize - getInUseSizeInBytes());
+    oldEntries = trimExclusivelyOwnedEntries(Integer.MAX_VALUE, targetEvictionQueueSize);
     maybeClose(oldEntries);
     maybeNotifyExclusiveEntryRemoval(oldEntries);
     maybeUpdateCacheParams();
@@ -384,56 +721,105 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   /**
    * Updates the cache params (constraints) if enough time has passed since the last update.
    */
-  private synchronized void maybeUpdateCacheParams() {
+  private void maybeUpdateCacheParams() {
     if (mLastCacheParamsCheck + PARAMS_INTERCHECK_INTERVAL_MS > SystemClock.uptimeMillis()) {
       return;
     }
-    mLastCacheParamsCheck = SystemClock.uptimeMillis();
-    mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+    synchronized (this) {
+      if (mLastCacheParamsCheck + PARAMS_INTERCHECK_INTERVAL_MS > SystemClock.uptimeMillis()) {
+        return;
+      }
+      mLastCacheParamsCheck = SystemClock.uptimeMillis();
+      mMemoryCacheParams = mMemoryCacheParamsSupplier.get();
+      updateFrequencySketch();
+    }
+  }
+
+  /** Creates or drops the frequency sketch if the admission filter got enabled or disabled. */
+  private void updateFrequencySketch() {
+    MemoryCacheParams params = mMemoryCacheParams;
+    if (!params.admissionFilterEnabled) {
+      mFrequencySketch = null;
+    } else if (mFrequencySketch == null) {
+      mFrequencySketch = new FrequencySketch<>(
+          Math.max(1, Math.min(params.maxCacheEntries, MAX_FREQUENCY_SKETCH_CAPACITY)));
+    }
   }
 
   /**
    * Removes the exclusively owned items until the cache constraints are met.
    *
    * <p> This method invokes the external {@link CloseableReference#close} method,
-   * so it must not be called while holding the <code>this</code> lock.
+   * so it must not be called while holding the lock of a segment.
    */
   private void maybeEvictEntries() {
-    ArrayList<Entry<K, V>> oldEntries;
-    synchronized (this) {
-      int maxCount = Math.min(
-          mMemoryCacheParams.maxEvictionQueueEntries,
-          mMemoryCacheParams.maxCacheEntries - getInUseCount());
-      int maxSize = Math.min(
-          mMemoryCacheParams.maxEvictionQueueSize,
-          mMemoryCacheParams.maxCacheSize - getInUseSizeInBytes());
-      oldEntries = trimExclusivelyOwnedEntries(maxCount, maxSize);
-      makeOrphans(oldEntries);
-    }
+    MemoryCacheParams params = mMemoryCacheParams;
+    ArrayList<Entry<K, V>> oldEntries = trimExclusivelyOwnedEntries(
+        getMaxEvictionQueueCount(params),
+        getMaxEvictionQueueSize(params));
     maybeClose(oldEntries);
     maybeNotifyExclusiveEntryRemoval(oldEntries);
   }
 
+  /** Gets the number of exclusively owned items the constraints currently allow. */
+  private int getMaxEvictionQueueCount(MemoryCacheParams params) {
+    return Math.min(params.maxEvictionQueueEntries, params.maxCacheEntries - getInUseCount());
+  }
+
+  /** Gets the size of the exclusively owned items the constraints currently allow. */
+  private int getMaxEvictionQueueSize(MemoryCacheParams params) {
+    return Math.min(params.maxEvictionQueueSize, params.maxCacheSize - getInUseSizeInBytes());
+  }
+
+  /**
+   * Checks whether the exclusively owned items leave room for one more item and a full admission
+   * window.
+   */
+  private boolean hasRoomForWindow(MemoryCacheParams params, int maxWindowSize) {
+    return mExclusiveCount.get() < getMaxEvictionQueueCount(params) &&
+        mExclusiveSizeInBytes.get() + maxWindowSize <= getMaxEvictionQueueSize(params);
+  }
+
+  /** Gets the size of the admission window of each segment. */
+  private int getMaxWindowSize(MemoryCacheParams params) {
+    return (int) (params.maxEvictionQueueSize * params.admissionWindowRatio / mSegments.length);
+  }
+
   /**
    * Removes the exclusively owned items until there is at most <code>count</code> of them
-   * and they occupy no more than <code>size</code> bytes.
+   * and they occupy no more than <code>size</code> bytes. The items are marked as orphans.
    *
-   * <p> This method returns the removed items instead of actually closing them, so it is safe to
-   * be called while holding the <code>this</code> lock.
+   * <p> The segments are visited in turn, and the least recently used item of each one is
+   * removed, so that no segment lock is held for more than one removal.
+   *
+   * <p> This method returns the removed items instead of actually closing them.
    */
   @Nullable
-  private synchronized ArrayList<Entry<K, V>> trimExclusivelyOwnedEntries(int count, int size) {
+  private ArrayList<Entry<K, V>> trimExclusivelyOwnedEntries(int count, int size) {
     count = Math.max(count, 0);
     size = Math.max(size, 0);
     // fast path without array allocation if no eviction is necessary
-    if (mExclusiveEntries.getCount() <= count && mExclusiveEntries.getSizeInBytes() <= size) {
+    if (mExclusiveCount.get() <= count && mExclusiveSizeInBytes.get() <= size) {
       return null;
     }
     ArrayList<Entry<K, V>> oldEntries = new ArrayList<>();
-    while (mExclusiveEntries.getCount() > count || mExclusiveEntries.getSizeInBytes() > size) {
-      K key = mExclusiveEntries.getFirstKey();
-      mExclusiveEntries.remove(key);
-      oldEntries.add(mCachedEntries.remove(key));
+    FrequencySketch<K> frequencySketch = mFrequencySketch;
+    int maxWindowSize = getMaxWindowSize(mMemoryCacheParams);
+    int segmentIndex = mEvictionCursor.getAndIncrement();
+    int emptySegments = 0;
+    while ((mExclusiveCount.get() > count || mExclusiveSizeInBytes.get() > size) &&
+        emptySegments < mSegments.length) {
+      Segment segment = mSegments[segmentIndex++ & (mSegments.length - 1)];
+      Entry<K, V> oldEntry;
+      synchronized (segment) {
+        oldEntry = segment.evictFirstExclusive(frequencySketch, maxWindowSize);
+      }
+      if (oldEntry == null) {
+        emptySegments++;
+      } else {
+        emptySegments = 0;
+        oldEntries.add(oldEntry);
+      }
     }
     return oldEntries;
   }
@@ -442,12 +828,16 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
    * Notifies the client that the cache no longer tracks the given items.
    *
    * <p> This method invokes the external {@link CloseableReference#close} method,
-   * so it must not be called while holding the <code>this</code> lock.
+   * so it must not be called while holding the lock of a segment.
    */
   private void maybeClose(@Nullable ArrayList<Entry<K, V>> oldEntries) {
     if (oldEntries != null) {
       for (Entry<K, V> oldEntry : oldEntries) {
-        CloseableReference.closeSafely(referenceToClose(oldEntry));
+        CloseableReference<V> oldRefToClose;
+        synchronized (getSegment(oldEntry.key)) {
+          oldRefToClose = referenceToClose(oldEntry);
+        }
+        CloseableReference.closeSafely(oldRefToClose);
       }
     }
   }
@@ -472,8 +862,10 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
     }
   }
 
+  // The state of an entry must only be accessed while holding the lock of its segment.
+
   /** Marks the given entries as orphans. */
-  private synchronized void makeOrphans(@Nullable ArrayList<Entry<K, V>> oldEntries) {
+  private void makeOrphans(@Nullable ArrayList<Entry<K, V>> oldEntries) {
     if (oldEntries != null) {
       for (Entry<K, V> oldEntry : oldEntries) {
         makeOrphan(oldEntry);
@@ -482,21 +874,21 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
   }
 
   /** Marks the entry as orphan. */
-  private synchronized void makeOrphan(Entry<K, V> entry) {
+  private void makeOrphan(Entry<K, V> entry) {
     Preconditions.checkNotNull(entry);
     Preconditions.checkState(!entry.isOrphan);
     entry.isOrphan = true;
   }
 
   /** Increases the entry's client count. */
-  private synchronized void increaseClientCount(Entry<K, V> entry) {
+  private void increaseClientCount(Entry<K, V> entry) {
     Preconditions.checkNotNull(entry);
     Preconditions.checkState(!entry.isOrphan);
     entry.clientCount++;
   }
 
   /** Decreases the entry's client count. */
-  private synchronized void decreaseClientCount(Entry<K, V> entry) {
+  private void decreaseClientCount(Entry<K, V> entry) {
     Preconditions.checkNotNull(entry);
     Preconditions.checkState(entry.clientCount > 0);
     entry.clientCount--;
@@ -504,38 +896,38 @@ public class CountingMemoryCache<K, V> implements MemoryCache<K, V>, MemoryTrimm
 
   /** Returns the value reference of the entry if it should be closed, null otherwise. */
   @Nullable
-  private synchronized CloseableReference<V> referenceToClose(Entry<K, V> entry) {
+  private CloseableReference<V> referenceToClose(Entry<K, V> entry) {
     Preconditions.checkNotNull(entry);
     return (entry.isOrphan && entry.clientCount == 0) ? entry.valueRef : null;
   }
 
   /** Gets the total number of all currently cached items. */
-  public synchronized int getCount() {
-    return mCachedEntries.getCount();
+  public int getCount() {
+    return mCachedCount.get();
   }
 
   /** Gets the total size in bytes of all currently cached items. */
-  public synchronized int getSizeInBytes() {
-    return mCachedEntries.getSizeInBytes();
+  public int getSizeInBytes() {
+    return mCachedSizeInBytes.get();
   }
 
   /** Gets the number of the cached items that are used by at least one client. */
-  public synchronized int getInUseCount() {
-    return mCachedEntries.getCount() - mExclusiveEntries.getCount();
+  public int getInUseCount() {
+    return mCachedCount.get() - mExclusiveCount.get();
   }
 
   /** Gets the total size in bytes of the cached items that are used by at least one client. */
-  public synchronized int getInUseSizeInBytes() {
-    return mCachedEntries.getSizeInBytes() - mExclusiveEntries.getSizeInBytes();
+  public int getInUseSizeInBytes() {
+    return mCachedSizeInBytes.get() - mExclusiveSizeInBytes.get();
   }
 
   /** Gets the number of the exclusively owned items. */
-  public synchronized int getEvictionQueueCount() {
-    return mExclusiveEntries.getCount();
+  public int getEvictionQueueCount() {
+    return mExclusiveCount.get();
   }
 
   /** Gets the total size in bytes of the exclusively owned items. */
-  public synchronized int getEvictionQueueSizeInBytes() {
-    return mExclusiveEntries.getSizeInBytes();
+  public int getEvictionQueueSizeInBytes() {
+    return mExclusiveSizeInBytes.get();
   }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.facebook.common.internal.Preconditions;
+
+/**
+ * Approximate access frequencies of keys, used to decide whether a new entry of a cache is worth
+ * keeping at the expense of the entry the LRU policy would keep instead (TinyLFU admission).
+ *
+ * <p>This is a count-min sketch of 4-bit counters: each key is counted in 4 counters picked by
+ * different hashes, and its frequency is estimated by the smallest of them. The counters saturate
+ * at 15. Once the number of recorded accesses reaches ten times the capacity, all the counters are
+ * halved, so that the estimates follow the recent popularity of the keys.
+ *
+ * <p>Counters are updated with compare-and-set operations, without locking. Updates racing with
+ * an aging pass may be lost, which only makes the estimates slightly more approximate.
+ *
+ * @param <K> the key type
+ */
+@ThreadSafe
+public class FrequencySketch<K> {
+
+  private static final int DEPTH = 4;
+  private static final int MAX_COUNT = 15;
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final int[] SEEDS = new int[] {0x97cb3127, 0xb2f4a6d1, 0x8ac9d1e5, 0xd6e8feb8};
+
+  // 16 counters of 4 bits per word
+  private final AtomicLongArray mTable;
+  private final int mCounterMask;
+  private final int mSampleSize;
+  private final AtomicInteger mSize = new AtomicInteger();
+
+  /**
+   * @param capacity the expected number of distinct keys in the cache
+   */
+  public FrequencySketch(int capacity) {
+    Preconditions.checkArgument(capacity > 0);
+    int counterCount = 16;
+    while (counterCount < 4L * capacity && counterCount < (1 << 30)) {
+      counterCount <<= 1;
+    }
+    mTable = new AtomicLongArray(counterCount / 16);
+    mCounterMask = counterCount - 1;
+    mSampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+  }
+
+  /** Records an access to the key. */
+  public void increment(K key) {
+    int hash = spread(key.hashCode());
+    boolean added = false;
+    for (int i = 0; i < DEPTH; i++) {
+      added |= incrementAt(indexOf(hash, i));
+    }
+    if (added && mSize.incrementAndGet() >= mSampleSize) {
+      reset();
+    }
+  }
+
+  /** Gets the estimated number of recent accesses to the key, at most 15. */
+  public int frequency(K key) {
+    int hash = spread(key.hashCode());
+    int frequency = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((mTable.get(index >>> 4) >>> ((index & 15) << 2)) & 0xF);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /** Increments the counter at the given index, unless it is saturated. */
+  private boolean incrementAt(int index) {
+    int word = index >>> 4;
+    int shift = (index & 15) << 2;
+    while (true) {
+      long value = mTable.get(word);
+      if (((value >>> shift) & 0xF) == MAX_COUNT) {
+        return false;
+      }
+      if (mTable.compareAndSet(word, value, value + (1L << shift))) {
+        return true;
+      }
+    }
+  }
+
+  /** Halves all the counters. */
+  private void reset() {
+    int size = mSize.get();
+    if (size < mSampleSize || !mSize.compareAndSet(size, size / 2)) {
+      // another thread is resetting the counters
+      return;
+    }
+    for (int i = 0; i < mTable.length(); i++) {
+      while (true) {
+        long value = mTable.get(i);
+        if (mTable.compareAndSet(i, value, (value >>> 1) & RESET_MASK)) {
+          break;
+        }
+      }
+    }
+  }
+
+  private int indexOf(int hash, int i) {
+    int h = (hash + SEEDS[i]) * SEEDS[i];
+    h += h >>> 16;
+    return h & mCounterMask;
+  }
+
+  private static int spread(int hash) {
+    hash ^= hash >>> 17;
+    hash *= 0xed5ad4bb;
+    hash ^= hash >>> 11;
+    hash *= 0xac4c1b51;
+    hash ^= hash >>> 15;
+    return hash;
+  }
+}
@@ -19,6 +19,11 @@ public class MemoryCacheParams {
   public final int maxEvictionQueueSize;
   public final int maxEvictionQueueEntries;
   public final int maxCacheEntrySize;
+  public final boolean admissionFilterEnabled;
+  public final float admissionWindowRatio;
+
+  // Share of the eviction queue in which new items compete on recency only
+  public static final float DEFAULT_ADMISSION_WINDOW_RATIO = 0.01f;
 
   /**
    * Pass arguments to control the cache's behavior in the constructor.
@@ -37,10 +42,48 @@ public class MemoryCacheParams {
       int maxEvictionQueueSize,
       int maxEvictionQueueEntries,
       int maxCacheEntrySize) {
+    this(
+        maxCacheSize,
+        maxCacheEntries,
+        maxEvictionQueueSize,
+        maxEvictionQueueEntries,
+        maxCacheEntrySize,
+        false,
+        DEFAULT_ADMISSION_WINDOW_RATIO);
+  }
+
+  /**
+   * Pass arguments to control the cache's behavior in the constructor.
+   *
+   * @param maxCacheSize The maximum size of the cache, in bytes.
+   * @param maxCacheEntries The maximum number of items that can live in the cache.
+   * @param maxEvictionQueueSize The eviction queue is an area of memory that stores items ready
+   *                             for eviction but have not yet been deleted. This is the maximum
+   *                             size of that queue in bytes.
+   * @param maxEvictionQueueEntries The maximum number of entries in the eviction queue.
+   * @param maxCacheEntrySize The maximum size of a single cache entry.
+   * @param admissionFilterEnabled If true, the access frequencies of the keys are tracked, and
+   *                               an item that leaves the admission window of the eviction queue
+   *                               only stays in the queue if it is accessed more often than the
+   *                               item it would displace.
+   * @param admissionWindowRatio The share of the eviction queue size taken by the admission
+   *                             window, in which the most recently released items are kept
+   *                             regardless of their frequency.
+   */
+  public MemoryCacheParams(
+      int maxCacheSize,
+      int maxCacheEntries,
+      int maxEvictionQueueSize,
+      int maxEvictionQueueEntries,
+      int maxCacheEntrySize,
+      boolean admissionFilterEnabled,
+      float admissionWindowRatio) {
     this.maxCacheSize = maxCacheSize;
     this.maxCacheEntries = maxCacheEntries;
     this.maxEvictionQueueSize = maxEvictionQueueSize;
     this.maxEvictionQueueEntries = maxEvictionQueueEntries;
     this.maxCacheEntrySize = maxCacheEntrySize;
+    this.admissionFilterEnabled = admissionFilterEnabled;
+    this.admissionWindowRatio = admissionWindowRatio;
   }
 }
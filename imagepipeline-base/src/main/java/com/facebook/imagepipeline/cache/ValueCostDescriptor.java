@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.cache;
+
+/**
+ * Interface used to get how expensive it would be to create the values again once evicted.
+ */
+public interface ValueCostDescriptor<V> {
+
+  /** Returns the cost of recreating the given value, or 0 if unknown. */
+  long getRecreationCost(V value);
+}
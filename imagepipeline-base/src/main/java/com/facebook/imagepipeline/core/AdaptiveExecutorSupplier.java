@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Implementation of {@link ExecutorSupplier} whose IO-bound and decode pools resize themselves.
+ *
+ * <p> Same thread pools as {@link PriorityExecutorSupplier}, except that the IO-bound and decode
+ * pools are {@link AdaptiveThreadPoolExecutor}s: they start with the sizes of
+ * {@link DefaultExecutorSupplier}, add threads while the work waits too long for one, as long as
+ * the cores are not saturated, and give threads back once the work stops waiting. By default, the
+ * decode pool never grows above its initial size, which is the number of threads the byte array
+ * pool used for decoding allows. Their metrics are available through {@link #getIoBoundExecutor}
+ * and {@link #getDecodeExecutor}. Work is dropped and stolen between the pools as in
+ * {@link PriorityExecutorSupplier}.
+ */
+public class AdaptiveExecutorSupplier implements ExecutorSupplier {
+  // Allows for simultaneous reads and writes.
+  private static final int NUM_IO_BOUND_THREADS = 2;
+  // Disk reads barely use the CPU, so the IO-bound pool grows up to this bound whenever reads queue
+  private static final int MAX_IO_BOUND_THREADS = 6;
+  private static final int NUM_LIGHTWEIGHT_BACKGROUND_THREADS = 1;
+
+  private static final long IO_BOUND_TARGET_QUEUE_TIME_MS = 30;
+  private static final long DECODE_TARGET_QUEUE_TIME_MS = 50;
+
+  private final AdaptiveThreadPoolExecutor mIoBoundExecutor;
+  private final AdaptiveThreadPoolExecutor mDecodeExecutor;
+  private final PriorityThreadPoolExecutor mBackgroundExecutor;
+  private final PriorityThreadPoolExecutor mLightWeightBackgroundExecutor;
+
+  public AdaptiveExecutorSupplier(int numCpuBoundThreads) {
+    this(
+        NUM_IO_BOUND_THREADS,
+        MAX_IO_BOUND_THREADS,
+        1,
+        numCpuBoundThreads,
+        numCpuBoundThreads);
+  }
+
+  /**
+   * @param minIoBoundThreads the minimum size of the IO-bound pool, which it starts with
+   * @param maxIoBoundThreads the maximum size of the IO-bound pool
+   * @param minDecodeThreads the minimum size of the decode pool
+   * @param maxDecodeThreads the maximum size of the decode pool, which must not exceed the number
+   * of threads the byte array pool used for decoding is sized for
+   * @param numCpuBoundThreads the initial size of the decode pool, and the size of the background
+   * pool
+   */
+  public AdaptiveExecutorSupplier(
+      int minIoBoundThreads,
+      int maxIoBoundThreads,
+      int minDecodeThreads,
+      int maxDecodeThreads,
+      int numCpuBoundThreads) {
+    ThreadFactory backgroundPriorityThreadFactory =
+        new PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND);
+
+    mIoBoundExecutor = new AdaptiveThreadPoolExecutor(
+        minIoBoundThreads,
+        maxIoBoundThreads,
+        minIoBoundThreads,
+        IO_BOUND_TARGET_QUEUE_TIME_MS,
+        Executors.defaultThreadFactory());
+    mDecodeExecutor = new AdaptiveThreadPoolExecutor(
+        minDecodeThreads,
+        maxDecodeThreads,
+        Math.max(minDecodeThreads, Math.min(numCpuBoundThreads, maxDecodeThreads)),
+        DECODE_TARGET_QUEUE_TIME_MS,
+        backgroundPriorityThreadFactory);
+    mBackgroundExecutor = new PriorityThreadPoolExecutor(
+        numCpuBoundThreads,
+        backgroundPriorityThreadFactory);
+    // only hands requests off the main thread, in order as its tasks don't have a priority
+    mLightWeightBackgroundExecutor = new PriorityThreadPoolExecutor(
+        NUM_LIGHTWEIGHT_BACKGROUND_THREADS,
+        backgroundPriorityThreadFactory);
+
+    // Only in this direction, so that no more decodes run at once than the decode pool has
+    // threads, which is what the byte array pool for decodes is sized for. Disk reads are not
+    // stolen, as the CPU-bound threads would then block on IO.
+    mDecodeExecutor.stealWorkFrom(mBackgroundExecutor);
+  }
+
+  @Override
+  public Executor forLocalStorageRead() {
+    return mIoBoundExecutor;
+  }
+
+  @Override
+  public Executor forLocalStorageWrite() {
+    return mIoBoundExecutor;
+  }
+
+  @Override
+  public Executor forDecode() {
+    return mDecodeExecutor;
+  }
+
+  @Override
+  public Executor forBackgroundTasks() {
+    return mBackgroundExecutor;
+  }
+
+  @Override
+  public Executor forLightweightBackgroundTasks() {
+    return mLightWeightBackgroundExecutor;
+  }
+
+  public AdaptiveThreadPoolExecutor getIoBoundExecutor() {
+    return mIoBoundExecutor;
+  }
+
+  public AdaptiveThreadPoolExecutor getDecodeExecutor() {
+    return mDecodeExecutor;
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.concurrent.ThreadFactory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.time.AwakeTimeSinceBootClock;
+import com.facebook.common.time.Clock;
+import com.facebook.common.time.CurrentThreadTimeClock;
+import com.facebook.common.time.MonotonicClock;
+
+/**
+ * A {@link PriorityThreadPoolExecutor} that resizes itself, within bounds, according to how long
+ * the tasks wait for a thread.
+ *
+ * <p> The executor measures the time the tasks spend in the queue, and the share of the running
+ * time of the tasks that their threads spend on CPU. At most once per adjustment interval, it
+ * adds a thread if the tasks waited more than the target queue time on average, unless its threads
+ * already keep all the cores busy: more threads would then only share the same cores. It removes a
+ * thread if the tasks barely waited, as the threads are then mostly idle.
+ */
+public class AdaptiveThreadPoolExecutor extends PriorityThreadPoolExecutor {
+  private static final Class<?> TAG = AdaptiveThreadPoolExecutor.class;
+
+  @VisibleForTesting static final long DEFAULT_ADJUSTMENT_INTERVAL_MS = 1000;
+
+  /** The tasks of a window, below which the window is extended rather than acted upon */
+  @VisibleForTesting static final int MIN_TASKS_PER_WINDOW = 4;
+
+  /** The CPU utilization above which the threads are considered CPU bound */
+  @VisibleForTesting static final float CPU_BOUND_UTILIZATION = 0.8f;
+
+  private static final int NUM_CPUS = Runtime.getRuntime().availableProcessors();
+
+  private final int mMinThreads;
+  private final int mMaxThreads;
+  private final long mTargetQueueTimeMs;
+  private final long mAdjustmentIntervalMs;
+  private final MonotonicClock mClock;
+  private final Clock mThreadTimeClock;
+
+  // wall and CPU times at which the current task of the thread started
+  private final ThreadLocal<long[]> mTaskStartTimes = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[2];
+    }
+  };
+
+  @GuardedBy("this")
+  private long mWindowStartMs;
+  @GuardedBy("this")
+  private int mWindowTaskCount;
+  @GuardedBy("this")
+  private long mWindowQueueTimeMs;
+  @GuardedBy("this")
+  private long mWindowRunningTimeMs;
+  @GuardedBy("this")
+  private long mWindowCpuTimeMs;
+
+  private volatile long mAverageQueueTimeMs;
+  private volatile float mCpuUtilization;
+  private volatile int mGrowCount;
+  private volatile int mShrinkCount;
+
+  /**
+   * @param minThreads the minimum number of threads
+   * @param maxThreads the maximum number of threads
+   * @param initialThreads the number of threads to start with
+   * @param targetQueueTimeMs the average time the tasks may wait for a thread
+   * @param threadFactory the factory of the threads
+   */
+  public AdaptiveThreadPoolExecutor(
+      int minThreads,
+      int maxThreads,
+      int initialThreads,
+      long targetQueueTimeMs,
+      ThreadFactory threadFactory) {
+    this(
+        minThreads,
+        maxThreads,
+        initialThreads,
+        targetQueueTimeMs,
+        DEFAULT_ADJUSTMENT_INTERVAL_MS,
+        threadFactory,
+        AwakeTimeSinceBootClock.get(),
+        new CurrentThreadTimeClock());
+  }
+
+  @VisibleForTesting
+  AdaptiveThreadPoolExecutor(
+      int minThreads,
+      int maxThreads,
+      int initialThreads,
+      long targetQueueTimeMs,
+      long adjustmentIntervalMs,
+      ThreadFactory threadFactory,
+      MonotonicClock clock,
+      Clock threadTimeClock) {
+    super(initialThreads, threadFactory);
+    Preconditions.checkArgument(minThreads > 0);
+    Preconditions.checkArgument(minThreads <= initialThreads && initialThreads <= maxThreads);
+    mMinThreads = minThreads;
+    mMaxThreads = maxThreads;
+    mTargetQueueTimeMs = targetQueueTimeMs;
+    mAdjustmentIntervalMs = adjustmentIntervalMs;
+    mClock = clock;
+    mThreadTimeClock = threadTimeClock;
+    mWindowStartMs = clock.now();
+  }
+
+  @Override
+  protected void onTaskStart(long queueTimeMs) {
+    final long[] startTimes = mTaskStartTimes.get();
+    startTimes[0] = mClock.now();
+    startTimes[1] = mThreadTimeClock.now();
+    synchronized (this) {
+      mWindowTaskCount++;
+      mWindowQueueTimeMs += queueTimeMs;
+    }
+  }
+
+  @Override
+  protected void onTaskEnd() {
+    final long[] startTimes = mTaskStartTimes.get();
+    final long nowMs = mClock.now();
+    final long cpuTimeMs = mThreadTimeClock.now() - startTimes[1];
+    final int newPoolSize;
+    synchronized (this) {
+      mWindowRunningTimeMs += nowMs - startTimes[0];
+      mWindowCpuTimeMs += cpuTimeMs;
+      if (nowMs - mWindowStartMs < mAdjustmentIntervalMs ||
+          mWindowTaskCount < MIN_TASKS_PER_WINDOW) {
+        return;
+      }
+      mAverageQueueTimeMs = mWindowQueueTimeMs / mWindowTaskCount;
+      mCpuUtilization = mWindowRunningTimeMs > 0
+          ? Math.min(1f, (float) mWindowCpuTimeMs / mWindowRunningTimeMs)
+          : 0f;
+      newPoolSize = computePoolSize(getCorePoolSize(), mAverageQueueTimeMs, mCpuUtilization);
+      mWindowStartMs = nowMs;
+      mWindowTaskCount = 0;
+      mWindowQueueTimeMs = 0;
+      mWindowRunningTimeMs = 0;
+      mWindowCpuTimeMs = 0;
+    }
+    setPoolSize(newPoolSize);
+  }
+
+  /**
+   * Computes the size the pool should have. The pool only counts as CPU bound once it has at least
+   * as many threads as there are cores, since fewer threads can't saturate the cores however busy
+   * they are. A pool smaller than that grows up to its maximum size as long as its tasks queue,
+   * so the maximum size is what bounds pools of IO-bound tasks.
+   */
+  @VisibleForTesting
+  int computePoolSize(int poolSize, long averageQueueTimeMs, float cpuUtilization) {
+    if (averageQueueTimeMs > mTargetQueueTimeMs) {
+      final boolean cpuBound = poolSize >= NUM_CPUS && cpuUtilization >= CPU_BOUND_UTILIZATION;
+      if (poolSize < mMaxThreads && !cpuBound) {
+        return poolSize + 1;
+      }
+    } else if (averageQueueTimeMs < mTargetQueueTimeMs / 4 && poolSize > mMinThreads) {
+      return poolSize - 1;
+    }
+    return poolSize;
+  }
+
+  private synchronized void setPoolSize(int poolSize) {
+    final int currentPoolSize = getCorePoolSize();
+    if (poolSize == currentPoolSize) {
+      return;
+    }
+    // the core size can never exceed the maximum size
+    if (poolSize > currentPoolSize) {
+      setMaximumPoolSize(poolSize);
+      setCorePoolSize(poolSize);
+      mGrowCount++;
+    } else {
+      // the extra thread terminates once idle
+      setCorePoolSize(poolSize);
+      setMaximumPoolSize(poolSize);
+      mShrinkCount++;
+    }
+    FLog.v(
+        TAG,
+        "Pool size %d -> %d, queue time %d ms, cpu utilization %f",
+        currentPoolSize,
+        poolSize,
+        mAverageQueueTimeMs,
+        mCpuUtilization);
+  }
+
+  public int getMinThreads() {
+    return mMinThreads;
+  }
+
+  public int getMaxThreads() {
+    return mMaxThreads;
+  }
+
+  /**
+   * Gets the average time the tasks waited for a thread, over the last adjustment interval.
+   */
+  public long getAverageQueueTimeMs() {
+    return mAverageQueueTimeMs;
+  }
+
+  /**
+   * Gets the share of the running time of the tasks that their threads spent on CPU, over the last
+   * adjustment interval.
+   */
+  public float getCpuUtilization() {
+    return mCpuUtilization;
+  }
+
+  /**
+   * Gets the number of times a thread was added.
+   */
+  public int getGrowCount() {
+    return mGrowCount;
+  }
+
+  /**
+   * Gets the number of times a thread was removed.
+   */
+  public int getShrinkCount() {
+    return mShrinkCount;
+  }
+}
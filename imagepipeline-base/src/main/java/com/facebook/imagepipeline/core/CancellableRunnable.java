@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+/**
+ * A task that {@link PriorityThreadPoolExecutor} drops from its queue, without running it, once
+ * it is cancelled.
+ */
+public interface CancellableRunnable extends Runnable {
+
+  /**
+   * Whether the task was cancelled, in which case running it would do nothing.
+   */
+  boolean isCancelled();
+}
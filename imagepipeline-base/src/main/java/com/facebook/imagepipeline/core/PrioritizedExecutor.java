@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An executor that orders its pending tasks by the priority of their {@link PrioritizedRunnable},
+ * and that has to be told when that priority changes.
+ */
+public interface PrioritizedExecutor extends Executor {
+
+  /**
+   * Moves the given task according to its current priority. Does nothing if the task is not
+   * pending anymore.
+   * @param command the task, as submitted to {@link #execute}
+   */
+  void onPriorityChanged(Runnable command);
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import javax.annotation.Nullable;
+
+import com.facebook.imagepipeline.common.Priority;
+
+/**
+ * A task that {@link PriorityThreadPoolExecutor} runs before the queued tasks of lower priority.
+ */
+public interface PrioritizedRunnable extends Runnable {
+
+  /**
+   * Gets the current priority of the task, or null for the default priority.
+   */
+  @Nullable
+  Priority getPriority();
+}
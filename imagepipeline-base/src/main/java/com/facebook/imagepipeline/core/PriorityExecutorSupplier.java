@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Implementation of {@link ExecutorSupplier} that runs queued work by request priority.
+ *
+ * <p> Same thread pools as {@link DefaultExecutorSupplier}, except that the IO-bound, decode and
+ * background pools are {@link PriorityThreadPoolExecutor}s: the disk reads, decodes and
+ * transformations of images visible on screen overtake the queued ones of prefetches, even if the
+ * priority of a request changes after its work was queued.
+ *
+ * <p> The work of cancelled requests is dropped from the queues, and the idle decode threads
+ * steal the work queued on the background pool.
+ */
+public class PriorityExecutorSupplier implements ExecutorSupplier {
+  // Allows for simultaneous reads and writes.
+  private static final int NUM_IO_BOUND_THREADS = 2;
+  private static final int NUM_LIGHTWEIGHT_BACKGROUND_THREADS = 1;
+
+  private final PriorityThreadPoolExecutor mIoBoundExecutor;
+  private final PriorityThreadPoolExecutor mDecodeExecutor;
+  private final PriorityThreadPoolExecutor mBackgroundExecutor;
+  private final PriorityThreadPoolExecutor mLightWeightBackgroundExecutor;
+
+  public PriorityExecutorSupplier(int numCpuBoundThreads) {
+    ThreadFactory backgroundPriorityThreadFactory =
+        new PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND);
+
+    mIoBoundExecutor = new PriorityThreadPoolExecutor(
+        NUM_IO_BOUND_THREADS,
+        Executors.defaultThreadFactory());
+    mDecodeExecutor = new PriorityThreadPoolExecutor(
+        numCpuBoundThreads,
+        backgroundPriorityThreadFactory);
+    mBackgroundExecutor = new PriorityThreadPoolExecutor(
+        numCpuBoundThreads,
+        backgroundPriorityThreadFactory);
+    // only hands requests off the main thread, in order as its tasks don't have a priority
+    mLightWeightBackgroundExecutor = new PriorityThreadPoolExecutor(
+        NUM_LIGHTWEIGHT_BACKGROUND_THREADS,
+        backgroundPriorityThreadFactory);
+
+    // Only in this direction, so that no more decodes run at once than the decode pool has
+    // threads, which is what the byte array pool for decodes is sized for. Disk reads are not
+    // stolen, as the CPU-bound threads would then block on IO.
+    mDecodeExecutor.stealWorkFrom(mBackgroundExecutor);
+  }
+
+  @Override
+  public Executor forLocalStorageRead() {
+    return mIoBoundExecutor;
+  }
+
+  @Override
+  public Executor forLocalStorageWrite() {
+    return mIoBoundExecutor;
+  }
+
+  @Override
+  public Executor forDecode() {
+    return mDecodeExecutor;
+  }
+
+  @Override
+  public Executor forBackgroundTasks() {
+    return mBackgroundExecutor;
+  }
+
+  @Override
+  public Executor forLightweightBackgroundTasks() {
+    return mLightWeightBackgroundExecutor;
+  }
+}
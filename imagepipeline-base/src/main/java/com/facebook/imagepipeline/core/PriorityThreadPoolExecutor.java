@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import javax.annotation.Nullable;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.imagepipeline.common.Priority;
+
+/**
+ * A fixed size thread pool that runs the queued tasks by decreasing {@link Priority}, and in
+ * submission order among tasks of the same priority.
+ *
+ * <p> The priority of a task is the one of the {@link PrioritizedRunnable} it was submitted as, or
+ * {@link #DEFAULT_PRIORITY}. It is read when the task is queued: if it changes later on,
+ * {@link #onPriorityChanged} queues the task again with its new priority, and the copy left behind
+ * is skipped like a cancelled task.
+ *
+ * <p> Tasks that are {@link CancellableRunnable}s are dropped once cancelled: marking a task as
+ * cancelled is enough, the queue skips it instead of handing it to a thread.
+ *
+ * <p> An executor can also be allowed to {@link #stealWorkFrom} other ones: its threads then run
+ * the queued tasks of the other executors instead of staying idle. A stolen task is accounted for
+ * by the executor it was queued on: {@link #onTaskStart} and {@link #onTaskEnd} of that executor
+ * are called around it.
+ */
+public class PriorityThreadPoolExecutor extends ThreadPoolExecutor
+    implements PrioritizedExecutor {
+
+  /** The priority of the tasks that don't have one */
+  public static final Priority DEFAULT_PRIORITY = Priority.MEDIUM;
+
+  private final AtomicLong mSequenceNumber = new AtomicLong();
+  private final TaskQueue mTaskQueue;
+  private final List<PriorityThreadPoolExecutor> mThieves = new CopyOnWriteArrayList<>();
+  // the tasks not taken by a thread yet, by the command they were submitted as
+  private final ConcurrentHashMap<Runnable, QueuedTask> mQueuedTasks = new ConcurrentHashMap<>();
+
+  public PriorityThreadPoolExecutor(int numThreads, ThreadFactory threadFactory) {
+    this(numThreads, threadFactory, new TaskQueue());
+  }
+
+  private PriorityThreadPoolExecutor(
+      int numThreads,
+      ThreadFactory threadFactory,
+      TaskQueue taskQueue) {
+    super(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, taskQueue, threadFactory);
+    mTaskQueue = taskQueue;
+    // the threads are only started by the first tasks
+    mTaskQueue.mOwner = this;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    Preconditions.checkNotNull(command);
+    final QueuedTask task = new QueuedTask(
+        command,
+        getPriority(command),
+        mSequenceNumber.getAndIncrement(),
+        System.nanoTime(),
+        mQueuedTasks);
+    mQueuedTasks.put(command, task);
+    try {
+      super.execute(task);
+    } catch (RuntimeException e) {
+      task.forget();
+      throw e;
+    }
+    maybeWakeThief();
+  }
+
+  /**
+   * Lets the threads of this executor run the queued tasks of the given executor when they would
+   * otherwise be idle.
+   */
+  public void stealWorkFrom(PriorityThreadPoolExecutor victim) {
+    Preconditions.checkArgument(victim != this);
+    mTaskQueue.mVictims.add(victim.mTaskQueue);
+    victim.mThieves.add(this);
+  }
+
+  /**
+   * Wakes up an idle thread of an executor allowed to steal from this one, if all the threads of
+   * this one are busy. Idle threads that are not woken up steal before waiting for tasks anyway.
+   */
+  private void maybeWakeThief() {
+    if (mThieves.isEmpty() || mTaskQueue.mIdleThreads.get() > 0 || mTaskQueue.isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < mThieves.size(); i++) {
+      final PriorityThreadPoolExecutor thief = mThieves.get(i);
+      if (thief.mTaskQueue.mIdleThreads.get() > 0) {
+        thief.mTaskQueue.offer(
+            new QueuedTask(
+                new StealTask(mTaskQueue, null),
+                DEFAULT_PRIORITY,
+                thief.mSequenceNumber.getAndIncrement(),
+                System.nanoTime(),
+                null));
+        return;
+      }
+    }
+  }
+
+  @Override
+  protected void beforeExecute(Thread thread, Runnable runnable) {
+    super.beforeExecute(thread, runnable);
+    final QueuedTask task = (QueuedTask) runnable;
+    // stolen tasks are accounted for by the executor they are stolen from
+    if (task.take() && !(task.mRunnable instanceof StealTask)) {
+      onTaskStart(getQueueTimeMs(task));
+    }
+  }
+
+  @Override
+  protected void afterExecute(Runnable runnable, Throwable throwable) {
+    super.afterExecute(runnable, throwable);
+    final QueuedTask task = (QueuedTask) runnable;
+    if (task.mTakenByThisCopy && !(task.mRunnable instanceof StealTask)) {
+      onTaskEnd();
+    }
+  }
+
+  /**
+   * Called on the thread about to run a task, which may be a thread of another executor if the
+   * task has been stolen.
+   * @param queueTimeMs the time the task waited for a thread
+   */
+  protected void onTaskStart(long queueTimeMs) {
+  }
+
+  /**
+   * Called on the thread that ran a task, after {@link #onTaskStart} was called on it.
+   */
+  protected void onTaskEnd() {
+  }
+
+  private void runStolenTask(QueuedTask task) {
+    if (!task.take()) {
+      return;
+    }
+    onTaskStart(getQueueTimeMs(task));
+    try {
+      task.run();
+    } finally {
+      onTaskEnd();
+    }
+  }
+
+  private static long getQueueTimeMs(QueuedTask task) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.mSubmitTimeNanos);
+  }
+
+  /**
+   * Queues the given task again with its current priority, if it is still queued. The task keeps
+   * its rank among the tasks of its new priority.
+   * @param command the task, as submitted to {@link #execute}
+   */
+  @Override
+  public void onPriorityChanged(Runnable command) {
+    final QueuedTask task = mQueuedTasks.get(command);
+    if (task == null || task.mTaken.get()) {
+      return;
+    }
+    final Priority priority = getPriority(command);
+    if (priority == task.mPriority) {
+      return;
+    }
+    final QueuedTask requeuedTask = new QueuedTask(task, priority);
+    if (mQueuedTasks.replace(command, task, requeuedTask)) {
+      task.mSuperseded = true;
+      mTaskQueue.offer(requeuedTask);
+    }
+  }
+
+  /**
+   * Calls {@link #onPriorityChanged(Runnable)} if the executor is a {@link PrioritizedExecutor}.
+   */
+  public static void onPriorityChanged(Executor executor, Runnable command) {
+    if (executor instanceof PrioritizedExecutor) {
+      ((PrioritizedExecutor) executor).onPriorityChanged(command);
+    }
+  }
+
+  private static Priority getPriority(Runnable command) {
+    Priority priority = null;
+    if (command instanceof PrioritizedRunnable) {
+      priority = ((PrioritizedRunnable) command).getPriority();
+    }
+    return priority == null ? DEFAULT_PRIORITY : priority;
+  }
+
+  /**
+   * Whether the queue should skip the task: it was queued again, already taken through another
+   * copy, or cancelled.
+   */
+  private static boolean isStale(Runnable runnable) {
+    final QueuedTask task = (QueuedTask) runnable;
+    if (task.mSuperseded || task.mTaken.get()) {
+      return true;
+    }
+    final Runnable command = task.mRunnable;
+    if (command instanceof CancellableRunnable && ((CancellableRunnable) command).isCancelled()) {
+      task.forget();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * The queue of the executor, which skips the stale tasks, and in which the threads look for
+   * tasks to steal before waiting for new ones.
+   */
+  private static class TaskQueue extends PriorityBlockingQueue<Runnable> {
+    private final List<TaskQueue> mVictims = new CopyOnWriteArrayList<>();
+    private final AtomicInteger mIdleThreads = new AtomicInteger();
+    private PriorityThreadPoolExecutor mOwner;
+
+    @Override
+    public Runnable poll() {
+      Runnable task;
+      do {
+        task = super.poll();
+      } while (task != null && isStale(task));
+      return task;
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+      Runnable task = pollOrSteal();
+      if (task != null || mOwner.isShutdown()) {
+        // after a shutdown, the stale tasks left would keep the thread waiting for good: now that
+        // they are dropped, the executor sees an empty queue and lets the thread go
+        return task;
+      }
+      mIdleThreads.incrementAndGet();
+      try {
+        do {
+          task = super.take();
+        } while (isStale(task));
+      } finally {
+        mIdleThreads.decrementAndGet();
+      }
+      return task;
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+      Runnable task = pollOrSteal();
+      if (task != null) {
+        return task;
+      }
+      final long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+      mIdleThreads.incrementAndGet();
+      try {
+        do {
+          task = super.poll(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } while (task != null && isStale(task));
+      } finally {
+        mIdleThreads.decrementAndGet();
+      }
+      return task;
+    }
+
+    private Runnable pollOrSteal() {
+      Runnable task = poll();
+      for (int i = 0; task == null && i < mVictims.size(); i++) {
+        final TaskQueue victim = mVictims.get(i);
+        final QueuedTask stolenTask = (QueuedTask) victim.poll();
+        if (stolenTask != null) {
+          // not queued, the sequence number does not matter
+          task = new QueuedTask(
+              new StealTask(victim, stolenTask),
+              stolenTask.mPriority,
+              0,
+              System.nanoTime(),
+              null);
+        }
+      }
+      return task;
+    }
+  }
+
+  /**
+   * Runs the given task of another executor, or its next task if none is given
+   */
+  private static class StealTask implements Runnable {
+    private final TaskQueue mVictim;
+    private final @Nullable QueuedTask mTask;
+
+    StealTask(TaskQueue victim, @Nullable QueuedTask task) {
+      mVictim = victim;
+      mTask = task;
+    }
+
+    @Override
+    public void run() {
+      final QueuedTask task = mTask != null ? mTask : (QueuedTask) mVictim.poll();
+      if (task != null) {
+        mVictim.mOwner.runStolenTask(task);
+      }
+    }
+  }
+
+  /**
+   * A task as queued, with the priority it had at that time. A task queued again with a new
+   * priority is a copy, and only one of the copies gets to run it.
+   */
+  private static class QueuedTask implements Runnable, Comparable<QueuedTask> {
+    private final Runnable mRunnable;
+    private final Priority mPriority;
+    private final long mSequenceNumber;
+    private final long mSubmitTimeNanos;
+    // the executor's index of the queued tasks, null for the tasks that are not in it
+    private final @Nullable ConcurrentHashMap<Runnable, QueuedTask> mQueuedTasks;
+    // shared by the copies, set once one of them is taken by a thread
+    private final AtomicBoolean mTaken;
+    // set on the copy left behind when the task is queued again
+    private volatile boolean mSuperseded;
+    // only accessed by the thread that took the task
+    private boolean mTakenByThisCopy;
+
+    QueuedTask(
+        Runnable runnable,
+        Priority priority,
+        long sequenceNumber,
+        long submitTimeNanos,
+        @Nullable ConcurrentHashMap<Runnable, QueuedTask> queuedTasks) {
+      mRunnable = runnable;
+      mPriority = priority;
+      mSequenceNumber = sequenceNumber;
+      mSubmitTimeNanos = submitTimeNanos;
+      mQueuedTasks = queuedTasks;
+      mTaken = new AtomicBoolean();
+    }
+
+    /**
+     * Creates a copy of the task with another priority.
+     */
+    QueuedTask(QueuedTask task, Priority priority) {
+      mRunnable = task.mRunnable;
+      mPriority = priority;
+      mSequenceNumber = task.mSequenceNumber;
+      mSubmitTimeNanos = task.mSubmitTimeNanos;
+      mQueuedTasks = task.mQueuedTasks;
+      mTaken = task.mTaken;
+    }
+
+    /**
+     * Takes the task before running it.
+     * @return false if another copy has already been taken, running this one then does nothing
+     */
+    boolean take() {
+      mTakenByThisCopy = mTaken.compareAndSet(false, true);
+      if (mTakenByThisCopy) {
+        forget();
+      }
+      return mTakenByThisCopy;
+    }
+
+    /**
+     * Removes the task from the index of the queued tasks, unless it was submitted again since.
+     */
+    void forget() {
+      if (mQueuedTasks == null) {
+        return;
+      }
+      final QueuedTask task = mQueuedTasks.get(mRunnable);
+      if (task != null && task.mTaken == mTaken) {
+        mQueuedTasks.remove(mRunnable, task);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (mTakenByThisCopy) {
+        mRunnable.run();
+      }
+    }
+
+    @Override
+    public int compareTo(QueuedTask other) {
+      if (mPriority != other.mPriority) {
+        // higher priorities first
+        return other.mPriority.ordinal() - mPriority.ordinal();
+      }
+      if (mSequenceNumber != other.mSequenceNumber) {
+        return mSequenceNumber < other.mSequenceNumber ? -1 : 1;
+      }
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.facebook.imagepipeline.common.Priority;
+
+/**
+ * The priority of the tasks run for a request, which can change while they are queued.
+ *
+ * <p> The tasks submitted to the executors returned by {@link #wrap} take this priority, which is
+ * what a {@link PrioritizedExecutor} such as {@link PriorityThreadPoolExecutor} runs them by. When
+ * the priority changes, the tasks that are still queued are moved accordingly. Other executors
+ * just run the tasks as usual.
+ *
+ * <p> The queued tasks can also be cancelled when the request is, see {@link #cancel}.
+ */
+@ThreadSafe
+public class TaskPriority {
+
+  @Nullable
+  private volatile Priority mPriority;
+
+  @GuardedBy("this")
+  private final List<PrioritizedTask> mPendingTasks = new ArrayList<>();
+
+  /**
+   * @param priority the initial priority, or null for the default priority of the executors
+   */
+  public TaskPriority(@Nullable Priority priority) {
+    mPriority = priority;
+  }
+
+  @Nullable
+  public Priority getPriority() {
+    return mPriority;
+  }
+
+  /**
+   * Updates the priority of the tasks, including the ones already queued.
+   */
+  public void setPriority(@Nullable Priority priority) {
+    if (mPriority == priority) {
+      return;
+    }
+    mPriority = priority;
+    final List<PrioritizedTask> pendingTasks;
+    synchronized (this) {
+      pendingTasks = new ArrayList<>(mPendingTasks);
+    }
+    for (int i = 0; i < pendingTasks.size(); i++) {
+      final PrioritizedTask task = pendingTasks.get(i);
+      PriorityThreadPoolExecutor.onPriorityChanged(task.mExecutor, task);
+    }
+  }
+
+  /**
+   * Cancels the tasks that did not start yet. They won't run, and a
+   * {@link PriorityThreadPoolExecutor} drops them without using a thread. The tasks submitted
+   * afterwards run as usual.
+   *
+   * <p> A cancelled task does not get to handle its own cancellation, so the caller has to.
+   * @return whether any task was cancelled
+   */
+  public boolean cancel() {
+    final List<PrioritizedTask> pendingTasks;
+    synchronized (this) {
+      pendingTasks = new ArrayList<>(mPendingTasks);
+      mPendingTasks.clear();
+    }
+    boolean cancelled = false;
+    for (int i = 0; i < pendingTasks.size(); i++) {
+      cancelled |= pendingTasks.get(i).cancel();
+    }
+    return cancelled;
+  }
+
+  /**
+   * Gets an executor that runs the tasks on the given executor with this priority.
+   */
+  public Executor wrap(final Executor executor) {
+    return new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        final PrioritizedTask task = new PrioritizedTask(executor, command);
+        synchronized (TaskPriority.this) {
+          mPendingTasks.add(task);
+        }
+        try {
+          executor.execute(task);
+        } catch (RuntimeException e) {
+          synchronized (TaskPriority.this) {
+            mPendingTasks.remove(task);
+          }
+          throw e;
+        }
+      }
+    };
+  }
+
+  private class PrioritizedTask implements PrioritizedRunnable, CancellableRunnable {
+    private final Executor mExecutor;
+    // cleared once the task starts or is cancelled, so that dropped tasks don't retain anything
+    private final AtomicReference<Runnable> mRunnable;
+
+    PrioritizedTask(Executor executor, Runnable runnable) {
+      mExecutor = executor;
+      mRunnable = new AtomicReference<>(runnable);
+    }
+
+    @Override
+    @Nullable
+    public Priority getPriority() {
+      return mPriority;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      final Runnable runnable = mRunnable.get();
+      return runnable == null ||
+          (runnable instanceof CancellableRunnable &&
+              ((CancellableRunnable) runnable).isCancelled());
+    }
+
+    boolean cancel() {
+      return mRunnable.getAndSet(null) != null;
+    }
+
+    @Override
+    public void run() {
+      final Runnable runnable = mRunnable.getAndSet(null);
+      if (runnable == null) {
+        return;
+      }
+      synchronized (TaskPriority.this) {
+        mPendingTasks.remove(this);
+      }
+      runnable.run();
+    }
+  }
+}
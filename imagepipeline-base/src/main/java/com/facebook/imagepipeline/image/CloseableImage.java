@@ -19,6 +19,8 @@ import com.facebook.common.logging.FLog;
 public abstract class CloseableImage implements Closeable, ImageInfo {
   private static final String TAG = "CloseableImage";
 
+  private long mDecodeDurationMs;
+
   /**
    * @return size in bytes of the bitmap(s)
    */
@@ -44,6 +46,21 @@ public abstract class CloseableImage implements Closeable, ImageInfo {
     return ImmutableQualityInfo.FULL_QUALITY;
   }
 
+  /**
+   * Returns how long it took to decode the image, in milliseconds, or 0 if unknown.
+   */
+  public long getDecodeDurationMs() {
+    return mDecodeDurationMs;
+  }
+
+  /**
+   * Records how long it took to decode the image, so that the bitmap cache can prefer evicting
+   * images that are cheap to decode again.
+   */
+  public void setDecodeDurationMs(long decodeDurationMs) {
+    mDecodeDurationMs = decodeDurationMs;
+  }
+
   /**
    * Whether or not this image contains state for a particular view of the image (for example,
    * the image for an animated GIF might contain the current frame being viewed). This means
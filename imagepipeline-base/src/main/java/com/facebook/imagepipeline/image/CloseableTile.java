@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.image;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.facebook.common.references.CloseableReference;
+
+/**
+ * CloseableStaticBitmap that contains one tile of a larger image, along with the part of the
+ * image it covers.
+ */
+@ThreadSafe
+public class CloseableTile extends CloseableStaticBitmap {
+
+  private final Rect mRect;
+
+  /**
+   * Creates a new instance of a CloseableTile. It holds a reference to the bitmap until it's
+   * closed.
+   *
+   * @param bitmapReference the bitmap of the tile
+   * @param rect the part of the full image the tile covers, in pixels of the full image
+   */
+  public CloseableTile(CloseableReference<Bitmap> bitmapReference, Rect rect) {
+    super(bitmapReference, ImmutableQualityInfo.FULL_QUALITY, 0);
+    mRect = new Rect(rect);
+  }
+
+  /**
+   * @return the part of the full image the tile covers, in pixels of the full image
+   */
+  public Rect getRect() {
+    return new Rect(mRect);
+  }
+}
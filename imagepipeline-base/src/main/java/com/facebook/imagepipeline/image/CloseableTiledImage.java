@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.image;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.references.CloseableReference;
+
+/**
+ * CloseableImage that contains the tiles of the visible part of an image, each one a
+ * {@link CloseableTile} decoded at the same level of detail.
+ *
+ * <p> The size of this image is the size of the area covered by its tiles, in pixels of the full
+ * image.
+ */
+@ThreadSafe
+public class CloseableTiledImage extends CloseableImage {
+
+  @GuardedBy("this")
+  @Nullable
+  private List<CloseableReference<CloseableImage>> mTileReferences;
+
+  private final List<Rect> mTileRects;
+  private final Rect mBounds;
+  private final int mSampleSize;
+  private final int mSizeInBytes;
+
+  /**
+   * Creates a new instance of a CloseableTiledImage. It holds a reference to each tile until it's
+   * closed.
+   *
+   * @param tileReferences the tiles, each one a {@link CloseableTile}
+   * @param sampleSize the factor the tiles are downsampled by
+   */
+  public CloseableTiledImage(
+      List<CloseableReference<CloseableImage>> tileReferences,
+      int sampleSize) {
+    mTileReferences = CloseableReference.cloneOrNull(tileReferences);
+    mTileRects = new ArrayList<>(tileReferences.size());
+    mBounds = new Rect();
+    int sizeInBytes = 0;
+    for (int i = 0; i < mTileReferences.size(); i++) {
+      final CloseableImage tile = mTileReferences.get(i).get();
+      Preconditions.checkArgument(tile instanceof CloseableTile);
+      final Rect tileRect = ((CloseableTile) tile).getRect();
+      mTileRects.add(tileRect);
+      mBounds.union(tileRect);
+      sizeInBytes += tile.getSizeInBytes();
+    }
+    mSampleSize = sampleSize;
+    mSizeInBytes = sizeInBytes;
+  }
+
+  /**
+   * Releases the tiles.
+   */
+  @Override
+  public void close() {
+    final List<CloseableReference<CloseableImage>> tileReferences;
+    synchronized (this) {
+      tileReferences = mTileReferences;
+      mTileReferences = null;
+    }
+    CloseableReference.closeSafely(tileReferences);
+  }
+
+  /**
+   * Returns whether this instance is closed.
+   */
+  @Override
+  public synchronized boolean isClosed() {
+    return mTileReferences == null;
+  }
+
+  public int getTileCount() {
+    return mTileRects.size();
+  }
+
+  /**
+   * Gets the bitmap of a tile.
+   *
+   * @return the bitmap, or null if this image is closed
+   */
+  @Nullable
+  public synchronized Bitmap getTileBitmap(int index) {
+    if (mTileReferences == null) {
+      return null;
+    }
+    return ((CloseableTile) mTileReferences.get(index).get()).getUnderlyingBitmap();
+  }
+
+  /**
+   * @return the part of the full image a tile covers, in pixels of the full image
+   */
+  public Rect getTileRect(int index) {
+    return new Rect(mTileRects.get(index));
+  }
+
+  /**
+   * @return the area covered by all the tiles, in pixels of the full image
+   */
+  public Rect getBounds() {
+    return new Rect(mBounds);
+  }
+
+  /**
+   * @return the factor the tiles are downsampled by
+   */
+  public int getSampleSize() {
+    return mSampleSize;
+  }
+
+  /**
+   * @return size in bytes of the bitmaps of the tiles
+   */
+  @Override
+  public int getSizeInBytes() {
+    return mSizeInBytes;
+  }
+
+  @Override
+  public int getWidth() {
+    return mBounds.width();
+  }
+
+  @Override
+  public int getHeight() {
+    return mBounds.height();
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.facebook.cache.common.CacheErrorLogger;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.internal.Suppliers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link DiskCacheJournal}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DiskCacheJournalTest {
+
+  private static final int VERSION = 1;
+
+  private File mJournalFile;
+
+  @Before
+  public void setUp() {
+    mJournalFile = new File(RuntimeEnvironment.application.getCacheDir(), "test.journal");
+    mJournalFile.delete();
+  }
+
+  private DiskCacheJournal createJournal(int version) {
+    return new DiskCacheJournal(
+        Suppliers.of(mJournalFile),
+        version,
+        CallerThreadExecutor.getInstance(),
+        mock(CacheErrorLogger.class));
+  }
+
+  private static List<DiskStorage.Entry> entries(DiskStorage.Entry... entries) {
+    List<DiskStorage.Entry> list = new ArrayList<>();
+    for (DiskStorage.Entry entry : entries) {
+      list.add(entry);
+    }
+    return list;
+  }
+
+  private static Map<String, DiskStorage.Entry> byId(List<DiskStorage.Entry> entries) {
+    Map<String, DiskStorage.Entry> map = new HashMap<>();
+    for (DiskStorage.Entry entry : entries) {
+      map.put(entry.getId(), entry);
+    }
+    return map;
+  }
+
+  private void appendToJournal(String text) throws IOException {
+    FileOutputStream stream = new FileOutputStream(mJournalFile, true);
+    try {
+      stream.write(text.getBytes("UTF-8"));
+    } finally {
+      stream.close();
+    }
+  }
+
+  @Test
+  public void testLoadFailsWithoutJournal() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    assertFalse(journal.load());
+    assertFalse(journal.isLoaded());
+    assertEquals(0, journal.getCount());
+  }
+
+  @Test
+  public void testRecordsAreNotWrittenUntilLoaded() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.recordInsert("k1", 10, 100);
+    assertEquals(0, journal.getCount());
+    assertFalse(mJournalFile.exists());
+  }
+
+  @Test
+  public void testRecordsMadeBeforeLoadAreReplayed() {
+    createJournal(VERSION).rebuild(entries(
+        new DiskCacheJournal.JournalEntry("k1", 10, 100),
+        new DiskCacheJournal.JournalEntry("k2", 20, 200)));
+
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.recordInsert("k3", 30, 300);
+    journal.recordAccess("k1", 400);
+    journal.recordRemove("k2");
+    assertTrue(journal.load());
+    Map<String, DiskStorage.Entry> entries = byId(journal.getEntries());
+    assertEquals(2, entries.size());
+    assertEquals(400, entries.get("k1").getTimestamp());
+    assertEquals(300, entries.get("k3").getTimestamp());
+    assertEquals(40, journal.getSize());
+
+    DiskCacheJournal reloaded = createJournal(VERSION);
+    assertTrue(reloaded.load());
+    assertEquals(entries.keySet(), byId(reloaded.getEntries()).keySet());
+    assertEquals(40, reloaded.getSize());
+  }
+
+  @Test
+  public void testRecordsMadeBeforeRebuildAreReplayed() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.recordInsert("k2", 20, 200);
+    journal.rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+    assertEquals(2, journal.getCount());
+    assertEquals(30, journal.getSize());
+  }
+
+  @Test
+  public void testTooManyRecordsBeforeLoadFailTheLoad() {
+    createJournal(VERSION).rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+
+    DiskCacheJournal journal = createJournal(VERSION);
+    for (int i = 0; i <= DiskCacheJournal.MAX_UNLOADED_RECORDS; i++) {
+      journal.recordInsert("k" + i, 1, i);
+    }
+    // the storage has to be scanned instead
+    assertFalse(journal.load());
+    journal.rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+    assertEquals(1, journal.getCount());
+    assertTrue(createJournal(VERSION).load());
+  }
+
+  @Test
+  public void testReconcile() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.rebuild(entries(
+        new DiskCacheJournal.JournalEntry("deleted", 10, 100),
+        new DiskCacheJournal.JournalEntry("resized", 20, 200),
+        new DiskCacheJournal.JournalEntry("kept", 30, 300)));
+    // inserted while the storage was being scanned
+    journal.recordInsert("inserted", 40, 1000);
+
+    journal.reconcile(
+        entries(
+            new DiskCacheJournal.JournalEntry("resized", 25, 200),
+            new DiskCacheJournal.JournalEntry("kept", 30, 300),
+            new DiskCacheJournal.JournalEntry("unknown", 50, 500)),
+        1000);
+    Map<String, DiskStorage.Entry> entries = byId(journal.getEntries());
+    assertEquals(4, entries.size());
+    assertFalse(entries.containsKey("deleted"));
+    assertEquals(25, entries.get("resized").getSize());
+    assertTrue(entries.containsKey("inserted"));
+    assertTrue(entries.containsKey("unknown"));
+    assertEquals(145, journal.getSize());
+
+    DiskCacheJournal reloaded = createJournal(VERSION);
+    assertTrue(reloaded.load());
+    assertEquals(entries.keySet(), byId(reloaded.getEntries()).keySet());
+    assertEquals(145, reloaded.getSize());
+  }
+
+  @Test
+  public void testRebuildAndReload() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.rebuild(entries(
+        new DiskCacheJournal.JournalEntry("k1", 10, 100),
+        new DiskCacheJournal.JournalEntry("k2", 20, 200)));
+    assertTrue(journal.isLoaded());
+    assertEquals(2, journal.getCount());
+    assertEquals(30, journal.getSize());
+
+    DiskCacheJournal reloaded = createJournal(VERSION);
+    assertTrue(reloaded.load());
+    assertEquals(2, reloaded.getCount());
+    assertEquals(30, reloaded.getSize());
+    Map<String, DiskStorage.Entry> entries = byId(reloaded.getEntries());
+    assertEquals(200, entries.get("k2").getTimestamp());
+    assertEquals(20, entries.get("k2").getSize());
+  }
+
+  @Test
+  public void testRecordsArePersisted() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+    journal.recordInsert("k2", 20, 200);
+    journal.recordInsert("k3", 30, 300);
+    journal.recordAccess("k1", 400);
+    journal.recordRemove("k2");
+    assertEquals(2, journal.getCount());
+    assertEquals(40, journal.getSize());
+
+    DiskCacheJournal reloaded = createJournal(VERSION);
+    assertTrue(reloaded.load());
+    Map<String, DiskStorage.Entry> entries = byId(reloaded.getEntries());
+    assertEquals(2, entries.size());
+    assertEquals(400, entries.get("k1").getTimestamp());
+    assertEquals(300, entries.get("k3").getTimestamp());
+    assertEquals(40, reloaded.getSize());
+  }
+
+  @Test
+  public void testAccessesAreBufferedUntilFlush() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+    long sizeBeforeAccess = mJournalFile.length();
+    journal.recordAccess("k1", 400);
+    assertEquals(sizeBeforeAccess, mJournalFile.length());
+
+    journal.flush();
+    DiskCacheJournal reloaded = createJournal(VERSION);
+    assertTrue(reloaded.load());
+    assertEquals(400, reloaded.getEntries().get(0).getTimestamp());
+  }
+
+  @Test
+  public void testTruncatedLastRecordIsIgnored() throws IOException {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+    appendToJournal("I k2 2");
+
+    DiskCacheJournal reloaded = createJournal(VERSION);
+    assertTrue(reloaded.load());
+    assertEquals(1, reloaded.getCount());
+
+    // new records must not be appended to the partial one
+    reloaded.recordInsert("k3", 30, 300);
+    DiskCacheJournal reloadedAgain = createJournal(VERSION);
+    assertTrue(reloadedAgain.load());
+    assertEquals(2, reloadedAgain.getCount());
+  }
+
+  @Test
+  public void testCorruptJournalFailsToLoad() throws IOException {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+    appendToJournal("garbage\nR k1\n");
+
+    DiskCacheJournal reloaded = createJournal(VERSION);
+    assertFalse(reloaded.load());
+    assertEquals(0, reloaded.getCount());
+  }
+
+  @Test
+  public void testDifferentVersionFailsToLoad() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+
+    assertFalse(createJournal(VERSION + 1).load());
+  }
+
+  @Test
+  public void testInvalidate() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+    journal.invalidate();
+    assertFalse(journal.isLoaded());
+    assertFalse(mJournalFile.exists());
+    assertFalse(createJournal(VERSION).load());
+  }
+
+  @Test
+  public void testCompaction() {
+    DiskCacheJournal journal = createJournal(VERSION);
+    journal.rebuild(entries(new DiskCacheJournal.JournalEntry("k1", 10, 100)));
+    for (int i = 0; i < DiskCacheJournal.COMPACTION_THRESHOLD - 1; i++) {
+      journal.recordAccess("k1", i);
+    }
+    journal.flush();
+    long sizeBeforeCompaction = mJournalFile.length();
+    // this access pushes the journal over the threshold and triggers a compaction
+    journal.recordAccess("k1", 5000);
+    assertEquals(0, journal.getRedundantOpCount());
+    assertTrue(mJournalFile.length() < sizeBeforeCompaction);
+
+    DiskCacheJournal reloaded = createJournal(VERSION);
+    assertTrue(reloaded.load());
+    assertEquals(5000, reloaded.getEntries().get(0).getTimestamp());
+  }
+}
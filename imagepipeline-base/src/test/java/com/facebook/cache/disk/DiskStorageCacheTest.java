@@ -16,7 +16,11 @@ import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
@@ -134,6 +138,16 @@ public class DiskStorageCacheTest {
   private DiskStorageCache createDiskCache(
       DiskStorage diskStorage,
       boolean indexPopulateAtStartupEnabled) {
+    return createDiskCache(
+        diskStorage,
+        indexPopulateAtStartupEnabled,
+        Executors.newSingleThreadExecutor());
+  }
+
+  private DiskStorageCache createDiskCache(
+      DiskStorage diskStorage,
+      boolean indexPopulateAtStartupEnabled,
+      Executor backgroundExecutor) {
     DiskStorageCache.Params diskStorageCacheParams =
         new DiskStorageCache.Params(
             0,
@@ -150,7 +164,7 @@ public class DiskStorageCacheTest {
         mock(CacheErrorLogger.class),
         mDiskTrimmableRegistry,
         context,
-        Executors.newSingleThreadExecutor(),
+        backgroundExecutor,
         indexPopulateAtStartupEnabled);
   }
 
@@ -512,6 +526,124 @@ public class DiskStorageCacheTest {
     t2.join(1000);
   }
 
+  /**
+   * Verify that lookups are not blocked while another thread is evicting files.
+   */
+  @Test
+  public void testLookupsDoNotWaitForEviction() throws Exception {
+    BlockingRemovalDiskStorage storage = new BlockingRemovalDiskStorage(
+        TESTCACHE_CURRENT_VERSION,
+        Suppliers.of(RuntimeEnvironment.application.getApplicationContext().getCacheDir()),
+        CACHE_TYPE,
+        mock(CacheErrorLogger.class));
+    final DiskStorageCache cache = createDiskCache(storage, false);
+    byte[] value = new byte[101];
+
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS));
+    CacheKey key1 = new SimpleCacheKey("evicted");
+    cache.insert(key1, WriterCallbacks.from(value));
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(2, TimeUnit.HOURS));
+    final CacheKey key2 = new SimpleCacheKey("looked_up");
+    cache.insert(key2, WriterCallbacks.from(value));
+
+    // now over limit. The next write evicts key1 and blocks while deleting it
+    storage.blockRemovals();
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(3, TimeUnit.HOURS));
+    Thread insertion = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          cache.insert(new SimpleCacheKey("inserted"), WriterCallbacks.from(new byte[101]));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    insertion.setDaemon(true);
+    insertion.start();
+    assertTrue(storage.awaitRemovalStarted());
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      for (int i = 0; i < 100; i++) {
+        boolean found = executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            return cache.getResource(key2) != null && cache.probe(key2) && cache.hasKey(key2);
+          }
+        }).get(5, TimeUnit.SECONDS);
+        assertTrue(found);
+      }
+    } finally {
+      storage.releaseRemovals();
+      executor.shutdown();
+    }
+    insertion.join(5000);
+    assertFalse(insertion.isAlive());
+    assertFalse(cache.hasKey(key1));
+    assertTrue(cache.hasKey(key2));
+  }
+
+  @Test
+  public void testPendingAccessesAreAppliedInTheBackground() throws Exception {
+    final List<Runnable> backgroundTasks = new ArrayList<>();
+    DiskStorageCache cache = createDiskCache(
+        mStorage,
+        false,
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            backgroundTasks.add(command);
+          }
+        });
+    CacheKey key = new SimpleCacheKey("key");
+    cache.insert(key, WriterCallbacks.from(new byte[10]));
+    int initTaskCount = backgroundTasks.size();
+
+    // the lookups only queue their accesses, and one task applies them once there are too many
+    for (int i = 0; i < 300; i++) {
+      assertNotNull(cache.getResource(key));
+    }
+    assertEquals(initTaskCount + 1, backgroundTasks.size());
+
+    backgroundTasks.get(initTaskCount).run();
+    for (int i = 0; i < 300; i++) {
+      assertNotNull(cache.getResource(key));
+    }
+    assertEquals(initTaskCount + 2, backgroundTasks.size());
+  }
+
+  @Test
+  public void testFailedEvictionKeepsEntry() throws Exception {
+    FailingRemovalDiskStorage storage = new FailingRemovalDiskStorage(
+        TESTCACHE_CURRENT_VERSION,
+        Suppliers.of(RuntimeEnvironment.application.getApplicationContext().getCacheDir()),
+        CACHE_TYPE,
+        mock(CacheErrorLogger.class));
+    DiskStorageCache cache = createDiskCache(storage, false);
+    byte[] value = new byte[101];
+
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS));
+    CacheKey key1 = new SimpleCacheKey("not_deleted");
+    cache.insert(key1, WriterCallbacks.from(value));
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(2, TimeUnit.HOURS));
+    cache.insert(new SimpleCacheKey("key2"), WriterCallbacks.from(value));
+
+    // now over limit. The next write tries to evict key1, which can't be deleted
+    storage.setFailRemovals(true);
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(3, TimeUnit.HOURS));
+    cache.insert(new SimpleCacheKey("key3"), WriterCallbacks.from(value));
+    assertTrue(cache.hasKeySync(key1));
+    assertEquals(3 * value.length, cache.getSize());
+
+    // key1 is still the first entry to evict
+    storage.setFailRemovals(false);
+    when(mClock.now()).thenReturn(TimeUnit.MILLISECONDS.convert(4, TimeUnit.HOURS));
+    cache.insert(new SimpleCacheKey("key4"), WriterCallbacks.from(value));
+    assertFalse(cache.hasKeySync(key1));
+    assertFalse(cache.hasKey(key1));
+  }
+
   @Test
   public void testIsEnabled() throws Exception {
     DiskStorage storageMock = mock(DiskStorage.class);
@@ -817,6 +949,66 @@ public class DiskStorageCacheTest {
     }
   }
 
+  private static class BlockingRemovalDiskStorage extends DynamicDefaultDiskStorage {
+
+    private final CountDownLatch mRemovalStarted = new CountDownLatch(1);
+    private final CountDownLatch mRemovalReleased = new CountDownLatch(1);
+    private volatile boolean mBlockRemovals;
+
+    public BlockingRemovalDiskStorage(
+        int version,
+        Supplier<File> baseDirectoryPathSupplier,
+        String baseDirectoryName, CacheErrorLogger cacheErrorLogger) {
+      super(version, baseDirectoryPathSupplier, baseDirectoryName, cacheErrorLogger);
+    }
+
+    public void blockRemovals() {
+      mBlockRemovals = true;
+    }
+
+    public boolean awaitRemovalStarted() throws InterruptedException {
+      return mRemovalStarted.await(5, TimeUnit.SECONDS);
+    }
+
+    public void releaseRemovals() {
+      mRemovalReleased.countDown();
+    }
+
+    @Override
+    public long remove(String resourceId) throws IOException {
+      if (mBlockRemovals) {
+        mRemovalStarted.countDown();
+        try {
+          mRemovalReleased.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e.getMessage());
+        }
+      }
+      return super.remove(resourceId);
+    }
+  }
+
+  private static class FailingRemovalDiskStorage extends DynamicDefaultDiskStorage {
+
+    private volatile boolean mFailRemovals;
+
+    public FailingRemovalDiskStorage(
+        int version,
+        Supplier<File> baseDirectoryPathSupplier,
+        String baseDirectoryName, CacheErrorLogger cacheErrorLogger) {
+      super(version, baseDirectoryPathSupplier, baseDirectoryName, cacheErrorLogger);
+    }
+
+    public void setFailRemovals(boolean failRemovals) {
+      mFailRemovals = failRemovals;
+    }
+
+    @Override
+    public long remove(String resourceId) throws IOException {
+      return mFailRemovals ? -1 : super.remove(resourceId);
+    }
+  }
+
   /**
    * CacheEventListener implementation which copies the data from each event into a new instance to
    * work-around the recycling of the original event and forwards the copy so that assertions can be
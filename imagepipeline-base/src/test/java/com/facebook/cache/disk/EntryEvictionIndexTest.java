@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EntryEvictionIndex}
+ */
+public class EntryEvictionIndexTest {
+
+  private EntryEvictionIndex mIndex;
+
+  @Before
+  public void setUp() {
+    mIndex = new EntryEvictionIndex(new DefaultEntryEvictionComparatorSupplier().get());
+  }
+
+  private static List<DiskStorage.Entry> entries(DiskStorage.Entry... entries) {
+    List<DiskStorage.Entry> list = new ArrayList<>();
+    for (DiskStorage.Entry entry : entries) {
+      list.add(entry);
+    }
+    return list;
+  }
+
+  private String pollNextToEvict() {
+    DiskStorage.Entry entry = mIndex.getNextToEvict();
+    mIndex.remove(entry.getId());
+    return entry.getId();
+  }
+
+  @Test
+  public void testReset() {
+    assertFalse(mIndex.isReady());
+    mIndex.reset(
+        entries(
+            new EntryEvictionIndex.IndexEntry("k1", 10, 300),
+            new EntryEvictionIndex.IndexEntry("k2", 20, 100),
+            new EntryEvictionIndex.IndexEntry("k3", 30, 200)),
+        1000);
+    assertTrue(mIndex.isReady());
+    assertEquals(3, mIndex.getCount());
+    assertEquals(60, mIndex.getSize());
+    assertEquals("k2", pollNextToEvict());
+    assertEquals("k3", pollNextToEvict());
+    assertEquals("k1", pollNextToEvict());
+    assertNull(mIndex.getNextToEvict());
+    assertEquals(0, mIndex.getSize());
+  }
+
+  @Test
+  public void testFutureTimestampsAreEvictedFirst() {
+    mIndex.reset(
+        entries(
+            new EntryEvictionIndex.IndexEntry("k1", 10, 100),
+            new EntryEvictionIndex.IndexEntry("k2", 20, 5000)),
+        1000);
+    assertEquals("k2", pollNextToEvict());
+    assertEquals("k1", pollNextToEvict());
+  }
+
+  @Test
+  public void testTouchMovesEntryToTheBack() {
+    mIndex.put("k1", 10, 100);
+    mIndex.put("k2", 10, 200);
+    mIndex.put("k3", 10, 300);
+    mIndex.touch("k1", 400);
+    mIndex.touch("unknown", 500);
+    assertEquals(3, mIndex.getCount());
+    assertEquals("k2", pollNextToEvict());
+    assertEquals("k3", pollNextToEvict());
+    assertEquals("k1", pollNextToEvict());
+  }
+
+  @Test
+  public void testSameTimestamps() {
+    mIndex.put("k1", 10, 100);
+    mIndex.put("k2", 20, 100);
+    assertEquals(2, mIndex.getCount());
+    assertEquals(30, mIndex.getSize());
+    mIndex.remove("k1");
+    assertEquals("k2", mIndex.getNextToEvict().getId());
+  }
+
+  @Test
+  public void testPutReplacesEntry() {
+    mIndex.put("k1", 10, 100);
+    mIndex.put("k2", 10, 200);
+    mIndex.put("k1", 30, 300);
+    assertEquals(2, mIndex.getCount());
+    assertEquals(40, mIndex.getSize());
+    assertEquals("k2", pollNextToEvict());
+  }
+
+  @Test
+  public void testScoreBasedOrder() {
+    EntryEvictionIndex index =
+        new EntryEvictionIndex(new ScoreBasedEvictionComparatorSupplier(1f, 1f).get());
+    index.put("old_small", 10, 100);
+    index.put("new_large", 10000000, 500);
+    // the larger entry has the higher score despite being more recent
+    assertEquals("new_large", index.getNextToEvict().getId());
+  }
+
+  @Test
+  public void testClear() {
+    mIndex.reset(entries(new EntryEvictionIndex.IndexEntry("k1", 10, 100)), 1000);
+    mIndex.clear();
+    assertFalse(mIndex.isReady());
+    assertEquals(0, mIndex.getCount());
+    assertEquals(0, mIndex.getSize());
+    assertNull(mIndex.getNextToEvict());
+  }
+}
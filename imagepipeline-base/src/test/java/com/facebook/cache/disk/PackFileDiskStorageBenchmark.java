@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.facebook.cache.common.NoOpCacheErrorLogger;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.internal.Suppliers;
+
+/**
+ * Compares the {@link PackFileDiskStorage} with the {@link DefaultDiskStorage} for small entries:
+ * time to insert, read and remove entries of 2 to 20 KB, and space used on disk assuming 4 KB
+ * blocks.
+ *
+ * <p>Not a unit test, run it with the directory to use as argument.
+ */
+public class PackFileDiskStorageBenchmark {
+
+  private static final int ENTRY_COUNT = 2000;
+  private static final int MIN_ENTRY_SIZE = 2 * 1024;
+  private static final int MAX_ENTRY_SIZE = 20 * 1024;
+  private static final int BLOCK_SIZE = 4 * 1024;
+
+  public static void main(String[] args) throws IOException {
+    File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+    byte[][] entries = new byte[ENTRY_COUNT][];
+    Random random = new Random(0);
+    for (int i = 0; i < ENTRY_COUNT; i++) {
+      entries[i] = new byte[MIN_ENTRY_SIZE + random.nextInt(MAX_ENTRY_SIZE - MIN_ENTRY_SIZE)];
+      random.nextBytes(entries[i]);
+    }
+
+    File defaultDirectory = new File(directory, "default-benchmark");
+    FileTree.deleteRecursively(defaultDirectory);
+    run(
+        "default",
+        new DefaultDiskStorage(defaultDirectory, 1, NoOpCacheErrorLogger.getInstance()),
+        defaultDirectory,
+        entries);
+
+    File packDirectory = new File(directory, "pack-benchmark");
+    FileTree.deleteRecursively(packDirectory);
+    run(
+        "pack",
+        new PackFileDiskStorage(
+            Suppliers.of(directory),
+            packDirectory.getName(),
+            1,
+            PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE,
+            CallerThreadExecutor.getInstance(),
+            NoOpCacheErrorLogger.getInstance()),
+        packDirectory,
+        entries);
+  }
+
+  private static void run(String name, DiskStorage storage, File directory, byte[][] entries)
+      throws IOException {
+    long start = System.nanoTime();
+    for (int i = 0; i < entries.length; i++) {
+      DiskStorage.Inserter inserter = storage.insert("key" + i, null);
+      inserter.writeData(WriterCallbacks.from(entries[i]), null);
+      inserter.commit(null);
+    }
+    long insertTime = System.nanoTime() - start;
+    long diskUsage = getDiskUsage(directory);
+
+    start = System.nanoTime();
+    for (int i = 0; i < entries.length; i++) {
+      storage.getResource("key" + i, null).read();
+    }
+    long readTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < entries.length; i += 2) {
+      storage.remove("key" + i);
+    }
+    long removeTime = System.nanoTime() - start;
+    long diskUsageAfterRemoval = getDiskUsage(directory);
+
+    System.out.println(String.format(
+        "%s: insert %d us, read %d us, remove %d us per entry; disk %d KB, %d KB after removal",
+        name,
+        insertTime / 1000 / entries.length,
+        readTime / 1000 / entries.length,
+        removeTime / 1000 / (entries.length / 2),
+        diskUsage / 1024,
+        diskUsageAfterRemoval / 1024));
+    storage.clearAll();
+  }
+
+  private static long getDiskUsage(File file) {
+    if (file.isFile()) {
+      return (file.length() + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+    long usage = 0;
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        usage += getDiskUsage(child);
+      }
+    }
+    return usage;
+  }
+}
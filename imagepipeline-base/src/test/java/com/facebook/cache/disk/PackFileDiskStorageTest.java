@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.NoOpCacheErrorLogger;
+import com.facebook.cache.common.WriterCallbacks;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.file.FileTree;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.Suppliers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PackFileDiskStorage}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PackFileDiskStorageTest {
+
+  private static final String DIRECTORY_NAME = "pack";
+  // two records with 2-char ids and 50 bytes of data fit in a segment
+  private static final int MAX_SEGMENT_SIZE = 200;
+  private static final int DATA_SIZE = 50;
+
+  private File mBaseDirectory;
+  private Supplier<File> mBaseDirectorySupplier;
+
+  @Before
+  public void setUp() {
+    mBaseDirectory = new File(RuntimeEnvironment.application.getCacheDir(), "pack-disk-storage");
+    mBaseDirectory.mkdirs();
+    FileTree.deleteContents(mBaseDirectory);
+    mBaseDirectorySupplier = Suppliers.of(mBaseDirectory);
+  }
+
+  private PackFileDiskStorage createStorage(int version) {
+    return new PackFileDiskStorage(
+        mBaseDirectorySupplier,
+        DIRECTORY_NAME,
+        version,
+        MAX_SEGMENT_SIZE,
+        CallerThreadExecutor.getInstance(),
+        NoOpCacheErrorLogger.getInstance());
+  }
+
+  private static byte[] data(int value) {
+    byte[] data = new byte[DATA_SIZE];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (value + i);
+    }
+    return data;
+  }
+
+  private static void insert(DiskStorage storage, String resourceId, byte[] data)
+      throws IOException {
+    DiskStorage.Inserter inserter = storage.insert(resourceId, null);
+    inserter.writeData(WriterCallbacks.from(data), null);
+    inserter.commit(null);
+  }
+
+  private static byte[] read(DiskStorage storage, String resourceId) throws IOException {
+    BinaryResource resource = storage.getResource(resourceId, null);
+    return resource == null ? null : resource.read();
+  }
+
+  private File getSegmentFile(int version, int segmentId) {
+    return new File(
+        new File(new File(mBaseDirectory, DIRECTORY_NAME), "pk1." + version),
+        segmentId + PackFileDiskStorage.SEGMENT_FILE_EXTENSION);
+  }
+
+  @Test
+  public void testInsertAndGet() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    insert(storage, "k1", data(1));
+    insert(storage, "k2", data(2));
+
+    assertArrayEquals(data(1), read(storage, "k1"));
+    assertArrayEquals(data(2), read(storage, "k2"));
+    assertNull(read(storage, "k3"));
+    assertTrue(storage.contains("k1", null));
+    assertFalse(storage.contains("k3", null));
+    assertEquals(2, storage.getEntries().size());
+    assertEquals(DATA_SIZE, storage.getEntries().get(0).getSize());
+  }
+
+  @Test
+  public void testReload() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    insert(storage, "k1", data(1));
+    insert(storage, "k2", data(2));
+    long timestamp = storage.getEntries().get(0).getTimestamp();
+
+    storage = createStorage(1);
+    List<DiskStorage.Entry> entries = storage.getEntries();
+    assertEquals(2, entries.size());
+    assertEquals(timestamp, entries.get(0).getTimestamp());
+    assertArrayEquals(data(1), read(storage, "k1"));
+    assertArrayEquals(data(2), read(storage, "k2"));
+  }
+
+  @Test
+  public void testRemoveSurvivesReload() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    insert(storage, "k1", data(1));
+    insert(storage, "k2", data(2));
+    assertEquals(DATA_SIZE, storage.remove("k1"));
+    assertEquals(0, storage.remove("k1"));
+    assertNull(read(storage, "k1"));
+
+    storage = createStorage(1);
+    assertNull(read(storage, "k1"));
+    assertArrayEquals(data(2), read(storage, "k2"));
+    assertEquals(1, storage.getEntries().size());
+  }
+
+  @Test
+  public void testLastWriteWins() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    insert(storage, "k1", data(1));
+    insert(storage, "k1", data(10));
+    assertArrayEquals(data(10), read(storage, "k1"));
+    assertEquals(1, storage.getEntries().size());
+
+    storage = createStorage(1);
+    assertArrayEquals(data(10), read(storage, "k1"));
+    assertEquals(1, storage.getEntries().size());
+  }
+
+  @Test
+  public void testSegmentRollover() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    for (int i = 0; i < 5; i++) {
+      insert(storage, "k" + i, data(i));
+    }
+    assertEquals(3, storage.getSegmentCount());
+    assertTrue(getSegmentFile(1, 2).exists());
+    for (int i = 0; i < 5; i++) {
+      assertArrayEquals(data(i), read(storage, "k" + i));
+    }
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    for (int i = 0; i < 5; i++) {
+      insert(storage, "k" + i, data(i));
+    }
+    // half of the first segment is garbage now, its live record is moved to the active segment
+    storage.remove("k0");
+    assertFalse(getSegmentFile(1, 0).exists());
+    assertArrayEquals(data(1), read(storage, "k1"));
+
+    storage = createStorage(1);
+    assertEquals(4, storage.getEntries().size());
+    for (int i = 1; i < 5; i++) {
+      assertArrayEquals(data(i), read(storage, "k" + i));
+    }
+  }
+
+  @Test
+  public void testCompactionKeepsUnreadableRecords() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    for (int i = 0; i < 5; i++) {
+      insert(storage, "k" + i, data(i));
+    }
+    assertTrue(getSegmentFile(1, 0).delete());
+    storage.remove("k0");
+
+    // the record of k1 can't be moved, so it stays in the storage until it is removed
+    assertEquals(4, storage.getEntries().size());
+    assertEquals(3, storage.getSegmentCount());
+    assertEquals(DATA_SIZE, storage.remove("k1"));
+    assertEquals(2, storage.getSegmentCount());
+  }
+
+  @Test
+  public void testTruncatedRecordIsDiscarded() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    insert(storage, "k1", data(1));
+    FileOutputStream output = new FileOutputStream(getSegmentFile(1, 0), true);
+    try {
+      // a record interrupted in the middle of its header
+      output.write(new byte[] {1, 0, 0, 0});
+    } finally {
+      output.close();
+    }
+
+    storage = createStorage(1);
+    assertEquals(1, storage.getEntries().size());
+    insert(storage, "k2", data(2));
+
+    storage = createStorage(1);
+    assertArrayEquals(data(1), read(storage, "k1"));
+    assertArrayEquals(data(2), read(storage, "k2"));
+  }
+
+  @Test
+  public void testVersionChange() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    insert(storage, "k1", data(1));
+
+    storage = createStorage(2);
+    assertNull(read(storage, "k1"));
+    assertTrue(storage.getEntries().isEmpty());
+    assertFalse(getSegmentFile(1, 0).exists());
+  }
+
+  @Test
+  public void testClearAll() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    for (int i = 0; i < 3; i++) {
+      insert(storage, "k" + i, data(i));
+    }
+    storage.clearAll();
+    assertTrue(storage.getEntries().isEmpty());
+    assertEquals(0, storage.getSegmentCount());
+
+    insert(storage, "k1", data(1));
+    assertArrayEquals(data(1), read(storage, "k1"));
+    assertFalse(getSegmentFile(1, 0).exists());
+    assertTrue(getSegmentFile(1, 2).exists());
+  }
+
+  @Test
+  public void testStaleLocationAfterClearAll() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    insert(storage, "k1", data(1));
+    PackFileDiskStorage.Location location = storage.getLocation("k1", false);
+    storage.clearAll();
+    // same offset as the record of k1, in a new segment
+    insert(storage, "k2", data(2));
+
+    assertNull(storage.readLocation(location));
+    assertArrayEquals(data(2), read(storage, "k2"));
+  }
+
+  @Test
+  public void testPurgeUnexpectedResources() throws Exception {
+    PackFileDiskStorage storage = createStorage(1);
+    insert(storage, "k1", data(1));
+    File bogusFile = new File(getSegmentFile(1, 0).getParentFile(), "bogus");
+    assertTrue(bogusFile.createNewFile());
+
+    storage.purgeUnexpectedResources();
+    assertFalse(bogusFile.exists());
+    assertArrayEquals(data(1), read(storage, "k1"));
+  }
+
+  @Test
+  public void testDoesNotDeleteFilesOfOtherStorages() throws Exception {
+    File rootDirectory = new File(mBaseDirectory, DIRECTORY_NAME);
+    File otherDirectory = new File(rootDirectory, "v2.ols100.1");
+    assertTrue(otherDirectory.mkdirs());
+    File otherFile = new File(otherDirectory, "entry.cnt");
+    assertTrue(otherFile.createNewFile());
+
+    PackFileDiskStorage storage = createStorage(1);
+    insert(storage, "k1", data(1));
+    storage.purgeUnexpectedResources();
+    storage = createStorage(2);
+    insert(storage, "k1", data(1));
+    storage.clearAll();
+
+    assertTrue(otherFile.exists());
+    assertFalse(getSegmentFile(1, 0).getParentFile().exists());
+  }
+}
@@ -272,6 +272,24 @@ public class CountingLruMapTest {
     assertEquals(null, mCountingLruMap.getFirstKey());
   }
 
+  @Test
+  public void testGetFirstValues() {
+    assertTrue(mCountingLruMap.getFirstValues(2).isEmpty());
+
+    mCountingLruMap.put("key1", 110);
+    assertArrayEquals(new Integer[] {110}, mCountingLruMap.getFirstValues(2).toArray());
+
+    mCountingLruMap.put("key2", 120);
+    mCountingLruMap.put("key3", 130);
+    assertArrayEquals(new Integer[] {110, 120}, mCountingLruMap.getFirstValues(2).toArray());
+
+    mCountingLruMap.put("key1", 140);
+    assertArrayEquals(new Integer[] {120, 130}, mCountingLruMap.getFirstValues(2).toArray());
+    assertArrayEquals(
+        new Integer[] {120, 130, 140},
+        mCountingLruMap.getFirstValues(5).toArray());
+  }
+
   private void assertKeyOrder(String... expectedKeys) {
     assertArrayEquals(expectedKeys, mCountingLruMap.getKeys().toArray());
   }
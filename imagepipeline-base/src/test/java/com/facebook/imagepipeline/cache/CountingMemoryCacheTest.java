@@ -9,6 +9,9 @@
 
 package com.facebook.imagepipeline.cache;
 
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import android.graphics.Bitmap;
 import android.os.SystemClock;
 
@@ -285,10 +288,10 @@ public class CountingMemoryCacheTest {
     CloseableReference<Integer> cachedRef2a = mCache.get(KEY);
     CloseableReference<Integer> cachedRef2b = cachedRef2a.clone();
     CloseableReference<Integer> cachedRef3 = mCache.get(KEY);
-    CountingMemoryCache.Entry<String, Integer> entry1 = mCache.mCachedEntries.get(KEY);
+    CountingMemoryCache.Entry<String, Integer> entry1 = getCachedEntries(KEY).get(KEY);
 
     CloseableReference<Integer> cachedRef2 = mCache.cache(KEY, newReference(120));
-    CountingMemoryCache.Entry<String, Integer> entry2 = mCache.mCachedEntries.get(KEY);
+    CountingMemoryCache.Entry<String, Integer> entry2 = getCachedEntries(KEY).get(KEY);
     assertNotSame(entry1, entry2);
     assertOrphanWithCount(entry1, 3);
     assertSharedWithCount(KEY, 120, 1);
@@ -524,7 +527,7 @@ public class CountingMemoryCacheTest {
     CloseableReference<Integer> originalRef3 = newReference(130);
     CloseableReference<Integer> valueRef3 = mCache.cache(KEYS[3], originalRef3);
     originalRef3.close();
-    CountingMemoryCache.Entry<String, Integer> entry3 = mCache.mCachedEntries.get(KEYS[3]);
+    CountingMemoryCache.Entry<String, Integer> entry3 = getCachedEntries(KEYS[3]).get(KEYS[3]);
     CloseableReference<Integer> originalRef4 = newReference(150);
     CloseableReference<Integer> valueRef4 = mCache.cache(KEYS[4], originalRef4);
     originalRef4.close();
@@ -558,7 +561,7 @@ public class CountingMemoryCacheTest {
     CloseableReference<Integer> originalRef1 = newReference(110);
     CloseableReference<Integer> cachedRef1 = mCache.cache(KEYS[1], originalRef1);
     originalRef1.close();
-    CountingMemoryCache.Entry<String, Integer> entry1 = mCache.mCachedEntries.get(KEYS[1]);
+    CountingMemoryCache.Entry<String, Integer> entry1 = getCachedEntries(KEYS[1]).get(KEYS[1]);
     CloseableReference<Integer> originalRef2 = newReference(120);
     CloseableReference<Integer> cachedRef2 = mCache.cache(KEYS[2], originalRef2);
     originalRef2.close();
@@ -677,14 +680,214 @@ public class CountingMemoryCacheTest {
     inOrder.verify(mReleaser).release(105);
   }
 
+  @Test
+  public void testSegmentsShareTheConstraints() {
+    mCache = newSegmentedCache(4);
+    assertEquals(4, mCache.mSegments.length);
+
+    // the clients hold as many entries as allowed, whatever their segment
+    CloseableReference<Integer>[] cachedRefs = new CloseableReference[4];
+    for (int i = 0; i < 4; i++) {
+      cachedRefs[i] = mCache.cache(KEYS[i], newReference(100 + i));
+      assertNotNull(cachedRefs[i]);
+    }
+    assertNull(mCache.cache(KEYS[4], newReference(104)));
+    assertTotalSize(4, 406);
+
+    // only the allowed number of exclusively owned entries is kept
+    for (int i = 0; i < 4; i++) {
+      cachedRefs[i].close();
+    }
+    assertTotalSize(3, mCache.getEvictionQueueSizeInBytes());
+    assertExclusivelyOwnedSize(3, mCache.getEvictionQueueSizeInBytes());
+    verify(mReleaser, times(1)).release(anyInt());
+    int cachedCount = 0;
+    for (CountingMemoryCache<String, Integer>.Segment segment : mCache.mSegments) {
+      cachedCount += segment.mCachedEntries.getCount();
+    }
+    assertEquals(3, cachedCount);
+  }
+
+  @Test
+  public void testSegmentsConcurrentAccess() throws Exception {
+    mCache = newSegmentedCache(8);
+    final AtomicInteger releasedCount = new AtomicInteger();
+    final ResourceReleaser<Integer> releaser = new ResourceReleaser<Integer>() {
+      @Override
+      public void release(Integer value) {
+        releasedCount.incrementAndGet();
+      }
+    };
+    final AtomicInteger cachedCount = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int seed = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          for (int i = 0; i < 1000; i++) {
+            String key = KEYS[random.nextInt(KEYS.length)];
+            CloseableReference<Integer> ref = mCache.get(key);
+            if (ref == null) {
+              CloseableReference<Integer> originalRef = CloseableReference.of(100, releaser);
+              ref = mCache.cache(key, originalRef);
+              originalRef.close();
+              cachedCount.incrementAndGet();
+            }
+            CloseableReference.closeSafely(ref);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(0, mCache.getInUseCount());
+    assertTrue(mCache.getCount() <= CACHE_EVICTION_QUEUE_MAX_COUNT);
+    assertExclusivelyOwnedSize(mCache.getCount(), mCache.getCount() * 100);
+    assertEquals(cachedCount.get(), releasedCount.get() + mCache.getCount());
+    mCache.clear();
+    assertTotalSize(0, 0);
+    assertEquals(cachedCount.get(), releasedCount.get());
+  }
+
+  @Test
+  public void testAdmissionFilterResistsScans() {
+    // the admission window holds a single entry
+    mParams = new MemoryCacheParams(
+        CACHE_MAX_SIZE,
+        CACHE_MAX_COUNT,
+        CACHE_EVICTION_QUEUE_MAX_SIZE,
+        CACHE_EVICTION_QUEUE_MAX_COUNT,
+        CACHE_ENTRY_MAX_SIZE,
+        true,
+        0.1f);
+    when(mParamsSupplier.get()).thenReturn(mParams);
+    mCache = new CountingMemoryCache<>(
+        mValueDescriptor,
+        mCacheTrimStrategy,
+        mParamsSupplier,
+        mPlatformBitmapFactory,
+        false);
+
+    for (int i = 0; i < 3; i++) {
+      access(KEYS[0]);
+    }
+    // a scan of items used once does not flush the frequently used one
+    for (int i = 1; i < KEYS.length; i++) {
+      access(KEYS[i]);
+    }
+    assertExclusivelyOwned(KEYS[0], 100);
+    assertExclusivelyOwned(KEYS[KEYS.length - 1], 100);
+    assertTotalSize(3, 300);
+    assertExclusivelyOwnedSize(3, 300);
+    when(mParamsSupplier.get()).thenReturn(new MemoryCacheParams(
+        CACHE_MAX_SIZE,
+        CACHE_MAX_COUNT,
+        CACHE_EVICTION_QUEUE_MAX_SIZE,
+        CACHE_EVICTION_QUEUE_MAX_COUNT,
+        CACHE_ENTRY_MAX_SIZE));
+
+    // without the filter, the scan evicts it
+    mCache = newSegmentedCache(1);
+    for (int i = 0; i < 3; i++) {
+      access(KEYS[0]);
+    }
+    for (int i = 1; i < KEYS.length; i++) {
+      access(KEYS[i]);
+    }
+    assertNotCached(KEYS[0], 100);
+  }
+
+  @Test
+  public void testCostAwareEviction() {
+    // odd values are expensive to recreate
+    mCache = new CountingMemoryCache<>(
+        mValueDescriptor,
+        mCacheTrimStrategy,
+        mParamsSupplier,
+        mPlatformBitmapFactory,
+        false,
+        1,
+        new ValueCostDescriptor<Integer>() {
+          @Override
+          public long getRecreationCost(Integer value) {
+            return value % 2 == 0 ? 0 : 1000;
+          }
+        });
+    CloseableReference<Integer> originalRef1 = newReference(111);
+    mCache.cache(KEYS[1], originalRef1).close();
+    originalRef1.close();
+    CloseableReference<Integer> originalRef2 = newReference(120);
+    mCache.cache(KEYS[2], originalRef2).close();
+    originalRef2.close();
+    CloseableReference<Integer> originalRef3 = newReference(130);
+    mCache.cache(KEYS[3], originalRef3).close();
+    originalRef3.close();
+    assertExclusivelyOwnedSize(3, 361);
+
+    // the largest of the cheap items goes first, not the least recently used expensive one
+    CloseableReference<Integer> originalRef4 = newReference(104);
+    mCache.cache(KEYS[4], originalRef4).close();
+    originalRef4.close();
+    assertExclusivelyOwnedSize(3, 335);
+    assertExclusivelyOwned(KEYS[1], 111);
+    assertNotCached(KEYS[3], 130);
+    verify(mReleaser).release(130);
+
+    // then the largest of the remaining cheap items
+    CloseableReference<Integer> originalRef5 = newReference(100);
+    mCache.cache(KEYS[5], originalRef5).close();
+    originalRef5.close();
+    assertExclusivelyOwnedSize(3, 315);
+    assertExclusivelyOwned(KEYS[1], 111);
+    assertExclusivelyOwned(KEYS[4], 104);
+    assertNotCached(KEYS[2], 120);
+    verify(mReleaser).release(120);
+  }
+
+  private CountingMemoryCache<String, Integer> newSegmentedCache(int segmentCount) {
+    return new CountingMemoryCache<>(
+        mValueDescriptor,
+        mCacheTrimStrategy,
+        mParamsSupplier,
+        mPlatformBitmapFactory,
+        false,
+        segmentCount);
+  }
+
+  /** Looks the key up, and caches a new value of size 100 on a miss. */
+  private void access(String key) {
+    CloseableReference<Integer> ref = mCache.get(key);
+    if (ref == null) {
+      CloseableReference<Integer> originalRef = newReference(100);
+      ref = mCache.cache(key, originalRef);
+      originalRef.close();
+    }
+    CloseableReference.closeSafely(ref);
+  }
+
+  private CountingLruMap<String, CountingMemoryCache.Entry<String, Integer>> getCachedEntries(
+      String key) {
+    return mCache.getSegment(key).mCachedEntries;
+  }
+
+  private CountingLruMap<String, CountingMemoryCache.Entry<String, Integer>> getExclusiveEntries(
+      String key) {
+    return mCache.getSegment(key).mExclusiveEntries;
+  }
+
   private CloseableReference<Integer> newReference(int size) {
     return CloseableReference.of(size, mReleaser);
   }
 
   private void assertSharedWithCount(String key, Integer value, int count) {
-    assertTrue("key not found in the cache", mCache.mCachedEntries.contains(key));
-    assertFalse("key found in the exclusives", mCache.mExclusiveEntries.contains(key));
-    CountingMemoryCache.Entry<String, Integer> entry = mCache.mCachedEntries.get(key);
+    assertTrue("key not found in the cache", getCachedEntries(key).contains(key));
+    assertFalse("key found in the exclusives", getExclusiveEntries(key).contains(key));
+    CountingMemoryCache.Entry<String, Integer> entry = getCachedEntries(key).get(key);
     assertNotNull("entry not found in the cache", entry);
     assertEquals("key mismatch", key, entry.key);
     assertEquals("value mismatch", value, entry.valueRef.get());
@@ -693,9 +896,9 @@ public class CountingMemoryCacheTest {
   }
 
   private void assertExclusivelyOwned(String key, Integer value) {
-    assertTrue("key not found in the cache", mCache.mCachedEntries.contains(key));
-    assertTrue("key not found in the exclusives", mCache.mExclusiveEntries.contains(key));
-    CountingMemoryCache.Entry<String, Integer> entry = mCache.mCachedEntries.get(key);
+    assertTrue("key not found in the cache", getCachedEntries(key).contains(key));
+    assertTrue("key not found in the exclusives", getExclusiveEntries(key).contains(key));
+    CountingMemoryCache.Entry<String, Integer> entry = getCachedEntries(key).get(key);
     assertNotNull("entry not found in the cache", entry);
     assertEquals("key mismatch", key, entry.key);
     assertEquals("value mismatch", value, entry.valueRef.get());
@@ -704,13 +907,16 @@ public class CountingMemoryCacheTest {
   }
 
   private void assertNotCached(String key, Integer value) {
-    assertFalse("key found in the cache", mCache.mCachedEntries.contains(key));
-    assertFalse("key found in the exclusives", mCache.mExclusiveEntries.contains(key));
+    assertFalse("key found in the cache", getCachedEntries(key).contains(key));
+    assertFalse("key found in the exclusives", getExclusiveEntries(key).contains(key));
   }
 
   private void assertOrphanWithCount(CountingMemoryCache.Entry<String, Integer> entry, int count) {
-    assertNotSame("entry found in the exclusives", entry, mCache.mCachedEntries.get(entry.key));
-    assertNotSame("entry found in the cache", entry, mCache.mExclusiveEntries.get(entry.key));
+    assertNotSame(
+        "entry found in the exclusives",
+        entry,
+        getCachedEntries(entry.key).get(entry.key));
+    assertNotSame("entry found in the cache", entry, getExclusiveEntries(entry.key).get(entry.key));
     assertTrue("entry is not an orphan", entry.isOrphan);
     assertEquals("client count mismatch", count, entry.clientCount);
   }
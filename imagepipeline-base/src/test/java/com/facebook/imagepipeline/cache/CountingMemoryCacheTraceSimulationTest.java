@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.facebook.common.internal.Suppliers;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays access traces against the {@link CountingMemoryCache} to compare the hit ratios of the
+ * LRU policy and of the TinyLFU admission filter.
+ *
+ * <p>A recorded trace can be replayed by setting the {@code fresco.cacheTrace} system property to
+ * the path of a file with one access per line: the key and the size of the item in bytes,
+ * separated by a space. The cache size is taken from {@code fresco.cacheTraceSize}, 16 MB by
+ * default.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CountingMemoryCacheTraceSimulationTest {
+
+  private static final String TRACE_PROPERTY = "fresco.cacheTrace";
+  private static final String TRACE_SIZE_PROPERTY = "fresco.cacheTraceSize";
+  private static final int DEFAULT_TRACE_CACHE_SIZE = 16 * 1024 * 1024;
+
+  private static final int ITEM_SIZE = 100;
+  private static final int CACHE_ENTRIES = 100;
+
+  private static final ValueDescriptor<Integer> VALUE_DESCRIPTOR =
+      new ValueDescriptor<Integer>() {
+        @Override
+        public int getSizeInBytes(Integer value) {
+          return value;
+        }
+      };
+
+  private static final CountingMemoryCache.CacheTrimStrategy TRIM_STRATEGY =
+      new CountingMemoryCache.CacheTrimStrategy() {
+        @Override
+        public double getTrimRatio(MemoryTrimType trimType) {
+          return 1;
+        }
+      };
+
+  private static final ResourceReleaser<Integer> RELEASER = new ResourceReleaser<Integer>() {
+    @Override
+    public void release(Integer value) {
+    }
+  };
+
+  private static class Access {
+    final String key;
+    final int size;
+
+    Access(String key, int size) {
+      this.key = key;
+      this.size = size;
+    }
+  }
+
+  @Test
+  public void testAdmissionFilterImprovesScanHeavyTrace() {
+    List<Access> trace = createScanHeavyTrace();
+    double lruHitRatio = replay(trace, createParams(CACHE_ENTRIES * ITEM_SIZE, false));
+    double tinyLfuHitRatio = replay(trace, createParams(CACHE_ENTRIES * ITEM_SIZE, true));
+    System.out.println(String.format(
+        "scan-heavy trace: LRU hit ratio %.3f, TinyLFU hit ratio %.3f",
+        lruHitRatio,
+        tinyLfuHitRatio));
+    assertTrue(tinyLfuHitRatio > lruHitRatio);
+  }
+
+  @Test
+  public void testRecordedTrace() throws IOException {
+    String path = System.getProperty(TRACE_PROPERTY);
+    Assume.assumeTrue(path != null);
+    List<Access> trace = readTrace(path);
+    int cacheSize = Integer.getInteger(TRACE_SIZE_PROPERTY, DEFAULT_TRACE_CACHE_SIZE);
+    System.out.println(String.format(
+        "%s (%d accesses, %d bytes): LRU hit ratio %.3f, TinyLFU hit ratio %.3f",
+        path,
+        trace.size(),
+        cacheSize,
+        replay(trace, createParams(cacheSize, false)),
+        replay(trace, createParams(cacheSize, true))));
+  }
+
+  /**
+   * Looks every key of the trace up, and caches a new item on a miss, like the bitmap memory cache
+   * producer does.
+   */
+  private static double replay(List<Access> trace, MemoryCacheParams params) {
+    CountingMemoryCache<String, Integer> cache = new CountingMemoryCache<>(
+        VALUE_DESCRIPTOR,
+        TRIM_STRATEGY,
+        Suppliers.of(params),
+        null,
+        false);
+    int hits = 0;
+    for (Access access : trace) {
+      CloseableReference<Integer> ref = cache.get(access.key);
+      if (ref != null) {
+        hits++;
+      } else {
+        CloseableReference<Integer> originalRef = CloseableReference.of(access.size, RELEASER);
+        ref = cache.cache(access.key, originalRef);
+        originalRef.close();
+      }
+      CloseableReference.closeSafely(ref);
+    }
+    cache.clear();
+    return (double) hits / trace.size();
+  }
+
+  /**
+   * All the items are released once used, so the whole cache is the eviction queue.
+   */
+  private static MemoryCacheParams createParams(int cacheSize, boolean admissionFilterEnabled) {
+    return new MemoryCacheParams(
+        cacheSize,
+        Integer.MAX_VALUE,
+        cacheSize,
+        Integer.MAX_VALUE,
+        cacheSize,
+        admissionFilterEnabled,
+        MemoryCacheParams.DEFAULT_ADMISSION_WINDOW_RATIO);
+  }
+
+  /**
+   * A feed-like trace: items of a popular set are viewed over and over, in between scrolls through
+   * items that are only viewed once.
+   */
+  private static List<Access> createScanHeavyTrace() {
+    Random random = new Random(0);
+    List<Access> trace = new ArrayList<>();
+    int nextScanKey = 0;
+    for (int round = 0; round < 100; round++) {
+      for (int i = 0; i < 200; i++) {
+        // the lower keys of the popular set are the most popular
+        int key = (int) (CACHE_ENTRIES * Math.pow(random.nextDouble(), 3));
+        trace.add(new Access("popular" + key, ITEM_SIZE));
+      }
+      for (int i = 0; i < 2 * CACHE_ENTRIES; i++) {
+        trace.add(new Access("scan" + nextScanKey++, ITEM_SIZE));
+      }
+    }
+    return trace;
+  }
+
+  private static List<Access> readTrace(String path) throws IOException {
+    List<Access> trace = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(new FileReader(path));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length == 2) {
+          trace.add(new Access(fields[0], Integer.parseInt(fields[1])));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return trace;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link FrequencySketch}
+ */
+public class FrequencySketchTest {
+
+  private static final int CAPACITY = 64;
+
+  private FrequencySketch<String> mSketch;
+
+  @Before
+  public void setUp() {
+    mSketch = new FrequencySketch<>(CAPACITY);
+  }
+
+  @Test
+  public void testUnknownKey() {
+    assertEquals(0, mSketch.frequency("key"));
+  }
+
+  @Test
+  public void testIncrement() {
+    mSketch.increment("key");
+    mSketch.increment("key");
+    mSketch.increment("other");
+    assertEquals(2, mSketch.frequency("key"));
+    assertEquals(1, mSketch.frequency("other"));
+  }
+
+  @Test
+  public void testSaturation() {
+    for (int i = 0; i < 20; i++) {
+      mSketch.increment("key");
+    }
+    assertEquals(15, mSketch.frequency("key"));
+  }
+
+  @Test
+  public void testAging() {
+    for (int i = 0; i < 8; i++) {
+      mSketch.increment("key");
+    }
+    assertEquals(8, mSketch.frequency("key"));
+    // enough distinct keys to reach the sample size and halve the counters, which are at most 15
+    for (int i = 0; i < 10 * CAPACITY - 8; i++) {
+      mSketch.increment("key" + i);
+    }
+    assertTrue(mSketch.frequency("key") < 8);
+  }
+
+  @Test
+  public void testFewCollisions() {
+    for (int i = 0; i < CAPACITY; i++) {
+      mSketch.increment("key" + i);
+    }
+    int overestimated = 0;
+    for (int i = 0; i < CAPACITY; i++) {
+      if (mSketch.frequency("key" + i) > 1) {
+        overestimated++;
+      }
+    }
+    // with 4 counters per expected key, a key rarely collides with other keys on all its counters
+    assertTrue(overestimated < CAPACITY / 4);
+  }
+}
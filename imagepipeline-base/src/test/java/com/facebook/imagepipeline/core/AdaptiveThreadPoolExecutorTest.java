@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.facebook.common.time.Clock;
+import com.facebook.common.time.MonotonicClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AdaptiveThreadPoolExecutor}
+ */
+public class AdaptiveThreadPoolExecutorTest {
+
+  private static final int MAX_THREADS = 64;
+  private static final long TARGET_QUEUE_TIME_MS = 10;
+  private static final long ADJUSTMENT_INTERVAL_MS = 100;
+  private static final int NUM_CPUS = Runtime.getRuntime().availableProcessors();
+
+  private FakeClock mClock;
+  private AdaptiveThreadPoolExecutor mExecutor;
+
+  @Before
+  public void setUp() {
+    mClock = new FakeClock();
+    mExecutor = new AdaptiveThreadPoolExecutor(
+        1,
+        MAX_THREADS,
+        1,
+        TARGET_QUEUE_TIME_MS,
+        ADJUSTMENT_INTERVAL_MS,
+        Executors.defaultThreadFactory(),
+        mClock,
+        mClock);
+  }
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testGrowsWhenTasksWait() {
+    assertEquals(2, mExecutor.computePoolSize(1, TARGET_QUEUE_TIME_MS + 1, 0f));
+  }
+
+  @Test
+  public void testDoesNotGrowBeyondMax() {
+    assertEquals(
+        MAX_THREADS,
+        mExecutor.computePoolSize(MAX_THREADS, TARGET_QUEUE_TIME_MS + 1, 0f));
+  }
+
+  @Test
+  public void testDoesNotGrowWhenCoresAreSaturated() {
+    assertEquals(
+        NUM_CPUS,
+        mExecutor.computePoolSize(NUM_CPUS, TARGET_QUEUE_TIME_MS + 1, 1f));
+    assertEquals(
+        NUM_CPUS + 1,
+        mExecutor.computePoolSize(NUM_CPUS, TARGET_QUEUE_TIME_MS + 1, 0.1f));
+  }
+
+  @Test
+  public void testShrinksWhenTasksDoNotWait() {
+    assertEquals(2, mExecutor.computePoolSize(3, 0, 0f));
+    assertEquals(3, mExecutor.computePoolSize(3, TARGET_QUEUE_TIME_MS / 2, 0f));
+    assertEquals(1, mExecutor.computePoolSize(1, 0, 0f));
+  }
+
+  @Test
+  public void testAdjustsOncePerInterval() throws Exception {
+    mClock.mNow = ADJUSTMENT_INTERVAL_MS;
+    for (int i = 0; i < AdaptiveThreadPoolExecutor.MIN_TASKS_PER_WINDOW + 1; i++) {
+      mExecutor.execute(new SleepingTask());
+    }
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(2, mExecutor.getCorePoolSize());
+    assertEquals(2, mExecutor.getMaximumPoolSize());
+    assertEquals(1, mExecutor.getGrowCount());
+    assertEquals(0, mExecutor.getShrinkCount());
+    assertTrue(mExecutor.getAverageQueueTimeMs() > TARGET_QUEUE_TIME_MS);
+  }
+
+  private static class SleepingTask implements Runnable {
+    @Override
+    public void run() {
+      try {
+        Thread.sleep(2 * TARGET_QUEUE_TIME_MS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static class FakeClock implements MonotonicClock, Clock {
+    volatile long mNow;
+
+    @Override
+    public long now() {
+      return mNow;
+    }
+  }
+}
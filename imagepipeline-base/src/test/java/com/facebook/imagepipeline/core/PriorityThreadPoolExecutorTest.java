@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.facebook.imagepipeline.common.Priority;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link PriorityThreadPoolExecutor} and {@link TaskPriority}
+ */
+public class PriorityThreadPoolExecutorTest {
+
+  private PriorityThreadPoolExecutor mExecutor;
+  private CountDownLatch mBlockingLatch;
+  private List<String> mRunOrder;
+
+  @Before
+  public void setUp() throws Exception {
+    mExecutor = new PriorityThreadPoolExecutor(1, Executors.defaultThreadFactory());
+    mRunOrder = Collections.synchronizedList(new ArrayList<String>());
+    // keeps the only thread busy, so that the next tasks are queued
+    mBlockingLatch = new CountDownLatch(1);
+    final CountDownLatch startedLatch = new CountDownLatch(1);
+    mExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            startedLatch.countDown();
+            try {
+              mBlockingLatch.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    startedLatch.await();
+  }
+
+  @After
+  public void tearDown() {
+    mExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testRunsByPriority() throws Exception {
+    mExecutor.execute(new NamedTask("low1", Priority.LOW));
+    mExecutor.execute(new NamedTask("low2", Priority.LOW));
+    mExecutor.execute(new NamedTask("high", Priority.HIGH));
+    mExecutor.execute(new NamedTask("default", null));
+    runQueuedTasks();
+    assertEquals(Arrays.asList("high", "default", "low1", "low2"), mRunOrder);
+  }
+
+  @Test
+  public void testReordersOnPriorityChange() throws Exception {
+    TaskPriority prefetch = new TaskPriority(Priority.LOW);
+    TaskPriority other = new TaskPriority(Priority.MEDIUM);
+    prefetch.wrap(mExecutor).execute(new NamedTask("prefetch", null));
+    other.wrap(mExecutor).execute(new NamedTask("other", null));
+    prefetch.setPriority(Priority.HIGH);
+    runQueuedTasks();
+    assertEquals(Arrays.asList("prefetch", "other"), mRunOrder);
+  }
+
+  @Test
+  public void testRunsTasksOnceAfterSeveralPriorityChanges() throws Exception {
+    TaskPriority prefetch = new TaskPriority(Priority.LOW);
+    TaskPriority other = new TaskPriority(Priority.MEDIUM);
+    prefetch.wrap(mExecutor).execute(new NamedTask("prefetch", null));
+    other.wrap(mExecutor).execute(new NamedTask("other", null));
+    prefetch.setPriority(Priority.HIGH);
+    prefetch.setPriority(Priority.LOW);
+    prefetch.setPriority(Priority.HIGH);
+    other.setPriority(Priority.LOW);
+    runQueuedTasks();
+    assertEquals(Arrays.asList("prefetch", "other"), mRunOrder);
+    assertEquals(3, mExecutor.getCompletedTaskCount());
+  }
+
+  @Test
+  public void testWrappedExecutorRunsOnOtherExecutors() {
+    TaskPriority taskPriority = new TaskPriority(Priority.HIGH);
+    Executor executor = taskPriority.wrap(
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            command.run();
+          }
+        });
+    executor.execute(new NamedTask("task", null));
+    taskPriority.setPriority(Priority.LOW);
+    assertEquals(Arrays.asList("task"), mRunOrder);
+  }
+
+  @Test
+  public void testDropsCancelledTasks() throws Exception {
+    TaskPriority cancelled = new TaskPriority(Priority.HIGH);
+    cancelled.wrap(mExecutor).execute(new NamedTask("cancelled", null));
+    mExecutor.execute(new NamedTask("other", null));
+    assertTrue(cancelled.cancel());
+    assertFalse(cancelled.cancel());
+    runQueuedTasks();
+    assertEquals(Arrays.asList("other"), mRunOrder);
+    assertEquals(2, mExecutor.getCompletedTaskCount());
+  }
+
+  @Test
+  public void testCancelledTasksDoNotRunOnOtherExecutors() {
+    final List<Runnable> queue = new ArrayList<>();
+    TaskPriority taskPriority = new TaskPriority(Priority.HIGH);
+    taskPriority.wrap(
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            queue.add(command);
+          }
+        }).execute(new NamedTask("task", null));
+    assertTrue(taskPriority.cancel());
+    queue.get(0).run();
+    assertEquals(0, mRunOrder.size());
+  }
+
+  @Test
+  public void testIdleThreadsStealWork() throws Exception {
+    PriorityThreadPoolExecutor thief =
+        new PriorityThreadPoolExecutor(1, Executors.defaultThreadFactory());
+    try {
+      thief.stealWorkFrom(mExecutor);
+      // starts the thread of the thief, which then waits for tasks
+      final CountDownLatch thiefStartedLatch = new CountDownLatch(1);
+      thief.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              thiefStartedLatch.countDown();
+            }
+          });
+      thiefStartedLatch.await();
+      final CountDownLatch stolenLatch = new CountDownLatch(1);
+      mExecutor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              stolenLatch.countDown();
+            }
+          });
+      // the only thread of mExecutor is still blocked
+      assertTrue(stolenLatch.await(5, TimeUnit.SECONDS));
+    } finally {
+      thief.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testStolenTasksAreAccountedForByTheirExecutor() throws Exception {
+    final AtomicInteger victimTaskCount = new AtomicInteger();
+    final CountDownLatch victimTaskEndLatch = new CountDownLatch(1);
+    final CountDownLatch victimBlockingLatch = new CountDownLatch(1);
+    final AtomicInteger thiefTaskCount = new AtomicInteger();
+    PriorityThreadPoolExecutor victim =
+        new PriorityThreadPoolExecutor(1, Executors.defaultThreadFactory()) {
+          @Override
+          protected void onTaskStart(long queueTimeMs) {
+            victimTaskCount.incrementAndGet();
+          }
+
+          @Override
+          protected void onTaskEnd() {
+            victimTaskEndLatch.countDown();
+          }
+        };
+    PriorityThreadPoolExecutor thief =
+        new PriorityThreadPoolExecutor(1, Executors.defaultThreadFactory()) {
+          @Override
+          protected void onTaskStart(long queueTimeMs) {
+            thiefTaskCount.incrementAndGet();
+          }
+        };
+    try {
+      thief.stealWorkFrom(victim);
+      final CountDownLatch thiefStartedLatch = new CountDownLatch(1);
+      thief.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              thiefStartedLatch.countDown();
+            }
+          });
+      thiefStartedLatch.await();
+      final CountDownLatch victimStartedLatch = new CountDownLatch(1);
+      victim.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              victimStartedLatch.countDown();
+              try {
+                victimBlockingLatch.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            }
+          });
+      victimStartedLatch.await();
+      victim.execute(new NamedTask("stolen", null));
+
+      // the only thread of the victim is still blocked
+      assertTrue(victimTaskEndLatch.await(5, TimeUnit.SECONDS));
+      assertEquals(Arrays.asList("stolen"), mRunOrder);
+      assertEquals(2, victimTaskCount.get());
+      assertEquals(1, thiefTaskCount.get());
+    } finally {
+      victimBlockingLatch.countDown();
+      victim.shutdownNow();
+      thief.shutdownNow();
+    }
+  }
+
+  private void runQueuedTasks() throws InterruptedException {
+    mBlockingLatch.countDown();
+    mExecutor.shutdown();
+    assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  private class NamedTask implements PrioritizedRunnable {
+    private final String mName;
+    private final Priority mPriority;
+
+    NamedTask(String name, Priority priority) {
+      mName = name;
+      mPriority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+      return mPriority;
+    }
+
+    @Override
+    public void run() {
+      mRunOrder.add(mName);
+    }
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.bitmaps;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.references.CloseableReference;
+
+/**
+ * Downscales bitmaps in Java by area averaging: each pixel of the result is the average of the
+ * source pixels it covers, weighted by how much of them it covers. Unlike the power of two
+ * sampling of {@link android.graphics.BitmapFactory.Options#inSampleSize}, this gives any size,
+ * and unlike bilinear filtering it doesn't skip source pixels when the ratio is small.
+ *
+ * <p>The source is read and the result written one row at a time, so the work memory only grows
+ * with the width of the images. It is kept in a pool and reused, so that downscaling doesn't
+ * allocate anything but the resulting bitmap once the pool is warm. The inner loops go through
+ * flat arrays with precomputed indices and weights and no branches, which leaves the JIT free to
+ * unroll and vectorize them.
+ *
+ * <p>Colors are averaged premultiplied by their alpha, so that transparent pixels don't bleed into
+ * the result.
+ */
+@ThreadSafe
+public class AreaAveragingDownscaler {
+
+  // A, R, G, B
+  private static final int CHANNELS = 4;
+
+  private final PlatformBitmapFactory mPlatformBitmapFactory;
+  private final int mMaxPooledBuffers;
+
+  @GuardedBy("this")
+  private final ArrayDeque<Buffers> mBufferPool = new ArrayDeque<>();
+
+  public AreaAveragingDownscaler(PlatformBitmapFactory platformBitmapFactory) {
+    this(platformBitmapFactory, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param maxPooledBuffers how many sets of work buffers are kept, at most one per thread that
+   * downscales at the same time is useful
+   */
+  public AreaAveragingDownscaler(
+      PlatformBitmapFactory platformBitmapFactory,
+      int maxPooledBuffers) {
+    mPlatformBitmapFactory = platformBitmapFactory;
+    mMaxPooledBuffers = maxPooledBuffers;
+  }
+
+  /**
+   * Creates a downscaled copy of a bitmap.
+   *
+   * @param source the bitmap to downscale
+   * @param width the width of the result, at most that of the source
+   * @param height the height of the result, at most that of the source
+   * @return a reference to the result, of the same config as the source, allocated through the
+   * {@link PlatformBitmapFactory}
+   * @throws com.facebook.imagepipeline.common.TooManyBitmapsException if the result can't be
+   * allocated
+   */
+  public CloseableReference<Bitmap> downscale(final Bitmap source, int width, int height) {
+    // keeps e.g. RGB_565 images at 2 bytes per pixel, the pixels are converted when written
+    final Bitmap.Config config =
+        source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+    CloseableReference<Bitmap> resultRef =
+        mPlatformBitmapFactory.createBitmap(width, height, config);
+    final Bitmap result = resultRef.get();
+    result.setHasAlpha(source.hasAlpha());
+    try {
+      downscale(
+          new RowReader() {
+            @Override
+            public void readRow(int y, int[] row, int length) {
+              source.getPixels(row, 0, length, 0, y, length, 1);
+            }
+          },
+          source.getWidth(),
+          source.getHeight(),
+          new RowWriter() {
+            @Override
+            public void writeRow(int y, int[] row, int length) {
+              result.setPixels(row, 0, length, 0, y, length, 1);
+            }
+          },
+          width,
+          height);
+    } catch (RuntimeException e) {
+      resultRef.close();
+      throw e;
+    }
+    return resultRef;
+  }
+
+  /**
+   * Downscales ARGB pixels held in arrays, row after row.
+   */
+  @VisibleForTesting
+  void downscale(
+      final int[] source,
+      int sourceWidth,
+      int sourceHeight,
+      final int[] destination,
+      int width,
+      int height) {
+    downscale(
+        new RowReader() {
+          @Override
+          public void readRow(int y, int[] row, int length) {
+            System.arraycopy(source, y * length, row, 0, length);
+          }
+        },
+        sourceWidth,
+        sourceHeight,
+        new RowWriter() {
+          @Override
+          public void writeRow(int y, int[] row, int length) {
+            System.arraycopy(row, 0, destination, y * length, length);
+          }
+        },
+        width,
+        height);
+  }
+
+  private void downscale(
+      RowReader reader,
+      int sourceWidth,
+      int sourceHeight,
+      RowWriter writer,
+      int width,
+      int height) {
+    Preconditions.checkArgument(width > 0 && width <= sourceWidth);
+    Preconditions.checkArgument(height > 0 && height <= sourceHeight);
+    final Buffers buffers = acquireBuffers(sourceWidth, width);
+    try {
+      computeColumns(buffers, sourceWidth, width);
+      final long[] rowSums = buffers.mRowSums;
+      long[] current = buffers.mCurrentSums;
+      long[] next = buffers.mNextSums;
+      final int sumsLength = (width + 1) * CHANNELS;
+      Arrays.fill(current, 0, sumsLength, 0);
+      Arrays.fill(next, 0, sumsLength, 0);
+
+      // A source row spans the destination rows [y * height, (y + 1) * height) in units of
+      // 1 / sourceHeight of a destination row, so it contributes to at most two of them.
+      int y = 0;
+      int destinationY = 0;
+      int rowStart = 0;
+      int rowBoundary = sourceHeight;
+      while (y < sourceHeight) {
+        reader.readRow(y, buffers.mSourceRow, sourceWidth);
+        sumRow(buffers, sourceWidth, width);
+        final int rowEnd = rowStart + height;
+        final long weight;
+        final long nextWeight;
+        if (rowEnd <= rowBoundary) {
+          weight = height;
+          nextWeight = 0;
+        } else {
+          weight = rowBoundary - rowStart;
+          nextWeight = rowEnd - rowBoundary;
+        }
+        for (int i = 0; i < sumsLength; i++) {
+          final long sum = rowSums[i];
+          current[i] += sum * weight;
+          next[i] += sum * nextWeight;
+        }
+        if (rowEnd >= rowBoundary) {
+          writeRow(current, buffers.mDestinationRow, width, (long) sourceWidth * sourceHeight);
+          writer.writeRow(destinationY, buffers.mDestinationRow, width);
+          long[] done = current;
+          current = next;
+          next = done;
+          Arrays.fill(next, 0, sumsLength, 0);
+          destinationY++;
+          rowBoundary += sourceHeight;
+        }
+        rowStart = rowEnd;
+        y++;
+      }
+    } finally {
+      releaseBuffers(buffers);
+    }
+  }
+
+  /**
+   * Computes, for each source column, the first destination column it contributes to, and with
+   * which weight in units of 1 / sourceWidth of a destination column. The rest of its weight, out
+   * of width, goes to the next destination column.
+   */
+  private static void computeColumns(Buffers buffers, int sourceWidth, int width) {
+    final int[] columns = buffers.mColumns;
+    final int[] weights = buffers.mColumnWeights;
+    int start = 0;
+    int column = 0;
+    int boundary = sourceWidth;
+    for (int x = 0; x < sourceWidth; x++) {
+      final int end = start + width;
+      columns[x] = column * CHANNELS;
+      weights[x] = end <= boundary ? width : boundary - start;
+      if (end >= boundary) {
+        column++;
+        boundary += sourceWidth;
+      }
+      start = end;
+    }
+  }
+
+  /**
+   * Sums the premultiplied channels of the source row into the destination columns.
+   */
+  private static void sumRow(Buffers buffers, int sourceWidth, int width) {
+    final int[] row = buffers.mSourceRow;
+    final int[] columns = buffers.mColumns;
+    final int[] weights = buffers.mColumnWeights;
+    final long[] sums = buffers.mRowSums;
+    Arrays.fill(sums, 0, (width + 1) * CHANNELS, 0);
+    for (int x = 0; x < sourceWidth; x++) {
+      final int color = row[x];
+      final int alpha = color >>> 24;
+      final int red = ((color >> 16) & 0xff) * alpha;
+      final int green = ((color >> 8) & 0xff) * alpha;
+      final int blue = (color & 0xff) * alpha;
+      final int index = columns[x];
+      final int weight = weights[x];
+      final int nextWeight = width - weight;
+      sums[index] += (long) alpha * weight;
+      sums[index + 1] += (long) red * weight;
+      sums[index + 2] += (long) green * weight;
+      sums[index + 3] += (long) blue * weight;
+      sums[index + 4] += (long) alpha * nextWeight;
+      sums[index + 5] += (long) red * nextWeight;
+      sums[index + 6] += (long) green * nextWeight;
+      sums[index + 7] += (long) blue * nextWeight;
+    }
+  }
+
+  /**
+   * Turns the sums of a destination row back into unpremultiplied colors.
+   */
+  private static void writeRow(long[] sums, int[] row, int width, long totalWeight) {
+    for (int i = 0; i < width; i++) {
+      final int index = i * CHANNELS;
+      final long alphaSum = sums[index];
+      if (alphaSum == 0) {
+        row[i] = 0;
+        continue;
+      }
+      final long halfAlphaSum = alphaSum / 2;
+      final int alpha = (int) ((alphaSum + totalWeight / 2) / totalWeight);
+      final int red = (int) ((sums[index + 1] + halfAlphaSum) / alphaSum);
+      final int green = (int) ((sums[index + 2] + halfAlphaSum) / alphaSum);
+      final int blue = (int) ((sums[index + 3] + halfAlphaSum) / alphaSum);
+      row[i] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+  }
+
+  private Buffers acquireBuffers(int sourceWidth, int width) {
+    Buffers buffers;
+    synchronized (this) {
+      buffers = mBufferPool.pollFirst();
+    }
+    if (buffers == null) {
+      buffers = new Buffers();
+    }
+    buffers.ensureCapacity(sourceWidth, width);
+    return buffers;
+  }
+
+  private void releaseBuffers(Buffers buffers) {
+    synchronized (this) {
+      if (mBufferPool.size() < mMaxPooledBuffers) {
+        mBufferPool.addFirst(buffers);
+      }
+    }
+  }
+
+  /**
+   * Work memory of one downscale, for a source and a destination width.
+   */
+  private static class Buffers {
+    int[] mSourceRow = new int[0];
+    int[] mColumns = new int[0];
+    int[] mColumnWeights = new int[0];
+    int[] mDestinationRow = new int[0];
+    // one more destination column, so that the last source column can always add to the next one
+    long[] mRowSums = new long[0];
+    long[] mCurrentSums = new long[0];
+    long[] mNextSums = new long[0];
+
+    void ensureCapacity(int sourceWidth, int width) {
+      if (mSourceRow.length < sourceWidth) {
+        mSourceRow = new int[sourceWidth];
+        mColumns = new int[sourceWidth];
+        mColumnWeights = new int[sourceWidth];
+      }
+      if (mDestinationRow.length < width) {
+        mDestinationRow = new int[width];
+        mRowSums = new long[(width + 1) * CHANNELS];
+        mCurrentSums = new long[(width + 1) * CHANNELS];
+        mNextSums = new long[(width + 1) * CHANNELS];
+      }
+    }
+  }
+
+  private interface RowReader {
+    void readRow(int y, int[] row, int length);
+  }
+
+  private interface RowWriter {
+    void writeRow(int y, int[] row, int length);
+  }
+}
@@ -9,6 +9,8 @@
 
 package com.facebook.imagepipeline.cache;
 
+import javax.annotation.Nullable;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -18,13 +20,17 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
+import com.facebook.binaryresource.MappedFileBinaryResource;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.WriterCallback;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.logging.FLog;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.MappedPooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteStreams;
@@ -45,6 +51,7 @@ public class BufferedDiskCache {
   private final Executor mWriteExecutor;
   private final StagingArea mStagingArea;
   private final ImageCacheStatsTracker mImageCacheStatsTracker;
+  private final int mMappedReadThresholdBytes;
 
   public BufferedDiskCache(
       FileCache fileCache,
@@ -53,12 +60,35 @@ public class BufferedDiskCache {
       Executor readExecutor,
       Executor writeExecutor,
       ImageCacheStatsTracker imageCacheStatsTracker) {
+    this(
+        fileCache,
+        pooledByteBufferFactory,
+        pooledByteStreams,
+        readExecutor,
+        writeExecutor,
+        imageCacheStatsTracker,
+        0);
+  }
+
+  /**
+   * @param mappedReadThresholdBytes if positive, cache files of at least this size are mapped into
+   * memory instead of being copied into a pooled buffer
+   */
+  public BufferedDiskCache(
+      FileCache fileCache,
+      PooledByteBufferFactory pooledByteBufferFactory,
+      PooledByteStreams pooledByteStreams,
+      Executor readExecutor,
+      Executor writeExecutor,
+      ImageCacheStatsTracker imageCacheStatsTracker,
+      int mappedReadThresholdBytes) {
     mFileCache = fileCache;
     mPooledByteBufferFactory = pooledByteBufferFactory;
     mPooledByteStreams = pooledByteStreams;
     mReadExecutor = readExecutor;
     mWriteExecutor = writeExecutor;
     mImageCacheStatsTracker = imageCacheStatsTracker;
+    mMappedReadThresholdBytes = mappedReadThresholdBytes;
     mStagingArea = StagingArea.getInstance();
   }
 
@@ -131,11 +161,26 @@ public class BufferedDiskCache {
    *   returned task never rethrows any exception
    */
   public Task<EncodedImage> get(CacheKey key, AtomicBoolean isCancelled) {
+    return get(key, isCancelled, null);
+  }
+
+  /**
+   * Same as {@link #get(CacheKey, AtomicBoolean)}, with the disk read scheduled with the given
+   * priority.
+   * @param taskPriority the priority of the disk read, null for the default priority
+   */
+  public Task<EncodedImage> get(
+      CacheKey key,
+      AtomicBoolean isCancelled,
+      @Nullable TaskPriority taskPriority) {
     final EncodedImage pinnedImage = mStagingArea.get(key);
     if (pinnedImage != null) {
       return foundPinnedImage(key, pinnedImage);
     }
-    return getAsync(key, isCancelled);
+    return getAsync(
+        key,
+        isCancelled,
+        taskPriority == null ? mReadExecutor : taskPriority.wrap(mReadExecutor));
   }
 
   /**
@@ -162,7 +207,10 @@ public class BufferedDiskCache {
     }
   }
 
-  private Task<EncodedImage> getAsync(final CacheKey key, final AtomicBoolean isCancelled) {
+  private Task<EncodedImage> getAsync(
+      final CacheKey key,
+      final AtomicBoolean isCancelled,
+      Executor readExecutor) {
     try {
       return Task.call(
           new Callable<EncodedImage>() {
@@ -206,7 +254,7 @@ public class BufferedDiskCache {
               }
             }
           },
-          mReadExecutor);
+          readExecutor);
     } catch (Exception exception) {
       // Log failure
       // TODO: 3697790
@@ -336,11 +384,20 @@ public class BufferedDiskCache {
       }
 
       PooledByteBuffer byteBuffer;
-      final InputStream is = diskCacheResource.openStream();
-      try {
-        byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, (int) diskCacheResource.size());
-      } finally {
-        is.close();
+      final int size = (int) diskCacheResource.size();
+      if (mMappedReadThresholdBytes > 0 &&
+          size >= mMappedReadThresholdBytes &&
+          diskCacheResource instanceof FileBinaryResource) {
+        // the decoders read the file in place, no copy needed
+        byteBuffer = new MappedPooledByteBuffer(
+            MappedFileBinaryResource.map(((FileBinaryResource) diskCacheResource).getFile()));
+      } else {
+        final InputStream is = diskCacheResource.openStream();
+        try {
+          byteBuffer = mPooledByteBufferFactory.newByteBuffer(is, size);
+        } finally {
+          is.close();
+        }
       }
 
       FLog.v(TAG, "Successful read from disk cache for %s", key.getUriString());
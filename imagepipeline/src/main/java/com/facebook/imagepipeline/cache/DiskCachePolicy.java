@@ -9,8 +9,11 @@
 
 package com.facebook.imagepipeline.cache;
 
+import javax.annotation.Nullable;
+
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -27,11 +30,13 @@ public interface DiskCachePolicy {
   /**
    * Creates and starts the task to carry out a disk cache read, using whichever caches and keys are
    * appropriate for this policy.
+   * @param taskPriority the priority of the disk reads, null for the default priority
    */
   Task<EncodedImage> createAndStartCacheReadTask(
       ImageRequest imageRequest,
       Object callerContext,
-      AtomicBoolean isCancelled);
+      AtomicBoolean isCancelled,
+      @Nullable TaskPriority taskPriority);
 
   /**
    * Writes the new image data to whichever cache and with whichever key is appropriate for this
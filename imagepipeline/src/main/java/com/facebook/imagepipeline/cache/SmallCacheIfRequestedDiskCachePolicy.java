@@ -9,9 +9,12 @@
 
 package com.facebook.imagepipeline.cache;
 
+import javax.annotation.Nullable;
+
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.facebook.cache.common.CacheKey;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -40,12 +43,13 @@ public class SmallCacheIfRequestedDiskCachePolicy
   public Task<EncodedImage> createAndStartCacheReadTask(
       ImageRequest imageRequest,
       Object callerContext,
-      AtomicBoolean isCancelled) {
+      AtomicBoolean isCancelled,
+      @Nullable TaskPriority taskPriority) {
     final CacheKey cacheKey = mCacheKeyFactory.getEncodedCacheKey(imageRequest, callerContext);
     if (imageRequest.getCacheChoice() == ImageRequest.CacheChoice.SMALL) {
-      return mSmallImageBufferedDiskCache.get(cacheKey, isCancelled);
+      return mSmallImageBufferedDiskCache.get(cacheKey, isCancelled, taskPriority);
     } else {
-      return mDefaultBufferedDiskCache.get(cacheKey, isCancelled);
+      return mDefaultBufferedDiskCache.get(cacheKey, isCancelled, taskPriority);
     }
   }
 
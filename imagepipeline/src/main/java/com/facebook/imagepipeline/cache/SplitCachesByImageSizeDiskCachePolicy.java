@@ -9,10 +9,13 @@
 
 package com.facebook.imagepipeline.cache;
 
+import javax.annotation.Nullable;
+
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.facebook.cache.common.CacheKey;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -45,7 +48,8 @@ public class SplitCachesByImageSizeDiskCachePolicy implements DiskCachePolicy {
   public Task<EncodedImage> createAndStartCacheReadTask(
       ImageRequest imageRequest,
       Object callerContext,
-      final AtomicBoolean isCancelled) {
+      final AtomicBoolean isCancelled,
+      @Nullable final TaskPriority taskPriority) {
     final CacheKey cacheKey = mCacheKeyFactory.getEncodedCacheKey(imageRequest, callerContext);
     final boolean alreadyInSmall = mSmallImageBufferedDiskCache.containsSync(cacheKey);
     final boolean alreadyInMain = mDefaultBufferedDiskCache.containsSync(cacheKey);
@@ -58,7 +62,7 @@ public class SplitCachesByImageSizeDiskCachePolicy implements DiskCachePolicy {
       firstCache = mDefaultBufferedDiskCache;
       secondCache = mSmallImageBufferedDiskCache;
     }
-    return firstCache.get(cacheKey, isCancelled)
+    return firstCache.get(cacheKey, isCancelled, taskPriority)
         .continueWithTask(
             new Continuation<EncodedImage, Task<EncodedImage>>() {
               @Override
@@ -66,7 +70,7 @@ public class SplitCachesByImageSizeDiskCachePolicy implements DiskCachePolicy {
                 if (isTaskCancelled(task) || (!task.isFaulted() && task.getResult() != null)) {
                   return task;
                 }
-                return secondCache.get(cacheKey, isCancelled);
+                return secondCache.get(cacheKey, isCancelled, taskPriority);
               }
             });
   }
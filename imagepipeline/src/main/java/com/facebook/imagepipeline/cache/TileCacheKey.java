@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.util.Locale;
+
+import android.net.Uri;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.util.HashCodeUtil;
+
+/**
+ * Cache key for one tile of an image in the bitmap memory cache, see
+ * {@link com.facebook.imagepipeline.request.TiledImageRequest}.
+ */
+@Immutable
+public class TileCacheKey implements CacheKey {
+
+  private final CacheKey mImageCacheKey;
+  private final int mLevel;
+  private final int mColumn;
+  private final int mRow;
+  private final int mHash;
+
+  /**
+   * @param imageCacheKey the key of the encoded image the tile is decoded from
+   * @param level the level of detail of the tile
+   * @param column the column of the tile in the grid of its level
+   * @param row the row of the tile in the grid of its level
+   */
+  public TileCacheKey(CacheKey imageCacheKey, int level, int column, int row) {
+    mImageCacheKey = Preconditions.checkNotNull(imageCacheKey);
+    mLevel = level;
+    mColumn = column;
+    mRow = row;
+    mHash = HashCodeUtil.hashCode(imageCacheKey.hashCode(), level, column, row);
+  }
+
+  public CacheKey getImageCacheKey() {
+    return mImageCacheKey;
+  }
+
+  public int getLevel() {
+    return mLevel;
+  }
+
+  public int getColumn() {
+    return mColumn;
+  }
+
+  public int getRow() {
+    return mRow;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TileCacheKey)) {
+      return false;
+    }
+    TileCacheKey otherKey = (TileCacheKey) o;
+    return mHash == otherKey.mHash &&
+        mLevel == otherKey.mLevel &&
+        mColumn == otherKey.mColumn &&
+        mRow == otherKey.mRow &&
+        mImageCacheKey.equals(otherKey.mImageCacheKey);
+  }
+
+  @Override
+  public int hashCode() {
+    return mHash;
+  }
+
+  @Override
+  public boolean containsUri(Uri uri) {
+    return mImageCacheKey.containsUri(uri);
+  }
+
+  @Override
+  public String getUriString() {
+    return mImageCacheKey.getUriString();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        (Locale) null,
+        "%s_tile_%d_%d_%d",
+        mImageCacheKey,
+        mLevel,
+        mColumn,
+        mRow);
+  }
+}
@@ -9,18 +9,23 @@
 
 package com.facebook.imagepipeline.core;
 
+import java.io.File;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
 import com.facebook.cache.disk.DiskCacheConfig;
+import com.facebook.cache.disk.DiskCacheJournal;
 import com.facebook.cache.disk.DiskStorage;
 import com.facebook.cache.disk.DiskStorageCache;
 import com.facebook.cache.disk.FileCache;
+import com.facebook.common.internal.Supplier;
 
 /**
  * Factory for the default implementation of the FileCache.
  */
 public class DiskStorageCacheFactory implements FileCacheFactory {
+  private static final String JOURNAL_FILE_SUFFIX = ".journal";
+
   private DiskStorageFactory mDiskStorageFactory;
 
   public DiskStorageCacheFactory(DiskStorageFactory diskStorageFactory) {
@@ -42,8 +47,18 @@ public class DiskStorageCacheFactory implements FileCacheFactory {
         diskCacheConfig.getLowDiskSpaceSizeLimit(),
         diskCacheConfig.getDefaultSizeLimit());
 
+    DiskCacheJournal journal = null;
+    if (diskCacheConfig.getJournalEnabled()) {
+      journal = new DiskCacheJournal(
+          getJournalFileSupplier(diskCacheConfig),
+          diskCacheConfig.getVersion(),
+          executorForBackgroundInit,
+          diskCacheConfig.getCacheErrorLogger());
+    }
+
     return new DiskStorageCache(
         diskStorage,
+        journal,
         diskCacheConfig.getEntryEvictionComparatorSupplier(),
         params,
         diskCacheConfig.getCacheEventListener(),
@@ -54,6 +69,21 @@ public class DiskStorageCacheFactory implements FileCacheFactory {
         diskCacheConfig.getIndexPopulateAtStartupEnabled());
   }
 
+  /**
+   * The journal lives next to the cache directory rather than inside it, so that it is not
+   * removed as an unexpected file by the storage.
+   */
+  private static Supplier<File> getJournalFileSupplier(final DiskCacheConfig diskCacheConfig) {
+    return new Supplier<File>() {
+      @Override
+      public File get() {
+        return new File(
+            diskCacheConfig.getBaseDirectoryPathSupplier().get(),
+            diskCacheConfig.getBaseDirectoryName() + JOURNAL_FILE_SUFFIX);
+      }
+    };
+  }
+
   @Override
   public FileCache get(DiskCacheConfig diskCacheConfig) {
     return buildDiskStorageCache(diskCacheConfig, mDiskStorageFactory.get(diskCacheConfig));
@@ -90,6 +90,7 @@ public class ImagePipelineConfig {
   private final Set<RequestListener> mRequestListeners;
   private final boolean mResizeAndRotateEnabledForNetwork;
   private final DiskCacheConfig mSmallImageDiskCacheConfig;
+  private final FileCacheFactory mSmallImageFileCacheFactory;
   @Nullable private final ImageDecoderConfig mImageDecoderConfig;
   private final ImagePipelineExperiments mImagePipelineExperiments;
 
@@ -166,6 +167,15 @@ public class ImagePipelineConfig {
         builder.mSmallImageDiskCacheConfig == null ?
             mMainDiskCacheConfig :
             builder.mSmallImageDiskCacheConfig;
+    mSmallImageFileCacheFactory =
+        builder.mSmallImageFileCacheFactory == null ?
+            mFileCacheFactory :
+            builder.mSmallImageFileCacheFactory;
+    // Two different storages can't share a directory, each one deletes the files it doesn't own
+    Preconditions.checkState(
+        mSmallImageFileCacheFactory == mFileCacheFactory ||
+            !isSameDirectory(mSmallImageDiskCacheConfig, mMainDiskCacheConfig),
+        "A small image file cache factory requires its own small image disk cache config");
     mImageDecoderConfig = builder.mImageDecoderConfig;
     // Below this comment can't be built in alphabetical order, because of dependencies
     int numCpuBoundThreads = mPoolFactory.getFlexByteArrayPoolMaxNumThreads();
@@ -205,6 +215,12 @@ public class ImagePipelineConfig {
     }
   }
 
+  private static boolean isSameDirectory(DiskCacheConfig lhs, DiskCacheConfig rhs) {
+    return lhs == rhs ||
+        (lhs.getBaseDirectoryPathSupplier() == rhs.getBaseDirectoryPathSupplier() &&
+            lhs.getBaseDirectoryName().equals(rhs.getBaseDirectoryName()));
+  }
+
   private static DiskCacheConfig getDefaultMainDiskCacheConfig(final Context context) {
     return DiskCacheConfig.newBuilder(context).build();
   }
@@ -305,6 +321,10 @@ public class ImagePipelineConfig {
     return mSmallImageDiskCacheConfig;
   }
 
+  public FileCacheFactory getSmallImageFileCacheFactory() {
+    return mSmallImageFileCacheFactory;
+  }
+
   @Nullable
   public ImageDecoderConfig getImageDecoderConfig() {
     return mImageDecoderConfig;
@@ -360,6 +380,7 @@ public class ImagePipelineConfig {
     private boolean mResizeAndRotateEnabledForNetwork = true;
     private DiskCacheConfig mSmallImageDiskCacheConfig;
     private FileCacheFactory mFileCacheFactory;
+    private FileCacheFactory mSmallImageFileCacheFactory;
     private ImageDecoderConfig mImageDecoderConfig;
     private final ImagePipelineExperiments.Builder mExperimentsBuilder
         = new ImagePipelineExperiments.Builder(this);
@@ -477,6 +498,19 @@ public class ImagePipelineConfig {
       return this;
     }
 
+    /**
+     * Sets the factory of the small image disk cache, which defaults to the one of the main disk
+     * cache. Small images can be packed into a few files with a
+     * {@link PackFileDiskStorageFactory}.
+     *
+     * <p>A factory other than the one of the main disk cache requires a small image disk cache
+     * config with its own directory, see {@link #setSmallImageDiskCacheConfig}.
+     */
+    public Builder setSmallImageFileCacheFactory(FileCacheFactory smallImageFileCacheFactory) {
+      mSmallImageFileCacheFactory = smallImageFileCacheFactory;
+      return this;
+    }
+
     public Builder setImageDecoderConfig(ImageDecoderConfig imageDecoderConfig) {
       mImageDecoderConfig = imageDecoderConfig;
       return this;
@@ -29,6 +29,12 @@ public class ImagePipelineExperiments {
   private final WebpBitmapFactory mWebpBitmapFactory;
   private final boolean mSuppressBitmapPrefetching;
   private final boolean mUseDownsamplingRatioForResizing;
+  private final int mDiskCacheMappedReadThresholdBytes;
+  private final int mBitmapMemoryCacheSegmentCount;
+  private final boolean mBitmapMemoryCacheCostAwareEvictionEnabled;
+  private final boolean mResizeVariantsMultiplexingEnabled;
+  private final boolean mNonJpegDownscalingEnabled;
+  private final int mDecodeBudgetBytes;
 
   private ImagePipelineExperiments(Builder builder, ImagePipelineConfig.Builder configBuilder) {
     mForceSmallCacheThresholdBytes = builder.mForceSmallCacheThresholdBytes;
@@ -49,6 +55,13 @@ public class ImagePipelineExperiments {
     mWebpBitmapFactory = builder.mWebpBitmapFactory;
     mSuppressBitmapPrefetching = builder.mSuppressBitmapPrefetching;
     mUseDownsamplingRatioForResizing = builder.mUseDownsamplingRatioForResizing;
+    mDiskCacheMappedReadThresholdBytes = builder.mDiskCacheMappedReadThresholdBytes;
+    mBitmapMemoryCacheSegmentCount = builder.mBitmapMemoryCacheSegmentCount;
+    mBitmapMemoryCacheCostAwareEvictionEnabled =
+        builder.mBitmapMemoryCacheCostAwareEvictionEnabled;
+    mResizeVariantsMultiplexingEnabled = builder.mResizeVariantsMultiplexingEnabled;
+    mNonJpegDownscalingEnabled = builder.mNonJpegDownscalingEnabled;
+    mDecodeBudgetBytes = builder.mDecodeBudgetBytes;
   }
 
   public boolean isExternalCreatedBitmapLogEnabled() {
@@ -67,6 +80,30 @@ public class ImagePipelineExperiments {
     return mUseDownsamplingRatioForResizing;
   }
 
+  public int getDiskCacheMappedReadThresholdBytes() {
+    return mDiskCacheMappedReadThresholdBytes;
+  }
+
+  public int getBitmapMemoryCacheSegmentCount() {
+    return mBitmapMemoryCacheSegmentCount;
+  }
+
+  public boolean isBitmapMemoryCacheCostAwareEvictionEnabled() {
+    return mBitmapMemoryCacheCostAwareEvictionEnabled;
+  }
+
+  public boolean isResizeVariantsMultiplexingEnabled() {
+    return mResizeVariantsMultiplexingEnabled;
+  }
+
+  public boolean isNonJpegDownscalingEnabled() {
+    return mNonJpegDownscalingEnabled;
+  }
+
+  public int getDecodeBudgetBytes() {
+    return mDecodeBudgetBytes;
+  }
+
   public boolean isWebpSupportEnabled() {
     return mWebpSupportEnabled;
   }
@@ -100,6 +137,12 @@ public class ImagePipelineExperiments {
     private WebpBitmapFactory mWebpBitmapFactory;
     private boolean mSuppressBitmapPrefetching = false;
     private boolean mUseDownsamplingRatioForResizing = false;
+    private int mDiskCacheMappedReadThresholdBytes = 0;
+    private int mBitmapMemoryCacheSegmentCount = 1;
+    private boolean mBitmapMemoryCacheCostAwareEvictionEnabled = false;
+    private boolean mResizeVariantsMultiplexingEnabled = false;
+    private boolean mNonJpegDownscalingEnabled = false;
+    private int mDecodeBudgetBytes = 0;
 
     public Builder(ImagePipelineConfig.Builder configBuilder) {
       mConfigBuilder = configBuilder;
@@ -158,6 +201,71 @@ public class ImagePipelineExperiments {
       return mConfigBuilder;
     }
 
+    /**
+     * If this value is positive, disk cache entries of at least this size are memory-mapped and
+     * decoded in place instead of being copied into a pooled buffer.
+     *
+     * <p>Mapping a file has a fixed cost, so this only pays off for large entries.
+     */
+    public ImagePipelineConfig.Builder setDiskCacheMappedReadThresholdBytes(
+        int diskCacheMappedReadThresholdBytes) {
+      mDiskCacheMappedReadThresholdBytes = diskCacheMappedReadThresholdBytes;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Splits the bitmap memory cache into this number of segments, rounded up to a power of two,
+     * so that lookups from different threads don't contend on a single lock.
+     *
+     * <p>The size constraints of the cache are shared by all the segments, but the eviction order
+     * is only approximately LRU with more than one segment.
+     */
+    public ImagePipelineConfig.Builder setBitmapMemoryCacheSegmentCount(
+        int bitmapMemoryCacheSegmentCount) {
+      mBitmapMemoryCacheSegmentCount = bitmapMemoryCacheSegmentCount;
+      return mConfigBuilder;
+    }
+
+    /**
+     * Makes the bitmap memory cache evict first the images that take the most memory for the
+     * least decode time, instead of the least recently used ones.
+     */
+    public ImagePipelineConfig.Builder setBitmapMemoryCacheCostAwareEvictionEnabled(
+        boolean bitmapMemoryCacheCostAwareEvictionEnabled) {
+      mBitmapMemoryCacheCostAwareEvictionEnabled = bitmapMemoryCacheCostAwareEvictionEnabled;
+      return mConfigBuilder;
+    }
+
+    /**
+     * If true, requests for the same image that only differ by their resize options share the
+     * decode in progress of the largest one, and get its result downscaled to their own size.
+     */
+    public ImagePipelineConfig.Builder setResizeVariantsMultiplexingEnabled(
+        boolean resizeVariantsMultiplexingEnabled) {
+      mResizeVariantsMultiplexingEnabled = resizeVariantsMultiplexingEnabled;
+      return mConfigBuilder;
+    }
+
+    /**
+     * If true, decoded images that are not JPEGs, and so could not be resized before being
+     * decoded, are downscaled in Java to their resize options on the decode executor.
+     */
+    public ImagePipelineConfig.Builder setNonJpegDownscalingEnabled(
+        boolean nonJpegDownscalingEnabled) {
+      mNonJpegDownscalingEnabled = nonJpegDownscalingEnabled;
+      return mConfigBuilder;
+    }
+
+    /**
+     * If positive, the decodes in progress may not allocate more than this many bytes of bitmaps
+     * in total, according to the dimensions of the encoded images. The other decodes wait, by
+     * priority, for enough of them to finish. The default, 0, lets all the decodes run.
+     */
+    public ImagePipelineConfig.Builder setDecodeBudgetBytes(int decodeBudgetBytes) {
+      mDecodeBudgetBytes = decodeBudgetBytes;
+      return mConfigBuilder;
+    }
+
     public ImagePipelineConfig.Builder setWebpErrorLogger(
         WebpBitmapFactory.WebpErrorLogger webpErrorLogger) {
       mWebpErrorLogger = webpErrorLogger;
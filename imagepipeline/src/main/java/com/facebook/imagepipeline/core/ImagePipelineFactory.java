@@ -137,7 +137,9 @@ public class ImagePipelineFactory {
               mConfig.getBitmapMemoryCacheParamsSupplier(),
               mConfig.getMemoryTrimmableRegistry(),
               getPlatformBitmapFactory(),
-              mConfig.getExperiments().isExternalCreatedBitmapLogEnabled());
+              mConfig.getExperiments().isExternalCreatedBitmapLogEnabled(),
+              mConfig.getExperiments().getBitmapMemoryCacheSegmentCount(),
+              mConfig.getExperiments().isBitmapMemoryCacheCostAwareEvictionEnabled());
     }
     return mBitmapCountingMemoryCache;
   }
@@ -215,7 +217,8 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              mConfig.getExperiments().getDiskCacheMappedReadThresholdBytes());
     }
     return mMainBufferedDiskCache;
   }
@@ -323,6 +326,9 @@ public class ImagePipelineFactory {
               mConfig.isDownsampleEnabled(),
               mConfig.isResizeAndRotateEnabledForNetwork(),
               mConfig.getExperiments().isDecodeCancellationEnabled(),
+              mConfig.getExperiments().isResizeVariantsMultiplexingEnabled(),
+              mConfig.getExperiments().isNonJpegDownscalingEnabled(),
+              mConfig.getExperiments().getDecodeBudgetBytes(),
               mConfig.getExecutorSupplier(),
               mConfig.getPoolFactory().getPooledByteBufferFactory(),
               getBitmapMemoryCache(),
@@ -354,7 +360,7 @@ public class ImagePipelineFactory {
   public FileCache getSmallImageFileCache() {
     if (mSmallImageFileCache == null) {
       DiskCacheConfig diskCacheConfig = mConfig.getSmallImageDiskCacheConfig();
-      mSmallImageFileCache = mConfig.getFileCacheFactory().get(diskCacheConfig);
+      mSmallImageFileCache = mConfig.getSmallImageFileCacheFactory().get(diskCacheConfig);
     }
     return mSmallImageFileCache;
   }
@@ -368,7 +374,8 @@ public class ImagePipelineFactory {
               mConfig.getPoolFactory().getPooledByteStreams(),
               mConfig.getExecutorSupplier().forLocalStorageRead(),
               mConfig.getExecutorSupplier().forLocalStorageWrite(),
-              mConfig.getImageCacheStatsTracker());
+              mConfig.getImageCacheStatsTracker(),
+              mConfig.getExperiments().getDiskCacheMappedReadThresholdBytes());
     }
     return mSmallImageBufferedDiskCache;
   }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+package com.facebook.imagepipeline.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+
+import com.facebook.cache.disk.DiskCacheConfig;
+import com.facebook.cache.disk.DiskStorage;
+import com.facebook.cache.disk.PackFileDiskStorage;
+
+/**
+ * Factory for the {@link PackFileDiskStorage}, meant for the small image disk cache.
+ */
+public class PackFileDiskStorageFactory implements DiskStorageFactory {
+
+  private static final long COMPACTION_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+  private final Executor mCompactionExecutor;
+
+  /**
+   * Compactions run on a background daemon thread, which stops once it has been idle for a while.
+   */
+  public PackFileDiskStorageFactory() {
+    this(createCompactionExecutor());
+  }
+
+  /**
+   * @param compactionExecutor executor of the background compactions of the segment files
+   */
+  public PackFileDiskStorageFactory(Executor compactionExecutor) {
+    mCompactionExecutor = compactionExecutor;
+  }
+
+  @Override
+  public DiskStorage get(DiskCacheConfig diskCacheConfig) {
+    return new PackFileDiskStorage(
+        diskCacheConfig.getBaseDirectoryPathSupplier(),
+        diskCacheConfig.getBaseDirectoryName(),
+        diskCacheConfig.getVersion(),
+        PackFileDiskStorage.DEFAULT_MAX_SEGMENT_SIZE,
+        mCompactionExecutor,
+        diskCacheConfig.getCacheErrorLogger());
+  }
+
+  private static Executor createCompactionExecutor() {
+    final ThreadFactory backgroundPriorityThreadFactory =
+        new PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        1,
+        1,
+        COMPACTION_THREAD_KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = backgroundPriorityThreadFactory.newThread(runnable);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
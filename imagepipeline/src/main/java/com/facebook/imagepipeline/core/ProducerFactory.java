@@ -9,6 +9,8 @@
 
 package com.facebook.imagepipeline.core;
 
+import javax.annotation.Nullable;
+
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.AssetManager;
@@ -16,6 +18,7 @@ import android.content.res.Resources;
 
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.bitmaps.AreaAveragingDownscaler;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
@@ -29,12 +32,14 @@ import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
+import com.facebook.imagepipeline.platform.TileDecoder;
 import com.facebook.imagepipeline.producers.AddImageTransformMetaDataProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheGetProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheKeyMultiplexProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheProducer;
 import com.facebook.imagepipeline.producers.BranchOnSeparateImagesProducer;
 import com.facebook.imagepipeline.producers.DataFetchProducer;
+import com.facebook.imagepipeline.producers.DecodeBudget;
 import com.facebook.imagepipeline.producers.DecodeProducer;
 import com.facebook.imagepipeline.producers.DiskCacheReadProducer;
 import com.facebook.imagepipeline.producers.DiskCacheWriteProducer;
@@ -56,12 +61,14 @@ import com.facebook.imagepipeline.producers.PostprocessedBitmapMemoryCacheProduc
 import com.facebook.imagepipeline.producers.PostprocessorProducer;
 import com.facebook.imagepipeline.producers.Producer;
 import com.facebook.imagepipeline.producers.ResizeAndRotateProducer;
+import com.facebook.imagepipeline.producers.ResizeVariantsMultiplexProducer;
 import com.facebook.imagepipeline.producers.SwallowResultProducer;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducer;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducerQueue;
 import com.facebook.imagepipeline.producers.ThrottlingProducer;
 import com.facebook.imagepipeline.producers.ThumbnailBranchProducer;
 import com.facebook.imagepipeline.producers.ThumbnailProducer;
+import com.facebook.imagepipeline.producers.TileDecodeProducer;
 import com.facebook.imagepipeline.cache.SplitCachesByImageSizeDiskCachePolicy;
 import com.facebook.imagepipeline.producers.WebpTranscodeProducer;
 
@@ -81,6 +88,9 @@ public class ProducerFactory {
   private final boolean mDownsampleEnabled;
   private final boolean mResizeAndRotateEnabledForNetwork;
   private final boolean mDecodeCancellationEnabled;
+  private final boolean mResizeVariantsMultiplexingEnabled;
+  private final boolean mNonJpegDownscalingEnabled;
+  @Nullable private final DecodeBudget mDecodeBudget;
 
   // Dependencies used by multiple steps
   private final ExecutorSupplier mExecutorSupplier;
@@ -106,6 +116,9 @@ public class ProducerFactory {
       boolean downsampleEnabled,
       boolean resizeAndRotateEnabledForNetwork,
       boolean decodeCancellationEnabled,
+      boolean resizeVariantsMultiplexingEnabled,
+      boolean nonJpegDownscalingEnabled,
+      int decodeBudgetBytes,
       ExecutorSupplier executorSupplier,
       PooledByteBufferFactory pooledByteBufferFactory,
       MemoryCache<CacheKey, CloseableImage> bitmapMemoryCache,
@@ -126,6 +139,10 @@ public class ProducerFactory {
     mDownsampleEnabled = downsampleEnabled;
     mResizeAndRotateEnabledForNetwork = resizeAndRotateEnabledForNetwork;
     mDecodeCancellationEnabled = decodeCancellationEnabled;
+    mResizeVariantsMultiplexingEnabled = resizeVariantsMultiplexingEnabled;
+    mNonJpegDownscalingEnabled = nonJpegDownscalingEnabled;
+    // shared by all the decode producers so that the budget caps the pipeline as a whole
+    mDecodeBudget = decodeBudgetBytes > 0 ? new DecodeBudget(decodeBudgetBytes) : null;
 
     mExecutorSupplier = executorSupplier;
     mPooledByteBufferFactory = pooledByteBufferFactory;
@@ -166,6 +183,13 @@ public class ProducerFactory {
 
   public BitmapMemoryCacheKeyMultiplexProducer newBitmapMemoryCacheKeyMultiplexProducer(
       Producer<CloseableReference<CloseableImage>> inputProducer) {
+    if (mResizeVariantsMultiplexingEnabled) {
+      return new ResizeVariantsMultiplexProducer(
+          mBitmapMemoryCache,
+          mCacheKeyFactory,
+          mPlatformBitmapFactory,
+          inputProducer);
+    }
     return new BitmapMemoryCacheKeyMultiplexProducer(mCacheKeyFactory, inputProducer);
   }
 
@@ -193,6 +217,8 @@ public class ProducerFactory {
         mDownsampleEnabled,
         mResizeAndRotateEnabledForNetwork,
         mDecodeCancellationEnabled,
+        mNonJpegDownscalingEnabled ? new AreaAveragingDownscaler(mPlatformBitmapFactory) : null,
+        mDecodeBudget,
         inputProducer);
   }
 
@@ -332,6 +358,15 @@ public class ProducerFactory {
         inputThreadHandoffProducerQueue);
   }
 
+  public TileDecodeProducer newTileDecodeProducer(Producer<EncodedImage> inputProducer) {
+    return new TileDecodeProducer(
+        mBitmapMemoryCache,
+        mCacheKeyFactory,
+        mExecutorSupplier.forDecode(),
+        new TileDecoder(),
+        inputProducer);
+  }
+
   public <T> ThrottlingProducer<T> newThrottlingProducer(
       Producer<T> inputProducer) {
     return new ThrottlingProducer<T>(
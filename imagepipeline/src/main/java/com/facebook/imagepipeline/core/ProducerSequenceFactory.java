@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import android.net.Uri;
+import android.os.Build;
 
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.VisibleForTesting;
@@ -44,6 +45,7 @@ import com.facebook.imagepipeline.producers.ThrottlingProducer;
 import com.facebook.imagepipeline.producers.ThumbnailBranchProducer;
 import com.facebook.imagepipeline.producers.ThumbnailProducer;
 import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.TiledImageRequest;
 
 public class ProducerSequenceFactory {
 
@@ -71,6 +73,8 @@ public class ProducerSequenceFactory {
   @VisibleForTesting Producer<CloseableReference<CloseableImage>> mLocalResourceFetchSequence;
   @VisibleForTesting Producer<CloseableReference<CloseableImage>> mLocalAssetFetchSequence;
   @VisibleForTesting Producer<CloseableReference<CloseableImage>> mDataFetchSequence;
+  @VisibleForTesting Producer<CloseableReference<CloseableImage>> mNetworkTileDecodeSequence;
+  @VisibleForTesting Producer<CloseableReference<CloseableImage>> mLocalFileTileDecodeSequence;
   @VisibleForTesting Map<
       Producer<CloseableReference<CloseableImage>>,
       Producer<CloseableReference<CloseableImage>>>
@@ -209,6 +213,11 @@ public class ProducerSequenceFactory {
 
     Uri uri = imageRequest.getSourceUri();
     Preconditions.checkNotNull(uri, "Uri is null.");
+    // regions can't be decoded before API 10, the whole image is decoded instead
+    if (imageRequest instanceof TiledImageRequest &&
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+      return getTileDecodeSequence(uri);
+    }
     if (UriUtil.isNetworkUri(uri)) {
       return getNetworkFetchSequence();
     } else if (UriUtil.isLocalFileUri(uri)) {
@@ -231,6 +240,45 @@ public class ProducerSequenceFactory {
     }
   }
 
+  private Producer<CloseableReference<CloseableImage>> getTileDecodeSequence(Uri uri) {
+    if (UriUtil.isNetworkUri(uri)) {
+      return getNetworkTileDecodeSequence();
+    } else if (UriUtil.isLocalFileUri(uri)) {
+      return getLocalFileTileDecodeSequence();
+    } else {
+      throw new IllegalArgumentException(
+          "Unsupported uri scheme for tile decoding! Uri is: " + getShortenedUriString(uri));
+    }
+  }
+
+  /**
+   * tile decode -> background-thread hand-off -> multiplex -> encoded cache ->
+   * disk cache -> (webp transcode) -> network fetch.
+   */
+  private synchronized Producer<CloseableReference<CloseableImage>>
+  getNetworkTileDecodeSequence() {
+    if (mNetworkTileDecodeSequence == null) {
+      mNetworkTileDecodeSequence =
+          mProducerFactory.newTileDecodeProducer(
+              getBackgroundNetworkFetchToEncodedMemorySequence());
+    }
+    return mNetworkTileDecodeSequence;
+  }
+
+  /**
+   * tile decode -> background-thread hand-off -> multiplex -> encoded cache ->
+   * disk cache -> (webp transcode) -> local file fetch.
+   */
+  private synchronized Producer<CloseableReference<CloseableImage>>
+  getLocalFileTileDecodeSequence() {
+    if (mLocalFileTileDecodeSequence == null) {
+      mLocalFileTileDecodeSequence =
+          mProducerFactory.newTileDecodeProducer(
+              getBackgroundLocalFileFetchToEncodeMemorySequence());
+    }
+    return mLocalFileTileDecodeSequence;
+  }
+
   /**
    * swallow result if prefetch -> bitmap cache get ->
    * background thread hand-off -> multiplex -> bitmap cache -> decode -> multiplex ->
@@ -15,10 +15,11 @@ import java.io.InputStream;
 import com.facebook.common.internal.Closeables;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Throwables;
+import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.StreamUtil;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
-import com.facebook.imagepipeline.memory.PooledByteArrayBufferedInputStream;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imageutils.JfifUtil;
 
 /**
@@ -29,6 +30,10 @@ import com.facebook.imageutils.JfifUtil;
  *
  * <p> Users should call parseMoreData method each time new chunk of data is received. The buffer
  * passed as a parameter should include entire image data received so far.
+ *
+ * <p> The parser keeps its state between calls and only parses the bytes received since the last
+ * one. They are copied out of the {@link PooledByteBuffer} in large chunks, and the entropy coded
+ * data that makes most of the image is skipped by searching the chunks for the next 0xFF byte.
  */
 public class ProgressiveJpegParser {
 
@@ -109,7 +114,7 @@ public class ProgressiveJpegParser {
    * ignored and false will be returned immediately on all subsequent calls.
    *
    * This object maintains state of the position of the last read byte. On repeated calls to this
-   * method, it will continue from where it left off.
+   * method, it will continue from where it left off, so that only the new bytes are parsed.
    *
    * @param encodedImage Next set of bytes received by the caller
    * @return true if a new full scan has been found
@@ -123,108 +128,161 @@ public class ProgressiveJpegParser {
 
     // Is there any new data to parse?
     // mBytesParsed might be greater than size of dataBuffer - that happens when
-    // we skip more data than is available to read inside doParseMoreData method
+    // we skip more data than is available to read inside parseChunk method
     if (dataBufferSize <= mBytesParsed) {
       return false;
     }
 
-    final InputStream bufferedDataStream = new PooledByteArrayBufferedInputStream(
-        encodedImage.getInputStream(),
-        mByteArrayPool.get(BUFFER_SIZE),
-        mByteArrayPool);
+    final int oldBestScanNumber = mBestScanNumber;
+    final byte[] chunk = mByteArrayPool.get(BUFFER_SIZE);
+    final CloseableReference<PooledByteBuffer> byteBufferRef = encodedImage.getByteBufferRef();
     try {
-      StreamUtil.skip(bufferedDataStream, mBytesParsed);
-      return doParseMoreData(bufferedDataStream);
+      if (byteBufferRef != null) {
+        parseMoreData(byteBufferRef.get(), dataBufferSize, chunk);
+      } else {
+        parseMoreData(encodedImage.getInputStream(), chunk);
+      }
     } catch (IOException ioe) {
       // Does not happen - streams returned by PooledByteBuffers do not throw IOExceptions
       Throwables.propagate(ioe);
       return false;
     } finally {
-      Closeables.closeQuietly(bufferedDataStream);
+      CloseableReference.closeSafely(byteBufferRef);
+      mByteArrayPool.release(chunk);
     }
+    return mParserState != NOT_A_JPEG && mBestScanNumber != oldBestScanNumber;
   }
 
   /**
-   * Parses more data from inputStream.
-   *
-   * @param inputStream instance of buffered pooled byte buffer input stream
+   * Parses the new bytes of a buffer, copied from its memory a chunk at a time.
    */
-  private boolean doParseMoreData(final InputStream inputStream) {
-    final int oldBestScanNumber = mBestScanNumber;
-    try {
-      int nextByte;
-      while (mParserState != NOT_A_JPEG && (nextByte = inputStream.read()) != -1) {
-        mBytesParsed++;
-
-        switch (mParserState) {
-          case READ_FIRST_JPEG_BYTE:
-            if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
-              mParserState = READ_SECOND_JPEG_BYTE;
-            } else {
-              mParserState = NOT_A_JPEG;
-            }
-            break;
+  private void parseMoreData(PooledByteBuffer byteBuffer, int size, byte[] chunk) {
+    while (mParserState != NOT_A_JPEG && mBytesParsed < size) {
+      final int chunkOffset = mBytesParsed;
+      final int length = Math.min(chunk.length, size - chunkOffset);
+      byteBuffer.read(chunkOffset, chunk, 0, length);
+      parseChunk(chunk, chunkOffset, length);
+    }
+  }
 
-          case READ_SECOND_JPEG_BYTE:
-            if (nextByte == JfifUtil.MARKER_SOI) {
-              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
-            } else {
-              mParserState = NOT_A_JPEG;
-            }
-            break;
+  /**
+   * Parses the new bytes of an image that is not held in a buffer, read a chunk at a time.
+   */
+  private void parseMoreData(InputStream inputStream, byte[] chunk) throws IOException {
+    try {
+      int position = (int) StreamUtil.skip(inputStream, mBytesParsed);
+      while (mParserState != NOT_A_JPEG && position == mBytesParsed) {
+        final int length = inputStream.read(chunk, 0, chunk.length);
+        if (length == -1) {
+          return;
+        }
+        parseChunk(chunk, position, length);
+        position += length;
+        if (mBytesParsed > position) {
+          // the last segment goes past the chunk
+          position += (int) StreamUtil.skip(inputStream, mBytesParsed - position);
+        }
+      }
+    } finally {
+      Closeables.closeQuietly(inputStream);
+    }
+  }
 
-          case READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA:
-            if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
-              mParserState = READ_MARKER_SECOND_BYTE;
+  /**
+   * Parses the bytes of a chunk from where the parser left off.
+   *
+   * @param chunk the bytes of the image from chunkOffset on
+   * @param chunkOffset the offset of the chunk in the image
+   * @param length the number of bytes in the chunk
+   */
+  private void parseChunk(final byte[] chunk, final int chunkOffset, final int length) {
+    int index = mBytesParsed - chunkOffset;
+    while (mParserState != NOT_A_JPEG && index < length) {
+      if (mParserState == READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA) {
+        // Most of the bytes are entropy coded data, so this is where the parser spends its time
+        index = indexOfMarkerFirstByte(chunk, index, length);
+        if (index == length) {
+          break;
+        }
+      }
+      final int nextByte = chunk[index] & 0xFF;
+      index++;
+
+      switch (mParserState) {
+        case READ_FIRST_JPEG_BYTE:
+          if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
+            mParserState = READ_SECOND_JPEG_BYTE;
+          } else {
+            mParserState = NOT_A_JPEG;
+          }
+          break;
+
+        case READ_SECOND_JPEG_BYTE:
+          if (nextByte == JfifUtil.MARKER_SOI) {
+            mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+          } else {
+            mParserState = NOT_A_JPEG;
+          }
+          break;
+
+        case READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA:
+          mParserState = READ_MARKER_SECOND_BYTE;
+          break;
+
+        case READ_MARKER_SECOND_BYTE:
+          if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
+            mParserState = READ_MARKER_SECOND_BYTE;
+          } else if (nextByte == JfifUtil.MARKER_ESCAPE_BYTE) {
+            mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+          } else {
+            if (nextByte == JfifUtil.MARKER_SOS || nextByte == JfifUtil.MARKER_EOI) {
+              newScanOrImageEndFound(chunkOffset + index - 2);
             }
-            break;
 
-          case READ_MARKER_SECOND_BYTE:
-            if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
-              mParserState = READ_MARKER_SECOND_BYTE;
-            } else if (nextByte == JfifUtil.MARKER_ESCAPE_BYTE) {
-              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+            if (doesMarkerStartSegment(nextByte)) {
+              mParserState = READ_SIZE_FIRST_BYTE;
             } else {
-              if (nextByte == JfifUtil.MARKER_SOS || nextByte == JfifUtil.MARKER_EOI) {
-                newScanOrImageEndFound(mBytesParsed - 2);
-              }
-
-              if (doesMarkerStartSegment(nextByte)) {
-                mParserState = READ_SIZE_FIRST_BYTE;
-              } else {
-                mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
-              }
+              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
             }
-            break;
-
-          case READ_SIZE_FIRST_BYTE:
-            mParserState = READ_SIZE_SECOND_BYTE;
-            break;
-
-          case READ_SIZE_SECOND_BYTE:
-            final int size = (mLastByteRead << 8) + nextByte;
-            // We need to jump after the end of the segment - skip size-2 next bytes.
-            // We might want to skip more data than is available to read, in which case we will
-            // consume entire data in inputStream and exit this function before entering another
-            // iteration of the loop.
-            final int bytesToSkip = size - 2;
-            StreamUtil.skip(inputStream, bytesToSkip);
-            mBytesParsed += bytesToSkip;
-            mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
-            break;
+          }
+          break;
+
+        case READ_SIZE_FIRST_BYTE:
+          mParserState = READ_SIZE_SECOND_BYTE;
+          break;
+
+        case READ_SIZE_SECOND_BYTE:
+          final int size = (mLastByteRead << 8) + nextByte;
+          // We need to jump after the end of the segment - skip size-2 next bytes.
+          // We might want to skip more data than is available in the chunk, in which case the
+          // next chunk starts after the segment, or the next call if it was the last one.
+          index += Math.max(size - 2, 0);
+          mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+          break;
+
+        case NOT_A_JPEG:
+        default:
+          Preconditions.checkState(false);
+      }
 
-          case NOT_A_JPEG:
-          default:
-            Preconditions.checkState(false);
-        }
+      mLastByteRead = nextByte;
+    }
+    mBytesParsed = chunkOffset + index;
+  }
 
-        mLastByteRead = nextByte;
-      }
-    } catch (IOException ioe) {
-      // does not happen, input stream returned by pooled byte buffer does not throw IOExceptions
-      Throwables.propagate(ioe);
+  /**
+   * Finds the next 0xFF byte, the only one that can start a marker.
+   *
+   * @return the index of the byte, or to if there is none
+   */
+  private static int indexOfMarkerFirstByte(final byte[] chunk, final int from, final int to) {
+    // A plain loop over an array, which the JIT turns into a load and a compare per byte instead
+    // of a virtual call per byte to read a stream
+    int index = from;
+    while (index < to && chunk[index] != (byte) JfifUtil.MARKER_FIRST_BYTE) {
+      index++;
     }
-    return mParserState != NOT_A_JPEG && mBestScanNumber != oldBestScanNumber;
+    return index;
   }
 
   /**
@@ -9,11 +9,14 @@
 
 package com.facebook.imagepipeline.memory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -109,6 +112,14 @@ import com.facebook.common.memory.MemoryTrimmableRegistry;
  *   cap, in that it will not cause an exception on get; it simply controls the release path.
  *   If the BucketSizes parameter is null, then the pool will dynamically create buckets on demand.
  *   </li>
+ *   <li> {@link PoolParams#magazineLength}
+ *   If set, each thread keeps up to this number of free values of each size in a magazine in front
+ *   of the buckets. A get served by the magazine of the calling thread, and a release to it, don't
+ *   take the pool lock. When a magazine is empty, it is refilled with a batch of values from the
+ *   bucket, and when it is full, half of it goes back to the bucket so that other threads can use
+ *   these values. The values in the magazines are counted as used, so the pool size is exact and
+ *   the caps are enforced as before. The magazines are drained back into the buckets when the
+ *   pool is trimmed, and before failing an allocation because of the hard cap. </li>
  * </ul>
  */
 public abstract class BasePool<V> implements Pool<V> {
@@ -157,6 +168,35 @@ public abstract class BasePool<V> implements Pool<V> {
 
   private final PoolStatsTracker mPoolStatsTracker;
 
+  /**
+   * Whether the pool exceeded its soft cap when last checked, read without the lock to decide
+   * whether released values can go to a magazine
+   */
+  private volatile boolean mIsMaxSizeSoftCapExceeded;
+
+  /**
+   * The magazines of all the threads that used the pool
+   */
+  @VisibleForTesting
+  @GuardedBy("this")
+  final List<Magazine<V>> mMagazines;
+
+  /**
+   * The magazine of the current thread
+   */
+  private final ThreadLocal<Magazine<V>> mThreadMagazine = new ThreadLocal<Magazine<V>>() {
+    @Override
+    protected Magazine<V> initialValue() {
+      Magazine<V> magazine = new Magazine<>(Thread.currentThread());
+      synchronized (BasePool.this) {
+        // a good time to get rid of the magazines of the threads that are gone
+        drainMagazines(true);
+        mMagazines.add(magazine);
+      }
+      return magazine;
+    }
+  };
+
   /**
    * Creates a new instance of the pool.
    * @param poolParams pool parameters
@@ -178,6 +218,7 @@ public abstract class BasePool<V> implements Pool<V> {
 
     mFree = new Counter();
     mUsed = new Counter();
+    mMagazines = new ArrayList<>();
   }
 
   /**
@@ -201,9 +242,25 @@ public abstract class BasePool<V> implements Pool<V> {
    * @throws InvalidSizeException
    */
   public V get(int size) {
+    int bucketedSize = getBucketedSize(size);
+    if (mPoolParams.magazineLength > 0) {
+      V value = mThreadMagazine.get().pop(bucketedSize);
+      if (value != null) {
+        // the value is still counted as used, nothing else to update
+        mPoolStatsTracker.onValueReuse(getSizeInBytes(bucketedSize));
+        if (FLog.isLoggable(FLog.VERBOSE)) {
+          FLog.v(
+              TAG,
+              "get (magazine) (object, size) = (%x, %s)",
+              System.identityHashCode(value),
+              bucketedSize);
+        }
+        return value;
+      }
+    }
+
     ensurePoolSizeInvariant();
 
-    int bucketedSize = getBucketedSize(size);
     int sizeInBytes = -1;
 
     synchronized (this) {
@@ -222,6 +279,9 @@ public abstract class BasePool<V> implements Pool<V> {
           mUsed.increment(sizeInBytes);
           mFree.decrement(sizeInBytes);
           mPoolStatsTracker.onValueReuse(sizeInBytes);
+          if (mPoolParams.magazineLength > 0) {
+            refillMagazine(bucket, bucketedSize);
+          }
           logStats();
           if (FLog.isLoggable(FLog.VERBOSE)) {
             FLog.v(
@@ -293,6 +353,35 @@ public abstract class BasePool<V> implements Pool<V> {
     return value;
   }
 
+  /**
+   * Hands out a value that was not allocated by the pool, as {@link #get} hands out a newly
+   * allocated one: the value is counted as used until it is released.
+   * @param value the value, which the caller gets ownership of if it could be taken
+   * @return whether the value could be taken without exceeding the hard cap
+   */
+  synchronized boolean takeValue(V value) {
+    final int sizeInBytes = getSizeInBytes(getBucketedSizeForValue(value));
+    if (!canAllocate(sizeInBytes)) {
+      return false;
+    }
+    Preconditions.checkState(mInUseValues.add(value));
+    mUsed.increment(sizeInBytes);
+    final Bucket<V> bucket = getBucket(getBucketedSizeForValue(value));
+    if (bucket != null) {
+      bucket.incrementInUseCount();
+    }
+    mPoolStatsTracker.onValueReuse(sizeInBytes);
+    logStats();
+    if (FLog.isLoggable(FLog.VERBOSE)) {
+      FLog.v(
+          TAG,
+          "get (take) (object, size) = (%x, %s)",
+          System.identityHashCode(value),
+          sizeInBytes);
+    }
+    return true;
+  }
+
   /**
    * Releases the given value to the pool.
    * In a few cases, the value is 'freed' instead of being released to the pool. If
@@ -308,65 +397,167 @@ public abstract class BasePool<V> implements Pool<V> {
     Preconditions.checkNotNull(value);
 
     final int bucketedSize = getBucketedSizeForValue(value);
-    final int sizeInBytes = getSizeInBytes(bucketedSize);
-    synchronized (this) {
-      final Bucket<V> bucket = getBucket(bucketedSize);
-      if (!mInUseValues.remove(value)) {
-        // This value was not 'known' to the pool (i.e.) allocated via the pool.
-        // Something is going wrong, so let's free the value and report soft error.
+    if (mPoolParams.magazineLength > 0 &&
+        !mIsMaxSizeSoftCapExceeded &&
+        isReusable(value)) {
+      Magazine<V> magazine = mThreadMagazine.get();
+      int pushResult = magazine.push(value, bucketedSize, mPoolParams.magazineLength);
+      if (pushResult == Magazine.PUSHED) {
+        mPoolStatsTracker.onValueRelease(getSizeInBytes(bucketedSize));
+        if (FLog.isLoggable(FLog.VERBOSE)) {
+          FLog.v(
+              TAG,
+              "release (magazine) (object, size) = (%x, %s)",
+              System.identityHashCode(value),
+              bucketedSize);
+        }
+        return;
+      }
+      if (pushResult == Magazine.ALREADY_PRESENT) {
+        // Released twice, the value is still available in the magazine. Something is going wrong,
+        // so let's report soft error.
         FLog.e(
             TAG,
-            "release (free, value unrecognized) (object, size) = (%x, %s)",
+            "release (ignored, value already in magazine) (object, size) = (%x, %s)",
             System.identityHashCode(value),
             bucketedSize);
+        return;
+      }
+      // the magazine is full, give half of it back to the bucket along with the value
+      List<V> values = magazine.removeHalf(bucketedSize);
+      synchronized (this) {
+        for (int i = 0; i < values.size(); ++i) {
+          releaseToBucket(values.get(i), bucketedSize);
+        }
+        releaseToBucket(value, bucketedSize);
+        logStats();
+      }
+      return;
+    }
+    synchronized (this) {
+      releaseToBucket(value, bucketedSize);
+      logStats();
+    }
+  }
+
+  /**
+   * Releases the given value to its bucket, or frees it.
+   * @param value the value to release to the pool
+   * @param bucketedSize the bucketed size of the value
+   */
+  @GuardedBy("this")
+  private void releaseToBucket(V value, int bucketedSize) {
+    final int sizeInBytes = getSizeInBytes(bucketedSize);
+    final Bucket<V> bucket = getBucket(bucketedSize);
+    if (!mInUseValues.remove(value)) {
+      // This value was not 'known' to the pool (i.e.) allocated via the pool.
+      // Something is going wrong, so let's free the value and report soft error.
+      FLog.e(
+          TAG,
+          "release (free, value unrecognized) (object, size) = (%x, %s)",
+          System.identityHashCode(value),
+          bucketedSize);
+      free(value);
+      mPoolStatsTracker.onFree(sizeInBytes);
+    } else {
+      // free the value, if
+      //  - pool exceeds maxSize
+      //  - there is no bucket for this value
+      //  - there is a bucket for this value, but it has exceeded its maxLength
+      //  - the value is not reusable
+      // If no bucket was found for the value, simply free it
+      // We should free the value if no bucket is found, or if the bucket length cap is exceeded.
+      // However, if the pool max size softcap is exceeded, it may not always be best to free
+      // *this* value.
+      if (bucket == null ||
+          bucket.isMaxLengthExceeded() ||
+          isMaxSizeSoftCapExceeded() ||
+          !isReusable(value)) {
+        if (bucket != null) {
+          bucket.decrementInUseCount();
+        }
+
+        if (FLog.isLoggable(FLog.VERBOSE)) {
+          FLog.v(
+              TAG,
+              "release (free) (object, size) = (%x, %s)",
+              System.identityHashCode(value),
+              bucketedSize);
+        }
         free(value);
+        mUsed.decrement(sizeInBytes);
         mPoolStatsTracker.onFree(sizeInBytes);
       } else {
-        // free the value, if
-        //  - pool exceeds maxSize
-        //  - there is no bucket for this value
-        //  - there is a bucket for this value, but it has exceeded its maxLength
-        //  - the value is not reusable
-        // If no bucket was found for the value, simply free it
-        // We should free the value if no bucket is found, or if the bucket length cap is exceeded.
-        // However, if the pool max size softcap is exceeded, it may not always be best to free
-        // *this* value.
-        if (bucket == null ||
-            bucket.isMaxLengthExceeded() ||
-            isMaxSizeSoftCapExceeded() ||
-            !isReusable(value)) {
-          if (bucket != null) {
-            bucket.decrementInUseCount();
-          }
-
-          if (FLog.isLoggable(FLog.VERBOSE)) {
-            FLog.v(
-                TAG,
-                "release (free) (object, size) = (%x, %s)",
-                System.identityHashCode(value),
-                bucketedSize);
-          }
-          free(value);
-          mUsed.decrement(sizeInBytes);
-          mPoolStatsTracker.onFree(sizeInBytes);
-        } else {
-          bucket.release(value);
-          mFree.increment(sizeInBytes);
-          mUsed.decrement(sizeInBytes);
-          mPoolStatsTracker.onValueRelease(sizeInBytes);
-          if (FLog.isLoggable(FLog.VERBOSE)) {
-            FLog.v(
-                TAG,
-                "release (reuse) (object, size) = (%x, %s)",
-                System.identityHashCode(value),
-                bucketedSize);
-          }
+        bucket.release(value);
+        mFree.increment(sizeInBytes);
+        mUsed.decrement(sizeInBytes);
+        mPoolStatsTracker.onValueRelease(sizeInBytes);
+        if (FLog.isLoggable(FLog.VERBOSE)) {
+          FLog.v(
+              TAG,
+              "release (reuse) (object, size) = (%x, %s)",
+              System.identityHashCode(value),
+              bucketedSize);
         }
       }
-      logStats();
     }
   }
 
+  /**
+   * Moves more free values of the bucket to the magazine of the current thread, so that the next
+   * gets of this size don't need the pool lock. These values are counted as used from now on.
+   * @param bucket the bucket that just provided a value
+   * @param bucketedSize the bucketed size of the values of the bucket
+   */
+  @GuardedBy("this")
+  private void refillMagazine(Bucket<V> bucket, int bucketedSize) {
+    final int sizeInBytes = getSizeInBytes(bucketedSize);
+    final Magazine<V> magazine = mThreadMagazine.get();
+    for (int i = 0; i < mPoolParams.magazineLength / 2; ++i) {
+      V value = bucket.get();
+      if (value == null) {
+        break;
+      }
+      if (getBucketedSizeForValue(value) != bucketedSize ||
+          magazine.push(value, bucketedSize, mPoolParams.magazineLength) != Magazine.PUSHED) {
+        bucket.release(value);
+        break;
+      }
+      Preconditions.checkState(mInUseValues.add(value));
+      mUsed.increment(sizeInBytes);
+      mFree.decrement(sizeInBytes);
+    }
+  }
+
+  /**
+   * Releases the values of the magazines to the buckets.
+   * @param deadThreadsOnly whether to only drain, and forget, the magazines of the threads that
+   *   are gone
+   * @return the number of values released
+   */
+  @GuardedBy("this")
+  private int drainMagazines(boolean deadThreadsOnly) {
+    int releasedCount = 0;
+    Iterator<Magazine<V>> iterator = mMagazines.iterator();
+    while (iterator.hasNext()) {
+      Magazine<V> magazine = iterator.next();
+      boolean isOwnerDead = magazine.isOwnerDead();
+      if (deadThreadsOnly && !isOwnerDead) {
+        continue;
+      }
+      List<V> values = magazine.removeAll();
+      for (int i = 0; i < values.size(); ++i) {
+        V value = values.get(i);
+        releaseToBucket(value, getBucketedSizeForValue(value));
+      }
+      releasedCount += values.size();
+      if (isOwnerDead) {
+        iterator.remove();
+      }
+    }
+    return releasedCount;
+  }
+
   /**
    * Trims the pool in response to low-memory states (invoked from MemoryManager)
    * For now, we'll do the simplest thing, and simply clear out the entire pool. We may consider
@@ -487,6 +678,8 @@ public abstract class BasePool<V> implements Pool<V> {
     final SparseIntArray inUseCounts = new SparseIntArray();
 
     synchronized (this) {
+      // the values in the magazines go to the buckets first, so that they are freed as well
+      drainMagazines(false);
       for (int i = 0; i < mBuckets.size(); ++i) {
         final Bucket<V> bucket = mBuckets.valueAt(i);
         if (bucket.getFreeListSize() > 0) {
@@ -535,6 +728,10 @@ public abstract class BasePool<V> implements Pool<V> {
   synchronized void trimToSoftCap() {
     if (isMaxSizeSoftCapExceeded()) {
       trimToSize(mPoolParams.maxSizeSoftCap);
+      // the free values in the magazines are counted as used, get them back to trim them too
+      if (isMaxSizeSoftCapExceeded() && drainMagazines(false) > 0) {
+        trimToSize(mPoolParams.maxSizeSoftCap);
+      }
     }
   }
 
@@ -635,6 +832,7 @@ public abstract class BasePool<V> implements Pool<V> {
   synchronized boolean isMaxSizeSoftCapExceeded() {
     final boolean isMaxSizeSoftCapExceeded =
         (mUsed.mNumBytes + mFree.mNumBytes) > mPoolParams.maxSizeSoftCap;
+    mIsMaxSizeSoftCapExceeded = isMaxSizeSoftCapExceeded;
     if (isMaxSizeSoftCapExceeded) {
       mPoolStatsTracker.onSoftCapReached();
     }
@@ -654,6 +852,12 @@ public abstract class BasePool<V> implements Pool<V> {
   synchronized boolean canAllocate(int sizeInBytes) {
     int hardCap = mPoolParams.maxSizeHardCap;
 
+    // the free values in the magazines are counted as used, get them back so that they can be
+    // trimmed if needed
+    if (sizeInBytes > hardCap - mUsed.mNumBytes) {
+      drainMagazines(false);
+    }
+
     // even with our best effort we cannot ensure hard cap limit.
     // Return immediately - no point in trimming any space
     if (sizeInBytes > hardCap - mUsed.mNumBytes) {
@@ -766,6 +970,98 @@ public abstract class BasePool<V> implements Pool<V> {
     }
   }
 
+  /**
+   * The free values kept by a thread, by bucketed size. Only the owner thread uses it, except when
+   * the pool drains it, so its lock is normally uncontended.
+   * The pool lock may be held when taking the lock of a magazine, never the other way around.
+   */
+  @VisibleForTesting
+  static class Magazine<V> {
+    static final int PUSHED = 0;
+    static final int FULL = 1;
+    static final int ALREADY_PRESENT = 2;
+
+    private final WeakReference<Thread> mOwner;
+
+    @GuardedBy("this")
+    private final SparseArray<ArrayList<V>> mValues = new SparseArray<>();
+
+    Magazine(Thread owner) {
+      mOwner = new WeakReference<>(owner);
+    }
+
+    boolean isOwnerDead() {
+      Thread owner = mOwner.get();
+      return owner == null || !owner.isAlive();
+    }
+
+    /**
+     * Takes a value of the given size, if any
+     */
+    @Nullable
+    synchronized V pop(int bucketedSize) {
+      ArrayList<V> values = mValues.get(bucketedSize);
+      return values == null || values.isEmpty() ? null : values.remove(values.size() - 1);
+    }
+
+    /**
+     * Adds the value, unless there are already maxLength values of this size
+     * @return PUSHED, FULL, or ALREADY_PRESENT if the value is already in the magazine
+     */
+    synchronized int push(V value, int bucketedSize, int maxLength) {
+      ArrayList<V> values = mValues.get(bucketedSize);
+      if (values == null) {
+        values = new ArrayList<>(maxLength);
+        mValues.put(bucketedSize, values);
+      }
+      for (int i = 0; i < values.size(); ++i) {
+        if (values.get(i) == value) {
+          return ALREADY_PRESENT;
+        }
+      }
+      if (values.size() >= maxLength) {
+        return FULL;
+      }
+      values.add(value);
+      return PUSHED;
+    }
+
+    /**
+     * Takes the older half of the values of the given size
+     */
+    synchronized List<V> removeHalf(int bucketedSize) {
+      ArrayList<V> values = mValues.get(bucketedSize);
+      if (values == null) {
+        return new ArrayList<>(0);
+      }
+      List<V> olderValues = values.subList(0, values.size() / 2);
+      List<V> removedValues = new ArrayList<>(olderValues);
+      olderValues.clear();
+      return removedValues;
+    }
+
+    /**
+     * Takes all the values
+     */
+    synchronized List<V> removeAll() {
+      List<V> removedValues = new ArrayList<>();
+      for (int i = 0; i < mValues.size(); ++i) {
+        removedValues.addAll(mValues.valueAt(i));
+      }
+      mValues.clear();
+      return removedValues;
+    }
+
+    @VisibleForTesting
+    synchronized int getCount() {
+      int count = 0;
+      for (int i = 0; i < mValues.size(); ++i) {
+        count += mValues.valueAt(i).size();
+      }
+      return count;
+    }
+  }
+
   /**
    * An exception to indicate if the 'value' is invalid.
    */
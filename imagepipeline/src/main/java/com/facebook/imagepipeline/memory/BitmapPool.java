@@ -9,12 +9,16 @@
 
 package com.facebook.imagepipeline.memory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
+import java.util.Map;
+
 import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 
 import com.facebook.common.internal.Preconditions;
+import com.facebook.common.memory.MemoryTrimType;
 import com.facebook.common.memory.MemoryTrimmableRegistry;
 import com.facebook.imageutils.BitmapUtil;
 
@@ -26,11 +30,18 @@ import com.facebook.imageutils.BitmapUtil;
  * get() allows for a bitmap in the pool to be reused if it matches the desired
  * dimensions; if no such bitmap is found in the pool, a new one is allocated.
  * release() returns a bitmap to the pool.
+ * <p>
+ * The bitmaps the pool would free, which includes the bitmaps released when they are evicted
+ * from the bitmap memory cache, can be kept in a {@link BitmapReusePool} instead. get() then
+ * reuses the smallest of them large enough for the requested size before allocating a new one.
+ * The hits and misses of the reuse pool are reported in {@link #getStats}.
  */
 @ThreadSafe
 @TargetApi(21)
 public class BitmapPool extends BasePool<Bitmap> {
 
+  @Nullable private final BitmapReusePool mReusePool;
+
   /**
    * Creates an instance of a bitmap pool.
    * @param memoryTrimmableRegistry the memory manager to register with
@@ -40,10 +51,47 @@ public class BitmapPool extends BasePool<Bitmap> {
       MemoryTrimmableRegistry memoryTrimmableRegistry,
       PoolParams poolParams,
       PoolStatsTracker poolStatsTracker) {
+    this(memoryTrimmableRegistry, poolParams, poolStatsTracker, 0);
+  }
+
+  /**
+   * Creates an instance of a bitmap pool.
+   * @param memoryTrimmableRegistry the memory manager to register with
+   * @param poolParams pool parameters
+   * @param reusePoolMaxSizeInBytes the size of the bitmaps to keep for reuse instead of freeing
+   *   them, or 0 to free them right away
+   */
+  public BitmapPool(
+      MemoryTrimmableRegistry memoryTrimmableRegistry,
+      PoolParams poolParams,
+      PoolStatsTracker poolStatsTracker,
+      int reusePoolMaxSizeInBytes) {
     super(memoryTrimmableRegistry, poolParams, poolStatsTracker);
+    mReusePool =
+        reusePoolMaxSizeInBytes > 0 ? new BitmapReusePool(reusePoolMaxSizeInBytes) : null;
     initialize();
   }
 
+  /**
+   * Gets a bitmap that has a backing memory allocation of at least 'size' bytes, reusing a bitmap
+   * of the reuse pool if one is large enough.
+   * @param size the 'size' in bytes of the bitmap
+   * @return the bitmap
+   */
+  @Override
+  public Bitmap get(int size) {
+    if (mReusePool != null) {
+      final Bitmap bitmap = mReusePool.get(size);
+      if (bitmap != null) {
+        if (takeValue(bitmap)) {
+          return bitmap;
+        }
+        bitmap.recycle();
+      }
+    }
+    return super.get(size);
+  }
+
   /**
    * Allocate a bitmap that has a backing memory allocacation of 'size' bytes.
    * This is configuration agnostic so the size is the actual size in bytes of the bitmap.
@@ -65,9 +113,38 @@ public class BitmapPool extends BasePool<Bitmap> {
   @Override
   protected void free(Bitmap value) {
     Preconditions.checkNotNull(value);
+    if (mReusePool != null && mReusePool.offer(value)) {
+      return;
+    }
     value.recycle();
   }
 
+  /**
+   * Trims the pool, and recycles the bitmaps kept for reuse.
+   */
+  @Override
+  public void trim(MemoryTrimType memoryTrimType) {
+    super.trim(memoryTrimType);
+    if (mReusePool != null) {
+      mReusePool.clear();
+    }
+  }
+
+  /**
+   * Export memory stats, including the hits and misses of the reuse pool if any.
+   */
+  @Override
+  public synchronized Map<String, Integer> getStats() {
+    final Map<String, Integer> stats = super.getStats();
+    if (mReusePool != null) {
+      stats.put(PoolStatsTracker.REUSE_POOL_COUNT, mReusePool.getCount());
+      stats.put(PoolStatsTracker.REUSE_POOL_BYTES, mReusePool.getSizeInBytes());
+      stats.put(PoolStatsTracker.REUSE_POOL_HIT_COUNT, mReusePool.getHitCount());
+      stats.put(PoolStatsTracker.REUSE_POOL_MISS_COUNT, mReusePool.getMissCount());
+    }
+    return stats;
+  }
+
   /**
    * Gets the bucketed size (typically something the same or larger than the requested size)
    * @param requestSize the logical request size
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+
+import com.facebook.common.internal.Preconditions;
+
+/**
+ * Keeps the bitmaps a {@link BitmapPool} would otherwise free, so that later decodes can reuse
+ * them.
+ *
+ * <p> Since KitKat, a decode can reuse any mutable bitmap whose allocation is at least as large as
+ * the decoded image, whatever its dimensions and config. The bitmaps are therefore matched by
+ * allocation byte count: {@link #get} returns the smallest one large enough, provided it does not
+ * waste more than half of the requested size.
+ *
+ * <p> The total allocation byte count of the kept bitmaps is capped. The bitmaps kept the longest
+ * are recycled first to make room.
+ */
+@ThreadSafe
+@TargetApi(19)
+class BitmapReusePool {
+
+  private final int mMaxSizeInBytes;
+
+  // the kept bitmaps by allocation byte count, the most recently kept last
+  @GuardedBy("this")
+  private final TreeMap<Integer, LinkedList<Bitmap>> mBitmapsBySize = new TreeMap<>();
+  // all the kept bitmaps, the least recently kept first
+  @GuardedBy("this")
+  private final LinkedHashSet<Bitmap> mBitmaps = new LinkedHashSet<>();
+  @GuardedBy("this")
+  private int mSizeInBytes;
+  @GuardedBy("this")
+  private int mHitCount;
+  @GuardedBy("this")
+  private int mMissCount;
+
+  BitmapReusePool(int maxSizeInBytes) {
+    Preconditions.checkArgument(maxSizeInBytes > 0);
+    mMaxSizeInBytes = maxSizeInBytes;
+  }
+
+  /**
+   * Takes the smallest bitmap that can hold the given number of bytes.
+   *
+   * @return the bitmap, or null if none fits
+   */
+  @Nullable
+  synchronized Bitmap get(int sizeInBytes) {
+    final Map.Entry<Integer, LinkedList<Bitmap>> entry = mBitmapsBySize.ceilingEntry(sizeInBytes);
+    if (entry == null || entry.getKey() > sizeInBytes + sizeInBytes / 2) {
+      mMissCount++;
+      return null;
+    }
+    final Bitmap bitmap = entry.getValue().removeLast();
+    if (entry.getValue().isEmpty()) {
+      mBitmapsBySize.remove(entry.getKey());
+    }
+    mBitmaps.remove(bitmap);
+    mSizeInBytes -= entry.getKey();
+    mHitCount++;
+    return bitmap;
+  }
+
+  /**
+   * Keeps the bitmap for reuse, recycling the ones kept the longest if needed.
+   *
+   * @return false if the bitmap cannot be reused or is larger than the pool, the caller then
+   *   keeps ownership of it
+   */
+  boolean offer(Bitmap bitmap) {
+    if (bitmap.isRecycled() || !bitmap.isMutable()) {
+      return false;
+    }
+    final int sizeInBytes = bitmap.getAllocationByteCount();
+    if (sizeInBytes > mMaxSizeInBytes) {
+      return false;
+    }
+    final List<Bitmap> bitmapsToRecycle;
+    synchronized (this) {
+      if (!mBitmaps.add(bitmap)) {
+        return true;
+      }
+      LinkedList<Bitmap> bitmaps = mBitmapsBySize.get(sizeInBytes);
+      if (bitmaps == null) {
+        bitmaps = new LinkedList<>();
+        mBitmapsBySize.put(sizeInBytes, bitmaps);
+      }
+      bitmaps.addLast(bitmap);
+      mSizeInBytes += sizeInBytes;
+      bitmapsToRecycle = trimToSize(mMaxSizeInBytes);
+    }
+    recycle(bitmapsToRecycle);
+    return true;
+  }
+
+  /**
+   * Recycles all the kept bitmaps.
+   */
+  void clear() {
+    final List<Bitmap> bitmapsToRecycle;
+    synchronized (this) {
+      bitmapsToRecycle = trimToSize(0);
+    }
+    recycle(bitmapsToRecycle);
+  }
+
+  synchronized int getSizeInBytes() {
+    return mSizeInBytes;
+  }
+
+  synchronized int getCount() {
+    return mBitmaps.size();
+  }
+
+  /**
+   * @return the number of gets that returned a bitmap
+   */
+  synchronized int getHitCount() {
+    return mHitCount;
+  }
+
+  /**
+   * @return the number of gets that did not find any bitmap large enough
+   */
+  synchronized int getMissCount() {
+    return mMissCount;
+  }
+
+  @GuardedBy("this")
+  private List<Bitmap> trimToSize(int sizeInBytes) {
+    final List<Bitmap> removedBitmaps = new ArrayList<>();
+    final Iterator<Bitmap> iterator = mBitmaps.iterator();
+    while (mSizeInBytes > sizeInBytes && iterator.hasNext()) {
+      final Bitmap bitmap = iterator.next();
+      iterator.remove();
+      final int bitmapSizeInBytes = bitmap.getAllocationByteCount();
+      final LinkedList<Bitmap> bitmaps = mBitmapsBySize.get(bitmapSizeInBytes);
+      bitmaps.remove(bitmap);
+      if (bitmaps.isEmpty()) {
+        mBitmapsBySize.remove(bitmapSizeInBytes);
+      }
+      mSizeInBytes -= bitmapSizeInBytes;
+      removedBitmaps.add(bitmap);
+    }
+    return removedBitmaps;
+  }
+
+  private static void recycle(List<Bitmap> bitmaps) {
+    for (int i = 0; i < bitmaps.size(); i++) {
+      bitmaps.get(i).recycle();
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.nio.ByteBuffer;
+
+import com.facebook.binaryresource.MappedFileBinaryResource;
+import com.facebook.common.internal.Preconditions;
+
+/**
+ * An implementation of {@link PooledByteBuffer} that reads the bytes of a memory-mapped file in
+ * place, without copying them.
+ *
+ * <p>Closing the buffer only drops the reference to the mapping, the memory is unmapped when the
+ * mapping is garbage collected.
+ */
+@ThreadSafe
+public class MappedPooledByteBuffer implements PooledByteBuffer {
+
+  private final int mSize;
+
+  @GuardedBy("this")
+  private ByteBuffer mBuffer;
+
+  @GuardedBy("this")
+  private long mNativePtr;
+
+  public MappedPooledByteBuffer(MappedFileBinaryResource resource) {
+    Preconditions.checkNotNull(resource);
+    mBuffer = resource.getByteBuffer();
+    mSize = mBuffer.capacity();
+  }
+
+  @Override
+  public synchronized int size() {
+    ensureValid();
+    return mSize;
+  }
+
+  @Override
+  public synchronized byte read(int offset) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset < mSize);
+    return mBuffer.get(offset);
+  }
+
+  @Override
+  public synchronized void read(int offset, byte[] buffer, int bufferOffset, int length) {
+    ensureValid();
+    Preconditions.checkArgument(offset >= 0);
+    Preconditions.checkArgument(offset + length <= mSize);
+    mBuffer.position(offset);
+    mBuffer.get(buffer, bufferOffset, length);
+  }
+
+  /**
+   * Gets the address of the mapped memory, for native decoders.
+   */
+  @Override
+  public synchronized long getNativePtr() {
+    ensureValid();
+    if (mNativePtr == 0) {
+      mNativePtr = NativeMemoryChunk.getDirectBufferAddress(mBuffer);
+    }
+    return mNativePtr;
+  }
+
+  @Override
+  public synchronized boolean isClosed() {
+    return mBuffer == null;
+  }
+
+  /**
+   * Closes this instance. It is not an error to close an already closed bytebuffer.
+   */
+  @Override
+  public synchronized void close() {
+    mBuffer = null;
+    mNativePtr = 0;
+  }
+
+  synchronized void ensureValid() {
+    if (isClosed()) {
+      throw new ClosedException();
+    }
+  }
+}
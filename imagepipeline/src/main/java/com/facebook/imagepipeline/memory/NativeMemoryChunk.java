@@ -9,7 +9,10 @@
 
 package com.facebook.imagepipeline.memory;
 
+import javax.annotation.Nullable;
+
 import java.io.Closeable;
+import java.nio.ByteBuffer;
 
 import android.util.Log;
 
@@ -24,6 +27,12 @@ import com.facebook.imagepipeline.nativecode.ImagePipelineNativeLoader;
  *
  * <p> This class uses JNI to obtain pointer to native memory and read/write data from/to it.
  *
+ * <p> Reads go through a direct {@link ByteBuffer} view of the memory, without taking the lock of
+ * the chunk: reading a single byte is a plain memory load rather than a JNI call. The address of
+ * the memory never changes until the chunk is closed, and a chunk is only closed once no
+ * reference to it is held, so readers holding a reference don't need to synchronize with
+ * {@link #close()}. Writes and copies are still synchronized.
+ *
  * <p> Native code used by this class is shipped as part of libimagepipeline.so
  *
  * @ThreadSafe
@@ -46,16 +55,24 @@ public class NativeMemoryChunk implements Closeable {
    */
   private final int mSize;
 
+  /**
+   * Direct buffer wrapping the memory chunk, used for reads. Its absolute get methods don't
+   * change its position, so it can be shared by concurrent readers.
+   */
+  @Nullable
+  private final ByteBuffer mByteBuffer;
+
   /**
    * flag indicating if this object was closed
-   * @GuardedBy("this")
+   * Written with the lock held, read without it by the read methods.
    */
-  private boolean mClosed;
+  private volatile boolean mClosed;
 
   public NativeMemoryChunk(final int size) {
     Preconditions.checkArgument(size > 0);
     mSize = size;
     mNativePtr = nativeAllocate(mSize);
+    mByteBuffer = nativeNewDirectByteBuffer(mNativePtr, mSize);
     mClosed = false;
   }
 
@@ -63,6 +80,7 @@ public class NativeMemoryChunk implements Closeable {
   public NativeMemoryChunk() {
     mSize = 0;
     mNativePtr = 0;
+    mByteBuffer = null;
     mClosed = true;
   }
 
@@ -80,7 +98,7 @@ public class NativeMemoryChunk implements Closeable {
    * Is this chunk already closed (aka freed) ?
    * @return true, if this chunk has already been closed
    */
-  public synchronized boolean isClosed() {
+  public boolean isClosed() {
     return mClosed;
   }
 
@@ -119,13 +137,14 @@ public class NativeMemoryChunk implements Closeable {
 
   /**
    * Copy bytes from native memory to byte array.
+   * The caller must hold a reference to this chunk, it is not synchronized with close.
    * @param nativeMemoryOffset number of first byte to copy
    * @param byteArray byte array to copy to
    * @param byteArrayOffset number of first byte in byte array to be written
    * @param count number of bytes to copy
    * @return number of bytes read
    */
-  public synchronized int read(
+  public int read(
       final int nativeMemoryOffset,
       final byte[] byteArray,
       final int byteArrayOffset,
@@ -134,20 +153,24 @@ public class NativeMemoryChunk implements Closeable {
     Preconditions.checkState(!isClosed());
     final int actualCount = adjustByteCount(nativeMemoryOffset, count);
     checkBounds(nativeMemoryOffset, byteArray.length, byteArrayOffset, actualCount);
-    nativeCopyToByteArray(mNativePtr + nativeMemoryOffset, byteArray, byteArrayOffset, actualCount);
+    // a view of our own, as the bulk get methods move the position of the buffer
+    final ByteBuffer byteBuffer = mByteBuffer.duplicate();
+    byteBuffer.position(nativeMemoryOffset);
+    byteBuffer.get(byteArray, byteArrayOffset, actualCount);
     return actualCount;
   }
 
   /**
    * Read byte at given offset.
+   * The caller must hold a reference to this chunk, it is not synchronized with close.
    * @param offset
    * @return byte at given offset
    */
-  public synchronized byte read(int offset) {
+  public byte read(int offset) {
     Preconditions.checkState(!isClosed());
     Preconditions.checkArgument(offset >= 0);
     Preconditions.checkArgument(offset < mSize);
-    return nativeReadByte(mNativePtr + offset);
+    return mByteBuffer.get(offset);
   }
 
   /**
@@ -246,6 +269,16 @@ public class NativeMemoryChunk implements Closeable {
     }
   }
 
+  /**
+   * Gets the address of the memory backing a direct buffer, such as a memory-mapped file.
+   * @param buffer a direct buffer
+   * @return the address of the first byte of the buffer
+   */
+  static long getDirectBufferAddress(ByteBuffer buffer) {
+    Preconditions.checkArgument(buffer.isDirect());
+    return nativeGetDirectBufferAddress(buffer);
+  }
+
   /**
    * Computes number of bytes that can be safely read/written starting at given offset, but no more
    * than count.
@@ -282,16 +315,6 @@ public class NativeMemoryChunk implements Closeable {
   @DoNotStrip
   private static native void nativeFree(long address);
 
-  /**
-   * Copy count bytes pointed by mNativePtr to array, starting at position offset
-   */
-  @DoNotStrip
-  private static native void nativeCopyToByteArray(
-      long address,
-      byte[] array,
-      int offset,
-      int count);
-
   /**
    * Copy count bytes from byte array to native memory pointed by mNativePtr.
    */
@@ -312,9 +335,14 @@ public class NativeMemoryChunk implements Closeable {
       int count);
 
   /**
-   * Read single byte from given address
-   * @param fromPtr address to read byte from
+   * Create a direct buffer wrapping count bytes of memory at given address
+   */
+  @DoNotStrip
+  private static native ByteBuffer nativeNewDirectByteBuffer(long address, int count);
+
+  /**
+   * Get the address of the memory backing a direct buffer
    */
   @DoNotStrip
-  private static native byte nativeReadByte(long fromPtr);
+  private static native long nativeGetDirectBufferAddress(ByteBuffer buffer);
 }
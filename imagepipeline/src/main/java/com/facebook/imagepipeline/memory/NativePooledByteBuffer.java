@@ -9,9 +9,11 @@
 
 package com.facebook.imagepipeline.memory;
 
-import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
@@ -20,20 +22,36 @@ import com.facebook.common.references.CloseableReference;
 /**
  * An implementation of {@link PooledByteBuffer} that uses native memory
  * ({@link NativeMemoryChunk}) to store data
+ *
+ * <p> Reads don't take any lock, since header parsers read these buffers a byte at a time. Each
+ * read is counted instead, and closing the buffer while reads are in progress only releases the
+ * chunk once the last of them is done, so that a read never sees a chunk that went back to the
+ * pool.
  */
 @ThreadSafe
 public class NativePooledByteBuffer implements PooledByteBuffer {
 
   private final int mSize;
 
-  @GuardedBy("this")
+  /** The chunk of mBufRef, read without going through the lock of the reference */
+  private final NativeMemoryChunk mChunk;
+
+  /** Written with the lock held, read without it to check that the buffer is not closed */
   @VisibleForTesting
-  CloseableReference<NativeMemoryChunk> mBufRef;
+  volatile CloseableReference<NativeMemoryChunk> mBufRef;
+
+  /** The number of reads in progress */
+  private final AtomicInteger mActiveReads = new AtomicInteger();
+
+  /** The reference of a closed buffer, until it is released once no read is in progress */
+  private final AtomicReference<CloseableReference<NativeMemoryChunk>> mRefToRelease =
+      new AtomicReference<>();
 
   public NativePooledByteBuffer(CloseableReference<NativeMemoryChunk> bufRef, int size) {
     Preconditions.checkNotNull(bufRef);
     Preconditions.checkArgument(size >= 0 && size <= bufRef.get().getSize());
     mBufRef = bufRef.clone();
+    mChunk = mBufRef.get();
     mSize = size;
   }
 
@@ -43,32 +61,40 @@ public class NativePooledByteBuffer implements PooledByteBuffer {
    * @throws {@link ClosedException}
    */
   @Override
-  public synchronized int size() {
+  public int size() {
     ensureValid();
     return mSize;
   }
 
   @Override
-  public synchronized byte read(int offset) {
-    ensureValid();
-    Preconditions.checkArgument(offset >= 0);
-    Preconditions.checkArgument(offset < mSize);
-    return mBufRef.get().read(offset);
+  public byte read(int offset) {
+    beginRead();
+    try {
+      Preconditions.checkArgument(offset >= 0);
+      Preconditions.checkArgument(offset < mSize);
+      return mChunk.read(offset);
+    } finally {
+      endRead();
+    }
   }
 
   @Override
-  public synchronized void read(int offset, byte[] buffer, int bufferOffset, int length) {
-    ensureValid();
-    // We need to make sure that PooledByteBuffer's length is preserved.
-    // Al the other bounds checks will be performed by NativeMemoryChunk.read method.
-    Preconditions.checkArgument(offset + length <= mSize);
-    mBufRef.get().read(offset, buffer, bufferOffset, length);
+  public void read(int offset, byte[] buffer, int bufferOffset, int length) {
+    beginRead();
+    try {
+      // We need to make sure that PooledByteBuffer's length is preserved.
+      // Al the other bounds checks will be performed by NativeMemoryChunk.read method.
+      Preconditions.checkArgument(offset + length <= mSize);
+      mChunk.read(offset, buffer, bufferOffset, length);
+    } finally {
+      endRead();
+    }
   }
 
   @Override
-  public synchronized long getNativePtr() {
+  public long getNativePtr() {
     ensureValid();
-    return mBufRef.get().getNativePtr();
+    return mChunk.getNativePtr();
   }
 
   /**
@@ -76,7 +102,7 @@ public class NativePooledByteBuffer implements PooledByteBuffer {
    * @return true if this bytebuffer is closed.
    */
   @Override
-  public synchronized boolean isClosed() {
+  public boolean isClosed() {
     return !CloseableReference.isValid(mBufRef);
   }
 
@@ -88,19 +114,58 @@ public class NativePooledByteBuffer implements PooledByteBuffer {
    */
   @Override
   public synchronized void close() {
-    CloseableReference.closeSafely(mBufRef);
+    final CloseableReference<NativeMemoryChunk> bufRef = mBufRef;
+    if (bufRef == null) {
+      return;
+    }
+    // the reference to release is set before readers can see the buffer as closed
+    mRefToRelease.set(bufRef);
     mBufRef = null;
+    if (mActiveReads.get() == 0) {
+      releaseChunk();
+    }
   }
 
   /**
    * Validates that the bytebuffer instance is valid (aka not closed). If it is closed, then we
    * raise a ClosedException
-   * This doesn't really need to be synchronized, but lint won't shut up otherwise
+   * Only our own reference to the chunk can be closed, and close clears it first, so checking
+   * that it is set is enough, and cheaper than {@link #isClosed()}
    * @throws ClosedException
    */
-  synchronized void ensureValid() {
-    if (isClosed()) {
+  void ensureValid() {
+    if (mBufRef == null) {
       throw new ClosedException();
     }
   }
+
+  /**
+   * Registers a read of the chunk, which must be followed by {@link #endRead()}.
+   * A read registered before close sees the buffer as valid, and then keeps the chunk from being
+   * released. One registered after it sees the buffer as closed.
+   * @throws ClosedException
+   */
+  private void beginRead() {
+    mActiveReads.incrementAndGet();
+    if (mBufRef == null) {
+      endRead();
+      throw new ClosedException();
+    }
+  }
+
+  /**
+   * Releases the chunk if the buffer has been closed during the last read in progress.
+   */
+  private void endRead() {
+    if (mActiveReads.decrementAndGet() == 0 && mBufRef == null) {
+      releaseChunk();
+    }
+  }
+
+  /**
+   * Releases the chunk of a closed buffer, only the first call does anything.
+   */
+  private void releaseChunk() {
+    CloseableReference.closeSafely(mRefToRelease.getAndSet(null));
+  }
 }
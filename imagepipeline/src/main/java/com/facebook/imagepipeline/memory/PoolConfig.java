@@ -25,6 +25,7 @@ public class PoolConfig {
 
   private final PoolParams mBitmapPoolParams;
   private final PoolStatsTracker mBitmapPoolStatsTracker;
+  private final int mBitmapReusePoolMaxSizeInBytes;
   private final PoolParams mFlexByteArrayPoolParams;
   private final MemoryTrimmableRegistry mMemoryTrimmableRegistry;
   private final PoolParams mNativeMemoryChunkPoolParams;
@@ -41,6 +42,7 @@ public class PoolConfig {
         builder.mBitmapPoolStatsTracker == null ?
             NoOpPoolStatsTracker.getInstance() :
             builder.mBitmapPoolStatsTracker;
+    mBitmapReusePoolMaxSizeInBytes = builder.mBitmapReusePoolMaxSizeInBytes;
     mFlexByteArrayPoolParams =
         builder.mFlexByteArrayPoolParams == null ?
             DefaultFlexByteArrayPoolParams.get() :
@@ -75,6 +77,10 @@ public class PoolConfig {
     return mBitmapPoolStatsTracker;
   }
 
+  public int getBitmapReusePoolMaxSizeInBytes() {
+    return mBitmapReusePoolMaxSizeInBytes;
+  }
+
   public MemoryTrimmableRegistry getMemoryTrimmableRegistry() {
     return mMemoryTrimmableRegistry;
   }
@@ -107,6 +113,7 @@ public class PoolConfig {
 
     private PoolParams mBitmapPoolParams;
     private PoolStatsTracker mBitmapPoolStatsTracker;
+    private int mBitmapReusePoolMaxSizeInBytes;
     private PoolParams mFlexByteArrayPoolParams;
     private MemoryTrimmableRegistry mMemoryTrimmableRegistry;
     private PoolParams mNativeMemoryChunkPoolParams;
@@ -128,6 +135,16 @@ public class PoolConfig {
       return this;
     }
 
+    /**
+     * Sets the size of the bitmaps the bitmap pool keeps for reuse instead of freeing them, such
+     * as the ones evicted from the bitmap memory cache. The default, 0, frees them right away.
+     */
+    public Builder setBitmapReusePoolMaxSizeInBytes(int bitmapReusePoolMaxSizeInBytes) {
+      Preconditions.checkArgument(bitmapReusePoolMaxSizeInBytes >= 0);
+      mBitmapReusePoolMaxSizeInBytes = bitmapReusePoolMaxSizeInBytes;
+      return this;
+    }
+
     public Builder setFlexByteArrayPoolParams(PoolParams flexByteArrayPoolParams) {
       mFlexByteArrayPoolParams = flexByteArrayPoolParams;
       return this;
@@ -38,7 +38,8 @@ public class PoolFactory {
       mBitmapPool = new BitmapPool(
           mConfig.getMemoryTrimmableRegistry(),
           mConfig.getBitmapPoolParams(),
-          mConfig.getBitmapPoolStatsTracker());
+          mConfig.getBitmapPoolStatsTracker(),
+          mConfig.getBitmapReusePoolMaxSizeInBytes());
     }
     return mBitmapPool;
   }
@@ -46,6 +46,11 @@ import com.facebook.common.internal.Preconditions;
  * This represents the maximum size of the buckets in the pool. This restricts all buckets to only
  * accept elements smaller or equal to this size. If this size is exceeded, an exception will be
  * thrown.
+ * <p>
+ * {@link #magazineLength}
+ * This represents the number of free values of each size that each thread can keep to itself, in
+ * a magazine in front of the buckets. Gets and releases served by the magazine of the calling
+ * thread don't take the pool lock. If 0, there are no magazines.
  */
 public class PoolParams {
   /** If maxNumThreads is set to this level, the pool doesn't actually care what it is */
@@ -63,6 +68,9 @@ public class PoolParams {
    */
   public final int maxNumThreads;
 
+  /** The number of free values of each size each thread can keep, 0 to disable the magazines. */
+  public final int magazineLength;
+
   /**
    * Set up pool params
    * @param maxSize soft-cap and hard-cap on size of the pool
@@ -98,12 +106,42 @@ public class PoolParams {
       int minBucketSize,
       int maxBucketSize,
       int maxNumThreads) {
+    this(
+        maxSizeSoftCap,
+        maxSizeHardCap,
+        bucketSizes,
+        minBucketSize,
+        maxBucketSize,
+        maxNumThreads,
+        0);
+  }
+
+  /**
+   * Set up pool params
+   * @param maxSizeSoftCap soft cap on max size of the pool
+   * @param maxSizeHardCap hard cap on max size of the pool
+   * @param bucketSizes (optional) bucket sizes and lengths for the pool
+   * @param minBucketSize min bucket size for the pool
+   * @param maxBucketSize max bucket size for the pool
+   * @param maxNumThreads the maximum number of threads in th epool, or -1 if the pool doesn't care
+   * @param magazineLength the number of free values of each size each thread can keep, or 0
+   */
+  public PoolParams(
+      int maxSizeSoftCap,
+      int maxSizeHardCap,
+      @Nullable SparseIntArray bucketSizes,
+      int minBucketSize,
+      int maxBucketSize,
+      int maxNumThreads,
+      int magazineLength) {
     Preconditions.checkState(maxSizeSoftCap >= 0 && maxSizeHardCap >= maxSizeSoftCap);
+    Preconditions.checkState(magazineLength >= 0);
     this.maxSizeSoftCap = maxSizeSoftCap;
     this.maxSizeHardCap = maxSizeHardCap;
     this.bucketSizes = bucketSizes;
     this.minBucketSize = minBucketSize;
     this.maxBucketSize = maxBucketSize;
     this.maxNumThreads = maxNumThreads;
+    this.magazineLength = magazineLength;
   }
 }
@@ -20,6 +20,10 @@ public interface PoolStatsTracker {
   String FREE_BYTES = "free_bytes";
   String SOFT_CAP = "soft_cap";
   String HARD_CAP = "hard_cap";
+  String REUSE_POOL_COUNT = "reuse_pool_count";
+  String REUSE_POOL_BYTES = "reuse_pool_bytes";
+  String REUSE_POOL_HIT_COUNT = "reuse_pool_hit_count";
+  String REUSE_POOL_MISS_COUNT = "reuse_pool_miss_count";
 
   void setBasePool(BasePool basePool);
 
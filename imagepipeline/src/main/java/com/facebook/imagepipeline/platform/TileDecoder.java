@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.platform;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.bitmaps.SimpleBitmapReleaser;
+import com.facebook.imagepipeline.image.EncodedImage;
+
+/**
+ * Decodes parts of an encoded image without decoding the rest of it, using a
+ * {@link BitmapRegionDecoder}.
+ *
+ * <p> Opening the image parses it once, after which all the tiles a request needs are decoded from
+ * the same {@link Session}. Only JPEG, PNG and WebP images can be decoded this way, and only from
+ * Android 2.3.3 (API 10) on.
+ *
+ * <p> The tiles are regular bitmaps, allocated by the region decoder and recycled when their last
+ * reference is closed. They are neither taken from the bitmap pool, since the region decoder can
+ * only decode into a bitmap of the exact tile size before KitKat, nor counted by the
+ * {@link com.facebook.imagepipeline.memory.BitmapCounter}, which only bounds the pinned purgeable
+ * bitmaps of the Dalvik decoders. Their memory is bounded by the bitmap memory cache instead, in
+ * which every decoded tile is cached.
+ */
+@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+public class TileDecoder {
+
+  /**
+   * Opens an image to decode parts of it.
+   *
+   * @param encodedImage the image, which can be closed once this returns
+   * @return a session that has to be closed once the tiles are decoded
+   * @throws IOException if the image can't be decoded by parts
+   */
+  public Session open(EncodedImage encodedImage) throws IOException {
+    final InputStream inputStream = Preconditions.checkNotNull(encodedImage.getInputStream());
+    try {
+      return new Session(BitmapRegionDecoder.newInstance(inputStream, false));
+    } finally {
+      Closeables.closeQuietly(inputStream);
+    }
+  }
+
+  /**
+   * An open image, from which tiles are decoded one at a time.
+   */
+  @NotThreadSafe
+  public static class Session implements Closeable {
+
+    private final BitmapRegionDecoder mRegionDecoder;
+
+    private Session(BitmapRegionDecoder regionDecoder) {
+      mRegionDecoder = regionDecoder;
+    }
+
+    public int getWidth() {
+      return mRegionDecoder.getWidth();
+    }
+
+    public int getHeight() {
+      return mRegionDecoder.getHeight();
+    }
+
+    /**
+     * Decodes a part of the image.
+     *
+     * @param rect the part to decode, in pixels of the full image
+     * @param sampleSize the factor to downsample the part by, a power of 2
+     * @param bitmapConfig the config of the resulting bitmap
+     * @return a reference to the bitmap, which is recycled when the reference is closed
+     * @throws IllegalStateException if the part can't be decoded
+     */
+    public CloseableReference<Bitmap> decodeRegion(
+        Rect rect,
+        int sampleSize,
+        Bitmap.Config bitmapConfig) {
+      final BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inSampleSize = sampleSize;
+      options.inPreferredConfig = bitmapConfig;
+      final Bitmap bitmap = mRegionDecoder.decodeRegion(rect, options);
+      if (bitmap == null) {
+        throw new IllegalStateException("Could not decode region " + rect);
+      }
+      return CloseableReference.of(bitmap, SimpleBitmapReleaser.getInstance());
+    }
+
+    /**
+     * Releases the memory of the decoder.
+     */
+    @Override
+    public void close() {
+      mRegionDecoder.recycle();
+    }
+  }
+}
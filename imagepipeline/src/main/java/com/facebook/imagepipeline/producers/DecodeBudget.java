@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.CancellableRunnable;
+import com.facebook.imagepipeline.core.PrioritizedExecutor;
+import com.facebook.imagepipeline.core.PrioritizedRunnable;
+import com.facebook.imagepipeline.core.PriorityThreadPoolExecutor;
+
+/**
+ * Caps the memory the decodes in progress allocate, rather than the number of decodes.
+ *
+ * <p> Each decode is submitted along with the estimated size of its bitmap, through an executor
+ * returned by {@link #wrap}. It is handed to the underlying executor only if it fits in the budget
+ * left by the decodes in progress. Otherwise it waits here, without taking a thread, until enough
+ * of them finish. Waiting decodes are admitted by decreasing priority, and in submission order
+ * among decodes of the same priority. A decode larger than the whole budget is admitted once no
+ * other decode is in progress.
+ *
+ * <p> This turns the bursts of large decodes that would fail to allocate their bitmaps, with an
+ * OutOfMemoryError or a TooManyBitmapsException, into back-pressure on the decode queue.
+ *
+ * <p> The decodes are {@link PrioritizedRunnable}s on behalf of the tasks they wrap, and the
+ * executors returned by {@link #wrap} are {@link PrioritizedExecutor}s: a priority change moves a
+ * waiting decode, or is passed on to the underlying executor once the decode has been handed to
+ * it. Decodes whose task is a cancelled {@link CancellableRunnable} are dropped while waiting. Once
+ * handed to the underlying executor they are run anyway, which releases their bytes without
+ * running the task.
+ */
+@ThreadSafe
+public class DecodeBudget {
+
+  /**
+   * Gives the size of the bitmap a decode is about to allocate.
+   */
+  public interface SizeEstimator {
+
+    /**
+     * @return the estimated size in bytes, or 0 if it is not known
+     */
+    int getEstimatedSizeInBytes();
+  }
+
+  // higher priorities first, then in submission order
+  private static final Comparator<BudgetedTask> WAITING_ORDER = new Comparator<BudgetedTask>() {
+    @Override
+    public int compare(BudgetedTask lhs, BudgetedTask rhs) {
+      if (lhs.mWaitingPriority != rhs.mWaitingPriority) {
+        return rhs.mWaitingPriority.ordinal() - lhs.mWaitingPriority.ordinal();
+      }
+      if (lhs.mSequenceNumber != rhs.mSequenceNumber) {
+        return lhs.mSequenceNumber < rhs.mSequenceNumber ? -1 : 1;
+      }
+      return 0;
+    }
+  };
+
+  private final long mMaxBytes;
+
+  @GuardedBy("this")
+  private final TreeSet<BudgetedTask> mWaitingTasks = new TreeSet<>(WAITING_ORDER);
+  // the tasks not done yet, by the command they were submitted as
+  @GuardedBy("this")
+  private final Map<Runnable, BudgetedTask> mTasks = new HashMap<>();
+  @GuardedBy("this")
+  private long mNextSequenceNumber;
+  @GuardedBy("this")
+  private long mBytesInProgress;
+  @GuardedBy("this")
+  private int mTasksInProgress;
+
+  /**
+   * @param maxBytes the total estimated size of the decodes that may be in progress at once
+   */
+  public DecodeBudget(long maxBytes) {
+    Preconditions.checkArgument(maxBytes > 0);
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Gets an executor that runs the tasks on the given executor once they fit in the budget.
+   *
+   * @param sizeEstimator gives the size of each task, when it is submitted
+   */
+  public PrioritizedExecutor wrap(final Executor executor, final SizeEstimator sizeEstimator) {
+    return new PrioritizedExecutor() {
+      @Override
+      public void execute(Runnable command) {
+        final BudgetedTask task = new BudgetedTask(
+            executor,
+            Preconditions.checkNotNull(command),
+            Math.max(0, sizeEstimator.getEstimatedSizeInBytes()));
+        synchronized (DecodeBudget.this) {
+          task.mSequenceNumber = mNextSequenceNumber++;
+          task.mWaitingPriority = task.getPriorityOrDefault();
+          mWaitingTasks.add(task);
+          mTasks.put(command, task);
+        }
+        admitWaitingTasks();
+      }
+
+      @Override
+      public void onPriorityChanged(Runnable command) {
+        DecodeBudget.this.onPriorityChanged(command);
+      }
+    };
+  }
+
+  public long getMaxBytes() {
+    return mMaxBytes;
+  }
+
+  public synchronized long getBytesInProgress() {
+    return mBytesInProgress;
+  }
+
+  public synchronized int getTasksInProgress() {
+    return mTasksInProgress;
+  }
+
+  public synchronized int getWaitingTaskCount() {
+    return mWaitingTasks.size();
+  }
+
+  /**
+   * Hands the waiting tasks to their executors as long as the one of highest priority fits.
+   */
+  private void admitWaitingTasks() {
+    final List<BudgetedTask> admittedTasks = new ArrayList<>();
+    synchronized (this) {
+      while (!mWaitingTasks.isEmpty()) {
+        final BudgetedTask task = mWaitingTasks.first();
+        if (task.isTaskCancelled()) {
+          mWaitingTasks.pollFirst();
+          mTasks.remove(task.mRunnable);
+          continue;
+        }
+        if (mTasksInProgress > 0 && mBytesInProgress + task.mSizeInBytes > mMaxBytes) {
+          break;
+        }
+        mWaitingTasks.pollFirst();
+        mBytesInProgress += task.mSizeInBytes;
+        mTasksInProgress++;
+        task.mAdmitted.set(true);
+        admittedTasks.add(task);
+      }
+    }
+    RuntimeException rejection = null;
+    for (int i = 0; i < admittedTasks.size(); i++) {
+      final BudgetedTask task = admittedTasks.get(i);
+      try {
+        task.mExecutor.execute(task);
+      } catch (RuntimeException e) {
+        task.release();
+        rejection = e;
+      }
+    }
+    if (rejection != null) {
+      throw rejection;
+    }
+  }
+
+  /**
+   * Moves the task if it is waiting, or passes the change on to its executor if it was admitted.
+   */
+  private void onPriorityChanged(Runnable command) {
+    final BudgetedTask task;
+    final boolean waiting;
+    synchronized (this) {
+      task = mTasks.get(command);
+      if (task == null) {
+        return;
+      }
+      waiting = mWaitingTasks.remove(task);
+      if (waiting) {
+        task.mWaitingPriority = task.getPriorityOrDefault();
+        mWaitingTasks.add(task);
+      }
+    }
+    if (waiting) {
+      // the task of highest priority may fit now
+      admitWaitingTasks();
+    } else if (task.mAdmitted.get()) {
+      PriorityThreadPoolExecutor.onPriorityChanged(task.mExecutor, task);
+    }
+  }
+
+  private void onTaskDone(BudgetedTask task) {
+    synchronized (this) {
+      mBytesInProgress -= task.mSizeInBytes;
+      mTasksInProgress--;
+      mTasks.remove(task.mRunnable);
+    }
+    admitWaitingTasks();
+  }
+
+  /**
+   * Not a {@link CancellableRunnable}, so that the underlying executor always runs it and its
+   * bytes get released.
+   */
+  private class BudgetedTask implements PrioritizedRunnable {
+    private final Executor mExecutor;
+    private final Runnable mRunnable;
+    private final int mSizeInBytes;
+    // set while the bytes of the task count against the budget
+    private final AtomicBoolean mAdmitted = new AtomicBoolean();
+    // the position of the task among the waiting ones
+    @GuardedBy("DecodeBudget.this")
+    private long mSequenceNumber;
+    @GuardedBy("DecodeBudget.this")
+    private Priority mWaitingPriority;
+
+    BudgetedTask(Executor executor, Runnable runnable, int sizeInBytes) {
+      mExecutor = executor;
+      mRunnable = runnable;
+      mSizeInBytes = sizeInBytes;
+    }
+
+    @Override
+    @Nullable
+    public Priority getPriority() {
+      return mRunnable instanceof PrioritizedRunnable ?
+          ((PrioritizedRunnable) mRunnable).getPriority() :
+          null;
+    }
+
+    Priority getPriorityOrDefault() {
+      final Priority priority = getPriority();
+      return priority == null ? PriorityThreadPoolExecutor.DEFAULT_PRIORITY : priority;
+    }
+
+    boolean isTaskCancelled() {
+      return mRunnable instanceof CancellableRunnable &&
+          ((CancellableRunnable) mRunnable).isCancelled();
+    }
+
+    void release() {
+      if (mAdmitted.compareAndSet(true, false)) {
+        onTaskDone(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!isTaskCancelled()) {
+          mRunnable.run();
+        }
+      } finally {
+        release();
+      }
+    }
+  }
+}
@@ -17,15 +17,21 @@ import java.util.Map;
 import java.util.concurrent.Executor;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 
 import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.Preconditions;
+import com.facebook.common.logging.FLog;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.ExceptionWithNoStacktrace;
 import com.facebook.common.util.UriUtil;
+import com.facebook.imageformat.DefaultImageFormats;
 import com.facebook.imageformat.ImageFormat;
+import com.facebook.imagepipeline.bitmaps.AreaAveragingDownscaler;
 import com.facebook.imagepipeline.common.ImageDecodeOptions;
 import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.TooManyBitmapsException;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegParser;
@@ -36,6 +42,7 @@ import com.facebook.imagepipeline.image.ImmutableQualityInfo;
 import com.facebook.imagepipeline.image.QualityInfo;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imageutils.BitmapUtil;
 
 import static com.facebook.imagepipeline.producers.JobScheduler.JobRunnable;
 
@@ -43,9 +50,17 @@ import static com.facebook.imagepipeline.producers.JobScheduler.JobRunnable;
  * Decodes images.
  *
  * <p/> Progressive JPEGs are decoded progressively as new data arrives.
+ *
+ * <p/> Other images that are larger than their resize options can be downscaled after they are
+ * decoded, on the same executor.
+ *
+ * <p/> If a {@link DecodeBudget} is given, the decodes wait for the estimated size of their bitmap
+ * to fit in it before they are handed to the executor.
  */
 public class DecodeProducer implements Producer<CloseableReference<CloseableImage>> {
 
+  private static final Class<?> TAG = DecodeProducer.class;
+
   public static final String PRODUCER_NAME = "DecodeProducer";
 
   // keys for extra map
@@ -65,6 +80,8 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
   private final boolean mDownsampleEnabled;
   private final boolean mDownsampleEnabledForNetwork;
   private final boolean mDecodeCancellationEnabled;
+  @Nullable private final AreaAveragingDownscaler mDownscaler;
+  @Nullable private final DecodeBudget mDecodeBudget;
 
   public DecodeProducer(
       final ByteArrayPool byteArrayPool,
@@ -74,6 +91,8 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
       final boolean downsampleEnabled,
       final boolean downsampleEnabledForNetwork,
       final boolean decodeCancellationEnabled,
+      @Nullable final AreaAveragingDownscaler downscaler,
+      @Nullable final DecodeBudget decodeBudget,
       final Producer<EncodedImage> inputProducer) {
     mByteArrayPool = Preconditions.checkNotNull(byteArrayPool);
     mExecutor = Preconditions.checkNotNull(executor);
@@ -83,6 +102,8 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
     mDownsampleEnabledForNetwork = downsampleEnabledForNetwork;
     mInputProducer = Preconditions.checkNotNull(inputProducer);
     mDecodeCancellationEnabled = decodeCancellationEnabled;
+    mDownscaler = downscaler;
+    mDecodeBudget = decodeBudget;
   }
 
   @Override
@@ -119,6 +140,8 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
     private boolean mIsFinished;
 
     private final JobScheduler mJobScheduler;
+    // the size of the bitmap of the last image the job was updated with
+    private volatile int mEstimatedSizeInBytes;
 
     public ProgressiveDecoder(
         final Consumer<CloseableReference<CloseableImage>> consumer,
@@ -133,19 +156,30 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
         @Override
         public void run(EncodedImage encodedImage, boolean isLast) {
           if (encodedImage != null) {
-            if (mDownsampleEnabled) {
-              ImageRequest request = producerContext.getImageRequest();
-              if (mDownsampleEnabledForNetwork ||
-                  !UriUtil.isNetworkUri(request.getSourceUri())) {
-                encodedImage.setSampleSize(DownsampleUtil.determineSampleSize(
-                    request, encodedImage));
-              }
+            if (isDownsampleEnabled()) {
+              encodedImage.setSampleSize(DownsampleUtil.determineSampleSize(
+                  producerContext.getImageRequest(), encodedImage));
             }
             doDecode(encodedImage, isLast);
           }
         }
       };
-      mJobScheduler = new JobScheduler(mExecutor, job, mImageDecodeOptions.minDecodeIntervalMs);
+      Executor executor = mExecutor;
+      if (mDecodeBudget != null) {
+        executor = mDecodeBudget.wrap(
+            executor,
+            new DecodeBudget.SizeEstimator() {
+              @Override
+              public int getEstimatedSizeInBytes() {
+                return mEstimatedSizeInBytes;
+              }
+            });
+      }
+      final TaskPriority taskPriority = new TaskPriority(producerContext.getPriority());
+      mJobScheduler = new JobScheduler(
+          taskPriority.wrap(executor),
+          job,
+          mImageDecodeOptions.minDecodeIntervalMs);
       mProducerContext.addCallbacks(
           new BaseProducerContextCallbacks() {
             @Override
@@ -155,9 +189,15 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
               }
             }
 
+            @Override
+            public void onPriorityChanged() {
+              taskPriority.setPriority(mProducerContext.getPriority());
+            }
+
             @Override
             public void onCancellationRequested() {
               if (decodeCancellationEnabled) {
+                taskPriority.cancel();
                 handleCancellation();
               }
             }
@@ -195,7 +235,41 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
 
     /** Updates the decode job. */
     protected boolean updateDecodeJob(EncodedImage ref, boolean isLast) {
-      return mJobScheduler.updateJob(ref, isLast);
+      if (!mJobScheduler.updateJob(ref, isLast)) {
+        return false;
+      }
+      if (mDecodeBudget != null) {
+        mEstimatedSizeInBytes = estimateSizeInBytes(ref);
+      }
+      return true;
+    }
+
+    private boolean isDownsampleEnabled() {
+      return mDownsampleEnabled &&
+          (mDownsampleEnabledForNetwork ||
+              !UriUtil.isNetworkUri(mProducerContext.getImageRequest().getSourceUri()));
+    }
+
+    /**
+     * Estimates the size of the bitmap the image decodes to, with the sample size the job will
+     * use. Intermediate results of progressive JPEGs decode to the same size as the final one.
+     */
+    private int estimateSizeInBytes(EncodedImage encodedImage) {
+      if (!EncodedImage.isMetaDataAvailable(encodedImage)) {
+        return 0;
+      }
+      final int sampleSize = isDownsampleEnabled() ?
+          DownsampleUtil.determineSampleSize(mProducerContext.getImageRequest(), encodedImage) :
+          1;
+      final long pixels = (long) ((encodedImage.getWidth() + sampleSize - 1) / sampleSize) *
+          ((encodedImage.getHeight() + sampleSize - 1) / sampleSize);
+      int bytesPerPixel;
+      try {
+        bytesPerPixel = BitmapUtil.getPixelSizeForBitmapConfig(mImageDecodeOptions.bitmapConfig);
+      } catch (UnsupportedOperationException e) {
+        bytesPerPixel = BitmapUtil.ARGB_8888_BYTES_PER_PIXEL;
+      }
+      return (int) Math.min(Integer.MAX_VALUE, pixels * bytesPerPixel);
     }
 
     /** Performs the decode synchronously. */
@@ -236,7 +310,14 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
         mProducerListener.onProducerStart(mProducerContext.getId(), PRODUCER_NAME);
         CloseableImage image = null;
         try {
+          long decodeStartTime = SystemClock.uptimeMillis();
           image = mImageDecoder.decode(encodedImage, length, quality, mImageDecodeOptions);
+          if (image != null) {
+            image.setDecodeDurationMs(SystemClock.uptimeMillis() - decodeStartTime);
+          }
+          if (isLast && resizeOptions != null) {
+            image = maybeDownscale(image, encodedImage.getImageFormat(), resizeOptions);
+          }
         } catch (Exception e) {
           Map<String, String> extraMap = getExtraMap(
               image,
@@ -247,6 +328,10 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
               encodedImageSize,
               requestedSizeStr,
               sampleSize);
+          // the decoded image is not passed on if downscaling it failed
+          if (image != null) {
+            image.close();
+          }
           mProducerListener.
               onProducerFinishWithFailure(mProducerContext.getId(), PRODUCER_NAME, e, extraMap);
           handleError(e);
@@ -368,6 +453,60 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
     protected abstract QualityInfo getQualityInfo();
   }
 
+  /**
+   * Downscales the decoded image if it is larger than requested and could not be resized before
+   * being decoded, as {@link ResizeAndRotateProducer} only resizes JPEGs. Only done if a downscaler
+   * was given.
+   *
+   * @return the downscaled image, in which case the decoded one is closed, or the decoded one
+   * @throws RuntimeException if downscaling fails, the decoded one is then left to the caller
+   */
+  @Nullable
+  private CloseableImage maybeDownscale(
+      @Nullable CloseableImage image,
+      @Nullable ImageFormat imageFormat,
+      ResizeOptions resizeOptions) {
+    if (mDownscaler == null ||
+        imageFormat == DefaultImageFormats.JPEG ||
+        !(image instanceof CloseableStaticBitmap)) {
+      return image;
+    }
+    final CloseableStaticBitmap staticBitmap = (CloseableStaticBitmap) image;
+    final Bitmap bitmap = staticBitmap.getUnderlyingBitmap();
+    final int rotationAngle = staticBitmap.getRotationAngle();
+    // the resize options apply to the rotated image
+    final boolean isRotatedSideways = rotationAngle == 90 || rotationAngle == 270;
+    final float ratio = ResizeAndRotateProducer.determineResizeRatio(
+        resizeOptions,
+        isRotatedSideways ? bitmap.getHeight() : bitmap.getWidth(),
+        isRotatedSideways ? bitmap.getWidth() : bitmap.getHeight());
+    if (ratio >= resizeOptions.roundUpFraction) {
+      return image;
+    }
+    final CloseableReference<Bitmap> downscaledBitmap;
+    try {
+      downscaledBitmap = mDownscaler.downscale(
+          bitmap,
+          Math.max(1, Math.round(bitmap.getWidth() * ratio)),
+          Math.max(1, Math.round(bitmap.getHeight() * ratio)));
+    } catch (TooManyBitmapsException e) {
+      FLog.w(TAG, e, "Could not downscale the decoded image, passing it on as it is");
+      return image;
+    }
+    try {
+      final CloseableStaticBitmap downscaledImage = new CloseableStaticBitmap(
+          downscaledBitmap,
+          staticBitmap.getQualityInfo(),
+          rotationAngle);
+      // what the image costs to get again is still its decode
+      downscaledImage.setDecodeDurationMs(image.getDecodeDurationMs());
+      return downscaledImage;
+    } finally {
+      downscaledBitmap.close();
+      image.close();
+    }
+  }
+
   private class LocalImagesProgressiveDecoder extends ProgressiveDecoder {
 
     public LocalImagesProgressiveDecoder(
@@ -16,6 +16,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.imagepipeline.cache.DiskCachePolicy;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -60,11 +61,15 @@ public class DiskCacheReadProducer implements Producer<EncodedImage> {
     producerContext.getListener().onProducerStart(producerContext.getId(), PRODUCER_NAME);
 
     final AtomicBoolean isCancelled = new AtomicBoolean(false);
-    Task<EncodedImage> diskLookupTask = mDiskCachePolicy
-        .createAndStartCacheReadTask(imageRequest, producerContext.getCallerContext(), isCancelled);
+    final TaskPriority taskPriority = new TaskPriority(producerContext.getPriority());
+    Task<EncodedImage> diskLookupTask = mDiskCachePolicy.createAndStartCacheReadTask(
+        imageRequest,
+        producerContext.getCallerContext(),
+        isCancelled,
+        taskPriority);
     Continuation<EncodedImage, Void> continuation = onFinishDiskReads(consumer, producerContext);
     diskLookupTask.continueWith(continuation);
-    subscribeTaskForRequestCancellation(isCancelled, producerContext);
+    subscribeTaskForRequestCancellation(isCancelled, taskPriority, consumer, producerContext);
   }
 
   private Continuation<EncodedImage, Void> onFinishDiskReads(
@@ -135,12 +140,27 @@ public class DiskCacheReadProducer implements Producer<EncodedImage> {
 
   private void subscribeTaskForRequestCancellation(
       final AtomicBoolean isCancelled,
-      ProducerContext producerContext) {
+      final TaskPriority taskPriority,
+      final Consumer<EncodedImage> consumer,
+      final ProducerContext producerContext) {
     producerContext.addCallbacks(
         new BaseProducerContextCallbacks() {
           @Override
           public void onCancellationRequested() {
             isCancelled.set(true);
+            if (taskPriority.cancel()) {
+              // the disk read won't run, so its task won't complete
+              producerContext.getListener().onProducerFinishWithCancellation(
+                  producerContext.getId(),
+                  PRODUCER_NAME,
+                  null);
+              consumer.onCancellation();
+            }
+          }
+
+          @Override
+          public void onPriorityChanged() {
+            taskPriority.setPriority(producerContext.getPriority());
           }
         });
   }
@@ -15,6 +15,7 @@ import java.util.concurrent.Executor;
 
 import com.facebook.common.internal.Closeables;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
@@ -67,14 +68,20 @@ public abstract class LocalFetchProducer implements Producer<EncodedImage> {
           }
         };
 
+    final TaskPriority taskPriority = new TaskPriority(producerContext.getPriority());
     producerContext.addCallbacks(
         new BaseProducerContextCallbacks() {
           @Override
           public void onCancellationRequested() {
             cancellableProducerRunnable.cancel();
           }
+
+          @Override
+          public void onPriorityChanged() {
+            taskPriority.setPriority(producerContext.getPriority());
+          }
         });
-    mExecutor.execute(cancellableProducerRunnable);
+    taskPriority.wrap(mExecutor).execute(cancellableProducerRunnable);
   }
 
   /** Creates a memory-backed encoded image from the stream. The stream is closed. */
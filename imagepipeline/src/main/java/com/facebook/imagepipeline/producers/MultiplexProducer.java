@@ -15,16 +15,17 @@ import javax.annotation.concurrent.ThreadSafe;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import android.util.Pair;
 
 import com.facebook.common.internal.Preconditions;
-import com.facebook.common.internal.Sets;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.imagepipeline.common.Priority;
 
@@ -36,6 +37,10 @@ import com.facebook.imagepipeline.common.Priority;
  * consumers. If the request has already return one or more results but has not finished, then
  * any requests with the same key will have the most recent result returned to them immediately.
  *
+ * <p>Subclasses whose keys don't cover the whole request can restrict which requests share a
+ * multiplexed request with {@link #canBeServedBy}, and adapt its results with
+ * {@link #wrapConsumer}.
+ *
  * @param <K> type of the key
  * @param <T> type of the closeable reference result that is returned to this producer
  */
@@ -43,21 +48,20 @@ import com.facebook.imagepipeline.common.Priority;
 public abstract class MultiplexProducer<K, T extends Closeable> implements Producer<T> {
 
   /**
-   * Map of multiplexers guarded by "this" lock. The lock should be used only to synchronize
-   * accesses to this map. In particular, no callbacks or third party code should be run under
-   * "this" lock.
+   * Map of multiplexers. It is updated without locking, with atomic conditional operations only, so
+   * that requests for different keys never wait for each other and no callbacks or third party
+   * code can end up running while the map is held.
    *
    * <p> The map might contain entries in progress, entries in progress for which cancellation
    * has been requested and ignored, or cancelled entries for which onCancellation has not been
    * called yet.
    */
-  @GuardedBy("this")
-  @VisibleForTesting final Map<K, Multiplexer> mMultiplexers;
+  @VisibleForTesting final ConcurrentMap<K, Multiplexer> mMultiplexers;
   private final Producer<T> mInputProducer;
 
   protected MultiplexProducer(Producer<T> inputProducer) {
     mInputProducer = inputProducer;
-    mMultiplexers = new HashMap<>();
+    mMultiplexers = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -65,49 +69,79 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
     K key = getKey(context);
     Multiplexer multiplexer;
     boolean createdNewMultiplexer;
-    // We do want to limit scope of this lock to guard only accesses to mMultiplexers map.
-    // However what we would like to do here is to atomically lookup mMultiplexers, add new
-    // consumer to consumers set associated with the map's entry and call consumer's callback with
-    // last intermediate result. We should not do all of those things under this lock.
-    do {
+    // What we would like to do here is to atomically lookup mMultiplexers, add new consumer to
+    // consumers set associated with the map's entry and call consumer's callback with last
+    // intermediate result. Instead, a new multiplexer is only put in the map if the entry did not
+    // change since the lookup, and the lookup is retried otherwise.
+    while (true) {
       createdNewMultiplexer = false;
-      synchronized (this) {
-        multiplexer = getExistingMultiplexer(key);
-        if (multiplexer == null) {
-          multiplexer = createAndPutNewMultiplexer(key);
-          createdNewMultiplexer = true;
+      multiplexer = getExistingMultiplexer(key);
+      if (multiplexer == null) {
+        Multiplexer newMultiplexer = new Multiplexer(key, context);
+        if (mMultiplexers.putIfAbsent(key, newMultiplexer) != null) {
+          continue;
+        }
+        multiplexer = newMultiplexer;
+        createdNewMultiplexer = true;
+      } else if (!canBeServedBy(context, multiplexer.mRequestContext)) {
+        // a multiplexer that can't serve this request keeps serving its current consumers
+        Multiplexer newMultiplexer = new Multiplexer(key, context);
+        if (!mMultiplexers.replace(key, multiplexer, newMultiplexer)) {
+          continue;
         }
+        multiplexer = newMultiplexer;
+        createdNewMultiplexer = true;
       }
-      // addNewConsumer may call consumer's onNewResult method immediately. For this reason
-      // we release "this" lock. If multiplexer is removed from mMultiplexers in the meantime,
-      // which is not very probable, then addNewConsumer will fail and we will be able to retry.
-    } while (!multiplexer.addNewConsumer(consumer, context));
+      // addNewConsumer may call consumer's onNewResult method immediately. If multiplexer is
+      // removed from mMultiplexers in the meantime, which is not very probable, then
+      // addNewConsumer will fail and we will be able to retry.
+      if (multiplexer.addNewConsumer(consumer, context)) {
+        break;
+      }
+    }
 
     if (createdNewMultiplexer) {
       multiplexer.startInputProducerIfHasAttachedConsumers();
     }
   }
 
-  private synchronized Multiplexer getExistingMultiplexer(K key) {
+  private Multiplexer getExistingMultiplexer(K key) {
     return mMultiplexers.get(key);
   }
 
-  private synchronized Multiplexer createAndPutNewMultiplexer(K key) {
-    Multiplexer multiplexer = new Multiplexer(key);
-    mMultiplexers.put(key, multiplexer);
-    return multiplexer;
-  }
-
-  private synchronized void removeMultiplexer(K key, Multiplexer multiplexer) {
-    if (mMultiplexers.get(key) == multiplexer) {
-      mMultiplexers.remove(key);
-    }
+  private void removeMultiplexer(K key, Multiplexer multiplexer) {
+    mMultiplexers.remove(key, multiplexer);
   }
 
   protected abstract K getKey(ProducerContext producerContext);
 
   protected abstract T cloneOrNull(T object);
 
+  /**
+   * Whether a request can share the multiplexed request of another one with the same key.
+   *
+   * <p>Always true by default, as requests with the same key are meant to be identical.
+   * @param context the context of the new request
+   * @param multiplexedContext the context of the request that is multiplexed
+   */
+  protected boolean canBeServedBy(ProducerContext context, ProducerContext multiplexedContext) {
+    return true;
+  }
+
+  /**
+   * Gets the consumer to pass the results of a multiplexed request to, for a request that shares
+   * it. Returns the consumer itself by default.
+   * @param consumer the consumer of the request
+   * @param context the context of the request
+   * @param multiplexedContext the context of the request that is multiplexed
+   */
+  protected Consumer<T> wrapConsumer(
+      Consumer<T> consumer,
+      ProducerContext context,
+      ProducerContext multiplexedContext) {
+    return consumer;
+  }
+
   /**
    * Multiplexes same requests - passes the same result to multiple consumers, manages cancellation
    * and maintains last intermediate result.
@@ -126,8 +160,15 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
     private final K mKey;
 
     /**
-     * Set of consumer-context pairs participating in multiplexing. Cancelled pairs
-     * are removed from the set.
+     * Context of the request the multiplexer was created for, whose image request is the one
+     * passed to the next producer.
+     */
+    private final ProducerContext mRequestContext;
+
+    /**
+     * Consumer-context pairs participating in multiplexing, in the order they were added, with the
+     * values of their context that are counted. Cancelled pairs are removed. Both take constant
+     * time, however many requests share the multiplexer.
      *
      * <p> Following invariant is maintained: if mConsumerContextPairs is not empty, then this
      * instance of Multiplexer is present in mMultiplexers map. This way all ongoing multiplexed
@@ -140,7 +181,30 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
      *   <li> cancellation notification is received and mConsumerContextPairs is empty </li>
      * </ul>
      */
-    private final CopyOnWriteArraySet<Pair<Consumer<T>, ProducerContext>> mConsumerContextPairs;
+    @GuardedBy("Multiplexer.this")
+    private final Map<Pair<Consumer<T>, ProducerContext>, CountedValues> mConsumerContextPairs;
+
+    /**
+     * Copy of mConsumerContextPairs that the results are delivered to outside of the lock. It is
+     * never modified, and only taken when a result is delivered after the set changed, instead of
+     * copying the set on each change.
+     */
+    @GuardedBy("Multiplexer.this")
+    @Nullable
+    private List<Pair<Consumer<T>, ProducerContext>> mConsumerContextPairsSnapshot;
+
+    /**
+     * Counts of the contexts in mConsumerContextPairs that are not prefetches, that expect
+     * intermediate results, and that have each priority, so that the multiplexed context can be
+     * updated without going through all of them each time a request is added, cancelled or
+     * changed.
+     */
+    @GuardedBy("Multiplexer.this")
+    private int mNonPrefetchCount;
+    @GuardedBy("Multiplexer.this")
+    private int mIntermediateResultExpectedCount;
+    @GuardedBy("Multiplexer.this")
+    private final int[] mPriorityCounts = new int[Priority.values().length];
 
     @GuardedBy("Multiplexer.this")
     @Nullable
@@ -172,9 +236,10 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
     @Nullable
     private ForwardingConsumer mForwardingConsumer;
 
-    public Multiplexer(K key) {
-      mConsumerContextPairs = Sets.newCopyOnWriteArraySet();
+    public Multiplexer(K key, ProducerContext requestContext) {
+      mConsumerContextPairs = new LinkedHashMap<>();
       mKey = key;
+      mRequestContext = requestContext;
     }
 
     /**
@@ -187,8 +252,9 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
      * @return true if consumer was added successfully
      */
     public boolean addNewConsumer(
-        final Consumer<T> consumer,
+        final Consumer<T> requestConsumer,
         final ProducerContext producerContext) {
+      final Consumer<T> consumer = wrapConsumer(requestConsumer, producerContext, mRequestContext);
       final Pair<Consumer<T>, ProducerContext> consumerContextPair =
           Pair.create(consumer, producerContext);
       T lastIntermediateResult;
@@ -204,7 +270,8 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
         if (getExistingMultiplexer(mKey) != this) {
           return false;
         }
-        mConsumerContextPairs.add(consumerContextPair);
+        mConsumerContextPairsSnapshot = null;
+        count(consumerContextPair);
         prefetchCallbacks = updateIsPrefetch();
         priorityCallbacks = updatePriority();
         intermediateResultsCallbacks = updateIsIntermediateResultExpected();
@@ -257,8 +324,12 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
               final boolean pairWasRemoved;
 
               synchronized (Multiplexer.this) {
-                pairWasRemoved = mConsumerContextPairs.remove(consumerContextPair);
+                final CountedValues countedValues =
+                    mConsumerContextPairs.remove(consumerContextPair);
+                pairWasRemoved = countedValues != null;
                 if (pairWasRemoved) {
+                  mConsumerContextPairsSnapshot = null;
+                  updateCounts(countedValues, -1);
                   if (mConsumerContextPairs.isEmpty()) {
                     contextToCancel = mMultiplexProducerContext;
                   } else {
@@ -284,17 +355,20 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
 
             @Override
             public void onIsPrefetchChanged() {
+              recount(consumerContextPair);
               BaseProducerContext.callOnIsPrefetchChanged(updateIsPrefetch());
             }
 
             @Override
             public void onIsIntermediateResultExpectedChanged() {
+              recount(consumerContextPair);
               BaseProducerContext.callOnIsIntermediateResultExpectedChanged(
                   updateIsIntermediateResultExpected());
             }
 
             @Override
             public void onPriorityChanged() {
+              recount(consumerContextPair);
               BaseProducerContext.callOnPriorityChanged(updatePriority());
             }
           });
@@ -318,9 +392,10 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
           return;
         }
 
-        ProducerContext producerContext = mConsumerContextPairs.iterator().next().second;
+        ProducerContext producerContext =
+            mConsumerContextPairs.keySet().iterator().next().second;
         mMultiplexProducerContext = new BaseProducerContext(
-            producerContext.getImageRequest(),
+            mRequestContext.getImageRequest(),
             producerContext.getId(),
             producerContext.getListener(),
             producerContext.getCallerContext(),
@@ -347,12 +422,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
     }
 
     private synchronized boolean computeIsPrefetch() {
-      for (Pair<Consumer<T>, ProducerContext> pair : mConsumerContextPairs) {
-        if (!pair.second.isPrefetch()) {
-          return false;
-        }
-      }
-      return true;
+      return mNonPrefetchCount <= 0;
     }
 
     @Nullable
@@ -365,12 +435,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
     }
 
     private synchronized boolean computeIsIntermediateResultExpected() {
-      for (Pair<Consumer<T>, ProducerContext> pair : mConsumerContextPairs) {
-        if (pair.second.isIntermediateResultExpected()) {
-          return true;
-        }
-      }
-      return false;
+      return mIntermediateResultExpectedCount > 0;
     }
 
     @Nullable
@@ -382,31 +447,69 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
     }
 
     private synchronized Priority computePriority() {
-      Priority priority = Priority.LOW;
-      for (Pair<Consumer<T>, ProducerContext> pair : mConsumerContextPairs) {
-        priority = Priority.getHigherPriority(priority, pair.second.getPriority());
+      Priority[] priorities = Priority.values();
+      for (int i = priorities.length - 1; i > 0; i--) {
+        if (mPriorityCounts[i] > 0) {
+          return priorities[i];
+        }
+      }
+      return Priority.LOW;
+    }
+
+    /**
+     * Adds the pair, or updates it, with the current values of its context, and counts them.
+     */
+    private synchronized void count(Pair<Consumer<T>, ProducerContext> consumerContextPair) {
+      final ProducerContext producerContext = consumerContextPair.second;
+      final CountedValues countedValues = new CountedValues(
+          producerContext.isPrefetch(),
+          producerContext.isIntermediateResultExpected(),
+          producerContext.getPriority());
+      mConsumerContextPairs.put(consumerContextPair, countedValues);
+      updateCounts(countedValues, 1);
+    }
+
+    private synchronized void updateCounts(CountedValues countedValues, int delta) {
+      if (!countedValues.mIsPrefetch) {
+        mNonPrefetchCount += delta;
+      }
+      if (countedValues.mIsIntermediateResultExpected) {
+        mIntermediateResultExpectedCount += delta;
       }
-      return priority;
+      mPriorityCounts[countedValues.mPriority.ordinal()] += delta;
+    }
+
+    /**
+     * Counts the context of the pair again after it changed, unless the pair was removed. The
+     * values counted before are the ones it had at that time, not the current ones.
+     */
+    private synchronized void recount(Pair<Consumer<T>, ProducerContext> consumerContextPair) {
+      final CountedValues countedValues = mConsumerContextPairs.get(consumerContextPair);
+      if (countedValues == null) {
+        return;
+      }
+      updateCounts(countedValues, -1);
+      count(consumerContextPair);
     }
 
     public void onFailure(final ForwardingConsumer consumer, final Throwable t) {
-      Iterator<Pair<Consumer<T>, ProducerContext>> iterator;
+      List<Pair<Consumer<T>, ProducerContext>> consumerContextPairs;
       synchronized (Multiplexer.this) {
         // check for late callbacks
         if (mForwardingConsumer != consumer) {
           return;
         }
 
-        iterator = mConsumerContextPairs.iterator();
+        consumerContextPairs = snapshotConsumerContextPairs();
 
-        mConsumerContextPairs.clear();
+        clearConsumerContextPairs();
         removeMultiplexer(mKey, this);
         closeSafely(mLastIntermediateResult);
         mLastIntermediateResult = null;
       }
 
-      while (iterator.hasNext()) {
-        Pair<Consumer<T>, ProducerContext> pair = iterator.next();
+      for (int i = 0; i < consumerContextPairs.size(); i++) {
+        Pair<Consumer<T>, ProducerContext> pair = consumerContextPairs.get(i);
         synchronized (pair) {
           pair.first.onFailure(t);
         }
@@ -417,7 +520,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
         final ForwardingConsumer consumer,
         final T closeableObject,
         final boolean isFinal) {
-      Iterator<Pair<Consumer<T>, ProducerContext>> iterator;
+      List<Pair<Consumer<T>, ProducerContext>> consumerContextPairs;
       synchronized (Multiplexer.this) {
         // check for late callbacks
         if (mForwardingConsumer != consumer) {
@@ -427,17 +530,17 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
         closeSafely(mLastIntermediateResult);
         mLastIntermediateResult = null;
 
-        iterator = mConsumerContextPairs.iterator();
+        consumerContextPairs = snapshotConsumerContextPairs();
         if (!isFinal) {
           mLastIntermediateResult = cloneOrNull(closeableObject);
         } else {
-          mConsumerContextPairs.clear();
+          clearConsumerContextPairs();
           removeMultiplexer(mKey, this);
         }
       }
 
-      while (iterator.hasNext()) {
-        Pair<Consumer<T>, ProducerContext> pair = iterator.next();
+      for (int i = 0; i < consumerContextPairs.size(); i++) {
+        Pair<Consumer<T>, ProducerContext> pair = consumerContextPairs.get(i);
         synchronized (pair) {
           pair.first.onNewResult(closeableObject, isFinal);
         }
@@ -461,7 +564,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
     }
 
     public void onProgressUpdate(ForwardingConsumer forwardingConsumer, float progress) {
-      Iterator<Pair<Consumer<T>, ProducerContext>> iterator;
+      List<Pair<Consumer<T>, ProducerContext>> consumerContextPairs;
       synchronized (Multiplexer.this) {
         // check for late callbacks
         if (mForwardingConsumer != forwardingConsumer) {
@@ -469,17 +572,32 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
         }
 
         mLastProgress = progress;
-        iterator = mConsumerContextPairs.iterator();
+        consumerContextPairs = snapshotConsumerContextPairs();
       }
 
-      while (iterator.hasNext()) {
-        Pair<Consumer<T>, ProducerContext> pair = iterator.next();
+      for (int i = 0; i < consumerContextPairs.size(); i++) {
+        Pair<Consumer<T>, ProducerContext> pair = consumerContextPairs.get(i);
         synchronized (pair) {
           pair.first.onProgressUpdate(progress);
         }
       }
     }
 
+    private synchronized List<Pair<Consumer<T>, ProducerContext>> snapshotConsumerContextPairs() {
+      if (mConsumerContextPairsSnapshot == null) {
+        mConsumerContextPairsSnapshot = new ArrayList<>(mConsumerContextPairs.keySet());
+      }
+      return mConsumerContextPairsSnapshot;
+    }
+
+    private synchronized void clearConsumerContextPairs() {
+      mConsumerContextPairs.clear();
+      mConsumerContextPairsSnapshot = null;
+      mNonPrefetchCount = 0;
+      mIntermediateResultExpectedCount = 0;
+      Arrays.fill(mPriorityCounts, 0);
+    }
+
     private void closeSafely(Closeable obj) {
       try {
         if (obj != null) {
@@ -515,4 +633,19 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
       }
     }
   }
+
+  /**
+   * The values of a context that a multiplexer counts, as they were when they were counted.
+   */
+  private static class CountedValues {
+    private final boolean mIsPrefetch;
+    private final boolean mIsIntermediateResultExpected;
+    private final Priority mPriority;
+
+    CountedValues(boolean isPrefetch, boolean isIntermediateResultExpected, Priority priority) {
+      mIsPrefetch = isPrefetch;
+      mIsIntermediateResultExpected = isIntermediateResultExpected;
+      mPriority = priority;
+    }
+  }
 }
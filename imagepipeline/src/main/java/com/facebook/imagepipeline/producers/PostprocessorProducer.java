@@ -22,6 +22,7 @@ import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.image.CloseableStaticBitmap;
 import com.facebook.imagepipeline.request.Postprocessor;
@@ -82,6 +83,7 @@ public class PostprocessorProducer implements Producer<CloseableReference<Closea
     private final ProducerListener mListener;
     private final String mRequestId;
     private final Postprocessor mPostprocessor;
+    private final Executor mPostprocessingExecutor;
 
     @GuardedBy("PostprocessorConsumer.this")
     private boolean mIsClosed;
@@ -100,17 +102,26 @@ public class PostprocessorProducer implements Producer<CloseableReference<Closea
         ProducerListener listener,
         String requestId,
         Postprocessor postprocessor,
-        ProducerContext producerContext) {
+        final ProducerContext producerContext) {
       super(consumer);
       mListener = listener;
       mRequestId = requestId;
       mPostprocessor = postprocessor;
+      final TaskPriority taskPriority = new TaskPriority(producerContext.getPriority());
+      mPostprocessingExecutor = taskPriority.wrap(mExecutor);
       producerContext.addCallbacks(
           new BaseProducerContextCallbacks() {
             @Override
             public void onCancellationRequested() {
+              // the queued postprocessing would find the source image closed anyway
+              taskPriority.cancel();
               maybeNotifyOnCancellation();
             }
+
+            @Override
+            public void onPriorityChanged() {
+              taskPriority.setPriority(producerContext.getPriority());
+            }
           });
     }
 
@@ -159,7 +170,7 @@ public class PostprocessorProducer implements Producer<CloseableReference<Closea
     }
 
     private void submitPostprocessing() {
-      mExecutor.execute(
+      mPostprocessingExecutor.execute(
           new Runnable() {
             @Override
             public void run() {
@@ -25,6 +25,7 @@ import com.facebook.imageformat.DefaultImageFormats;
 import com.facebook.imageformat.ImageFormat;
 import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.common.RotationOptions;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
@@ -36,7 +37,9 @@ import com.facebook.imagepipeline.request.ImageRequest;
  * Resizes and rotates JPEG image according to the EXIF orientation data or a specified rotation
  * angle.
  *
- * <p> If the image is not JPEG, no transformation is applied.
+ * <p> If the image is not JPEG, no transformation is applied. {@link DecodeProducer} can downscale
+ * such images once they are decoded instead, if it is given an
+ * {@link com.facebook.imagepipeline.bitmaps.AreaAveragingDownscaler}.
  *
  * <p> This can be used even if downsampling is enabled as long as resizing is disabled in the
  * constructor.
@@ -100,7 +103,9 @@ public class ResizeAndRotateProducer implements Producer<EncodedImage> {
           doTransform(encodedImage, isLast);
         }
       };
-      mJobScheduler = new JobScheduler(mExecutor, job, MIN_TRANSFORM_INTERVAL_MS);
+      final TaskPriority taskPriority = new TaskPriority(producerContext.getPriority());
+      mJobScheduler =
+          new JobScheduler(taskPriority.wrap(mExecutor), job, MIN_TRANSFORM_INTERVAL_MS);
 
       mProducerContext.addCallbacks(
           new BaseProducerContextCallbacks() {
@@ -110,9 +115,15 @@ public class ResizeAndRotateProducer implements Producer<EncodedImage> {
                 mJobScheduler.scheduleJob();
               }
             }
+
+            @Override
+            public void onPriorityChanged() {
+              taskPriority.setPriority(mProducerContext.getPriority());
+            }
             @Override
             public void onCancellationRequested() {
               mJobScheduler.clearJob();
+              taskPriority.cancel();
               mIsCancelled = true;
               // this only works if it is safe to discard the output of previous producer
               consumer.onCancellation();
@@ -256,7 +267,7 @@ public class ResizeAndRotateProducer implements Producer<EncodedImage> {
             shouldResize(getSoftwareNumerator(request, encodedImage, resizingEnabled)));
   }
 
-  @VisibleForTesting static float determineResizeRatio(
+  static float determineResizeRatio(
       ResizeOptions resizeOptions,
       int width,
       int height) {
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import javax.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+import android.util.Pair;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.common.TooManyBitmapsException;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+
+/**
+ * Bitmap multiplex producer that also combines the requests that only differ by their
+ * {@link ResizeOptions}.
+ *
+ * <p>A request shares the decode in progress for the same image if that decode is at least as
+ * large as the request needs, and starts its own one otherwise. The requests that shared a larger
+ * decode get its final result downscaled to their own size, unless it is already close enough to
+ * it. Intermediate results are passed on as they are.
+ *
+ * <p>The final result a request gets from a shared decode is put in the bitmap memory cache under
+ * the cache key of that request, like it would have been had the request been decoded on its own.
+ * If another request has already put that result in the cache, the cached one is passed on
+ * instead.
+ *
+ * <p>The encoded image is already fetched once for all the resize variants, as the encoded cache
+ * key does not depend on the resize options.
+ */
+public class ResizeVariantsMultiplexProducer extends BitmapMemoryCacheKeyMultiplexProducer {
+  private static final Class<?> TAG = ResizeVariantsMultiplexProducer.class;
+
+  private final MemoryCache<CacheKey, CloseableImage> mMemoryCache;
+  private final CacheKeyFactory mCacheKeyFactory;
+  private final PlatformBitmapFactory mPlatformBitmapFactory;
+
+  private final AtomicLong mSharedDecodeCount = new AtomicLong();
+  private final AtomicLong mDownscaleCount = new AtomicLong();
+  private final AtomicLong mSavedDecodePixelCount = new AtomicLong();
+
+  public ResizeVariantsMultiplexProducer(
+      MemoryCache<CacheKey, CloseableImage> memoryCache,
+      CacheKeyFactory cacheKeyFactory,
+      PlatformBitmapFactory platformBitmapFactory,
+      Producer inputProducer) {
+    super(cacheKeyFactory, inputProducer);
+    mMemoryCache = memoryCache;
+    mCacheKeyFactory = cacheKeyFactory;
+    mPlatformBitmapFactory = platformBitmapFactory;
+  }
+
+  @Override
+  protected Pair<CacheKey, ImageRequest.RequestLevel> getKey(ProducerContext producerContext) {
+    ImageRequest imageRequest = producerContext.getImageRequest();
+    if (imageRequest.getResizeOptions() != null) {
+      imageRequest = ImageRequestBuilder.fromRequest(imageRequest)
+          .setResizeOptions(null)
+          .build();
+    }
+    return Pair.create(
+        mCacheKeyFactory.getBitmapCacheKey(imageRequest, producerContext.getCallerContext()),
+        producerContext.getLowestPermittedRequestLevel());
+  }
+
+  @Override
+  protected boolean canBeServedBy(ProducerContext context, ProducerContext multiplexedContext) {
+    return covers(
+        multiplexedContext.getImageRequest().getResizeOptions(),
+        context.getImageRequest().getResizeOptions());
+  }
+
+  @Override
+  protected Consumer<CloseableReference<CloseableImage>> wrapConsumer(
+      Consumer<CloseableReference<CloseableImage>> consumer,
+      ProducerContext context,
+      ProducerContext multiplexedContext) {
+    if (context == multiplexedContext) {
+      return consumer;
+    }
+    final ResizeOptions resizeOptions = context.getImageRequest().getResizeOptions();
+    final ResizeOptions multiplexedResizeOptions =
+        multiplexedContext.getImageRequest().getResizeOptions();
+    if (resizeOptions == null ||
+        resizeOptions.equals(multiplexedResizeOptions)) {
+      return consumer;
+    }
+    final CacheKey cacheKey = mCacheKeyFactory.getBitmapCacheKey(
+        context.getImageRequest(),
+        context.getCallerContext());
+    return new DownscalingConsumer(consumer, cacheKey, resizeOptions);
+  }
+
+  /**
+   * Whether a decode for the first resize options is at least as large as the second ones need.
+   */
+  @VisibleForTesting
+  static boolean covers(@Nullable ResizeOptions decoded, @Nullable ResizeOptions requested) {
+    if (decoded == null) {
+      return true;
+    }
+    return requested != null &&
+        decoded.width >= requested.width &&
+        decoded.height >= requested.height;
+  }
+
+  /**
+   * Gets the number of final results passed to requests that shared the decode of a larger one,
+   * not counting the ones found in the cache.
+   */
+  public long getSharedDecodeCount() {
+    return mSharedDecodeCount.get();
+  }
+
+  /**
+   * Gets the number of shared results that were downscaled.
+   */
+  public long getDownscaleCount() {
+    return mDownscaleCount.get();
+  }
+
+  /**
+   * Gets the number of pixels the requests that shared a decode would have decoded on their own,
+   * approximated by the size of the results they got.
+   */
+  public long getSavedDecodePixelCount() {
+    return mSavedDecodePixelCount.get();
+  }
+
+  /**
+   * Downscales the final result of the shared decode to the size of the request, and caches it
+   * under the cache key of the request.
+   */
+  private class DownscalingConsumer extends DelegatingConsumer<
+      CloseableReference<CloseableImage>,
+      CloseableReference<CloseableImage>> {
+
+    private final CacheKey mCacheKey;
+    private final ResizeOptions mResizeOptions;
+
+    DownscalingConsumer(
+        Consumer<CloseableReference<CloseableImage>> consumer,
+        CacheKey cacheKey,
+        ResizeOptions resizeOptions) {
+      super(consumer);
+      mCacheKey = cacheKey;
+      mResizeOptions = resizeOptions;
+    }
+
+    @Override
+    protected void onNewResultImpl(
+        CloseableReference<CloseableImage> newResult,
+        boolean isLast) {
+      if (!isLast || !CloseableReference.isValid(newResult) || newResult.get().isStateful()) {
+        getConsumer().onNewResult(newResult, isLast);
+        return;
+      }
+      // the result may have been cached by a request decoded on its own in the meantime
+      final CloseableReference<CloseableImage> cachedResult = mMemoryCache.get(mCacheKey);
+      if (cachedResult != null && cachedResult.get().getQualityInfo().isOfFullQuality()) {
+        try {
+          getConsumer().onNewResult(cachedResult, true);
+        } finally {
+          cachedResult.close();
+        }
+        return;
+      }
+      CloseableReference.closeSafely(cachedResult);
+
+      final CloseableReference<CloseableImage> downscaledResult = maybeDownscale(newResult.get());
+      final CloseableReference<CloseableImage> result =
+          downscaledResult != null ? downscaledResult : newResult;
+      CloseableReference<CloseableImage> newCachedResult = null;
+      try {
+        newCachedResult = mMemoryCache.cache(mCacheKey, result);
+        mSharedDecodeCount.incrementAndGet();
+        mSavedDecodePixelCount.addAndGet(result.get().getWidth() * result.get().getHeight());
+        getConsumer().onNewResult(newCachedResult != null ? newCachedResult : result, true);
+      } finally {
+        CloseableReference.closeSafely(newCachedResult);
+        CloseableReference.closeSafely(downscaledResult);
+      }
+    }
+
+    @Nullable
+    private CloseableReference<CloseableImage> maybeDownscale(CloseableImage image) {
+      if (!(image instanceof CloseableStaticBitmap)) {
+        return null;
+      }
+      final CloseableStaticBitmap staticBitmap = (CloseableStaticBitmap) image;
+      final Bitmap bitmap = staticBitmap.getUnderlyingBitmap();
+      final int rotationAngle = staticBitmap.getRotationAngle();
+      // the resize options apply to the rotated image
+      final boolean isRotatedSideways = rotationAngle == 90 || rotationAngle == 270;
+      final int requestedWidth = isRotatedSideways ? mResizeOptions.height : mResizeOptions.width;
+      final int requestedHeight = isRotatedSideways ? mResizeOptions.width : mResizeOptions.height;
+      // like the decoders, keeps the image at least as large as requested
+      final float scale = Math.max(
+          (float) requestedWidth / bitmap.getWidth(),
+          (float) requestedHeight / bitmap.getHeight());
+      if (scale >= mResizeOptions.roundUpFraction) {
+        return null;
+      }
+      final CloseableReference<Bitmap> scaledBitmap;
+      try {
+        scaledBitmap = mPlatformBitmapFactory.createScaledBitmap(
+            bitmap,
+            Math.max(1, Math.round(bitmap.getWidth() * scale)),
+            Math.max(1, Math.round(bitmap.getHeight() * scale)),
+            true);
+      } catch (TooManyBitmapsException e) {
+        FLog.w(TAG, e, "Could not downscale the shared result, passing it on as it is");
+        return null;
+      }
+      try {
+        mDownscaleCount.incrementAndGet();
+        return CloseableReference.<CloseableImage>of(
+            new CloseableStaticBitmap(
+                scaledBitmap,
+                staticBitmap.getQualityInfo(),
+                rotationAngle));
+      } finally {
+        scaledBitmap.close();
+      }
+    }
+  }
+}
@@ -12,15 +12,18 @@ package com.facebook.imagepipeline.producers;
 import java.util.Map;
 
 import com.facebook.common.executors.StatefulRunnable;
+import com.facebook.imagepipeline.core.CancellableRunnable;
 
 /**
  * {@link StatefulRunnable} intended to be used by producers.
  *
  * <p> Class implements common functionality related to handling producer instrumentation and
  * resource management.
+ *
+ * <p> Once cancelled, it is dropped from the queue of the executors that support it.
  */
 public abstract class StatefulProducerRunnable<T>
-    extends StatefulRunnable<T> {
+    extends StatefulRunnable<T> implements CancellableRunnable {
 
   private final Consumer<T> mConsumer;
   private final ProducerListener mProducerListener;
@@ -40,6 +43,11 @@ public abstract class StatefulProducerRunnable<T>
     mProducerListener.onProducerStart(mRequestId, mProducerName);
   }
 
+  @Override
+  public boolean isCancelled() {
+    return mState.get() == STATE_CANCELLED;
+  }
+
   @Override
   protected void onSuccess(T result) {
     mProducerListener.onProducerFinishWithSuccess(
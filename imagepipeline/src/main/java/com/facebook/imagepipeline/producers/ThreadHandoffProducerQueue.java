@@ -11,18 +11,20 @@ package com.facebook.imagepipeline.producers;
 
 import com.facebook.common.internal.Preconditions;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 public class ThreadHandoffProducerQueue {
   private boolean mQueueing = false;
-  private final Deque<Runnable> mRunnableList;
+  // insertion ordered, and removes the runnables of cancelled requests in constant time
+  private final Set<Runnable> mRunnableList;
   private final Executor mExecutor;
 
   public ThreadHandoffProducerQueue(Executor executor) {
     mExecutor = Preconditions.checkNotNull(executor);
-    mRunnableList = new ArrayDeque<>();
+    mRunnableList = new LinkedHashSet<>();
   }
 
   public synchronized void addToQueueOrExecute(Runnable runnable) {
@@ -44,9 +46,12 @@ public class ThreadHandoffProducerQueue {
 
   private void execInQueue() {
     while (!mRunnableList.isEmpty()) {
-      mExecutor.execute(mRunnableList.pop());
+      // a new iterator every time, as the executor may run the runnable in place
+      final Iterator<Runnable> iterator = mRunnableList.iterator();
+      final Runnable runnable = iterator.next();
+      iterator.remove();
+      mExecutor.execute(runnable);
     }
-    mRunnableList.clear();
   }
 
   public synchronized void remove(Runnable runnable) {
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.executors.StatefulRunnable;
+import com.facebook.common.internal.ImmutableMap;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.cache.TileCacheKey;
+import com.facebook.imagepipeline.core.CancellableRunnable;
+import com.facebook.imagepipeline.core.TaskPriority;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableTile;
+import com.facebook.imagepipeline.image.CloseableTiledImage;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.platform.TileDecoder;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.TiledImageRequest;
+
+/**
+ * Decodes the tiles of a {@link TiledImageRequest} that intersect its region of interest, at the
+ * level of detail of its zoom, into a {@link CloseableTiledImage}.
+ *
+ * <p> Each tile is cached on its own in the bitmap memory cache, with a {@link TileCacheKey}. If
+ * all the tiles of a request are there, the encoded image is not fetched at all. Otherwise only the
+ * missing tiles are decoded from the final encoded image, on the decode executor.
+ *
+ * <p> Tiles outside the image are skipped, so the region of interest of the requests should lie
+ * within the image for them to be served from the cache alone.
+ */
+public class TileDecodeProducer implements Producer<CloseableReference<CloseableImage>> {
+
+  public static final String PRODUCER_NAME = "TileDecodeProducer";
+  public static final String EXTRA_CACHED_VALUE_FOUND = ProducerConstants.EXTRA_CACHED_VALUE_FOUND;
+  @VisibleForTesting static final String EXTRA_DECODED_TILES = "decodedTiles";
+
+  private final MemoryCache<CacheKey, CloseableImage> mMemoryCache;
+  private final CacheKeyFactory mCacheKeyFactory;
+  private final Executor mExecutor;
+  private final TileDecoder mTileDecoder;
+  private final Producer<EncodedImage> mInputProducer;
+
+  public TileDecodeProducer(
+      MemoryCache<CacheKey, CloseableImage> memoryCache,
+      CacheKeyFactory cacheKeyFactory,
+      Executor executor,
+      TileDecoder tileDecoder,
+      Producer<EncodedImage> inputProducer) {
+    mMemoryCache = memoryCache;
+    mCacheKeyFactory = cacheKeyFactory;
+    mExecutor = Preconditions.checkNotNull(executor);
+    mTileDecoder = tileDecoder;
+    mInputProducer = inputProducer;
+  }
+
+  @Override
+  public void produceResults(
+      final Consumer<CloseableReference<CloseableImage>> consumer,
+      final ProducerContext producerContext) {
+    final ProducerListener listener = producerContext.getListener();
+    final String requestId = producerContext.getId();
+    listener.onProducerStart(requestId, PRODUCER_NAME);
+    final ImageRequest imageRequest = producerContext.getImageRequest();
+    Preconditions.checkArgument(imageRequest instanceof TiledImageRequest);
+    final TiledImageRequest tiledImageRequest = (TiledImageRequest) imageRequest;
+    final CacheKey imageCacheKey =
+        mCacheKeyFactory.getEncodedCacheKey(imageRequest, producerContext.getCallerContext());
+
+    CloseableReference<CloseableImage> cachedImage =
+        getCachedTiles(tiledImageRequest, imageCacheKey);
+    if (cachedImage != null) {
+      listener.onProducerFinishWithSuccess(
+          requestId,
+          PRODUCER_NAME,
+          listener.requiresExtraMap(requestId)
+              ? ImmutableMap.of(EXTRA_CACHED_VALUE_FOUND, "true")
+              : null);
+      consumer.onProgressUpdate(1f);
+      consumer.onNewResult(cachedImage, true);
+      cachedImage.close();
+      return;
+    }
+
+    if (producerContext.getLowestPermittedRequestLevel().getValue() >=
+        ImageRequest.RequestLevel.BITMAP_MEMORY_CACHE.getValue()) {
+      listener.onProducerFinishWithSuccess(
+          requestId,
+          PRODUCER_NAME,
+          listener.requiresExtraMap(requestId)
+              ? ImmutableMap.of(EXTRA_CACHED_VALUE_FOUND, "false")
+              : null);
+      consumer.onNewResult(null, true);
+      return;
+    }
+
+    mInputProducer.produceResults(
+        new TileDecodeConsumer(consumer, producerContext, tiledImageRequest, imageCacheKey),
+        producerContext);
+  }
+
+  /**
+   * @return the image made of the cached tiles if all of them are cached, null otherwise
+   */
+  @Nullable
+  private CloseableReference<CloseableImage> getCachedTiles(
+      TiledImageRequest request,
+      CacheKey imageCacheKey) {
+    final List<CloseableReference<CloseableImage>> tiles = new ArrayList<>();
+    try {
+      for (int row = request.getFirstTileRow(); row <= request.getLastTileRow(); row++) {
+        for (int column = request.getFirstTileColumn();
+            column <= request.getLastTileColumn();
+            column++) {
+          CloseableReference<CloseableImage> tile =
+              mMemoryCache.get(new TileCacheKey(imageCacheKey, request.getLevel(), column, row));
+          if (tile == null) {
+            return null;
+          }
+          tiles.add(tile);
+        }
+      }
+      return CloseableReference.<CloseableImage>of(
+          new CloseableTiledImage(tiles, request.getSampleSize()));
+    } finally {
+      CloseableReference.closeSafely(tiles);
+    }
+  }
+
+  private CloseableReference<CloseableImage> decodeTile(
+      TileDecoder.Session session,
+      TileCacheKey tileCacheKey,
+      Rect rect,
+      int sampleSize,
+      Bitmap.Config bitmapConfig) {
+    final CloseableReference<Bitmap> bitmapReference =
+        session.decodeRegion(rect, sampleSize, bitmapConfig);
+    final CloseableReference<CloseableImage> tile;
+    try {
+      tile = CloseableReference.<CloseableImage>of(new CloseableTile(bitmapReference, rect));
+    } finally {
+      bitmapReference.close();
+    }
+    final CloseableReference<CloseableImage> cachedTile = mMemoryCache.cache(tileCacheKey, tile);
+    if (cachedTile == null) {
+      return tile;
+    }
+    tile.close();
+    return cachedTile;
+  }
+
+  private class TileDecodeConsumer
+      extends DelegatingConsumer<EncodedImage, CloseableReference<CloseableImage>> {
+
+    private final ProducerContext mProducerContext;
+    private final ProducerListener mListener;
+    private final TiledImageRequest mRequest;
+    private final CacheKey mImageCacheKey;
+
+    TileDecodeConsumer(
+        Consumer<CloseableReference<CloseableImage>> consumer,
+        ProducerContext producerContext,
+        TiledImageRequest request,
+        CacheKey imageCacheKey) {
+      super(consumer);
+      mProducerContext = producerContext;
+      mListener = producerContext.getListener();
+      mRequest = request;
+      mImageCacheKey = imageCacheKey;
+    }
+
+    @Override
+    protected void onNewResultImpl(EncodedImage newResult, boolean isLast) {
+      // the tiles are only decoded from the complete image
+      if (!isLast) {
+        return;
+      }
+      if (!EncodedImage.isValid(newResult)) {
+        mListener.onProducerFinishWithSuccess(
+            mProducerContext.getId(),
+            PRODUCER_NAME,
+            mListener.requiresExtraMap(mProducerContext.getId())
+                ? ImmutableMap.of(EXTRA_CACHED_VALUE_FOUND, "false")
+                : null);
+        getConsumer().onNewResult(null, true);
+        return;
+      }
+      final DecodeRunnable decodeRunnable =
+          new DecodeRunnable(getConsumer(), mProducerContext, mRequest, mImageCacheKey,
+              EncodedImage.cloneOrNull(newResult));
+      final TaskPriority taskPriority = new TaskPriority(mProducerContext.getPriority());
+      mProducerContext.addCallbacks(
+          new BaseProducerContextCallbacks() {
+            @Override
+            public void onCancellationRequested() {
+              decodeRunnable.cancel();
+            }
+
+            @Override
+            public void onPriorityChanged() {
+              taskPriority.setPriority(mProducerContext.getPriority());
+            }
+          });
+      taskPriority.wrap(mExecutor).execute(decodeRunnable);
+    }
+
+    @Override
+    protected void onFailureImpl(Throwable t) {
+      mListener.onProducerFinishWithFailure(mProducerContext.getId(), PRODUCER_NAME, t, null);
+      super.onFailureImpl(t);
+    }
+
+    @Override
+    protected void onCancellationImpl() {
+      mListener.onProducerFinishWithCancellation(mProducerContext.getId(), PRODUCER_NAME, null);
+      super.onCancellationImpl();
+    }
+  }
+
+  private class DecodeRunnable extends StatefulRunnable<CloseableReference<CloseableImage>>
+      implements CancellableRunnable {
+
+    private final Consumer<CloseableReference<CloseableImage>> mConsumer;
+    private final ProducerListener mListener;
+    private final String mRequestId;
+    private final TiledImageRequest mRequest;
+    private final CacheKey mImageCacheKey;
+    private final EncodedImage mEncodedImage;
+    private int mDecodedTileCount;
+
+    DecodeRunnable(
+        Consumer<CloseableReference<CloseableImage>> consumer,
+        ProducerContext producerContext,
+        TiledImageRequest request,
+        CacheKey imageCacheKey,
+        EncodedImage encodedImage) {
+      mConsumer = consumer;
+      mListener = producerContext.getListener();
+      mRequestId = producerContext.getId();
+      mRequest = request;
+      mImageCacheKey = imageCacheKey;
+      mEncodedImage = encodedImage;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return mState.get() == STATE_CANCELLED;
+    }
+
+    @Override
+    protected CloseableReference<CloseableImage> getResult() throws Exception {
+      try {
+        return decodeTiles();
+      } finally {
+        EncodedImage.closeSafely(mEncodedImage);
+      }
+    }
+
+    /**
+     * Decodes the tiles that are not cached yet and caches them.
+     *
+     * @return the image made of all the tiles
+     */
+    private CloseableReference<CloseableImage> decodeTiles() throws Exception {
+      final Bitmap.Config bitmapConfig = mRequest.getImageDecodeOptions().bitmapConfig;
+      final List<CloseableReference<CloseableImage>> tiles = new ArrayList<>();
+      TileDecoder.Session session = null;
+      try {
+        for (int row = mRequest.getFirstTileRow(); row <= mRequest.getLastTileRow(); row++) {
+          for (int column = mRequest.getFirstTileColumn();
+              column <= mRequest.getLastTileColumn();
+              column++) {
+            final TileCacheKey tileCacheKey =
+                new TileCacheKey(mImageCacheKey, mRequest.getLevel(), column, row);
+            CloseableReference<CloseableImage> tile = mMemoryCache.get(tileCacheKey);
+            if (tile == null) {
+              if (session == null) {
+                session = mTileDecoder.open(mEncodedImage);
+              }
+              final Rect rect =
+                  mRequest.getTileRect(column, row, session.getWidth(), session.getHeight());
+              if (rect.isEmpty()) {
+                // outside the image
+                continue;
+              }
+              tile = decodeTile(
+                  session,
+                  tileCacheKey,
+                  rect,
+                  mRequest.getSampleSize(),
+                  bitmapConfig);
+              mDecodedTileCount++;
+            }
+            tiles.add(tile);
+          }
+        }
+        return CloseableReference.<CloseableImage>of(
+            new CloseableTiledImage(tiles, mRequest.getSampleSize()));
+      } finally {
+        CloseableReference.closeSafely(tiles);
+        if (session != null) {
+          session.close();
+        }
+      }
+    }
+
+    @Override
+    protected void onSuccess(CloseableReference<CloseableImage> result) {
+      mListener.onProducerFinishWithSuccess(
+          mRequestId,
+          PRODUCER_NAME,
+          mListener.requiresExtraMap(mRequestId) ? getExtraMap() : null);
+      mConsumer.onProgressUpdate(1f);
+      mConsumer.onNewResult(result, true);
+    }
+
+    @Override
+    protected void onFailure(Exception e) {
+      mListener.onProducerFinishWithFailure(
+          mRequestId,
+          PRODUCER_NAME,
+          e,
+          mListener.requiresExtraMap(mRequestId) ? getExtraMap() : null);
+      mConsumer.onFailure(e);
+    }
+
+    @Override
+    protected void onCancellation() {
+      EncodedImage.closeSafely(mEncodedImage);
+      mListener.onProducerFinishWithCancellation(mRequestId, PRODUCER_NAME, null);
+      mConsumer.onCancellation();
+    }
+
+    @Override
+    protected void disposeResult(CloseableReference<CloseableImage> result) {
+      CloseableReference.closeSafely(result);
+    }
+
+    private Map<String, String> getExtraMap() {
+      return ImmutableMap.of(
+          EXTRA_CACHED_VALUE_FOUND,
+          "false",
+          EXTRA_DECODED_TILES,
+          String.valueOf(mDecodedTileCount));
+    }
+  }
+}
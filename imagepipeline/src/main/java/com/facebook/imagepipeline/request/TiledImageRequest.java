@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.request;
+
+import javax.annotation.concurrent.Immutable;
+
+import android.graphics.Rect;
+
+import com.facebook.common.internal.Objects;
+import com.facebook.common.internal.Preconditions;
+
+/**
+ * Request for the part of an image that is visible at a given zoom, decoded as tiles instead of
+ * as a whole.
+ *
+ * <p> The image is divided into levels of detail: level n is the image downsampled by 2^n. The
+ * request uses the smallest level that still has at least one pixel per displayed pixel at its
+ * zoom. Each level is cut into a grid of tiles of {@link #TILE_SIZE} decoded pixels, and only the
+ * tiles that intersect the region of interest get decoded. The tiles are cached on their own, so
+ * that panning and zooming only decode the tiles that come into view.
+ *
+ * <p> The result of such a request is a
+ * {@link com.facebook.imagepipeline.image.CloseableTiledImage}. Before Android 2.3.3 (API 10),
+ * where images can't be decoded by regions, the whole image is decoded instead, like for a regular
+ * request.
+ */
+@Immutable
+public class TiledImageRequest extends ImageRequest {
+
+  /** Size of the side of a tile, in decoded pixels */
+  public static final int TILE_SIZE = 256;
+
+  private final int mRegionLeft;
+  private final int mRegionTop;
+  private final int mRegionRight;
+  private final int mRegionBottom;
+  private final float mZoom;
+  private final int mLevel;
+
+  /**
+   * Creates a tiled request for the same image as another request.
+   *
+   * <p> The resize options of the request are dropped, the zoom takes their place.
+   *
+   * @param imageRequest the request for the whole image
+   * @param regionOfInterest the visible region, in pixels of the full image
+   * @param zoom how many displayed pixels a pixel of the full image takes, 0.25 if the image is
+   * shown at a fourth of its size
+   */
+  public static TiledImageRequest fromRequest(
+      ImageRequest imageRequest,
+      Rect regionOfInterest,
+      float zoom) {
+    return new TiledImageRequest(
+        ImageRequestBuilder.fromRequest(imageRequest).setResizeOptions(null),
+        regionOfInterest,
+        zoom);
+  }
+
+  protected TiledImageRequest(ImageRequestBuilder builder, Rect regionOfInterest, float zoom) {
+    super(builder);
+    Preconditions.checkArgument(zoom > 0);
+    Preconditions.checkArgument(
+        regionOfInterest.left >= 0 &&
+            regionOfInterest.top >= 0 &&
+            regionOfInterest.left < regionOfInterest.right &&
+            regionOfInterest.top < regionOfInterest.bottom);
+    mRegionLeft = regionOfInterest.left;
+    mRegionTop = regionOfInterest.top;
+    mRegionRight = regionOfInterest.right;
+    mRegionBottom = regionOfInterest.bottom;
+    mZoom = zoom;
+    mLevel = getLevelForZoom(zoom);
+  }
+
+  /**
+   * Gets the level of detail to decode the image at for a zoom.
+   */
+  public static int getLevelForZoom(float zoom) {
+    int level = 0;
+    // the sample size must not make the image smaller than it is displayed
+    while (level < 30 && (1 << (level + 1)) * zoom <= 1) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * @return the visible region, in pixels of the full image
+   */
+  public Rect getRegionOfInterest() {
+    return new Rect(mRegionLeft, mRegionTop, mRegionRight, mRegionBottom);
+  }
+
+  public float getZoom() {
+    return mZoom;
+  }
+
+  public int getLevel() {
+    return mLevel;
+  }
+
+  /**
+   * @return the factor the image is downsampled by at the level of the request
+   */
+  public int getSampleSize() {
+    return 1 << mLevel;
+  }
+
+  /**
+   * @return the size of the side of a tile, in pixels of the full image
+   */
+  public int getTileSpan() {
+    return TILE_SIZE << mLevel;
+  }
+
+  public int getFirstTileColumn() {
+    return mRegionLeft / getTileSpan();
+  }
+
+  public int getLastTileColumn() {
+    return (mRegionRight - 1) / getTileSpan();
+  }
+
+  public int getFirstTileRow() {
+    return mRegionTop / getTileSpan();
+  }
+
+  public int getLastTileRow() {
+    return (mRegionBottom - 1) / getTileSpan();
+  }
+
+  /**
+   * Gets the part of the full image a tile covers, clipped to the size of the image.
+   *
+   * @return the bounds of the tile in pixels of the full image, empty if the tile is outside the
+   * image
+   */
+  public Rect getTileRect(int column, int row, int imageWidth, int imageHeight) {
+    final int span = getTileSpan();
+    final int left = Math.min(column * span, imageWidth);
+    final int top = Math.min(row * span, imageHeight);
+    return new Rect(
+        left,
+        top,
+        Math.min(left + span, imageWidth),
+        Math.min(top + span, imageHeight));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TiledImageRequest) || !super.equals(o)) {
+      return false;
+    }
+    TiledImageRequest request = (TiledImageRequest) o;
+    return mRegionLeft == request.mRegionLeft &&
+        mRegionTop == request.mRegionTop &&
+        mRegionRight == request.mRegionRight &&
+        mRegionBottom == request.mRegionBottom &&
+        mZoom == request.mZoom;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(
+        super.hashCode(),
+        mRegionLeft,
+        mRegionTop,
+        mRegionRight,
+        mRegionBottom,
+        mZoom);
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+        .add("uri", getSourceUri())
+        .add("region", getRegionOfInterest())
+        .add("zoom", mZoom)
+        .add("level", mLevel)
+        .toString();
+  }
+}
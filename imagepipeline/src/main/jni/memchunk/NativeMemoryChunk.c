@@ -41,22 +41,6 @@ static void NativeMemoryChunk_nativeFree(
   free(JLONG_TO_PTR(lpointer));
 }
 
-static void NativeMemoryChunk_nativeCopyToByteArray(
-    JNIEnv* env,
-    jclass clzz,
-    jlong lpointer,
-    jbyteArray byteArray,
-    jint offset,
-    jint count) {
-  UNUSED(clzz);
-  (*env)->SetByteArrayRegion(
-      env,
-      byteArray,
-      offset,
-      count,
-      JLONG_TO_PTR(lpointer));
-}
-
 static void NativeMemoryChunk_nativeCopyFromByteArray(
     JNIEnv* env,
     jclass clzz,
@@ -84,25 +68,42 @@ static void NativeMemoryChunk_nativeMemcpy(
   memcpy(JLONG_TO_PTR(dst), JLONG_TO_PTR(src), count);
 }
 
-static jbyte NativeMemoryChunk_nativeReadByte(
+static jobject NativeMemoryChunk_nativeNewDirectByteBuffer(
     JNIEnv* env,
     jclass clzz,
-    jlong lpointer){
-  UNUSED(env);
+    jlong lpointer,
+    jint count) {
   UNUSED(clzz);
-  jbyte* jbyte_ptr = JLONG_TO_PTR(lpointer);
-  return *jbyte_ptr;
+  jobject buffer = (*env)->NewDirectByteBuffer(env, JLONG_TO_PTR(lpointer), count);
+  if (!buffer && !(*env)->ExceptionCheck(env)) {
+    (*env)->ThrowNew(env, jRuntimeException_class, "could not create direct buffer");
+  }
+  return buffer;
+}
+
+static jlong NativeMemoryChunk_nativeGetDirectBufferAddress(
+    JNIEnv* env,
+    jclass clzz,
+    jobject buffer) {
+  UNUSED(clzz);
+  void* pointer = (*env)->GetDirectBufferAddress(env, buffer);
+  if (!pointer) {
+    (*env)->ThrowNew(env, jRuntimeException_class, "not a direct buffer");
+    return 0;
+  }
+  return PTR_TO_JLONG(pointer);
 }
 
 static JNINativeMethod gNativeMemoryChunkMethods[] = {
   { "nativeAllocate", "(I)J", (void*) NativeMemoryChunk_nativeAllocate },
   { "nativeFree", "(J)V", (void*) NativeMemoryChunk_nativeFree },
-  { "nativeCopyToByteArray", "(J[BII)V",
-    (void*) NativeMemoryChunk_nativeCopyToByteArray },
   { "nativeCopyFromByteArray", "(J[BII)V",
     (void*) NativeMemoryChunk_nativeCopyFromByteArray },
   { "nativeMemcpy", "(JJI)V", (void*) NativeMemoryChunk_nativeMemcpy },
-  { "nativeReadByte", "(J)B", (void*) NativeMemoryChunk_nativeReadByte },
+  { "nativeNewDirectByteBuffer", "(JI)Ljava/nio/ByteBuffer;",
+    (void*) NativeMemoryChunk_nativeNewDirectByteBuffer },
+  { "nativeGetDirectBufferAddress", "(Ljava/nio/ByteBuffer;)J",
+    (void*) NativeMemoryChunk_nativeGetDirectBufferAddress },
 };
 
 /**
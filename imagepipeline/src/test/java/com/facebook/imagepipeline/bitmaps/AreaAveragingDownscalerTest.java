@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.bitmaps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link AreaAveragingDownscaler}
+ */
+public class AreaAveragingDownscalerTest {
+
+  private AreaAveragingDownscaler mDownscaler;
+
+  @Before
+  public void setUp() {
+    mDownscaler = new AreaAveragingDownscaler(mock(PlatformBitmapFactory.class), 1);
+  }
+
+  @Test
+  public void testAveragesBlocks() {
+    int[] source = new int[] {
+        gray(0), gray(100), gray(10), gray(10),
+        gray(200), gray(100), gray(30), gray(30),
+    };
+    int[] destination = new int[2];
+    mDownscaler.downscale(source, 4, 2, destination, 2, 1);
+    assertArrayEquals(new int[] {gray(100), gray(20)}, destination);
+  }
+
+  @Test
+  public void testWeighsPartiallyCoveredPixels() {
+    int[] source = new int[] {gray(0), gray(90), gray(180)};
+    int[] destination = new int[2];
+    mDownscaler.downscale(source, 3, 1, destination, 2, 1);
+    // each pixel of the result covers one pixel and a half of the source
+    assertArrayEquals(new int[] {gray(30), gray(150)}, destination);
+
+    int[] column = new int[2];
+    mDownscaler.downscale(source, 1, 3, column, 1, 2);
+    assertArrayEquals(new int[] {gray(30), gray(150)}, column);
+  }
+
+  @Test
+  public void testTransparentPixelsDoNotBleed() {
+    int[] source = new int[] {0xffff0000, 0x0000ff00};
+    int[] destination = new int[1];
+    mDownscaler.downscale(source, 2, 1, destination, 1, 1);
+    assertArrayEquals(new int[] {0x80ff0000}, destination);
+
+    mDownscaler.downscale(new int[] {0, 0}, 2, 1, destination, 1, 1);
+    assertArrayEquals(new int[] {0}, destination);
+  }
+
+  @Test
+  public void testSameSizeIsACopy() {
+    int[] source = new int[] {0xff123456, 0x80654321, 0xff000000, 0xffffffff};
+    int[] destination = new int[4];
+    mDownscaler.downscale(source, 2, 2, destination, 2, 2);
+    assertArrayEquals(source, destination);
+  }
+
+  @Test
+  public void testReusesBuffersForLargerImages() {
+    int[] destination = new int[1];
+    mDownscaler.downscale(new int[] {gray(10), gray(30)}, 2, 1, destination, 1, 1);
+    assertArrayEquals(new int[] {gray(20)}, destination);
+
+    int[] source = new int[8 * 4];
+    for (int i = 0; i < source.length; i++) {
+      source[i] = gray(i % 2 == 0 ? 40 : 80);
+    }
+    destination = new int[4 * 2];
+    mDownscaler.downscale(source, 8, 4, destination, 4, 2);
+    for (int pixel : destination) {
+      assertEquals(gray(60), pixel);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDoesNotUpscale() {
+    mDownscaler.downscale(new int[1], 1, 1, new int[2], 2, 1);
+  }
+
+  private static int gray(int value) {
+    return 0xff000000 | (value << 16) | (value << 8) | value;
+  }
+}
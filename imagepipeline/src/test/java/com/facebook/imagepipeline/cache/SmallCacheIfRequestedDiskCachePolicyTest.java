@@ -16,6 +16,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.MultiCacheKey;
 import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -47,6 +49,7 @@ public class SmallCacheIfRequestedDiskCachePolicyTest {
   private final BufferedDiskCache mSmallImageBufferedDiskCache = mock(BufferedDiskCache.class);
   private MultiCacheKey mCacheKey;
   private AtomicBoolean mIsCancelled;
+  private TaskPriority mTaskPriority;
 
   private SmallCacheIfRequestedDiskCachePolicy mSmallCacheIfRequestedDiskCachePolicy;
 
@@ -63,6 +66,7 @@ public class SmallCacheIfRequestedDiskCachePolicyTest {
     when(mImageRequest.isDiskCacheEnabled()).thenReturn(true);
 
     mIsCancelled = new AtomicBoolean(false);
+    mTaskPriority = new TaskPriority(Priority.HIGH);
 
     mSmallCacheIfRequestedDiskCachePolicy = new SmallCacheIfRequestedDiskCachePolicy(
         mDefaultBufferedDiskCache,
@@ -75,10 +79,10 @@ public class SmallCacheIfRequestedDiskCachePolicyTest {
     when(mImageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.SMALL);
 
     mSmallCacheIfRequestedDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
-    verify(mSmallImageBufferedDiskCache).get(mCacheKey, mIsCancelled);
-    verify(mDefaultBufferedDiskCache, never()).get(mCacheKey, mIsCancelled);
+    verify(mSmallImageBufferedDiskCache).get(mCacheKey, mIsCancelled, mTaskPriority);
+    verify(mDefaultBufferedDiskCache, never()).get(mCacheKey, mIsCancelled, mTaskPriority);
   }
 
   @Test
@@ -86,10 +90,10 @@ public class SmallCacheIfRequestedDiskCachePolicyTest {
     when(mImageRequest.getCacheChoice()).thenReturn(ImageRequest.CacheChoice.SMALL);
 
     mSmallCacheIfRequestedDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
-    verify(mSmallImageBufferedDiskCache).get(mCacheKey, mIsCancelled);
-    verify(mDefaultBufferedDiskCache, never()).get(mCacheKey, mIsCancelled);
+    verify(mSmallImageBufferedDiskCache).get(mCacheKey, mIsCancelled, mTaskPriority);
+    verify(mDefaultBufferedDiskCache, never()).get(mCacheKey, mIsCancelled, mTaskPriority);
   }
 
   @Test
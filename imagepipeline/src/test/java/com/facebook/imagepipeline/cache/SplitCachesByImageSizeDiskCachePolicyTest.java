@@ -17,6 +17,8 @@ import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.MultiCacheKey;
 import com.facebook.cache.common.SimpleCacheKey;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.request.ImageRequest;
@@ -57,6 +59,7 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
       mock(BufferedDiskCache.class);
   private MultiCacheKey mCacheKey;
   private AtomicBoolean mIsCancelled;
+  private TaskPriority mTaskPriority;
 
   private SplitCachesByImageSizeDiskCachePolicy mSplitCachesByImageSizeDiskCachePolicy;
 
@@ -73,6 +76,7 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
     when(mImageRequest.isDiskCacheEnabled()).thenReturn(true);
 
     mIsCancelled = new AtomicBoolean(false);
+    mTaskPriority = new TaskPriority(Priority.HIGH);
 
     mEncodedImage = new EncodedImage(CloseableReference.of(mImagePooledByteBuffer));
 
@@ -88,9 +92,10 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
     setupDiskCacheGetSuccess(mSmallImageBufferedDiskCache);
 
     mSplitCachesByImageSizeDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
-    verify(mDefaultBufferedDiskCache, never()).get(eq(mCacheKey), any(AtomicBoolean.class));
+    verify(mDefaultBufferedDiskCache, never())
+        .get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class));
   }
 
   @Test
@@ -100,10 +105,12 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
     setupDiskCacheGetSuccess(mDefaultBufferedDiskCache);
 
     mSplitCachesByImageSizeDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
-    verify(mDefaultBufferedDiskCache).get(eq(mCacheKey), any(AtomicBoolean.class));
-    verify(mSmallImageBufferedDiskCache, never()).get(eq(mCacheKey), any(AtomicBoolean.class));
+    verify(mDefaultBufferedDiskCache)
+        .get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class));
+    verify(mSmallImageBufferedDiskCache, never())
+        .get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class));
   }
 
   @Test
@@ -113,10 +120,12 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
     setupDiskCacheGetSuccess(mSmallImageBufferedDiskCache);
 
     mSplitCachesByImageSizeDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
-    verify(mSmallImageBufferedDiskCache).get(eq(mCacheKey), any(AtomicBoolean.class));
-    verify(mDefaultBufferedDiskCache, never()).get(eq(mCacheKey), any(AtomicBoolean.class));
+    verify(mSmallImageBufferedDiskCache)
+        .get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class));
+    verify(mDefaultBufferedDiskCache, never())
+        .get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class));
   }
 
   @Test
@@ -125,11 +134,13 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
     setupDiskCacheGetSuccess(mDefaultBufferedDiskCache);
 
     Task<EncodedImage> task = mSplitCachesByImageSizeDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
     assertThat(task.getResult()).isSameAs(mEncodedImage);
-    verify(mSmallImageBufferedDiskCache).get(eq(mCacheKey), any(AtomicBoolean.class));
-    verify(mDefaultBufferedDiskCache).get(eq(mCacheKey), any(AtomicBoolean.class));
+    verify(mSmallImageBufferedDiskCache)
+        .get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class));
+    verify(mDefaultBufferedDiskCache)
+        .get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class));
   }
 
   @Test
@@ -139,11 +150,11 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
     setupDiskCacheGetSuccess(mDefaultBufferedDiskCache);
 
     Task<EncodedImage> task = mSplitCachesByImageSizeDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
     assertThat(task.getResult()).isSameAs(mEncodedImage);
     verify(mSmallImageBufferedDiskCache, never())
-        .get(any(CacheKey.class), any(AtomicBoolean.class));
+        .get(any(CacheKey.class), any(AtomicBoolean.class), any(TaskPriority.class));
   }
 
   @Test
@@ -153,10 +164,11 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
     setupDiskCacheGetSuccess(mDefaultBufferedDiskCache);
 
     Task<EncodedImage> task = mSplitCachesByImageSizeDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
     assertThat(task.getResult()).isSameAs(mEncodedImage);
-    verify(mDefaultBufferedDiskCache).get(eq(mCacheKey), any(AtomicBoolean.class));
+    verify(mDefaultBufferedDiskCache)
+        .get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class));
   }
 
   @Test
@@ -165,7 +177,7 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
     setupDiskCacheGetSuccess(mDefaultBufferedDiskCache);
 
     Task<EncodedImage> task = mSplitCachesByImageSizeDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
     assertThat(task.getResult()).isSameAs(mEncodedImage);
   }
@@ -175,12 +187,13 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
     setupDiskCacheGetWait(mSmallImageBufferedDiskCache);
 
     Task<EncodedImage> task = mSplitCachesByImageSizeDiskCachePolicy
-        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled);
+        .createAndStartCacheReadTask(mImageRequest, mCallerContext, mIsCancelled, mTaskPriority);
 
     mTaskCompletionSource.setCancelled();
 
     assertThat(task.getResult()).isNull();
-    verify(mDefaultBufferedDiskCache, never()).get(eq(mCacheKey), any(AtomicBoolean.class));
+    verify(mDefaultBufferedDiskCache, never())
+        .get(eq(mCacheKey), any(AtomicBoolean.class), any(TaskPriority.class));
   }
 
   @Test
@@ -219,22 +232,22 @@ public class SplitCachesByImageSizeDiskCachePolicyTest {
 
   private void setupDiskCacheGetWait(BufferedDiskCache bufferedDiskCache) {
     mTaskCompletionSource = Task.create();
-    when(bufferedDiskCache.get(mCacheKey, mIsCancelled))
+    when(bufferedDiskCache.get(mCacheKey, mIsCancelled, mTaskPriority))
         .thenReturn(mTaskCompletionSource.getTask());
   }
 
   private void setupDiskCacheGetSuccess(BufferedDiskCache bufferedDiskCache) {
-    when(bufferedDiskCache.get(mCacheKey, mIsCancelled))
+    when(bufferedDiskCache.get(mCacheKey, mIsCancelled, mTaskPriority))
         .thenReturn(Task.forResult(mEncodedImage));
   }
 
   private void setupDiskCacheGetNotFound(BufferedDiskCache bufferedDiskCache) {
-    when(bufferedDiskCache.get(mCacheKey, mIsCancelled))
+    when(bufferedDiskCache.get(mCacheKey, mIsCancelled, mTaskPriority))
         .thenReturn(Task.<EncodedImage>forResult(null));
   }
 
   private void setupDiskCacheGetFailure(BufferedDiskCache bufferedDiskCache) {
-    when(bufferedDiskCache.get(mCacheKey, mIsCancelled))
+    when(bufferedDiskCache.get(mCacheKey, mIsCancelled, mTaskPriority))
         .thenReturn(Task.<EncodedImage>forError(mException));
   }
 }
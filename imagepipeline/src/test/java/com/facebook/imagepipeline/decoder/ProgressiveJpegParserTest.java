@@ -9,16 +9,23 @@
 
 package com.facebook.imagepipeline.decoder;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Random;
 
 import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.internal.Supplier;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.references.ResourceReleaser;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.testing.TrivialPooledByteBuffer;
+import com.facebook.imageutils.JfifUtil;
 
 import org.junit.*;
 import org.junit.runner.*;
@@ -114,6 +121,98 @@ public class ProgressiveJpegParserTest {
     testFirstNBytes(mJpegBytes, mJpegBytes.length, true, 10, 32844);
   }
 
+  @Test
+  public void testSegmentsSpanningChunks() {
+    // an APP0 segment of 20 bytes holding SOS markers, then two scans
+    byte[] fakeJpeg = new byte[] {
+        (byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, (byte) 0x00, (byte) 0x14,
+        (byte) 0xff, (byte) 0xda, (byte) 0xff, (byte) 0xda, (byte) 0xff, (byte) 0xda,
+        (byte) 0xff, (byte) 0xda, (byte) 0xff, (byte) 0xda, (byte) 0xff, (byte) 0xda,
+        (byte) 0xff, (byte) 0xda, (byte) 0xff, (byte) 0xda, (byte) 0xff, (byte) 0xda,
+        (byte) 0xff, (byte) 0xda, (byte) 0x00, (byte) 0x03, (byte) 0x00, (byte) 0xff,
+        (byte) 0xda, (byte) 0x00, (byte) 0x03, (byte) 0x00, (byte) 0xff, (byte) 0xd9};
+    for (int chunkSize = 1; chunkSize <= fakeJpeg.length; chunkSize++) {
+      mProgressiveJpegParser = new ProgressiveJpegParser(createByteArrayPool(chunkSize));
+      // the markers within the segment are skipped, even when it ends in a later call
+      testFirstNBytes(fakeJpeg, 10, false, 0, 0);
+      testFirstNBytes(fakeJpeg, 27, false, 0, 0);
+      testFirstNBytes(fakeJpeg, 31, true, 1, 29);
+      testFirstNBytes(fakeJpeg, fakeJpeg.length, true, 2, 34);
+    }
+  }
+
+  @Test
+  public void testOneByteIncrements() {
+    int calls = 0;
+    int scansFound = 0;
+    for (int n = 1; n <= mJpegBytes.length; n++) {
+      calls++;
+      if (mProgressiveJpegParser.parseMoreData(buildEncodedImage(mJpegBytes, n))) {
+        scansFound++;
+      }
+      if (n == 7000) {
+        assertEquals(1, mProgressiveJpegParser.getBestScanNumber());
+        assertEquals(4332, mProgressiveJpegParser.getBestScanEndOffset());
+      }
+    }
+    assertEquals(mJpegBytes.length, calls);
+    assertEquals(10, scansFound);
+    assertTrue(mProgressiveJpegParser.isJpeg());
+    assertEquals(10, mProgressiveJpegParser.getBestScanNumber());
+    assertEquals(32844, mProgressiveJpegParser.getBestScanEndOffset());
+  }
+
+  @Test
+  public void testOnRealJpegStream() throws IOException {
+    File file = File.createTempFile("progressive", ".jpg");
+    try {
+      assertTrue(mProgressiveJpegParser.parseMoreData(buildEncodedImage(file, mJpegBytes, 7000)));
+      assertEquals(1, mProgressiveJpegParser.getBestScanNumber());
+      assertEquals(4332, mProgressiveJpegParser.getBestScanEndOffset());
+      assertTrue(mProgressiveJpegParser.parseMoreData(
+          buildEncodedImage(file, mJpegBytes, mJpegBytes.length)));
+      assertTrue(mProgressiveJpegParser.isJpeg());
+      assertEquals(10, mProgressiveJpegParser.getBestScanNumber());
+      assertEquals(32844, mProgressiveJpegParser.getBestScanEndOffset());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testSameResultsAsByteAtATimeParser() throws IOException {
+    Random random = new Random(42);
+    File file = File.createTempFile("progressive", ".jpg");
+    try {
+      for (int i = 0; i < 200; i++) {
+        byte[] jpeg = i == 0 ? mJpegBytes : createRandomJpeg(random);
+        int chunkSize = 1 + random.nextInt(64);
+        boolean useStream = random.nextBoolean();
+        mProgressiveJpegParser = new ProgressiveJpegParser(createByteArrayPool(chunkSize));
+        ByteAtATimeJpegParser referenceParser = new ByteAtATimeJpegParser();
+        int n = 0;
+        while (n < jpeg.length) {
+          n = Math.min(jpeg.length, n + 1 + random.nextInt(jpeg.length / 8 + 1));
+          String message = "image " + i + ", chunks of " + chunkSize + ", first " + n + " bytes";
+          boolean foundNewScan = mProgressiveJpegParser.parseMoreData(
+              useStream ? buildEncodedImage(file, jpeg, n) : buildEncodedImage(jpeg, n));
+          assertEquals(message, referenceParser.parseMoreData(jpeg, n), foundNewScan);
+          assertEquals(message, referenceParser.isJpeg(), mProgressiveJpegParser.isJpeg());
+          assertEquals(
+              message,
+              referenceParser.mBestScanNumber,
+              mProgressiveJpegParser.getBestScanNumber());
+          assertEquals(
+              message,
+              referenceParser.mBestScanEndOffset,
+              mProgressiveJpegParser.getBestScanEndOffset());
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
   /**
    * Feeds mProgressiveJpegParser with n initial bytes from byteArray and checks that
    *
@@ -141,4 +240,186 @@ public class ProgressiveJpegParserTest {
   private EncodedImage buildEncodedImage(TrivialPooledByteBuffer byteBuffer) {
     return new EncodedImage(CloseableReference.<PooledByteBuffer>of(byteBuffer));
   }
+
+  /**
+   * Builds an image of the first n bytes, without copying them.
+   */
+  private EncodedImage buildEncodedImage(byte[] bytes, int n) {
+    return new EncodedImage(
+        CloseableReference.<PooledByteBuffer>of(new PrefixPooledByteBuffer(bytes, n)));
+  }
+
+  /**
+   * Builds an image read from a file holding the first n bytes.
+   */
+  private static EncodedImage buildEncodedImage(final File file, byte[] bytes, int n)
+      throws IOException {
+    FileOutputStream os = new FileOutputStream(file);
+    try {
+      os.write(bytes, 0, n);
+    } finally {
+      os.close();
+    }
+    return new EncodedImage(
+        new Supplier<FileInputStream>() {
+          @Override
+          public FileInputStream get() {
+            try {
+              return new FileInputStream(file);
+            } catch (FileNotFoundException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        },
+        n);
+  }
+
+  private static ByteArrayPool createByteArrayPool(int chunkSize) {
+    ByteArrayPool byteArrayPool = mock(ByteArrayPool.class);
+    when(byteArrayPool.get(anyInt())).thenReturn(new byte[chunkSize]);
+    return byteArrayPool;
+  }
+
+  /**
+   * Creates a JPEG-like image made of random segments, scans with escaped 0xFF bytes and restart
+   * markers, and fill bytes.
+   */
+  private static byte[] createRandomJpeg(Random random) {
+    byte[] jpeg = new byte[64 + random.nextInt(4096)];
+    jpeg[0] = (byte) JfifUtil.MARKER_FIRST_BYTE;
+    jpeg[1] = (byte) JfifUtil.MARKER_SOI;
+    int i = 2;
+    while (i < jpeg.length) {
+      jpeg[i++] = (byte) JfifUtil.MARKER_FIRST_BYTE;
+      int kind = random.nextInt(4);
+      if (kind == 0 && i + 3 <= jpeg.length) {
+        // segment, possibly longer than what is left of the image
+        jpeg[i++] = (byte) (random.nextBoolean() ? JfifUtil.MARKER_SOS : JfifUtil.MARKER_APP1);
+        int size = 2 + random.nextInt(random.nextBoolean() ? 16 : 1024);
+        jpeg[i++] = (byte) (size >> 8);
+        jpeg[i++] = (byte) size;
+        for (int end = Math.min(jpeg.length, i + size - 2); i < end; i++) {
+          jpeg[i] = (byte) random.nextInt(256);
+        }
+      } else if (kind == 1 && i < jpeg.length) {
+        jpeg[i++] = (byte) (JfifUtil.MARKER_RST0 + random.nextInt(8));
+      } else if (kind == 2 && i < jpeg.length) {
+        jpeg[i++] =
+            (byte) (random.nextBoolean() ? JfifUtil.MARKER_FIRST_BYTE : JfifUtil.MARKER_EOI);
+      } else {
+        // entropy coded data
+        if (i < jpeg.length) {
+          jpeg[i++] = (byte) JfifUtil.MARKER_ESCAPE_BYTE;
+        }
+        for (int end = Math.min(jpeg.length, i + random.nextInt(256)); i < end; i++) {
+          jpeg[i] = (byte) random.nextInt(JfifUtil.MARKER_FIRST_BYTE);
+        }
+      }
+    }
+    return jpeg;
+  }
+
+  /**
+   * The first bytes of an array.
+   */
+  private static class PrefixPooledByteBuffer extends TrivialPooledByteBuffer {
+
+    private final int mSize;
+
+    PrefixPooledByteBuffer(byte[] buf, int size) {
+      super(buf);
+      mSize = size;
+    }
+
+    @Override
+    public int size() {
+      return isClosed() ? -1 : mSize;
+    }
+  }
+
+  /**
+   * The state machine the parser used to run a byte at a time, to check that the parser still
+   * finds the same scans.
+   */
+  private static class ByteAtATimeJpegParser {
+
+    private static final int READ_FIRST_JPEG_BYTE = 0;
+    private static final int READ_SECOND_JPEG_BYTE = 1;
+    private static final int READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA = 2;
+    private static final int READ_MARKER_SECOND_BYTE = 3;
+    private static final int READ_SIZE_FIRST_BYTE = 4;
+    private static final int READ_SIZE_SECOND_BYTE = 5;
+    private static final int NOT_A_JPEG = 6;
+
+    private int mParserState = READ_FIRST_JPEG_BYTE;
+    private int mLastByteRead;
+    private int mBytesParsed;
+    private int mNextFullScanNumber;
+    private int mBestScanNumber;
+    private int mBestScanEndOffset;
+
+    boolean parseMoreData(byte[] bytes, int size) {
+      final int oldBestScanNumber = mBestScanNumber;
+      while (mParserState != NOT_A_JPEG && mBytesParsed < size) {
+        final int nextByte = bytes[mBytesParsed] & 0xFF;
+        mBytesParsed++;
+        switch (mParserState) {
+          case READ_FIRST_JPEG_BYTE:
+            mParserState =
+                nextByte == JfifUtil.MARKER_FIRST_BYTE ? READ_SECOND_JPEG_BYTE : NOT_A_JPEG;
+            break;
+          case READ_SECOND_JPEG_BYTE:
+            mParserState = nextByte == JfifUtil.MARKER_SOI ?
+                READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA :
+                NOT_A_JPEG;
+            break;
+          case READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA:
+            if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
+              mParserState = READ_MARKER_SECOND_BYTE;
+            }
+            break;
+          case READ_MARKER_SECOND_BYTE:
+            if (nextByte == JfifUtil.MARKER_FIRST_BYTE) {
+              mParserState = READ_MARKER_SECOND_BYTE;
+            } else if (nextByte == JfifUtil.MARKER_ESCAPE_BYTE) {
+              mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+            } else {
+              if (nextByte == JfifUtil.MARKER_SOS || nextByte == JfifUtil.MARKER_EOI) {
+                if (mNextFullScanNumber > 0) {
+                  mBestScanEndOffset = mBytesParsed - 2;
+                }
+                mBestScanNumber = mNextFullScanNumber++;
+              }
+              mParserState = doesMarkerStartSegment(nextByte) ?
+                  READ_SIZE_FIRST_BYTE :
+                  READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+            }
+            break;
+          case READ_SIZE_FIRST_BYTE:
+            mParserState = READ_SIZE_SECOND_BYTE;
+            break;
+          case READ_SIZE_SECOND_BYTE:
+            mBytesParsed += ((mLastByteRead << 8) + nextByte) - 2;
+            mParserState = READ_MARKER_FIRST_BYTE_OR_ENTROPY_DATA;
+            break;
+        }
+        mLastByteRead = nextByte;
+      }
+      return mParserState != NOT_A_JPEG && mBestScanNumber != oldBestScanNumber;
+    }
+
+    boolean isJpeg() {
+      return mBytesParsed > 1 && mParserState != NOT_A_JPEG;
+    }
+
+    private static boolean doesMarkerStartSegment(int markerSecondByte) {
+      if (markerSecondByte == JfifUtil.MARKER_TEM) {
+        return false;
+      }
+      if (markerSecondByte >= JfifUtil.MARKER_RST0 && markerSecondByte <= JfifUtil.MARKER_RST7) {
+        return false;
+      }
+      return markerSecondByte != JfifUtil.MARKER_EOI && markerSecondByte != JfifUtil.MARKER_SOI;
+    }
+  }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import android.util.SparseIntArray;
+
+import com.facebook.common.memory.NoOpMemoryTrimmableRegistry;
+
+/**
+ * Measures the throughput of a {@link GenericByteArrayPool} used by several threads at once, with
+ * and without per-thread magazines. Each thread gets a few buffers of random sizes, and releases
+ * them.
+ *
+ * <p>Not a unit test, run it with the number of threads as argument (4 by default).
+ */
+public class BasePoolContentionBenchmark {
+
+  private static final int OPERATIONS_PER_THREAD = 1000000;
+  private static final int BUFFERS_HELD = 4;
+  private static final int[] BUCKET_SIZES = new int[] {16 * 1024, 32 * 1024, 64 * 1024};
+  private static final int MAGAZINE_LENGTH = 8;
+
+  public static void main(String[] args) throws InterruptedException {
+    int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    for (int round = 0; round < 2; round++) {
+      // the first round warms up the JIT
+      run("no magazine", threadCount, 0);
+      run("magazines", threadCount, MAGAZINE_LENGTH);
+    }
+  }
+
+  private static void run(String name, int threadCount, int magazineLength)
+      throws InterruptedException {
+    SparseIntArray bucketSizes = new SparseIntArray();
+    for (int bucketSize : BUCKET_SIZES) {
+      bucketSizes.put(bucketSize, threadCount * (BUFFERS_HELD + magazineLength));
+    }
+    final GenericByteArrayPool pool = new GenericByteArrayPool(
+        NoOpMemoryTrimmableRegistry.getInstance(),
+        new PoolParams(
+            Integer.MAX_VALUE,
+            Integer.MAX_VALUE,
+            bucketSizes,
+            BUCKET_SIZES[0],
+            BUCKET_SIZES[BUCKET_SIZES.length - 1],
+            threadCount,
+            magazineLength),
+        NoOpPoolStatsTracker.getInstance());
+
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final CountDownLatch doneLatch = new CountDownLatch(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      final int seed = i;
+      new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random(seed);
+          byte[][] buffers = new byte[BUFFERS_HELD][];
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int operation = 0; operation < OPERATIONS_PER_THREAD; operation += 2) {
+            int index = random.nextInt(BUFFERS_HELD);
+            if (buffers[index] != null) {
+              pool.release(buffers[index]);
+            }
+            buffers[index] = pool.get(BUCKET_SIZES[random.nextInt(BUCKET_SIZES.length)]);
+          }
+          for (byte[] buffer : buffers) {
+            if (buffer != null) {
+              pool.release(buffer);
+            }
+          }
+          doneLatch.countDown();
+        }
+      }.start();
+    }
+
+    long start = System.nanoTime();
+    startLatch.countDown();
+    doneLatch.await();
+    long elapsedNanos = System.nanoTime() - start;
+    System.out.println(String.format(
+        "%s, %d threads: %d ops/s",
+        name,
+        threadCount,
+        (long) threadCount * OPERATIONS_PER_THREAD * 1000000000L / elapsedNanos));
+  }
+}
@@ -473,6 +473,111 @@ public class BasePoolTest {
     Assert.assertFalse(pool.canAllocate(4));
   }
 
+  // tests that a released value is kept by the thread, and still counted as used
+  @Test
+  public void testMagazine_Reuse() throws Exception {
+    mPool = new TestPool(new PoolParams(100, 100, null, 0, Integer.MAX_VALUE, -1, 4));
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(2);
+    mPool.release(b1);
+    mStats.refresh();
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertEquals(2, mStats.mUsedBytes);
+    Assert.assertEquals(1, mPool.mMagazines.get(0).getCount());
+
+    Assert.assertSame(b1, mPool.get(2));
+    mStats.refresh();
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertEquals(2, mStats.mUsedBytes);
+    Assert.assertEquals(0, mPool.mMagazines.get(0).getCount());
+  }
+
+  // tests that half of a full magazine goes back to the bucket, and that the magazine is refilled
+  // from the bucket
+  @Test
+  public void testMagazine_FlushAndRefill() throws Exception {
+    mPool = new TestPool(new PoolParams(100, 100, null, 0, Integer.MAX_VALUE, -1, 4));
+    mStats.setPool(mPool);
+
+    byte[][] values = new byte[5][];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = mPool.get(2);
+    }
+    for (int i = 0; i < values.length; ++i) {
+      mPool.release(values[i]);
+    }
+    mStats.refresh();
+    Assert.assertEquals(6, mStats.mFreeBytes);
+    Assert.assertEquals(4, mStats.mUsedBytes);
+    Assert.assertEquals(ImmutableMap.of(2, new IntPair(2, 3)), mStats.mBucketStats);
+    Assert.assertEquals(2, mPool.mMagazines.get(0).getCount());
+
+    // empty the magazine, then get a value from the bucket along with a batch for the magazine
+    mPool.get(2);
+    mPool.get(2);
+    mPool.get(2);
+    mStats.refresh();
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertEquals(10, mStats.mUsedBytes);
+    Assert.assertEquals(ImmutableMap.of(2, new IntPair(5, 0)), mStats.mBucketStats);
+    Assert.assertEquals(2, mPool.mMagazines.get(0).getCount());
+  }
+
+  @Test
+  public void testMagazine_TrimToNothing() throws Exception {
+    mPool = new TestPool(new PoolParams(100, 100, null, 0, Integer.MAX_VALUE, -1, 4));
+    mStats.setPool(mPool);
+
+    mPool.release(mPool.get(2));
+    mPool.get(4);
+    mPool.trimToNothing();
+    mStats.refresh();
+    Assert.assertEquals(0, mStats.mFreeBytes);
+    Assert.assertEquals(4, mStats.mUsedBytes);
+    Assert.assertEquals(0, mPool.mMagazines.get(0).getCount());
+  }
+
+  // tests that the values of the magazines are trimmed rather than failing an allocation
+  @Test
+  public void testMagazine_CanAllocate() throws Exception {
+    mPool = new TestPool(new PoolParams(10, 10, null, 0, Integer.MAX_VALUE, -1, 4));
+    mStats.setPool(mPool);
+
+    byte[] b1 = mPool.get(4);
+    byte[] b2 = mPool.get(4);
+    mPool.release(b1);
+    mPool.release(b2);
+    Assert.assertTrue(mPool.canAllocate(4));
+    mStats.refresh();
+    Assert.assertEquals(4, mStats.mFreeBytes);
+    Assert.assertEquals(0, mStats.mUsedBytes);
+    Assert.assertEquals(0, mPool.mMagazines.get(0).getCount());
+  }
+
+  // tests that the values kept by a thread that is gone go back to the bucket
+  @Test
+  public void testMagazine_DeadThread() throws Exception {
+    mPool = new TestPool(new PoolParams(100, 100, null, 0, Integer.MAX_VALUE, -1, 4));
+    mStats.setPool(mPool);
+
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        mPool.release(mPool.get(2));
+      }
+    };
+    thread.start();
+    thread.join();
+
+    // the first use of the pool by this thread gets rid of the magazine of the other thread
+    mPool.get(4);
+    mStats.refresh();
+    Assert.assertEquals(2, mStats.mFreeBytes);
+    Assert.assertEquals(4, mStats.mUsedBytes);
+    Assert.assertEquals(1, mPool.mMagazines.size());
+  }
+
   /**
    * A simple test pool that allocates byte arrays, and always allocates buffers of double
    * the size requested
@@ -488,9 +593,13 @@ public class BasePoolTest {
         int maxPoolSizeSoftCap,
         int maxPoolSizeHardCap,
         SparseIntArray bucketSizes) {
+      this(new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes));
+    }
+
+    public TestPool(PoolParams poolParams) {
       super(
           mock(MemoryTrimmableRegistry.class),
-          new PoolParams(maxPoolSizeSoftCap, maxPoolSizeHardCap, bucketSizes),
+          poolParams,
           mock(PoolStatsTracker.class));
       mIsReusable = true;
       initialize();
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import android.graphics.Bitmap;
+
+import com.facebook.imagepipeline.testing.MockBitmapFactory;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link BitmapReusePool}
+ */
+@RunWith(RobolectricTestRunner.class)
+@org.robolectric.annotation.Config(manifest = org.robolectric.annotation.Config.NONE)
+public class BitmapReusePoolTest {
+
+  private BitmapReusePool mPool;
+
+  @Before
+  public void setup() {
+    mPool = new BitmapReusePool(1000);
+  }
+
+  @Test
+  public void testGetsSmallestBitmapLargeEnough() {
+    Bitmap small = createBitmap(100);
+    Bitmap medium = createBitmap(200);
+    Bitmap large = createBitmap(400);
+    assertTrue(mPool.offer(large));
+    assertTrue(mPool.offer(small));
+    assertTrue(mPool.offer(medium));
+
+    assertSame(medium, mPool.get(150));
+    assertSame(small, mPool.get(100));
+    assertEquals(400, mPool.getSizeInBytes());
+    assertEquals(2, mPool.getHitCount());
+  }
+
+  @Test
+  public void testDoesNotWasteMoreThanHalfTheRequestedSize() {
+    mPool.offer(createBitmap(400));
+    assertNull(mPool.get(200));
+    assertEquals(1, mPool.getMissCount());
+    assertNotNull(mPool.get(300));
+  }
+
+  @Test
+  public void testRecyclesOldestBitmapsWhenFull() {
+    Bitmap first = createBitmap(400);
+    Bitmap second = createBitmap(400);
+    Bitmap third = createBitmap(400);
+    mPool.offer(first);
+    mPool.offer(second);
+    mPool.offer(third);
+
+    verify(first).recycle();
+    verify(second, never()).recycle();
+    assertEquals(2, mPool.getCount());
+    assertEquals(800, mPool.getSizeInBytes());
+  }
+
+  @Test
+  public void testRejectsBitmapsThatCannotBeReused() {
+    Bitmap immutable = createBitmap(100);
+    doReturn(false).when(immutable).isMutable();
+    Bitmap recycled = createBitmap(100);
+    doReturn(true).when(recycled).isRecycled();
+
+    assertFalse(mPool.offer(immutable));
+    assertFalse(mPool.offer(recycled));
+    assertFalse(mPool.offer(createBitmap(2000)));
+    assertEquals(0, mPool.getCount());
+  }
+
+  @Test
+  public void testClear() {
+    Bitmap bitmap = createBitmap(100);
+    mPool.offer(bitmap);
+    mPool.clear();
+    verify(bitmap).recycle();
+    assertEquals(0, mPool.getSizeInBytes());
+    assertNull(mPool.get(100));
+  }
+
+  private static Bitmap createBitmap(int sizeInBytes) {
+    Bitmap bitmap = MockBitmapFactory.createForSize(sizeInBytes, Bitmap.Config.ARGB_8888);
+    doReturn(sizeInBytes).when(bitmap).getAllocationByteCount();
+    return bitmap;
+  }
+}
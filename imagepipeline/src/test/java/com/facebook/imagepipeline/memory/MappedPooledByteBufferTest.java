@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.facebook.binaryresource.MappedFileBinaryResource;
+import com.facebook.common.internal.ByteStreams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Basic tests for {@link MappedPooledByteBuffer}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MappedPooledByteBufferTest {
+  private static final byte[] BYTES = new byte[] {1, 4, 5, 0, 100, 34, 0, 1, -1, -1};
+
+  private File mFile;
+  private MappedPooledByteBuffer mPooledByteBuffer;
+
+  @Before
+  public void setUp() throws IOException {
+    mFile = File.createTempFile("mapped", ".cnt");
+    FileOutputStream os = new FileOutputStream(mFile);
+    try {
+      os.write(BYTES);
+    } finally {
+      os.close();
+    }
+    mPooledByteBuffer = new MappedPooledByteBuffer(MappedFileBinaryResource.map(mFile));
+  }
+
+  @After
+  public void tearDown() {
+    mFile.delete();
+  }
+
+  @Test
+  public void testBasic() {
+    assertFalse(mPooledByteBuffer.isClosed());
+    assertEquals(BYTES.length, mPooledByteBuffer.size());
+  }
+
+  @Test
+  public void testSimpleRead() {
+    for (int i = 0; i < BYTES.length; ++i) {
+      assertEquals(BYTES[i], mPooledByteBuffer.read(i));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSimpleReadOutOfBounds() {
+    mPooledByteBuffer.read(BYTES.length);
+  }
+
+  @Test
+  public void testRangeRead() {
+    byte[] readBuf = new byte[BYTES.length];
+    mPooledByteBuffer.read(1, readBuf, 1, BYTES.length - 2);
+    assertEquals(0, readBuf[0]);
+    assertEquals(0, readBuf[BYTES.length - 1]);
+    for (int i = 1; i < BYTES.length - 1; ++i) {
+      assertEquals(BYTES[i], readBuf[i]);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRangeReadOutOfBounds() {
+    byte[] readBuf = new byte[BYTES.length];
+    mPooledByteBuffer.read(1, readBuf, 0, BYTES.length);
+  }
+
+  @Test
+  public void testReadFromStream() throws Exception {
+    InputStream is = new PooledByteBufferInputStream(mPooledByteBuffer);
+    assertArrayEquals(BYTES, ByteStreams.toByteArray(is));
+  }
+
+  @Test
+  public void testMappingOutlivesTheFile() {
+    assertTrue(mFile.delete());
+    assertEquals(BYTES[4], mPooledByteBuffer.read(4));
+  }
+
+  @Test
+  public void testClose() {
+    mPooledByteBuffer.close();
+    assertTrue(mPooledByteBuffer.isClosed());
+    // closing again is not an error
+    mPooledByteBuffer.close();
+  }
+
+  @Test(expected = PooledByteBuffer.ClosedException.class)
+  public void testReadAfterClose() {
+    mPooledByteBuffer.close();
+    mPooledByteBuffer.read(0);
+  }
+}
@@ -10,6 +10,7 @@
 package com.facebook.imagepipeline.memory;
 
 import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
 
 import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.testing.FakeNativeMemoryChunk;
@@ -26,6 +27,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -114,4 +116,74 @@ public class NativePooledByteBufferTest extends TestUsingNativeMemoryChunk {
     mPooledByteBuffer.close();
     mPooledByteBuffer.size();
   }
+
+  @Test(expected = PooledByteBuffer.ClosedException.class)
+  public void testReadingAfterClose() {
+    mPooledByteBuffer.close();
+    mPooledByteBuffer.read(0);
+  }
+
+  @Test
+  public void testConcurrentReads() throws Exception {
+    final boolean[] mismatch = new boolean[1];
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; ++i) {
+            final int offset = i % BUFFER_LENGTH;
+            if (mPooledByteBuffer.read(offset) != BYTES[offset]) {
+              mismatch[0] = true;
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertFalse(mismatch[0]);
+  }
+
+  @Test
+  public void testCloseDuringReadReleasesChunkAfterRead() throws Exception {
+    final CountDownLatch readStarted = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+    final NativeMemoryChunk chunk = new FakeNativeMemoryChunk(BYTES.length) {
+      @Override
+      public byte read(int nativeMemoryOffset) {
+        readStarted.countDown();
+        try {
+          closed.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return super.read(nativeMemoryOffset);
+      }
+    };
+    chunk.write(0, BYTES, 0, BYTES.length);
+    CloseableReference<NativeMemoryChunk> poolRef = CloseableReference.of(chunk, mPool);
+    final NativePooledByteBuffer pooledByteBuffer = new NativePooledByteBuffer(poolRef, 1);
+    poolRef.close();
+    final byte[] result = new byte[1];
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        result[0] = pooledByteBuffer.read(0);
+      }
+    };
+    reader.start();
+    readStarted.await();
+
+    pooledByteBuffer.close();
+    assertTrue(pooledByteBuffer.isClosed());
+    verify(mPool, never()).release(chunk);
+
+    closed.countDown();
+    reader.join();
+    assertEquals(BYTES[0], result[0]);
+    verify(mPool).release(chunk);
+  }
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.CancellableRunnable;
+import com.facebook.imagepipeline.core.PrioritizedExecutor;
+import com.facebook.imagepipeline.core.PrioritizedRunnable;
+import com.facebook.imagepipeline.core.TaskPriority;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests for {@link DecodeBudget}
+ */
+public class DecodeBudgetTest {
+
+  private DecodeBudget mDecodeBudget;
+  // the tasks handed to the executor, which runs them only when asked to
+  private List<Runnable> mSubmittedTasks;
+  private List<String> mRunOrder;
+
+  @Before
+  public void setUp() {
+    mDecodeBudget = new DecodeBudget(100);
+    mSubmittedTasks = new ArrayList<>();
+    mRunOrder = new ArrayList<>();
+  }
+
+  @Test
+  public void testAdmitsTasksThatFit() {
+    submit("a", 40, null);
+    submit("b", 60, null);
+    assertEquals(2, mSubmittedTasks.size());
+    assertEquals(100, mDecodeBudget.getBytesInProgress());
+    runSubmittedTasks();
+    assertEquals(Arrays.asList("a", "b"), mRunOrder);
+    assertEquals(0, mDecodeBudget.getBytesInProgress());
+    assertEquals(0, mDecodeBudget.getTasksInProgress());
+  }
+
+  @Test
+  public void testHoldsTasksUntilBytesAreReleased() {
+    submit("a", 70, null);
+    submit("b", 50, null);
+    assertEquals(1, mSubmittedTasks.size());
+    assertEquals(1, mDecodeBudget.getWaitingTaskCount());
+
+    runSubmittedTasks();
+    assertEquals(Arrays.asList("a", "b"), mRunOrder);
+    assertEquals(0, mDecodeBudget.getWaitingTaskCount());
+    assertEquals(0, mDecodeBudget.getBytesInProgress());
+  }
+
+  @Test
+  public void testAdmitsWaitingTasksByPriority() {
+    submit("first", 100, null);
+    submit("low", 60, Priority.LOW);
+    submit("default", 60, null);
+    submit("high", 60, Priority.HIGH);
+    runSubmittedTasks();
+    assertEquals(Arrays.asList("first", "high", "default", "low"), mRunOrder);
+  }
+
+  @Test
+  public void testAdmitsTaskLargerThanBudgetAlone() {
+    submit("small", 10, null);
+    submit("large", 500, null);
+    assertEquals(1, mSubmittedTasks.size());
+    runSubmittedTasks();
+    assertEquals(Arrays.asList("small", "large"), mRunOrder);
+  }
+
+  @Test
+  public void testDropsTasksCancelledWhileWaiting() {
+    TaskPriority taskPriority = new TaskPriority(Priority.MEDIUM);
+    submit("first", 100, null);
+    taskPriority.wrap(wrap(60)).execute(new NamedTask("cancelled", null));
+    submit("other", 60, null);
+    taskPriority.cancel();
+    runSubmittedTasks();
+    assertEquals(Arrays.asList("first", "other"), mRunOrder);
+    assertEquals(0, mDecodeBudget.getWaitingTaskCount());
+  }
+
+  @Test
+  public void testReleasesCancelledTasksWithoutRunningThem() {
+    TaskPriority taskPriority = new TaskPriority(Priority.MEDIUM);
+    taskPriority.wrap(wrap(100)).execute(new NamedTask("cancelled", null));
+    submit("other", 60, null);
+    assertEquals(1, mDecodeBudget.getWaitingTaskCount());
+
+    taskPriority.cancel();
+    // not dropped by the executor, so that its bytes get released when it is run
+    assertFalse(mSubmittedTasks.get(0) instanceof CancellableRunnable);
+    runSubmittedTasks();
+    assertEquals(Arrays.asList("other"), mRunOrder);
+    assertEquals(0, mDecodeBudget.getBytesInProgress());
+    assertEquals(0, mDecodeBudget.getTasksInProgress());
+  }
+
+  @Test
+  public void testMovesWaitingTasksOnPriorityChange() {
+    TaskPriority taskPriority = new TaskPriority(Priority.LOW);
+    submit("first", 100, null);
+    submit("low", 60, Priority.LOW);
+    taskPriority.wrap(wrap(60)).execute(new NamedTask("raised", null));
+    taskPriority.setPriority(Priority.HIGH);
+    runSubmittedTasks();
+    assertEquals(Arrays.asList("first", "raised", "low"), mRunOrder);
+  }
+
+  @Test
+  public void testPassesPriorityChangesOfAdmittedTasksOn() {
+    final List<Runnable> changedTasks = new ArrayList<>();
+    PrioritizedExecutor executor = new PrioritizedExecutor() {
+      @Override
+      public void execute(Runnable command) {
+        mSubmittedTasks.add(command);
+      }
+
+      @Override
+      public void onPriorityChanged(Runnable command) {
+        changedTasks.add(command);
+      }
+    };
+    TaskPriority taskPriority = new TaskPriority(Priority.LOW);
+    taskPriority.wrap(mDecodeBudget.wrap(executor, sizeEstimator(10)))
+        .execute(new NamedTask("task", null));
+    taskPriority.setPriority(Priority.HIGH);
+
+    assertEquals(1, mSubmittedTasks.size());
+    assertEquals(mSubmittedTasks, changedTasks);
+    assertEquals(Priority.HIGH, ((PrioritizedRunnable) changedTasks.get(0)).getPriority());
+  }
+
+  private void submit(String name, int sizeInBytes, Priority priority) {
+    wrap(sizeInBytes).execute(new NamedTask(name, priority));
+  }
+
+  private Executor wrap(final int sizeInBytes) {
+    return mDecodeBudget.wrap(
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            mSubmittedTasks.add(command);
+          }
+        },
+        sizeEstimator(sizeInBytes));
+  }
+
+  private static DecodeBudget.SizeEstimator sizeEstimator(final int sizeInBytes) {
+    return new DecodeBudget.SizeEstimator() {
+      @Override
+      public int getEstimatedSizeInBytes() {
+        return sizeInBytes;
+      }
+    };
+  }
+
+  private void runSubmittedTasks() {
+    while (!mSubmittedTasks.isEmpty()) {
+      mSubmittedTasks.remove(0).run();
+    }
+  }
+
+  private class NamedTask implements PrioritizedRunnable {
+    private final String mName;
+    private final Priority mPriority;
+
+    NamedTask(String name, Priority priority) {
+      mName = name;
+      mPriority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+      return mPriority;
+    }
+
+    @Override
+    public void run() {
+      mRunOrder.add(mName);
+    }
+  }
+}
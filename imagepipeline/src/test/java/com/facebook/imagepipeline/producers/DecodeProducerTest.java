@@ -108,6 +108,8 @@ public class DecodeProducerTest {
         false, /* Set downsampleEnabled to false */
         false, /* Set resizeAndRotateForNetwork to false */
         false, /* We don't cancel when the request is cancelled */
+        null, /* We don't downscale non-JPEG images */
+        null, /* We don't limit the bytes being decoded */
         mInputProducer);
 
     PooledByteBuffer pooledByteBuffer = mockPooledByteBuffer(IMAGE_SIZE);
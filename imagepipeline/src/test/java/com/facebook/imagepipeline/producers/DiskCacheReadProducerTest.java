@@ -12,6 +12,7 @@ package com.facebook.imagepipeline.producers;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.facebook.cache.common.CacheKey;
@@ -23,6 +24,8 @@ import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.DiskCachePolicy;
 import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.core.CancellableRunnable;
+import com.facebook.imagepipeline.core.TaskPriority;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.request.ImageRequest;
@@ -331,28 +334,78 @@ public class DiskCacheReadProducerTest {
         any(Map.class));
   }
 
+  @Test
+  public void testQueuedDiskCacheGetDroppedOnCancellation() {
+    final List<Runnable> queuedReads = new ArrayList<>();
+    when(mDiskCachePolicy
+        .createAndStartCacheReadTask(
+            eq(mImageRequest),
+            eq(mCallerContext),
+            mIsCancelled.capture(),
+            any(TaskPriority.class)))
+        .thenAnswer(
+            new Answer<Task<EncodedImage>>() {
+              @Override
+              public Task<EncodedImage> answer(InvocationOnMock invocation) throws Throwable {
+                TaskPriority taskPriority = (TaskPriority) invocation.getArguments()[3];
+                taskPriority.wrap(
+                    new Executor() {
+                      @Override
+                      public void execute(Runnable command) {
+                        queuedReads.add(command);
+                      }
+                    }).execute(mock(Runnable.class));
+                return Task.<EncodedImage>create().getTask();
+              }
+            });
+    mDiskCacheReadProducer.produceResults(mConsumer, mProducerContext);
+    mProducerContext.cancel();
+    assertTrue(mIsCancelled.getValue().get());
+    verify(mConsumer).onCancellation();
+    verify(mProducerListener).onProducerFinishWithCancellation(mRequestId, PRODUCER_NAME, null);
+    assertEquals(1, queuedReads.size());
+    assertTrue(((CancellableRunnable) queuedReads.get(0)).isCancelled());
+    verify(mInputProducer, never()).produceResults(any(Consumer.class), eq(mProducerContext));
+  }
+
   private void setupDiskCacheGetWait() {
     mTaskCompletionSource = Task.create();
     when(mDiskCachePolicy
-        .createAndStartCacheReadTask(eq(mImageRequest), eq(mCallerContext), mIsCancelled.capture()))
+        .createAndStartCacheReadTask(
+            eq(mImageRequest),
+            eq(mCallerContext),
+            mIsCancelled.capture(),
+            any(TaskPriority.class)))
         .thenReturn(mTaskCompletionSource.getTask());
   }
 
   private void setupDiskCacheGetSuccess() {
     when(mDiskCachePolicy
-        .createAndStartCacheReadTask(eq(mImageRequest), eq(mCallerContext), mIsCancelled.capture()))
+        .createAndStartCacheReadTask(
+            eq(mImageRequest),
+            eq(mCallerContext),
+            mIsCancelled.capture(),
+            any(TaskPriority.class)))
         .thenReturn(Task.forResult(mFinalEncodedImage));
   }
 
   private void setupDiskCacheGetNotFound() {
     when(mDiskCachePolicy
-        .createAndStartCacheReadTask(eq(mImageRequest), eq(mCallerContext), mIsCancelled.capture()))
+        .createAndStartCacheReadTask(
+            eq(mImageRequest),
+            eq(mCallerContext),
+            mIsCancelled.capture(),
+            any(TaskPriority.class)))
         .thenReturn(Task.<EncodedImage>forResult(null));
   }
 
   private void setupDiskCacheGetFailure() {
     when(mDiskCachePolicy
-        .createAndStartCacheReadTask(eq(mImageRequest), eq(mCallerContext), mIsCancelled.capture()))
+        .createAndStartCacheReadTask(
+            eq(mImageRequest),
+            eq(mCallerContext),
+            mIsCancelled.capture(),
+            any(TaskPriority.class)))
         .thenReturn(Task.<EncodedImage>forError(mException));
   }
 
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+/**
+ * Measures a {@link MultiplexProducer} shared by a feed with a large fan-out: several threads
+ * attach many identical requests to the same few keys and cancel half of them, then the results
+ * are delivered to the remaining ones, as in {@link MultiplexProducerTest} but scaled up.
+ *
+ * <p>Not a unit test, run it with the number of threads as argument (4 by default).
+ */
+public class MultiplexProducerBenchmark {
+
+  private static final int NUM_KEYS = 16;
+  private static final int REQUESTS_PER_KEY_PER_THREAD = 2000;
+  private static final int INTERMEDIATE_RESULTS = 10;
+
+  private static final ResourceReleaser<String> NO_OP_RELEASER = new ResourceReleaser<String>() {
+    @Override
+    public void release(String value) {
+    }
+  };
+
+  public static void main(String[] args) throws InterruptedException {
+    int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    for (int round = 0; round < 2; round++) {
+      // the first round warms up the JIT
+      run(threadCount);
+    }
+  }
+
+  private static void run(final int threadCount) throws InterruptedException {
+    final ConcurrentMap<String, Consumer<CloseableReference<String>>> forwardingConsumers =
+        new ConcurrentHashMap<>();
+    final MultiplexProducer<String, CloseableReference<String>> multiplexProducer =
+        new MultiplexProducer<String, CloseableReference<String>>(
+            new Producer<CloseableReference<String>>() {
+              @Override
+              public void produceResults(
+                  Consumer<CloseableReference<String>> consumer,
+                  ProducerContext context) {
+                forwardingConsumers.put((String) context.getCallerContext(), consumer);
+              }
+            }) {
+          @Override
+          protected String getKey(ProducerContext producerContext) {
+            return (String) producerContext.getCallerContext();
+          }
+
+          @Override
+          protected CloseableReference<String> cloneOrNull(CloseableReference<String> object) {
+            return CloseableReference.cloneOrNull(object);
+          }
+        };
+    final AtomicLong deliveredResults = new AtomicLong();
+
+    // attaches the requests, cancelling every other one
+    final CountDownLatch attachStartLatch = new CountDownLatch(1);
+    final CountDownLatch attachDoneLatch = new CountDownLatch(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      final String id = "thread" + i;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            attachStartLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int request = 0; request < REQUESTS_PER_KEY_PER_THREAD; request++) {
+            for (int key = 0; key < NUM_KEYS; key++) {
+              SettableProducerContext context = new SettableProducerContext(
+                  null,
+                  id,
+                  null,
+                  "key" + key,
+                  ImageRequest.RequestLevel.FULL_FETCH,
+                  false,
+                  true,
+                  Priority.MEDIUM);
+              multiplexProducer.produceResults(new CountingConsumer(deliveredResults), context);
+              if (request % 2 == 1) {
+                context.cancel();
+              }
+            }
+          }
+          attachDoneLatch.countDown();
+        }
+      }.start();
+    }
+    long attachStart = System.nanoTime();
+    attachStartLatch.countDown();
+    attachDoneLatch.await();
+    long attachElapsedNanos = System.nanoTime() - attachStart;
+
+    // keeps the garbage of the first phase out of the second one
+    System.gc();
+
+    // delivers the results, each thread taking its share of the keys
+    final CountDownLatch deliverStartLatch = new CountDownLatch(1);
+    final CountDownLatch deliverDoneLatch = new CountDownLatch(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      final int firstKey = i;
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            deliverStartLatch.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int key = firstKey; key < NUM_KEYS; key += threadCount) {
+            Consumer<CloseableReference<String>> consumer = forwardingConsumers.get("key" + key);
+            for (int result = 0; result < INTERMEDIATE_RESULTS; result++) {
+              consumer.onProgressUpdate((float) result / INTERMEDIATE_RESULTS);
+              deliver(consumer, false);
+            }
+            deliver(consumer, true);
+          }
+          deliverDoneLatch.countDown();
+        }
+      }.start();
+    }
+    long deliverStart = System.nanoTime();
+    deliverStartLatch.countDown();
+    deliverDoneLatch.await();
+    long deliverElapsedNanos = System.nanoTime() - deliverStart;
+
+    long requests = (long) threadCount * NUM_KEYS * REQUESTS_PER_KEY_PER_THREAD;
+    System.out.println(String.format(
+        "%d threads: %d requests attached/s, %d results delivered/s",
+        threadCount,
+        requests * 1000000000L / attachElapsedNanos,
+        deliveredResults.get() * 1000000000L / deliverElapsedNanos));
+  }
+
+  private static void deliver(Consumer<CloseableReference<String>> consumer, boolean isLast) {
+    CloseableReference<String> result = CloseableReference.of("result", NO_OP_RELEASER);
+    try {
+      consumer.onNewResult(result, isLast);
+    } finally {
+      result.close();
+    }
+  }
+
+  private static class CountingConsumer extends BaseConsumer<CloseableReference<String>> {
+    private final AtomicLong mDeliveredResults;
+
+    CountingConsumer(AtomicLong deliveredResults) {
+      mDeliveredResults = deliveredResults;
+    }
+
+    @Override
+    protected void onNewResultImpl(CloseableReference<String> newResult, boolean isLast) {
+      mDeliveredResults.incrementAndGet();
+    }
+
+    @Override
+    protected void onFailureImpl(Throwable t) {
+    }
+
+    @Override
+    protected void onCancellationImpl() {
+    }
+  }
+}
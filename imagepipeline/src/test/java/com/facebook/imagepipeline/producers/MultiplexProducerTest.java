@@ -587,6 +587,19 @@ public class MultiplexProducerTest {
     assertEquals(Priority.HIGH, mMultiplexedContext1.getPriority());
   }
 
+  @Test
+  public void testCancelAfterUnnotifiedChangeUncountsCountedPriority() {
+    mProducerContext1.setPriority(Priority.MEDIUM);
+    mProducerContext2.setPriority(Priority.HIGH);
+    mMultiplexProducer.produceResults(mConsumer1, mProducerContext1);
+    mMultiplexProducer.produceResults(mConsumer1, mProducerContext2);
+    assertEquals(Priority.HIGH, mMultiplexedContext1.getPriority());
+    // cancelled before the change is notified
+    mProducerContext2.setPriorityNoCallbacks(Priority.LOW);
+    mProducerContext2.cancel();
+    assertEquals(Priority.MEDIUM, mMultiplexedContext1.getPriority());
+  }
+
   @Test
   public void testChangeHighestPriorityLowersPriority() {
     mProducerContext1.setPriority(Priority.HIGH);
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
+import com.facebook.imagepipeline.cache.DefaultCacheKeyFactory;
+import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableStaticBitmap;
+import com.facebook.imagepipeline.image.ImmutableQualityInfo;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.mockito.*;
+import org.mockito.invocation.*;
+import org.mockito.stubbing.*;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks that {@link ResizeVariantsMultiplexProducer} shares the decode of a larger request with
+ * the smaller ones, and downscales the result for them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class ResizeVariantsMultiplexProducerTest {
+
+  private static final Uri URI = Uri.parse("http://dummy.uri");
+
+  @Mock public MemoryCache<CacheKey, CloseableImage> mMemoryCache;
+  @Mock public Producer mInputProducer;
+  @Mock public ProducerListener mProducerListener;
+  @Mock public PlatformBitmapFactory mPlatformBitmapFactory;
+  @Mock public ResourceReleaser<Bitmap> mResourceReleaser;
+  @Mock public Consumer<CloseableReference<CloseableImage>> mLargeConsumer;
+  @Mock public Consumer<CloseableReference<CloseableImage>> mSmallConsumer;
+  private List<Consumer<CloseableReference<CloseableImage>>> mForwardingConsumers;
+  private List<ProducerContext> mMultiplexedContexts;
+  private ResizeVariantsMultiplexProducer mMultiplexProducer;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    mMultiplexProducer = new ResizeVariantsMultiplexProducer(
+        mMemoryCache,
+        DefaultCacheKeyFactory.getInstance(),
+        mPlatformBitmapFactory,
+        mInputProducer);
+    mForwardingConsumers = new ArrayList<>();
+    mMultiplexedContexts = new ArrayList<>();
+    doAnswer(
+        new Answer() {
+          @Override
+          public Void answer(InvocationOnMock invocation) throws Throwable {
+            mForwardingConsumers.add((Consumer) invocation.getArguments()[0]);
+            mMultiplexedContexts.add((ProducerContext) invocation.getArguments()[1]);
+            return null;
+          }
+        }).when(mInputProducer).produceResults(any(Consumer.class), any(ProducerContext.class));
+  }
+
+  @Test
+  public void testSmallerRequestSharesLargerDecode() {
+    ProducerContext largeContext = newProducerContext("large", new ResizeOptions(400, 400));
+    ProducerContext smallContext = newProducerContext("small", new ResizeOptions(100, 100));
+    mMultiplexProducer.produceResults(mLargeConsumer, largeContext);
+    mMultiplexProducer.produceResults(mSmallConsumer, smallContext);
+    assertEquals(1, mForwardingConsumers.size());
+    assertSame(
+        largeContext.getImageRequest(),
+        mMultiplexedContexts.get(0).getImageRequest());
+
+    Bitmap scaledBitmap = mockBitmap(100, 100);
+    when(mPlatformBitmapFactory.createScaledBitmap(
+        any(Bitmap.class),
+        eq(100),
+        eq(100),
+        eq(true)))
+        .thenReturn(CloseableReference.of(scaledBitmap, mResourceReleaser));
+    CloseableReference<CloseableImage> result = newResult(400, 400);
+    mForwardingConsumers.get(0).onNewResult(result, true);
+
+    verify(mLargeConsumer).onNewResult(result, true);
+    ArgumentCaptor<CloseableReference> captor = ArgumentCaptor.forClass(CloseableReference.class);
+    verify(mSmallConsumer).onNewResult(captor.capture(), eq(true));
+    CloseableStaticBitmap smallResult = (CloseableStaticBitmap) captor.getValue().get();
+    assertSame(scaledBitmap, smallResult.getUnderlyingBitmap());
+    assertEquals(1, mMultiplexProducer.getSharedDecodeCount());
+    assertEquals(1, mMultiplexProducer.getDownscaleCount());
+    assertTrue(mMultiplexProducer.mMultiplexers.isEmpty());
+  }
+
+  @Test
+  public void testResultCloseToTheRequestedSizeIsNotDownscaled() {
+    ProducerContext largeContext = newProducerContext("large", new ResizeOptions(400, 400));
+    ProducerContext smallContext = newProducerContext("small", new ResizeOptions(300, 300));
+    mMultiplexProducer.produceResults(mLargeConsumer, largeContext);
+    mMultiplexProducer.produceResults(mSmallConsumer, smallContext);
+    CloseableReference<CloseableImage> result = newResult(400, 400);
+    mForwardingConsumers.get(0).onNewResult(result, true);
+    verify(mSmallConsumer).onNewResult(result, true);
+    verifyZeroInteractions(mPlatformBitmapFactory);
+    assertEquals(1, mMultiplexProducer.getSharedDecodeCount());
+    assertEquals(0, mMultiplexProducer.getDownscaleCount());
+  }
+
+  @Test
+  public void testSharedResultIsCachedUnderTheKeyOfTheRequest() {
+    ProducerContext largeContext = newProducerContext("large", new ResizeOptions(400, 400));
+    ProducerContext smallContext = newProducerContext("small", new ResizeOptions(100, 100));
+    mMultiplexProducer.produceResults(mLargeConsumer, largeContext);
+    mMultiplexProducer.produceResults(mSmallConsumer, smallContext);
+
+    Bitmap scaledBitmap = mockBitmap(100, 100);
+    when(mPlatformBitmapFactory.createScaledBitmap(
+        any(Bitmap.class),
+        eq(100),
+        eq(100),
+        eq(true)))
+        .thenReturn(CloseableReference.of(scaledBitmap, mResourceReleaser));
+    CloseableReference<CloseableImage> cachedResult = newResult(100, 100);
+    CacheKey smallCacheKey = DefaultCacheKeyFactory.getInstance()
+        .getBitmapCacheKey(smallContext.getImageRequest(), null);
+    when(mMemoryCache.cache(eq(smallCacheKey), any(CloseableReference.class)))
+        .thenReturn(cachedResult);
+    mForwardingConsumers.get(0).onNewResult(newResult(400, 400), true);
+
+    ArgumentCaptor<CloseableReference> captor = ArgumentCaptor.forClass(CloseableReference.class);
+    verify(mMemoryCache).cache(eq(smallCacheKey), captor.capture());
+    CloseableStaticBitmap smallResult = (CloseableStaticBitmap) captor.getValue().get();
+    assertSame(scaledBitmap, smallResult.getUnderlyingBitmap());
+    verify(mSmallConsumer).onNewResult(cachedResult, true);
+    assertFalse(cachedResult.isValid());
+  }
+
+  @Test
+  public void testCachedResultIsPassedOnInsteadOfTheSharedOne() {
+    ProducerContext largeContext = newProducerContext("large", new ResizeOptions(400, 400));
+    ProducerContext smallContext = newProducerContext("small", new ResizeOptions(100, 100));
+    mMultiplexProducer.produceResults(mLargeConsumer, largeContext);
+    mMultiplexProducer.produceResults(mSmallConsumer, smallContext);
+
+    CloseableReference<CloseableImage> cachedResult = newResult(100, 100);
+    when(mMemoryCache.get(
+        DefaultCacheKeyFactory.getInstance()
+            .getBitmapCacheKey(smallContext.getImageRequest(), null)))
+        .thenReturn(cachedResult);
+    mForwardingConsumers.get(0).onNewResult(newResult(400, 400), true);
+
+    verify(mSmallConsumer).onNewResult(cachedResult, true);
+    verifyZeroInteractions(mPlatformBitmapFactory);
+    verify(mMemoryCache, never()).cache(any(CacheKey.class), any(CloseableReference.class));
+    assertEquals(0, mMultiplexProducer.getSharedDecodeCount());
+    assertEquals(0, mMultiplexProducer.getSavedDecodePixelCount());
+  }
+
+  @Test
+  public void testLargerRequestStartsItsOwnDecode() {
+    ProducerContext smallContext = newProducerContext("small", new ResizeOptions(100, 100));
+    ProducerContext largeContext = newProducerContext("large", new ResizeOptions(400, 400));
+    mMultiplexProducer.produceResults(mSmallConsumer, smallContext);
+    mMultiplexProducer.produceResults(mLargeConsumer, largeContext);
+    assertEquals(2, mForwardingConsumers.size());
+    assertSame(
+        largeContext.getImageRequest(),
+        mMultiplexedContexts.get(1).getImageRequest());
+
+    // the small request of the first decode is not affected
+    CloseableReference<CloseableImage> smallResult = newResult(100, 100);
+    mForwardingConsumers.get(0).onNewResult(smallResult, true);
+    verify(mSmallConsumer).onNewResult(smallResult, true);
+    verify(mLargeConsumer, never()).onNewResult(smallResult, true);
+    assertEquals(1, mMultiplexProducer.mMultiplexers.size());
+  }
+
+  @Test
+  public void testCovers() {
+    assertTrue(ResizeVariantsMultiplexProducer.covers(null, null));
+    assertTrue(ResizeVariantsMultiplexProducer.covers(null, new ResizeOptions(10, 10)));
+    assertFalse(ResizeVariantsMultiplexProducer.covers(new ResizeOptions(10, 10), null));
+    assertTrue(ResizeVariantsMultiplexProducer.covers(
+        new ResizeOptions(20, 10),
+        new ResizeOptions(10, 10)));
+    assertFalse(ResizeVariantsMultiplexProducer.covers(
+        new ResizeOptions(20, 10),
+        new ResizeOptions(10, 20)));
+  }
+
+  private ProducerContext newProducerContext(String id, ResizeOptions resizeOptions) {
+    ImageRequest imageRequest = ImageRequestBuilder.newBuilderWithSource(URI)
+        .setResizeOptions(resizeOptions)
+        .build();
+    return new SettableProducerContext(
+        imageRequest,
+        id,
+        mProducerListener,
+        null,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false,
+        true,
+        Priority.MEDIUM);
+  }
+
+  private CloseableReference<CloseableImage> newResult(int width, int height) {
+    return CloseableReference.<CloseableImage>of(
+        new CloseableStaticBitmap(
+            mockBitmap(width, height),
+            mResourceReleaser,
+            ImmutableQualityInfo.FULL_QUALITY,
+            0));
+  }
+
+  private static Bitmap mockBitmap(int width, int height) {
+    Bitmap bitmap = mock(Bitmap.class);
+    when(bitmap.getWidth()).thenReturn(width);
+    when(bitmap.getHeight()).thenReturn(height);
+    return bitmap;
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.facebook.cache.common.CacheKey;
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.common.references.ResourceReleaser;
+import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.cache.TileCacheKey;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.image.CloseableTile;
+import com.facebook.imagepipeline.image.CloseableTiledImage;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.platform.TileDecoder;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.TiledImageRequest;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.mockito.*;
+import org.mockito.invocation.*;
+import org.mockito.stubbing.*;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Checks that the tiles are served from the bitmap memory cache when they are all there, and that
+ * only the missing ones are decoded otherwise.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class TileDecodeProducerTest {
+
+  private static final Uri URI = Uri.parse("http://dummy.uri");
+  // 3 tiles of 256 pixels wide at level 0
+  private static final Rect REGION = new Rect(0, 0, 600, 200);
+  private static final int IMAGE_WIDTH = 700;
+  private static final int IMAGE_HEIGHT = 200;
+
+  @Mock public MemoryCache<CacheKey, CloseableImage> mMemoryCache;
+  @Mock public CacheKeyFactory mCacheKeyFactory;
+  @Mock public CacheKey mImageCacheKey;
+  @Mock public Producer<EncodedImage> mInputProducer;
+  @Mock public Consumer<CloseableReference<CloseableImage>> mConsumer;
+  @Mock public ProducerListener mProducerListener;
+  @Mock public TileDecoder mTileDecoder;
+  @Mock public TileDecoder.Session mSession;
+  @Mock public ResourceReleaser<Bitmap> mResourceReleaser;
+  private final Map<CacheKey, CloseableReference<CloseableImage>> mCachedTiles = new HashMap<>();
+  private SettableProducerContext mProducerContext;
+  private TileDecodeProducer mTileDecodeProducer;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    mTileDecodeProducer = new TileDecodeProducer(
+        mMemoryCache,
+        mCacheKeyFactory,
+        CallerThreadExecutor.getInstance(),
+        mTileDecoder,
+        mInputProducer);
+    TiledImageRequest request =
+        TiledImageRequest.fromRequest(ImageRequest.fromUri(URI), REGION, 1f);
+    mProducerContext = new SettableProducerContext(
+        request,
+        "id",
+        mProducerListener,
+        null,
+        ImageRequest.RequestLevel.FULL_FETCH,
+        false,
+        true,
+        Priority.MEDIUM);
+    when(mCacheKeyFactory.getEncodedCacheKey(request, null)).thenReturn(mImageCacheKey);
+
+    when(mMemoryCache.get(any(CacheKey.class))).then(
+        new Answer<CloseableReference<CloseableImage>>() {
+          @Override
+          public CloseableReference<CloseableImage> answer(InvocationOnMock invocation) {
+            return CloseableReference.cloneOrNull(
+                mCachedTiles.get((CacheKey) invocation.getArguments()[0]));
+          }
+        });
+    when(mMemoryCache.cache(any(CacheKey.class), any(CloseableReference.class))).then(
+        new Answer<CloseableReference<CloseableImage>>() {
+          @Override
+          public CloseableReference<CloseableImage> answer(InvocationOnMock invocation) {
+            CloseableReference<CloseableImage> tile =
+                (CloseableReference<CloseableImage>) invocation.getArguments()[1];
+            mCachedTiles.put((CacheKey) invocation.getArguments()[0], tile.clone());
+            return tile.clone();
+          }
+        });
+
+    when(mTileDecoder.open(any(EncodedImage.class))).thenReturn(mSession);
+    when(mSession.getWidth()).thenReturn(IMAGE_WIDTH);
+    when(mSession.getHeight()).thenReturn(IMAGE_HEIGHT);
+    when(mSession.decodeRegion(any(Rect.class), anyInt(), any(Bitmap.Config.class))).then(
+        new Answer<CloseableReference<Bitmap>>() {
+          @Override
+          public CloseableReference<Bitmap> answer(InvocationOnMock invocation) {
+            return CloseableReference.of(mock(Bitmap.class), mResourceReleaser);
+          }
+        });
+  }
+
+  @Test
+  public void testServesCachedTilesWithoutFetching() {
+    cacheTile(0, new Rect(0, 0, 256, 200));
+    cacheTile(1, new Rect(256, 0, 512, 200));
+    cacheTile(2, new Rect(512, 0, 700, 200));
+
+    mTileDecodeProducer.produceResults(mConsumer, mProducerContext);
+
+    CloseableTiledImage image = captureResult();
+    assertEquals(3, image.getTileCount());
+    assertEquals(new Rect(0, 0, 700, 200), image.getBounds());
+    verifyZeroInteractions(mInputProducer, mTileDecoder);
+    verify(mProducerListener).onProducerFinishWithSuccess(
+        "id",
+        TileDecodeProducer.PRODUCER_NAME,
+        null);
+  }
+
+  @Test
+  public void testDecodesOnlyMissingTiles() throws Exception {
+    cacheTile(1, new Rect(256, 0, 512, 200));
+    doAnswer(
+        new Answer() {
+          @Override
+          public Void answer(InvocationOnMock invocation) throws Throwable {
+            Consumer<EncodedImage> consumer = (Consumer) invocation.getArguments()[0];
+            EncodedImage encodedImage =
+                new EncodedImage(CloseableReference.of(mock(PooledByteBuffer.class)));
+            consumer.onNewResult(encodedImage, true);
+            encodedImage.close();
+            return null;
+          }
+        }).when(mInputProducer).produceResults(any(Consumer.class), any(ProducerContext.class));
+
+    mTileDecodeProducer.produceResults(mConsumer, mProducerContext);
+
+    CloseableTiledImage image = captureResult();
+    assertEquals(3, image.getTileCount());
+    verify(mSession).decodeRegion(new Rect(0, 0, 256, 200), 1, Bitmap.Config.ARGB_8888);
+    verify(mSession).decodeRegion(new Rect(512, 0, 700, 200), 1, Bitmap.Config.ARGB_8888);
+    verify(mSession, times(2))
+        .decodeRegion(any(Rect.class), anyInt(), any(Bitmap.Config.class));
+    verify(mSession).close();
+    assertEquals(3, mCachedTiles.size());
+
+    // the next request for the same region is served from the cache
+    Consumer<CloseableReference<CloseableImage>> consumer = mock(Consumer.class);
+    mTileDecodeProducer.produceResults(consumer, mProducerContext);
+    verify(mInputProducer).produceResults(any(Consumer.class), any(ProducerContext.class));
+    verify(consumer).onNewResult(any(CloseableReference.class), eq(true));
+  }
+
+  @Test
+  public void testBitmapMemoryCacheRequestLevel() {
+    cacheTile(0, new Rect(0, 0, 256, 200));
+    mProducerContext = new SettableProducerContext(
+        mProducerContext.getImageRequest(),
+        "id",
+        mProducerListener,
+        null,
+        ImageRequest.RequestLevel.BITMAP_MEMORY_CACHE,
+        false,
+        true,
+        Priority.MEDIUM);
+    when(mCacheKeyFactory.getEncodedCacheKey(mProducerContext.getImageRequest(), null))
+        .thenReturn(mImageCacheKey);
+
+    mTileDecodeProducer.produceResults(mConsumer, mProducerContext);
+
+    verify(mConsumer).onNewResult(null, true);
+    verifyZeroInteractions(mInputProducer);
+    // the tile found in the cache was released
+    assertEquals(1, mCachedTiles.get(new TileCacheKey(mImageCacheKey, 0, 0, 0))
+        .getUnderlyingReferenceTestOnly().getRefCountTestOnly());
+  }
+
+  private void cacheTile(int column, Rect rect) {
+    mCachedTiles.put(
+        new TileCacheKey(mImageCacheKey, 0, column, 0),
+        CloseableReference.<CloseableImage>of(
+            new CloseableTile(
+                CloseableReference.of(mock(Bitmap.class), mResourceReleaser),
+                rect)));
+  }
+
+  private CloseableTiledImage captureResult() {
+    ArgumentCaptor<CloseableReference> captor = ArgumentCaptor.forClass(CloseableReference.class);
+    verify(mConsumer).onNewResult(captor.capture(), eq(true));
+    return (CloseableTiledImage) captor.getValue().get();
+  }
+}
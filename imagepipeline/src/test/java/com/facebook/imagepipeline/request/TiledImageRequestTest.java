@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.request;
+
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.facebook.imagepipeline.common.ResizeOptions;
+
+import org.junit.*;
+import org.junit.runner.*;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class TiledImageRequestTest {
+
+  private static final Uri URI = Uri.parse("http://dummy.uri");
+
+  @Test
+  public void testLevelForZoom() {
+    assertEquals(0, TiledImageRequest.getLevelForZoom(2f));
+    assertEquals(0, TiledImageRequest.getLevelForZoom(1f));
+    assertEquals(0, TiledImageRequest.getLevelForZoom(0.6f));
+    assertEquals(1, TiledImageRequest.getLevelForZoom(0.5f));
+    assertEquals(1, TiledImageRequest.getLevelForZoom(0.3f));
+    assertEquals(2, TiledImageRequest.getLevelForZoom(0.25f));
+    assertEquals(6, TiledImageRequest.getLevelForZoom(0.01f));
+  }
+
+  @Test
+  public void testVisibleTiles() {
+    TiledImageRequest request = newRequest(new Rect(300, 600, 1100, 1024), 0.5f);
+    assertEquals(1, request.getLevel());
+    assertEquals(2, request.getSampleSize());
+    assertEquals(512, request.getTileSpan());
+    assertEquals(0, request.getFirstTileColumn());
+    assertEquals(2, request.getLastTileColumn());
+    assertEquals(1, request.getFirstTileRow());
+    assertEquals(1, request.getLastTileRow());
+  }
+
+  @Test
+  public void testTileRectIsClippedToTheImage() {
+    TiledImageRequest request = newRequest(new Rect(0, 0, 700, 400), 1f);
+    assertEquals(new Rect(0, 0, 256, 256), request.getTileRect(0, 0, 700, 400));
+    assertEquals(new Rect(512, 256, 700, 400), request.getTileRect(2, 1, 700, 400));
+    assertTrue(request.getTileRect(3, 0, 700, 400).isEmpty());
+  }
+
+  @Test
+  public void testDropsResizeOptions() {
+    ImageRequest imageRequest = ImageRequestBuilder.newBuilderWithSource(URI)
+        .setResizeOptions(new ResizeOptions(100, 100))
+        .build();
+    TiledImageRequest request =
+        TiledImageRequest.fromRequest(imageRequest, new Rect(0, 0, 10, 10), 1f);
+    assertNull(request.getResizeOptions());
+    assertEquals(URI, request.getSourceUri());
+  }
+
+  @Test
+  public void testEquals() {
+    assertEquals(
+        newRequest(new Rect(0, 0, 10, 10), 1f),
+        newRequest(new Rect(0, 0, 10, 10), 1f));
+    assertFalse(
+        newRequest(new Rect(0, 0, 10, 10), 1f)
+            .equals(newRequest(new Rect(0, 0, 20, 10), 1f)));
+    assertFalse(
+        newRequest(new Rect(0, 0, 10, 10), 1f)
+            .equals(newRequest(new Rect(0, 0, 10, 10), 0.5f)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyRegion() {
+    newRequest(new Rect(10, 10, 10, 20), 1f);
+  }
+
+  private static TiledImageRequest newRequest(Rect regionOfInterest, float zoom) {
+    return TiledImageRequest.fromRequest(ImageRequest.fromUri(URI), regionOfInterest, zoom);
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file provided by Facebook is for non-commercial testing and evaluation
+ * purposes only.  Facebook reserves all rights not expressly granted.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * FACEBOOK BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.facebook.samples.bitmapfactory;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.drawee.backends.pipeline.Fresco;
+import com.facebook.imagepipeline.bitmaps.AreaAveragingDownscaler;
+
+/**
+ * Compares the ways a PNG can be brought down to the size it is displayed at: a full decode, which
+ * leaves the scaling to the drawable, a decode with {@link BitmapFactory.Options#inSampleSize},
+ * which can only divide the size by powers of two, and a full decode followed by
+ * {@link AreaAveragingDownscaler}.
+ *
+ * <p>Not a real test, run it with the instrumentation tests of this sample and read the timings
+ * in logcat.
+ */
+public class DownscalingBenchmark extends InstrumentationTestCase {
+
+  private static final String TAG = "DownscalingBenchmark";
+  private static final int ITERATIONS = 20;
+  // the test image is 800x600
+  private static final int[][] TARGET_SIZES = new int[][] {{400, 300}, {300, 225}, {200, 150}};
+
+  private Resources mResources;
+  private AreaAveragingDownscaler mDownscaler;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mResources = getInstrumentation().getTargetContext().getResources();
+    mDownscaler =
+        new AreaAveragingDownscaler(Fresco.getImagePipelineFactory().getPlatformBitmapFactory());
+  }
+
+  public void testDownscaling() {
+    for (int round = 0; round < 2; round++) {
+      // the first round warms up the JIT
+      for (int[] targetSize : TARGET_SIZES) {
+        run(round > 0, targetSize[0], targetSize[1]);
+      }
+    }
+  }
+
+  private void run(boolean log, int width, int height) {
+    long fullDecodeMs = 0;
+    long sampledDecodeMs = 0;
+    long downscaleMs = 0;
+    int sampleSize = 1;
+    while (800 / (sampleSize * 2) >= width && 600 / (sampleSize * 2) >= height) {
+      sampleSize *= 2;
+    }
+    String sampledSize = null;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = SystemClock.uptimeMillis();
+      Bitmap bitmap = decode(1);
+      fullDecodeMs += SystemClock.uptimeMillis() - start;
+
+      start = SystemClock.uptimeMillis();
+      CloseableReference<Bitmap> downscaled = mDownscaler.downscale(bitmap, width, height);
+      downscaleMs += SystemClock.uptimeMillis() - start;
+      downscaled.close();
+      bitmap.recycle();
+
+      start = SystemClock.uptimeMillis();
+      Bitmap sampled = decode(sampleSize);
+      sampledDecodeMs += SystemClock.uptimeMillis() - start;
+      sampledSize = sampled.getWidth() + "x" + sampled.getHeight();
+      sampled.recycle();
+    }
+    if (log) {
+      Log.i(TAG, String.format(
+          "to %dx%d: full decode %d ms, inSampleSize %d decode %d ms (%s), " +
+              "full decode and downscale %d ms",
+          width,
+          height,
+          fullDecodeMs / ITERATIONS,
+          sampleSize,
+          sampledDecodeMs / ITERATIONS,
+          sampledSize,
+          (fullDecodeMs + downscaleMs) / ITERATIONS));
+    }
+  }
+
+  private Bitmap decode(int sampleSize) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inScaled = false;
+    options.inSampleSize = sampleSize;
+    return BitmapFactory.decodeResource(mResources, R.drawable.test_image, options);
+  }
+}
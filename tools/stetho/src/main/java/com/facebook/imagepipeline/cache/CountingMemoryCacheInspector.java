@@ -98,31 +98,35 @@ public class CountingMemoryCacheInspector<K, V> {
    * examining cache contents
    */
   public DumpInfo dumpCacheContent() {
-    synchronized (mCountingBitmapCache) {
-      DumpInfo<K, V> dumpInfo = new DumpInfo<>(
-          mCountingBitmapCache.getSizeInBytes(),
-          mCountingBitmapCache.getEvictionQueueSizeInBytes(),
-          mCountingBitmapCache.mMemoryCacheParams);
-
-      final List<LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>>> cachedEntries =
-          mCountingBitmapCache.mCachedEntries.getMatchingEntries(null);
-      for (LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>> cachedEntry : cachedEntries) {
-        CountingMemoryCache.Entry<K, V> entry = cachedEntry.getValue();
-        DumpInfoEntry<K, V> dumpEntry = new DumpInfoEntry<>(entry.key, entry.valueRef);
-        if (entry.clientCount > 0) {
-          dumpInfo.sharedEntries.add(dumpEntry);
-        } else {
-          dumpInfo.lruEntries.add(dumpEntry);
+    DumpInfo<K, V> dumpInfo = new DumpInfo<>(
+        mCountingBitmapCache.getSizeInBytes(),
+        mCountingBitmapCache.getEvictionQueueSizeInBytes(),
+        mCountingBitmapCache.mMemoryCacheParams);
+
+    for (CountingMemoryCache<K, V>.Segment segment : mCountingBitmapCache.mSegments) {
+      synchronized (segment) {
+        final List<LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>>> cachedEntries =
+            segment.mCachedEntries.getMatchingEntries(null);
+        for (LinkedHashMap.Entry<K, CountingMemoryCache.Entry<K, V>> cachedEntry : cachedEntries) {
+          CountingMemoryCache.Entry<K, V> entry = cachedEntry.getValue();
+          DumpInfoEntry<K, V> dumpEntry = new DumpInfoEntry<>(entry.key, entry.valueRef);
+          if (entry.clientCount > 0) {
+            dumpInfo.sharedEntries.add(dumpEntry);
+          } else {
+            dumpInfo.lruEntries.add(dumpEntry);
+          }
         }
       }
+    }
+
+    synchronized (mCountingBitmapCache) {
       for (Map.Entry<Bitmap, Object> entry
           : mCountingBitmapCache.mOtherEntries.entrySet()) {
         if (entry != null && !entry.getKey().isRecycled()) {
           dumpInfo.otherEntries.put(entry.getKey(), entry.getValue());
         }
       }
-
-      return dumpInfo;
     }
+    return dumpInfo;
   }
 }